@@ -0,0 +1,98 @@
+package org.bitcoincashj.core;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoincashj.params.MainNetParams;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays captured blocks, and the transactions in them as separate tx messages, through a
+ * {@link PeerSocketHandler} the way a connection feeds it: through a 64 KiB direct read buffer, which is compacted
+ * after each read. Run with {@code -prof gc} to see the garbage created per replay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InboundMessageBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    @Param({"block169482.dat", "block370661.dat", "block481815.dat"})
+    public String block;
+
+    @Param({"block", "tx"})
+    public String messages;
+
+    private byte[] stream;
+    private ByteBuffer readBuffer;
+    private Handler handler;
+
+    private static class Handler extends PeerSocketHandler {
+        private Blackhole blackhole;
+
+        Handler() {
+            super(PARAMS, new InetSocketAddress("127.0.0.1", PARAMS.getPort()));
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            blackhole.consume(m);
+        }
+
+        @Override
+        protected void timeoutOccurred() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        MessageSerializer serializer = PARAMS.getDefaultSerializer();
+        byte[] blockBytes = ByteStreams.toByteArray(InboundMessageBenchmark.class.getResourceAsStream(block));
+        Block captured = serializer.makeBlock(blockBytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (messages.equals("block")) {
+            serializer.serialize(captured, out);
+        } else {
+            for (Transaction tx : captured.getTransactions())
+                serializer.serialize(tx, out);
+        }
+        stream = out.toByteArray();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        handler = new Handler();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%d messages, %d payload bytes copied%n", handler.getMessagesReceived(),
+                handler.getPayloadBytesCopied());
+    }
+
+    @Benchmark
+    public void replay(Blackhole blackhole) {
+        handler.blackhole = blackhole;
+        int position = 0;
+        while (position < stream.length) {
+            int count = Math.min(readBuffer.remaining(), stream.length - position);
+            readBuffer.put(stream, position, count);
+            position += count;
+            readBuffer.flip();
+            if (handler.receiveBytes(readBuffer) < 0)
+                throw new IllegalStateException("Failed to parse");
+            readBuffer.compact();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compute the signature hash of every input of a large sweep transaction, which is what signing or verifying
+ * it costs apart from the elliptic curve operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransactionSigHashBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Param({"10", "100", "1000"})
+    public int inputs;
+
+    private byte[] txBytes;
+    private byte[] scriptCode;
+
+    @Setup
+    public void setUp() {
+        Address address = Address.fromKey(PARAMS, new ECKey());
+        scriptCode = ScriptBuilder.createOutputScript(address).getProgram();
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < inputs; i++)
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[107],
+                    new TransactionOutPoint(PARAMS, i, Sha256Hash.of(Utils.HEX.decode(String.format("%08x", i))))));
+        tx.addOutput(Coin.COIN, address);
+        txBytes = tx.bitcoinSerialize();
+    }
+
+    @Benchmark
+    public Sha256Hash hashAllInputs() {
+        // Start from a freshly parsed transaction every time, so that nothing is cached between invocations.
+        Transaction tx = PARAMS.getDefaultSerializer().makeTransaction(txBytes);
+        Sha256Hash hash = null;
+        for (int i = 0; i < inputs; i++)
+            hash = tx.hashForSignatureWitness(i, scriptCode, Coin.COIN, Transaction.SigHash.ALL, false);
+        return hash;
+    }
+}
@@ -0,0 +1,75 @@
+package org.bitcoincashj.crypto;
+
+import org.bitcoincashj.core.Sha256Hash;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import static org.bitcoincashj.crypto.SchnorrSignature.*;
+
+/**
+ * Schnorr signing and verification throughput, against verification with the affine {@link BigInteger} point
+ * arithmetic that {@link SchnorrSignature} used to be built on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SchnorrSignatureBenchmark {
+    private BigInteger seckey;
+    private byte[] pubkey;
+    private byte[] msg;
+    private byte[] sig;
+    private byte[][] batchPubkeys = new byte[BATCH_SIZE][];
+    private byte[][] batchMsgs = new byte[BATCH_SIZE][];
+    private byte[][] batchSigs = new byte[BATCH_SIZE][];
+
+    private static final int BATCH_SIZE = 64;
+
+    @Setup
+    public void setUp() {
+        seckey = toBigInteger(Sha256Hash.hash("seckey".getBytes())).mod(n);
+        pubkey = bytes_from_point(point_mul(G, seckey));
+        msg = Sha256Hash.hash("message".getBytes());
+        sig = schnorr_sign(msg, seckey);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            BigInteger key = toBigInteger(Sha256Hash.hash(new byte[]{(byte) i})).mod(n);
+            batchPubkeys[i] = bytes_from_point(point_mul(G, key));
+            batchMsgs[i] = Sha256Hash.hash(batchPubkeys[i]);
+            batchSigs[i] = schnorr_sign(batchMsgs[i], key);
+        }
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return schnorr_sign(msg, seckey);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return schnorr_verify(msg, pubkey, sig);
+    }
+
+    /** Verifies {@value #BATCH_SIZE} signatures per operation. */
+    @Benchmark
+    public boolean verifyBatch() {
+        SchnorrBatchVerifier batch = new SchnorrBatchVerifier();
+        for (int i = 0; i < BATCH_SIZE; i++)
+            batch.add(batchMsgs[i], batchPubkeys[i], batchSigs[i]);
+        return batch.verify();
+    }
+
+    @Benchmark
+    public boolean verifyAffine() {
+        BigInteger[] P = point_from_bytes(pubkey);
+        BigInteger r = toBigInteger(sig, 0, 32);
+        BigInteger s = toBigInteger(sig, 32, 32);
+        byte[] eData = new byte[32 + 33 + 32];
+        System.arraycopy(sig, 0, eData, 0, 32);
+        System.arraycopy(pubkey, 0, eData, 32, 33);
+        System.arraycopy(msg, 0, eData, 65, 32);
+        BigInteger e = toBigInteger(Sha256Hash.hash(eData)).mod(n);
+        BigInteger[] R = point_add(point_mul(G, s), point_mul(P, n.subtract(e)));
+        return R != null && BigInteger.ONE.compareTo(jacobi(R[1])) == 0 && r.compareTo(R[0]) == 0;
+    }
+}
@@ -0,0 +1,149 @@
+package org.bitcoincashj.net;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.MainNetParams;
+import org.bitcoincashj.utils.ContextPropagatingThreadFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * How fast connections to a local {@link NioServer} get through messages, with all connections on one selector thread
+ * or spread over several, and with messages processed on the selector threads or handed to a worker pool. Each
+ * operation has the server send a batch of 100 transactions down every connection, and completes once each client has
+ * parsed and processed all of them. Processing a message burns a configurable amount of CPU, standing in for
+ * listeners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClientManagerBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final int MESSAGES_PER_BATCH = 100;
+
+    @Param({"64"})
+    public int connections;
+
+    @Param({"1", "4"})
+    public int selectors;
+
+    @Param({"false", "true"})
+    public boolean handoff;
+
+    @Param({"500"})
+    public long listenerWork;
+
+    private NioServer server;
+    private MultiSelectorClientManager manager;
+    private ExecutorService workers;
+    private final List<MessageWriteTarget> serverTargets = new CopyOnWriteArrayList<>();
+    private final Semaphore processed = new Semaphore(0);
+    private SerializedMessage batch;
+
+    private class Client extends PeerSocketHandler {
+        Client(InetSocketAddress address) {
+            super(PARAMS, address);
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            Blackhole.consumeCPU(listenerWork);
+            processed.release();
+        }
+
+        @Override
+        protected void timeoutOccurred() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        server = new NioServer(new StreamConnectionFactory() {
+            @Override
+            public StreamConnection getNewConnection(InetAddress inetAddress, int port) {
+                return new StreamConnection() {
+                    @Override
+                    public void connectionClosed() {
+                    }
+
+                    @Override
+                    public void connectionOpened() {
+                    }
+
+                    @Override
+                    public int receiveBytes(ByteBuffer buff) {
+                        return buff.remaining();
+                    }
+
+                    @Override
+                    public void setWriteTarget(MessageWriteTarget writeTarget) {
+                        serverTargets.add(writeTarget);
+                    }
+
+                    @Override
+                    public int getMaxMessageSize() {
+                        return Message.MAX_SIZE;
+                    }
+                };
+            }
+        }, address);
+        server.startAsync().awaitRunning();
+
+        if (handoff)
+            workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ContextPropagatingThreadFactory("message worker"));
+        manager = new MultiSelectorClientManager(selectors, workers);
+        manager.startAsync().awaitRunning();
+        for (int i = 0; i < connections; i++)
+            manager.openConnection(address, new Client(address)).get(10, TimeUnit.SECONDS);
+        while (serverTargets.size() < connections)
+            Thread.sleep(10);
+
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < 2; i++) {
+            TransactionOutPoint outPoint = new TransactionOutPoint(PARAMS, i, Sha256Hash.of(new byte[] { (byte) i }));
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[107], outPoint));
+            tx.addOutput(Coin.CENT, Address.fromKey(PARAMS, new ECKey()));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES_PER_BATCH; i++)
+            PARAMS.getDefaultSerializer().serialize(tx, out);
+        batch = SerializedMessage.wrap(out.toByteArray());
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.stopAsync().awaitTerminated();
+        server.stopAsync().awaitTerminated();
+        if (workers != null)
+            workers.shutdown();
+    }
+
+    @Benchmark
+    public void receiveBatch() throws Exception {
+        for (MessageWriteTarget target : serverTargets)
+            batch.writeTo(target);
+        processed.acquire(connections * MESSAGES_PER_BATCH);
+    }
+}
@@ -0,0 +1,65 @@
+package org.bitcoincashj.net;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.MainNetParams;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing a transaction for sending to a number of peers: the way every message used to be sent, serializing into
+ * a stream and copying the bytes into a new buffer for each peer, against serializing once into a pooled direct
+ * buffer that all peers write from. Run with {@code -prof gc} to see the garbage each creates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OutboundMessageBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    @Param({"1", "8", "32"})
+    public int peers;
+
+    private MessageSerializer serializer;
+    private Transaction tx;
+
+    @Setup
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        serializer = PARAMS.getDefaultSerializer();
+        tx = new Transaction(PARAMS);
+        for (int i = 0; i < 2; i++) {
+            TransactionOutPoint outPoint = new TransactionOutPoint(PARAMS, i, Sha256Hash.of(new byte[] { (byte) i }));
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[107], outPoint));
+            tx.addOutput(Coin.CENT, Address.fromKey(PARAMS, new ECKey()));
+        }
+        tx.getTxId();
+    }
+
+    @Benchmark
+    public void serializePerPeer(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < peers; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.serialize(tx, out);
+            byte[] message = out.toByteArray();
+            blackhole.consume(ByteBuffer.wrap(Arrays.copyOf(message, message.length)));
+        }
+    }
+
+    @Benchmark
+    public void sharedBuffer(Blackhole blackhole) {
+        SerializedMessage serialized = serializer.serializeToBuffer(tx);
+        for (int i = 0; i < peers; i++) {
+            // As each connection does: take a reference and a view, write, then let go.
+            serialized.retain();
+            blackhole.consume(serialized.buffer());
+            serialized.release();
+        }
+        serialized.release();
+    }
+}
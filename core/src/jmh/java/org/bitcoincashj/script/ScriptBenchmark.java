@@ -0,0 +1,81 @@
+package org.bitcoincashj.script;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.crypto.TransactionSignature;
+import org.bitcoincashj.params.UnitTestParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verification of one input of a standard spend through the template fast path against the full interpreter, which
+ * copies the whole transaction for every input it checks. The signature cache is warmed up front, so that what is
+ * measured is the script handling rather than the elliptic curve operations, which cost the same either way; multisig
+ * doesn't use the cache, so there the difference is mostly lost in the noise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScriptBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final Coin VALUE = Coin.COIN;
+
+    /** Total number of inputs of the transaction, all but two of them just padding. */
+    @Param({"2", "100", "1000"})
+    public int inputs;
+
+    private Transaction tx;
+    private Script p2pkh;
+    private Script p2pkhScriptSig;
+    private Script p2sh;
+    private Script p2shScriptSig;
+
+    @Setup
+    public void setUp() {
+        ECKey key1 = new ECKey(), key2 = new ECKey(), key3 = new ECKey();
+        p2pkh = ScriptBuilder.createOutputScript(Address.fromKey(PARAMS, key1));
+        Script multiSig = ScriptBuilder.createMultiSigOutputScript(2, ImmutableList.of(key1, key2, key3));
+        p2sh = ScriptBuilder.createP2SHOutputScript(multiSig);
+
+        tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[]{},
+                new TransactionOutPoint(PARAMS, 0, Sha256Hash.of(new byte[]{0})), VALUE));
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[]{},
+                new TransactionOutPoint(PARAMS, 1, Sha256Hash.of(new byte[]{1})), VALUE));
+        for (int i = 2; i < inputs; i++)
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[107],
+                    new TransactionOutPoint(PARAMS, i, Sha256Hash.of(new byte[]{(byte) i, (byte) (i >> 8)})), VALUE));
+        tx.addOutput(Coin.CENT, Address.fromKey(PARAMS, key3));
+        TransactionSignature sig = tx.calculateWitnessSignature(0, key1, p2pkh, VALUE, Transaction.SigHash.ALL, false);
+        p2pkhScriptSig = ScriptBuilder.createInputScript(sig, key1);
+        TransactionSignature sig1 = tx.calculateWitnessSignature(1, key1, multiSig, VALUE, Transaction.SigHash.ALL, false);
+        TransactionSignature sig2 = tx.calculateWitnessSignature(1, key2, multiSig, VALUE, Transaction.SigHash.ALL, false);
+        p2shScriptSig = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(sig1, sig2), multiSig);
+        tx.getInput(0).setScriptSig(p2pkhScriptSig);
+        tx.getInput(1).setScriptSig(p2shScriptSig);
+
+        Script.setSignatureCache(new SignatureCache());
+        p2pkhScriptSig.correctlySpends(tx, 0, p2pkh, VALUE, Script.ALL_VERIFY_FLAGS);
+    }
+
+    @Benchmark
+    public void p2pkhFastPath() {
+        p2pkhScriptSig.correctlySpends(tx, 0, p2pkh, VALUE, Script.ALL_VERIFY_FLAGS);
+    }
+
+    @Benchmark
+    public void p2pkhInterpreter() {
+        p2pkhScriptSig.correctlySpendsInterpreted(tx, 0, p2pkh, VALUE, Script.ALL_VERIFY_FLAGS, null);
+    }
+
+    @Benchmark
+    public void p2shMultiSigFastPath() {
+        p2shScriptSig.correctlySpends(tx, 1, p2sh, VALUE, Script.ALL_VERIFY_FLAGS);
+    }
+
+    @Benchmark
+    public void p2shMultiSigInterpreter() {
+        p2shScriptSig.correctlySpendsInterpreted(tx, 1, p2sh, VALUE, Script.ALL_VERIFY_FLAGS, null);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the output changes of a block to an embedded H2 {@link H2FullPrunedBlockStore}: each "block" spends the
+ * outputs the previous one created and creates as many new ones. With batch writes, as {@link FullPrunedBlockChain}
+ * does, the changes are sent as JDBC batches in one transaction; without, every change is a statement of its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class H2FullPrunedBlockStoreBenchmark {
+    private static final int OUTPUTS_PER_BLOCK = 1000;
+
+    @Param({"true", "false"})
+    public boolean batchWrite;
+
+    private File dir;
+    private H2FullPrunedBlockStore store;
+    private Script script;
+    private UTXO[] previous;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Context.propagate(new Context(params));
+        dir = File.createTempFile("h2store-benchmark", null);
+        dir.delete();
+        dir.mkdir();
+        store = new H2FullPrunedBlockStore(params, new File(dir, "benchmark").getAbsolutePath(), 10);
+        script = ScriptBuilder.createP2PKHOutputScript(new ECKey());
+        previous = newOutputs();
+        for (UTXO out : previous)
+            store.addUnspentTransactionOutput(out);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private UTXO[] newOutputs() {
+        height++;
+        UTXO[] outputs = new UTXO[OUTPUTS_PER_BLOCK];
+        for (int i = 0; i < OUTPUTS_PER_BLOCK; i++) {
+            Sha256Hash hash = Sha256Hash.of(Utils.HEX.decode(String.format("%08x%08x", height, i)));
+            outputs[i] = new UTXO(hash, 0, Coin.valueOf(i + 1), height, false, script, "");
+        }
+        return outputs;
+    }
+
+    @Benchmark
+    public void connectBlock() throws BlockStoreException {
+        UTXO[] created = newOutputs();
+        if (batchWrite)
+            store.beginDatabaseBatchWrite();
+        for (int i = 0; i < OUTPUTS_PER_BLOCK; i++) {
+            UTXO spent = store.getTransactionOutput(previous[i].getHash(), previous[i].getIndex());
+            store.removeUnspentTransactionOutput(spent);
+            store.addUnspentTransactionOutput(created[i]);
+        }
+        if (batchWrite)
+            store.commitDatabaseBatchWrite();
+        previous = created;
+    }
+}
@@ -0,0 +1,85 @@
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SPVBlockStore} with {@link ConcurrentSPVBlockStore} under a mixed load of three readers looking up
+ * random stored headers and one writer appending headers, as during header sync with concurrent wallet lookups.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SPVBlockStoreBenchmark {
+    private static final int STORED_BLOCKS = 5000;
+    private static final int WRITTEN_BLOCKS = 1000;
+
+    @Param({"locked", "concurrent"})
+    public String store;
+
+    private File file;
+    private SPVBlockStore blockStore;
+    private Sha256Hash[] storedHashes;
+    private StoredBlock[] blocksToWrite;
+    private int writeIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Context.propagate(new Context(params));
+        file = File.createTempFile("spvblockstore-benchmark", null);
+        file.delete();
+        blockStore = store.equals("concurrent") ? new ConcurrentSPVBlockStore(params, file)
+                : new SPVBlockStore(params, file);
+
+        storedHashes = new Sha256Hash[STORED_BLOCKS];
+        for (int i = 0; i < STORED_BLOCKS; i++) {
+            StoredBlock block = newBlock(params, i);
+            blockStore.put(block);
+            storedHashes[i] = block.getHeader().getHash();
+        }
+        blocksToWrite = new StoredBlock[WRITTEN_BLOCKS];
+        for (int i = 0; i < WRITTEN_BLOCKS; i++)
+            blocksToWrite[i] = newBlock(params, STORED_BLOCKS + i);
+    }
+
+    private static StoredBlock newBlock(NetworkParameters params, int nonce) {
+        Block block = new Block(params, 0, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 0, 0, nonce,
+                Collections.<Transaction>emptyList());
+        return new StoredBlock(block, BigInteger.ZERO, nonce);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        blockStore.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public StoredBlock read() throws BlockStoreException {
+        return blockStore.get(storedHashes[ThreadLocalRandom.current().nextInt(STORED_BLOCKS)]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void write() throws BlockStoreException {
+        blockStore.put(blocksToWrite[writeIndex++ % WRITTEN_BLOCKS]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public StoredBlock chainHead() throws BlockStoreException {
+        return blockStore.getChainHead();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up random outputs of a set of P2PKH outputs kept by {@link MemoryFullPrunedBlockStore} on the heap, or by
+ * {@link OffHeapFullPrunedBlockStore} outside of it, and prints the memory each output takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UTXOStoreBenchmark {
+    private static final int OUTPUTS = 500000;
+
+    @Param({"memory", "offheap"})
+    public String store;
+
+    private FullPrunedBlockStore blockStore;
+    private Sha256Hash[] hashes;
+    private long bytesPerOutput;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Context.propagate(new Context(params));
+        Random random = new Random(1);
+        hashes = new Sha256Hash[OUTPUTS];
+        for (int i = 0; i < OUTPUTS; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            hashes[i] = Sha256Hash.wrap(hash);
+        }
+
+        long heapBefore = usedHeap();
+        blockStore = store.equals("offheap") ? new OffHeapFullPrunedBlockStore(params, 10)
+                : new MemoryFullPrunedBlockStore(params, 10);
+        for (int i = 0; i < OUTPUTS; i++) {
+            byte[] hash160 = new byte[20];
+            random.nextBytes(hash160);
+            Script script = new Script(ScriptBuilder.createP2PKHOutputScript(hash160).getProgram());
+            blockStore.addUnspentTransactionOutput(new UTXO(hashes[i], 0, Coin.valueOf(random.nextInt(Integer.MAX_VALUE)),
+                    600000 + i / 2000, false, script, script.getToAddress(params, true).toString()));
+        }
+        long bytes = usedHeap() - heapBefore;
+        if (blockStore instanceof OffHeapFullPrunedBlockStore)
+            bytes += ((OffHeapFullPrunedBlockStore) blockStore).getUnspentOutputBytes();
+        bytesPerOutput = bytes / OUTPUTS;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.printf("%n%s: about %d bytes per output%n", store, bytesPerOutput);
+        blockStore.close();
+    }
+
+    @Benchmark
+    public UTXO getTransactionOutput() throws BlockStoreException {
+        return blockStore.getTransactionOutput(hashes[ThreadLocalRandom.current().nextInt(OUTPUTS)], 0);
+    }
+
+    @Benchmark
+    public boolean hasUnspentOutputs() throws BlockStoreException {
+        return blockStore.hasUnspentOutputs(hashes[ThreadLocalRandom.current().nextInt(OUTPUTS)], 1);
+    }
+}
@@ -0,0 +1,62 @@
+package org.bitcoincashj.wallet;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.store.MemoryBlockStore;
+import org.bitcoincashj.testing.FakeTxBuilder;
+import org.bitcoincashj.wallet.selector.DefaultCoinSelector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the coins for a small payment, and listing the dust, in a wallet with many unspent outputs, one in ten of
+ * them dust, as a merchant wallet collecting lots of payments and tokens would have.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoinSelectionBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int ADDRESSES = 100;
+
+    @Param({"100", "1000", "10000"})
+    public int utxos;
+
+    private Wallet wallet;
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS, 100, Coin.ZERO, false));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < ADDRESSES; i++)
+            addresses.add(wallet.freshReceiveAddress());
+        Transaction tx = FakeTxBuilder.createFakeTx(PARAMS, Coin.CENT, addresses.get(0));
+        // Outputs of one transaction that only differ by index share a hash code, so vary the value or address.
+        for (int i = 1; i < utxos; i++) {
+            Address address = addresses.get(i % ADDRESSES);
+            if (i % 10 == 0)
+                tx.addOutput(Coin.valueOf(UnspentOutputIndex.DUST_VALUE), address);
+            else
+                tx.addOutput(Coin.CENT.add(Coin.valueOf(i)), address);
+        }
+        FakeTxBuilder.BlockPair bp = FakeTxBuilder.createFakeBlock(new MemoryBlockStore(PARAMS),
+                Block.BLOCK_HEIGHT_GENESIS, tx);
+        wallet.receiveFromBlock(tx, bp.storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        wallet.notifyNewBestBlock(bp.storedBlock);
+    }
+
+    @Benchmark
+    public CoinSelection selectForPayment() {
+        return DefaultCoinSelector.get().select(Coin.COIN, wallet.calculateAllSpendCandidates(true, false));
+    }
+
+    @Benchmark
+    public List<TransactionOutput> listDust() {
+        return wallet.getAllDustUtxos(true, false);
+    }
+}
@@ -0,0 +1,111 @@
+package org.bitcoincashj.wallet;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.wallet.selector.BranchAndBoundCoinSelector;
+import org.bitcoincashj.wallet.selector.CoinSelector;
+import org.bitcoincashj.wallet.selector.DefaultCoinSelector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of selecting coins for payments of up to one coin from large synthetic sets of outputs, with the greedy
+ * {@link DefaultCoinSelector} and with {@link BranchAndBoundCoinSelector}. Values are either uniform, or skewed towards
+ * small ones as in a wallet receiving many small payments. Candidates are passed largest first, as the wallet lists
+ * them. The estimated size of the resulting transactions is printed at the end of each trial, also counting the input
+ * that will spend any change output, as avoiding change is what makes a selection cheaper in the long run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CoinSelectorBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int OUTPUTS_PER_TRANSACTION = 1000;
+    private static final int TARGETS = 64;
+    // Rough sizes of a P2PKH input and output, and of the rest of a transaction.
+    private static final int INPUT_BYTES = 148, OUTPUT_BYTES = 34, OVERHEAD_BYTES = 10;
+
+    @Param({"10000", "100000", "1000000"})
+    public int utxos;
+
+    @Param({"uniform", "skewed"})
+    public String distribution;
+
+    @Param({"greedy", "bnb"})
+    public String selector;
+
+    private CoinSelector coinSelector;
+    private List<TransactionOutput> candidates;
+    private Coin[] targets;
+    private int next;
+    private long inputs, outputs, selections;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Context.propagate(new Context(PARAMS));
+        coinSelector = selector.equals("bnb") ? new BranchAndBoundCoinSelector() : DefaultCoinSelector.get();
+        Random random = new Random(1);
+        Address address = Address.fromKey(PARAMS, new ECKey());
+        candidates = new ArrayList<>(utxos);
+        Transaction tx = null;
+        for (int i = 0; i < utxos; i++) {
+            if (i % OUTPUTS_PER_TRANSACTION == 0) {
+                if (tx != null)
+                    confirm(tx, random);
+                tx = new Transaction(PARAMS);
+            }
+            candidates.add(tx.addOutput(Coin.valueOf(randomValue(random)), address));
+        }
+        confirm(tx, random);
+        // The wallet lists candidates largest first.
+        UnspentOutputIndex sorted = new UnspentOutputIndex();
+        sorted.addAll(candidates);
+        candidates = new ArrayList<>(utxos);
+        for (TransactionOutput output : sorted.getNonDust())
+            candidates.add(output);
+        for (TransactionOutput output : sorted.getDust())
+            candidates.add(output);
+
+        targets = new Coin[TARGETS];
+        for (int i = 0; i < TARGETS; i++)
+            targets[i] = Coin.valueOf(100000 + (long) (random.nextDouble() * (Coin.COIN.value - 100000)));
+    }
+
+    private long randomValue(Random random) {
+        if (distribution.equals("uniform"))
+            return 1000 + (long) (random.nextDouble() * Coin.COIN.value);
+        // Log-normal around 0.001 coins.
+        return 1000 + (long) Math.exp(Math.log(100000) + 2 * random.nextGaussian());
+    }
+
+    private static void confirm(Transaction tx, Random random) {
+        tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+        tx.getConfidence().setDepthInBlocks(1 + random.nextInt(1000));
+    }
+
+    @TearDown(Level.Trial)
+    public void printSizes() {
+        long bytes = (INPUT_BYTES * inputs + OUTPUT_BYTES * outputs) / selections + OVERHEAD_BYTES;
+        // Each change output takes another input to spend later on.
+        long changeInputBytes = INPUT_BYTES * (outputs - selections) / selections;
+        System.out.printf("%n%s, %s, %d outputs: %.1f inputs, %.2f outputs, about %d bytes per transaction, %d counting" +
+                        " the spending of change%n", selector, distribution, utxos, (double) inputs / selections,
+                (double) outputs / selections, bytes, bytes + changeInputBytes);
+    }
+
+    @Benchmark
+    public CoinSelection select() {
+        Coin target = targets[next++ % TARGETS];
+        CoinSelection selection = coinSelector.select(target, candidates);
+        Coin change = selection.valueGathered.subtract(target);
+        inputs += selection.gathered.size();
+        outputs += change.isLessThan(Transaction.MIN_NONDUST_OUTPUT) ? 1 : 2;
+        selections++;
+        return selection;
+    }
+}
@@ -0,0 +1,52 @@
+package org.bitcoincashj.wallet;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.store.MemoryBlockStore;
+import org.bitcoincashj.testing.FakeTxBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the balance of a wallet with many unspent outputs, as a UI polling it does, against recalculating it from
+ * the outputs every time, which is what each read cost before balances were cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WalletBalanceBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Param({"10", "1000", "10000"})
+    public int utxos;
+
+    private Wallet wallet;
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS, 100, Coin.ZERO, false));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        Address address = wallet.freshReceiveAddress();
+        Transaction tx = FakeTxBuilder.createFakeTx(PARAMS, Coin.CENT, address);
+        // Distinct values, as outputs of one transaction that only differ by index all share a hash code.
+        for (int i = 1; i < utxos; i++)
+            tx.addOutput(Coin.CENT.add(Coin.valueOf(i)), address);
+        FakeTxBuilder.BlockPair bp = FakeTxBuilder.createFakeBlock(new MemoryBlockStore(PARAMS),
+                Block.BLOCK_HEIGHT_GENESIS, tx);
+        wallet.receiveFromBlock(tx, bp.storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        wallet.notifyNewBestBlock(bp.storedBlock);
+    }
+
+    @Benchmark
+    public Coin cachedBalance() {
+        return wallet.getBalance(Wallet.BalanceType.AVAILABLE);
+    }
+
+    @Benchmark
+    public Coin recalculatedBalance() {
+        wallet.invalidateCachedBalances();
+        return wallet.getBalance(Wallet.BalanceType.AVAILABLE);
+    }
+}
@@ -0,0 +1,88 @@
+package org.bitcoincashj.wallet;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.store.BlockStore;
+import org.bitcoincashj.store.MemoryBlockStore;
+import org.bitcoincashj.testing.FakeTxBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of threads querying a wallet while another thread feeds it new blocks back to back, as an API server
+ * answering requests whilst the chain syncs would. Each block makes the wallet update the depth of all of its
+ * transactions. The number of blocks the writer managed is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class WalletReadBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Param({"100", "1000"})
+    public int transactions;
+
+    private Wallet wallet;
+    private byte[] pubKeyHash;
+    private Thread writer;
+    private final AtomicBoolean stop = new AtomicBoolean();
+    private final AtomicLong blocks = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Context context = new Context(PARAMS, 100, Coin.ZERO, false);
+        Context.propagate(context);
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        Address address = wallet.freshReceiveAddress();
+        pubKeyHash = address.getHash160();
+        final BlockStore blockStore = new MemoryBlockStore(PARAMS);
+        for (int i = 0; i < transactions; i++) {
+            Transaction tx = FakeTxBuilder.createFakeTx(PARAMS, Coin.CENT.add(Coin.valueOf(i)), address);
+            FakeTxBuilder.BlockPair bp = FakeTxBuilder.createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS, tx);
+            wallet.receiveFromBlock(tx, bp.storedBlock, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+            wallet.notifyNewBestBlock(bp.storedBlock);
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Context.propagate(context);
+                while (!stop.get()) {
+                    FakeTxBuilder.BlockPair bp = FakeTxBuilder.createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS);
+                    wallet.notifyNewBestBlock(bp.storedBlock);
+                    blocks.incrementAndGet();
+                }
+            }
+        }, "block writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        stop.set(true);
+        writer.join();
+        System.out.printf("%n%d blocks received during the trial%n", blocks.get());
+    }
+
+    @Benchmark
+    public Set<Transaction> getTransactions() {
+        return wallet.getTransactions(true);
+    }
+
+    @Benchmark
+    public List<TransactionOutput> calculateAllSpendCandidates() {
+        return wallet.calculateAllSpendCandidates(true, true);
+    }
+
+    @Benchmark
+    public boolean isPubKeyHashMine() {
+        return wallet.isPubKeyHashMine(pubKeyHash, Script.ScriptType.P2PKH);
+    }
+}
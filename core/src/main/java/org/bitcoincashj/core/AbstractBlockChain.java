@@ -824,7 +824,7 @@ public abstract class AbstractBlockChain {
         long[] timestamps = new long[11];
         int unused = 9;
         timestamps[10] = storedBlock.getHeader().getTimeSeconds();
-        while (unused >= 0 && (storedBlock = storedBlock.getPrev(store)) != null)
+        while (unused >= 0 && (storedBlock = storedBlock.getAncestor(store, storedBlock.getHeight() - 1)) != null)
             timestamps[unused--] = storedBlock.getHeader().getTimeSeconds();
 
         Arrays.sort(timestamps, unused + 1, 11);
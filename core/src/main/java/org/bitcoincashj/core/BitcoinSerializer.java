@@ -17,6 +17,8 @@
 
 package org.bitcoincashj.core;
 
+import org.bitcoincashj.net.ByteBufferPool;
+import org.bitcoincashj.net.SerializedMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +26,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -148,6 +152,35 @@ public class BitcoinSerializer extends MessageSerializer {
         serialize(name, message.bitcoinSerialize(), out);
     }
 
+    /**
+     * Serializes the message straight into a pooled direct buffer, as sending it to a socket from there needs no more
+     * copies. The checksum of a transaction is the start of its id, so transactions that know their id aren't hashed
+     * again.
+     */
+    @Override
+    public SerializedMessage serializeToBuffer(Message message) {
+        String name = names.get(message.getClass());
+        if (name == null) {
+            throw new Error("BitcoinSerializer doesn't currently know how to serialize " + message.getClass());
+        }
+        byte[] payload = message.unsafeBitcoinSerialize();
+        byte[] checksum = message instanceof Transaction ? ((Transaction) message).getTxId().getReversedBytes()
+                : Sha256Hash.hashTwice(payload);
+        ByteBufferPool pool = ByteBufferPool.get();
+        ByteBuffer buffer = pool.acquire(4 + BitcoinPacketHeader.HEADER_LENGTH + payload.length);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt((int) params.getPacketMagic());
+        for (int i = 0; i < COMMAND_LEN; i++)
+            buffer.put(i < name.length() ? (byte) (name.codePointAt(i) & 0xFF) : 0);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(payload.length);
+        buffer.put(checksum, 0, 4);
+        buffer.put(payload);
+        buffer.flip();
+
+        if (log.isDebugEnabled())
+            log.debug("Sending {} message: {}", name, HEX.encode(payload));
+        return new SerializedMessage(buffer, pool);
+    }
+
     /**
      * Reads a message from the given ByteBuffer and returns it.
      */
@@ -194,22 +227,42 @@ public class BitcoinSerializer extends MessageSerializer {
         // Verify the checksum.
         byte[] hash;
         hash = Sha256Hash.hashTwice(payloadBytes);
+        verifyChecksum(header, hash);
+        return deserializePayload(header, payloadBytes, 0, hash);
+    }
+
+    /**
+     * Throws a ProtocolException unless the checksum in the header matches the given double SHA256 of the payload.
+     */
+    public static void verifyChecksum(BitcoinPacketHeader header, byte[] hash) throws ProtocolException {
         if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
                 header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
             throw new ProtocolException("Checksum failed to verify, actual " +
                     HEX.encode(hash) +
                     " vs " + HEX.encode(header.checksum));
         }
+    }
 
+    @Override
+    public Message deserializePayload(BitcoinPacketHeader header, byte[] payload, int offset, byte[] hash) throws ProtocolException {
         if (log.isDebugEnabled()) {
             log.debug("Received {} byte '{}' message: {}", header.size, header.command,
-                    HEX.encode(payloadBytes));
+                    HEX.encode(payload, offset, header.size));
         }
 
         try {
+            byte[] payloadBytes = payload;
+            if (offset != 0 || payload.length != header.size) {
+                // Only blocks and transactions can be parsed from part of an array.
+                if (header.command.equals("block"))
+                    return makeBlock(payload, offset, header.size);
+                else if (header.command.equals("tx"))
+                    return makeTransaction(payload, offset, header.size, hash);
+                payloadBytes = Arrays.copyOfRange(payload, offset, offset + header.size);
+            }
             return makeMessage(header.command, header.size, payloadBytes, hash, header.checksum);
         } catch (Exception e) {
-            throw new ProtocolException("Error deserializing message " + HEX.encode(payloadBytes) + "\n", e);
+            throw new ProtocolException("Error deserializing message " + HEX.encode(payload, offset, header.size) + "\n", e);
         }
     }
 
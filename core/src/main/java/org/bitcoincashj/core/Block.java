@@ -241,7 +241,7 @@ public class Block extends Message {
     protected void parseTransactions(final int transactionsOffset) throws ProtocolException {
         cursor = transactionsOffset;
         optimalEncodingMessageSize = HEADER_SIZE;
-        if (payload.length == cursor) {
+        if (cursor == (length == UNKNOWN_LENGTH ? payload.length : offset + length)) {
             // This message is just a header, it has no transactions.
             transactionBytesValid = false;
             return;
@@ -16,6 +16,8 @@
 
 package org.bitcoincashj.core;
 
+import org.bitcoincashj.net.SerializedMessage;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
@@ -58,6 +60,12 @@ class DummySerializer extends MessageSerializer {
         throw new UnsupportedOperationException(DEFAULT_EXCEPTION_MESSAGE);
     }
 
+    @Override
+    public Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, byte[] payload, int offset,
+                                      byte[] hash) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(DEFAULT_EXCEPTION_MESSAGE);
+    }
+
     @Override
     public boolean isParseRetainMode() {
         return false;
@@ -108,4 +116,9 @@ class DummySerializer extends MessageSerializer {
         throw new UnsupportedOperationException(DEFAULT_EXCEPTION_MESSAGE);
     }
 
+    @Override
+    public SerializedMessage serializeToBuffer(Message message) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(DEFAULT_EXCEPTION_MESSAGE);
+    }
+
 }
@@ -17,6 +17,7 @@
 
 package org.bitcoincashj.core;
 
+import org.bitcoincashj.crypto.SchnorrBatchVerifier;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.script.Script.VerifyFlag;
 import org.bitcoincashj.script.ScriptPattern;
@@ -29,10 +30,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -53,6 +56,16 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
     // Whether or not to execute scriptPubKeys before accepting a transaction (i.e. check signatures).
     private boolean runScripts = true;
+    private boolean batchVerifySignatures = true;
+
+    // Looks up the outputs spent by blocks from the store, if set. See setPrefetchThreads().
+    @GuardedBy("lock") @Nullable private ExecutorService prefetchExecutor;
+    @GuardedBy("lock") private int maxPrefetchedBlocks = 2;
+    // The prefetches started by prefetchOutputs() for blocks not connected yet, oldest first.
+    @GuardedBy("lock") private final LinkedHashMap<Sha256Hash, OutputPrefetch> prefetches = new LinkedHashMap<>();
+    // Set once a block has been disconnected in the batch write in progress. Lookups made by other threads don't see
+    // the outputs it removed as removed until the batch is committed, so prefetching is off until then.
+    @GuardedBy("lock") private boolean disconnectedSinceCommit;
 
     /**
      * Constructs a block chain connected to the given wallet and store. To obtain a {@link Wallet} you can construct
@@ -142,6 +155,208 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         this.runScripts = value;
     }
 
+    /**
+     * Whether or not to verify the Schnorr signatures checked by OP_CHECKSIG and OP_CHECKDATASIG of a block together
+     * in one batch, rather than one at a time. This gives the same result and is much faster, so it is the default.
+     */
+    public void setBatchVerifySignatures(boolean value) {
+        this.batchVerifySignatures = value;
+    }
+
+    /**
+     * <p>Sets the number of threads looking up the outputs spent by a block from the store. Script verification of the
+     * first transactions of the block then starts while the outputs of the later ones are still being read, and with
+     * {@link #prefetchOutputs(Block)} the outputs of the next block can be read while this one is verified. Zero, the
+     * default, looks them up one after the other on the thread adding the block.</p>
+     *
+     * <p>The store must allow outputs to be read from other threads while a batch write is in progress, and keep the
+     * changes of the batch from them until it is committed. The memory and off-heap stores do, and so does the caching
+     * store for its cached outputs. The LevelDB store doesn't, nor do the SQL stores: H2 locks the table of outputs
+     * during a large batch write, and the reads on other threads wait for the lock until they time out. Outputs whose
+     * lookup failed are looked up again on the thread adding the block.</p>
+     */
+    public void setPrefetchThreads(int threads) {
+        checkArgument(threads >= 0);
+        lock.lock();
+        try {
+            cancelPrefetches();
+            if (prefetchExecutor != null)
+                prefetchExecutor.shutdown();
+            prefetchExecutor = threads > 0 ? Executors.newFixedThreadPool(threads,
+                    new ContextPropagatingThreadFactory("UTXO prefetch")) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets how many blocks {@link #prefetchOutputs(Block)} keeps the outputs of, until they are added. When another
+     * block is prefetched, the oldest one is dropped. Defaults to 2.
+     */
+    public void setMaxPrefetchedBlocks(int maxPrefetchedBlocks) {
+        checkArgument(maxPrefetchedBlocks >= 1);
+        lock.lock();
+        try {
+            this.maxPrefetchedBlocks = maxPrefetchedBlocks;
+            while (prefetches.size() > maxPrefetchedBlocks)
+                dropOldestPrefetch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts looking up the outputs spent by the given block, which is going to be added soon, on the threads set by
+     * {@link #setPrefetchThreads(int)}. When importing blocks in order, call it for the next block before adding the
+     * current one, so that the lookups overlap with the verification of the current block. Does nothing if prefetching
+     * is off.
+     */
+    public void prefetchOutputs(Block block) {
+        lock.lock();
+        try {
+            if (prefetchExecutor == null || disconnectedSinceCommit || block.getTransactions() == null ||
+                    prefetches.containsKey(block.getHash()))
+                return;
+            if (prefetches.size() >= maxPrefetchedBlocks)
+                dropOldestPrefetch();
+            prefetches.put(block.getHash(), new OutputPrefetch(block, prefetchExecutor));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropOldestPrefetch() {
+        Iterator<OutputPrefetch> it = prefetches.values().iterator();
+        it.next().cancel();
+        it.remove();
+    }
+
+    private void cancelPrefetches() {
+        for (OutputPrefetch prefetch : prefetches.values())
+            prefetch.cancel();
+        prefetches.clear();
+    }
+
+    /**
+     * Returns the prefetch of the outputs spent by the given block, started now if it wasn't by
+     * {@link #prefetchOutputs(Block)}, or null if prefetching is off. The prefetches of blocks before it are dropped.
+     */
+    @Nullable
+    private OutputPrefetch takePrefetch(Block block) {
+        if (prefetchExecutor == null || disconnectedSinceCommit)
+            return null;
+        if (!prefetches.containsKey(block.getHash()))
+            return new OutputPrefetch(block, prefetchExecutor);
+        Iterator<OutputPrefetch> it = prefetches.values().iterator();
+        while (true) {
+            OutputPrefetch prefetch = it.next();
+            it.remove();
+            if (prefetch.blockHash.equals(block.getHash()))
+                return prefetch;
+            prefetch.cancel();
+        }
+    }
+
+    /**
+     * Removes an output from the set of unspent outputs. The prefetches started before may have found it unspent, so
+     * they are told to look it up again.
+     */
+    private void removeUnspentOutput(UTXO out, @Nullable OutputPrefetch current) throws BlockStoreException {
+        blockStore.removeUnspentTransactionOutput(out);
+        if (current == null && prefetches.isEmpty())
+            return;
+        TransactionOutPoint outPoint = new TransactionOutPoint(params, out.getIndex(), out.getHash());
+        if (current != null)
+            current.spent.add(outPoint);
+        for (OutputPrefetch prefetch : prefetches.values())
+            prefetch.spent.add(outPoint);
+    }
+
+    /**
+     * The outputs spent by a block, looked up from the store by the prefetch threads in chunks, in the order the block
+     * spends them. An output may have been looked up before the chain spent it, so the outputs spent since are looked up
+     * again, as are the outputs not found, which may have been created since.
+     */
+    private class OutputPrefetch {
+        private static final int CHUNK_SIZE = 64;
+
+        final Sha256Hash blockHash;
+        final Sha256Hash[] hashes;
+        final long[] indexes;
+        final List<Future<UTXO[]>> chunks = new ArrayList<>();
+        final Set<TransactionOutPoint> spent = new HashSet<>();
+        int next;
+        int failedChunk = -1;
+
+        OutputPrefetch(Block block, ExecutorService executor) {
+            blockHash = block.getHash();
+            List<Transaction> transactions = block.getTransactions();
+            Set<Sha256Hash> txIds = new HashSet<>();
+            int inputs = 0;
+            for (Transaction tx : transactions) {
+                txIds.add(tx.getTxId());
+                if (!tx.isCoinBase())
+                    inputs += tx.getInputs().size();
+            }
+            hashes = new Sha256Hash[inputs];
+            indexes = new long[inputs];
+            // Outputs created by the block itself aren't in the store yet, so they are left null.
+            final boolean[] lookup = new boolean[inputs];
+            int i = 0;
+            for (Transaction tx : transactions) {
+                if (tx.isCoinBase())
+                    continue;
+                for (TransactionInput in : tx.getInputs()) {
+                    hashes[i] = in.getOutpoint().getHash();
+                    indexes[i] = in.getOutpoint().getIndex();
+                    lookup[i] = !txIds.contains(hashes[i]);
+                    i++;
+                }
+            }
+            for (int start = 0; start < inputs; start += CHUNK_SIZE) {
+                final int from = start;
+                final int to = Math.min(inputs, start + CHUNK_SIZE);
+                chunks.add(executor.submit(new Callable<UTXO[]>() {
+                    @Override
+                    public UTXO[] call() throws BlockStoreException {
+                        UTXO[] outs = new UTXO[to - from];
+                        for (int i = from; i < to; i++)
+                            if (lookup[i])
+                                outs[i - from] = blockStore.getTransactionOutput(hashes[i], indexes[i]);
+                        return outs;
+                    }
+                }));
+            }
+        }
+
+        /** Returns the output spent by the next input of the block, which spends the given outpoint. */
+        @Nullable
+        UTXO getTransactionOutput(TransactionOutPoint outPoint) throws BlockStoreException {
+            int i = next++;
+            UTXO out = null;
+            if (i < hashes.length && indexes[i] == outPoint.getIndex() && hashes[i].equals(outPoint.getHash())) {
+                try {
+                    out = chunks.get(i / CHUNK_SIZE).get()[i % CHUNK_SIZE];
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    // The lookup is made again below, on this thread, which can see the batch write in progress.
+                    if (failedChunk != i / CHUNK_SIZE)
+                        log.warn("Prefetching outputs failed: {}", e.getCause().toString());
+                    failedChunk = i / CHUNK_SIZE;
+                }
+            }
+            if (out != null && !spent.contains(outPoint))
+                return out;
+            return blockStore.getTransactionOutput(outPoint.getHash(), outPoint.getIndex());
+        }
+
+        void cancel() {
+            for (Future<UTXO[]> chunk : chunks)
+                chunk.cancel(false);
+        }
+    }
+
     // TODO: Remove lots of duplicated code in the two connectTransactions
 
     // TODO: execute in order of largest transaction (by input count) first
@@ -149,27 +364,49 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             Runtime.getRuntime().availableProcessors(), new ContextPropagatingThreadFactory("Script verification"));
 
     /**
-     * A job submitted to the executor which verifies signatures.
+     * A job submitted to the executor which verifies signatures. If given a batch, Schnorr signatures of transactions
+     * whose scripts pass are added to it rather than verified, and the batch must be verified before the block is
+     * accepted.
      */
     private static class Verifier implements Callable<VerificationException> {
         final Transaction tx;
         final List<Script> prevOutScripts;
         final Set<VerifyFlag> verifyFlags;
+        @Nullable final SchnorrBatchVerifier batch;
+        volatile boolean deferred;
 
-        public Verifier(final Transaction tx, final List<Script> prevOutScripts, final Set<VerifyFlag> verifyFlags) {
+        public Verifier(final Transaction tx, final List<Script> prevOutScripts, final Set<VerifyFlag> verifyFlags,
+                        @Nullable final SchnorrBatchVerifier batch) {
             this.tx = tx;
             this.prevOutScripts = prevOutScripts;
             this.verifyFlags = verifyFlags;
+            this.batch = batch;
         }
 
         @Nullable
         @Override
         public VerificationException call() throws Exception {
+            if (batch != null) {
+                // If the scripts fail even with all Schnorr signatures assumed valid, run them again without that
+                // assumption to find out whether they really fail.
+                SchnorrBatchVerifier txBatch = new SchnorrBatchVerifier();
+                if (verifyScripts(txBatch) == null) {
+                    deferred = txBatch.size() > 0;
+                    batch.addAll(txBatch);
+                    return null;
+                }
+            }
+            return verifyScripts(null);
+        }
+
+        @Nullable
+        VerificationException verifyScripts(@Nullable SchnorrBatchVerifier deferredSchnorr) {
             try {
                 ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
                 for (int index = 0; index < tx.getInputs().size(); index++) {
                     Coin value = tx.getInput(index).getConnectedOutput() != null ? tx.getInput(index).getConnectedOutput().getValue() : Coin.ZERO;
-                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), value, verifyFlags);
+                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), value,
+                            verifyFlags, deferredSchnorr);
                 }
             } catch (VerificationException e) {
                 return e;
@@ -178,6 +415,40 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         }
     }
 
+    /**
+     * Waits for the script verification of every transaction, then verifies the Schnorr signatures they deferred to
+     * the batch. Throws the first failure found.
+     */
+    private void awaitVerifiers(List<Future<VerificationException>> futures, List<Verifier> verifiers,
+                                @Nullable SchnorrBatchVerifier batch) throws VerificationException {
+        for (Future<VerificationException> future : futures) {
+            VerificationException e;
+            try {
+                e = future.get();
+            } catch (InterruptedException thrownE) {
+                throw new RuntimeException(thrownE); // Shouldn't happen
+            } catch (ExecutionException thrownE) {
+                log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
+                throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
+            }
+            if (e != null)
+                throw e;
+        }
+        if (batch != null && !batch.verify()) {
+            // At least one deferred signature is invalid, but the batch doesn't say which. Check the transactions
+            // that deferred signatures individually so that the right failure is reported. If they all pass, the
+            // invalid signatures didn't matter, e.g. because the result of their OP_CHECKSIG was dropped.
+            log.info("Schnorr batch verification of {} signatures failed, verifying individually", batch.size());
+            for (Verifier verifier : verifiers) {
+                if (!verifier.deferred)
+                    continue;
+                VerificationException e = verifier.verifyScripts(null);
+                if (e != null)
+                    throw e;
+            }
+        }
+    }
+
     /**
      * Get the {@link Script} from the script bytes or return Script of empty byte array.
      */
@@ -215,6 +486,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         if (!params.passesCheckpoint(height, block.getHash()))
             throw new VerificationException("Block failed checkpoint lockin at " + height);
 
+        // Started before the batch write, so that the lookups on other threads don't depend on when it begins.
+        OutputPrefetch prefetch = takePrefetch(block);
         blockStore.beginDatabaseBatchWrite();
 
         LinkedList<UTXO> txOutsSpent = new LinkedList<>();
@@ -225,6 +498,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
         List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<>(block.getTransactions().size());
+        List<Verifier> verifiers = new ArrayList<>(block.getTransactions().size());
+        SchnorrBatchVerifier schnorrBatch = batchVerifySignatures ? new SchnorrBatchVerifier() : null;
         try {
             if (!params.isCheckpoint(height)) {
                 // BIP30 violator blocks are ones that contain a duplicated transaction. They are all in the
@@ -254,8 +529,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                     // outputs.
                     for (int index = 0; index < tx.getInputs().size(); index++) {
                         TransactionInput in = tx.getInputs().get(index);
-                        UTXO prevOut = blockStore.getTransactionOutput(in.getOutpoint().getHash(),
-                                in.getOutpoint().getIndex());
+                        UTXO prevOut = prefetch != null ? prefetch.getTransactionOutput(in.getOutpoint()) :
+                                blockStore.getTransactionOutput(in.getOutpoint().getHash(), in.getOutpoint().getIndex());
                         if (prevOut == null)
                             throw new VerificationException("Attempted to spend a non-existent or already spent output!");
                         // Coinbases can't be spent until they mature, to avoid re-orgs destroying entire transaction
@@ -276,7 +551,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                         }
 
                         prevOutScripts.add(prevOut.getScript());
-                        blockStore.removeUnspentTransactionOutput(prevOut);
+                        removeUnspentOutput(prevOut, prefetch);
                         txOutsSpent.add(prevOut);
                     }
                 }
@@ -308,28 +583,21 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                 if (!isCoinBase && runScripts) {
                     // Because correctlySpends modifies transactions, this must come after we are done with tx
-                    FutureTask<VerificationException> future = new FutureTask<>(new Verifier(tx, prevOutScripts, verifyFlags));
+                    Verifier verifier = new Verifier(tx, prevOutScripts, verifyFlags, schnorrBatch);
+                    FutureTask<VerificationException> future = new FutureTask<>(verifier);
                     scriptVerificationExecutor.execute(future);
                     listScriptVerificationResults.add(future);
+                    verifiers.add(verifier);
                 }
             }
             if (totalFees.compareTo(params.getMaxMoney()) > 0 || block.getBlockInflation(height).add(totalFees).compareTo(coinbaseValue) < 0)
                 throw new VerificationException("Transaction fees out of range");
-            for (Future<VerificationException> future : listScriptVerificationResults) {
-                VerificationException e;
-                try {
-                    e = future.get();
-                } catch (InterruptedException thrownE) {
-                    throw new RuntimeException(thrownE); // Shouldn't happen
-                } catch (ExecutionException thrownE) {
-                    log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                    throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                }
-                if (e != null)
-                    throw e;
-            }
+            awaitVerifiers(listScriptVerificationResults, verifiers, schnorrBatch);
         } catch (VerificationException | BlockStoreException e) {
             scriptVerificationExecutor.shutdownNow();
+            if (prefetch != null)
+                prefetch.cancel();
+            cancelPrefetches();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         }
@@ -374,6 +642,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 if (scriptVerificationExecutor.isShutdown())
                     scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
                 List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<>(transactions.size());
+                List<Verifier> verifiers = new ArrayList<>(transactions.size());
+                SchnorrBatchVerifier schnorrBatch = batchVerifySignatures ? new SchnorrBatchVerifier() : null;
                 for (final Transaction tx : transactions) {
                     final Set<VerifyFlag> verifyFlags =
                             params.getTransactionVerificationFlags(newBlock.getHeader(), tx, getVersionTally(), Integer.SIZE);
@@ -403,7 +673,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                             prevOutScripts.add(prevOut.getScript());
 
-                            blockStore.removeUnspentTransactionOutput(prevOut);
+                            removeUnspentOutput(prevOut, null);
                             txOutsSpent.add(prevOut);
                         }
                     }
@@ -435,28 +705,18 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                     if (!isCoinBase) {
                         // Because correctlySpends modifies transactions, this must come after we are done with tx
-                        FutureTask<VerificationException> future = new FutureTask<>(new Verifier(tx, prevOutScripts, verifyFlags));
+                        Verifier verifier = new Verifier(tx, prevOutScripts, verifyFlags, schnorrBatch);
+                        FutureTask<VerificationException> future = new FutureTask<>(verifier);
                         scriptVerificationExecutor.execute(future);
                         listScriptVerificationResults.add(future);
+                        verifiers.add(verifier);
                     }
                 }
                 if (totalFees.compareTo(params.getMaxMoney()) > 0 ||
                         newBlock.getHeader().getBlockInflation(newBlock.getHeight()).add(totalFees).compareTo(coinbaseValue) < 0)
                     throw new VerificationException("Transaction fees out of range");
                 txOutChanges = new TransactionOutputChanges(txOutsCreated, txOutsSpent);
-                for (Future<VerificationException> future : listScriptVerificationResults) {
-                    VerificationException e;
-                    try {
-                        e = future.get();
-                    } catch (InterruptedException thrownE) {
-                        throw new RuntimeException(thrownE); // Shouldn't happen
-                    } catch (ExecutionException thrownE) {
-                        log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                        throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                    }
-                    if (e != null)
-                        throw e;
-                }
+                awaitVerifiers(listScriptVerificationResults, verifiers, schnorrBatch);
             } else {
                 txOutChanges = block.getTxOutChanges();
                 if (!params.isCheckpoint(newBlock.getHeight()))
@@ -468,10 +728,11 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 for (UTXO out : txOutChanges.txOutsCreated)
                     blockStore.addUnspentTransactionOutput(out);
                 for (UTXO out : txOutChanges.txOutsSpent)
-                    blockStore.removeUnspentTransactionOutput(out);
+                    removeUnspentOutput(out, null);
             }
         } catch (VerificationException | BlockStoreException e) {
             scriptVerificationExecutor.shutdownNow();
+            cancelPrefetches();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         }
@@ -485,6 +746,9 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
     @Override
     protected void disconnectTransactions(StoredBlock oldBlock) throws PrunedException, BlockStoreException {
         checkState(lock.isHeldByCurrentThread());
+        // The prefetches may have found the outputs created by the block unspent.
+        cancelPrefetches();
+        disconnectedSinceCommit = true;
         blockStore.beginDatabaseBatchWrite();
         try {
             StoredUndoableBlock undoBlock = blockStore.getUndoBlock(oldBlock.getHeader().getHash());
@@ -505,11 +769,19 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         checkState(lock.isHeldByCurrentThread());
         blockStore.setVerifiedChainHead(chainHead);
         blockStore.commitDatabaseBatchWrite();
+        disconnectedSinceCommit = false;
     }
 
     @Override
     protected void notSettingChainHead() throws BlockStoreException {
         blockStore.abortDatabaseBatchWrite();
+        lock.lock();
+        try {
+            cancelPrefetches();
+            disconnectedSinceCommit = false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.net.ByteBufferPool;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Parses messages from a stream of bytes that arrives in pieces, such as the read buffer of a connection. Each
+ * payload is copied out of the read buffer exactly once, however many reads it spans, and is hashed for the checksum
+ * as it is copied, rather than being gathered into one array, copied into another and then hashed.</p>
+ *
+ * <p>Unless the serializer retains the bytes of the messages it parses, blocks and transactions are read into buffers
+ * from {@link ByteBufferPool#getHeap()} and parsed from there, and the buffer is reused as soon as the message is
+ * parsed. Other messages are small and get an array of their own.</p>
+ *
+ * <p>This class is not thread safe, it is meant to be used by the thread reading from a connection.</p>
+ */
+public class IncrementalMessageParser {
+    private final MessageSerializer serializer;
+    private final ByteBufferPool pool;
+    private final MessageDigest digest = Sha256Hash.newDigest();
+
+    // The message being read, if we have its header yet.
+    @Nullable
+    private BitcoinSerializer.BitcoinPacketHeader header;
+    private byte[] payload;
+    private int payloadOffset;
+    private int payloadPosition;
+    @Nullable
+    private ByteBuffer pooledBuffer;
+
+    private volatile long messageCount;
+    private volatile long bytesCopied;
+
+    public IncrementalMessageParser(MessageSerializer serializer) {
+        this(serializer, ByteBufferPool.getHeap());
+    }
+
+    /**
+     * @param pool A pool of heap buffers to read blocks and transactions into.
+     */
+    public IncrementalMessageParser(MessageSerializer serializer, ByteBufferPool pool) {
+        checkArgument(!pool.isDirect(), "Messages are parsed from arrays, so the pool must hold heap buffers");
+        this.serializer = checkNotNull(serializer);
+        this.pool = pool;
+    }
+
+    /**
+     * Reads the next message from the buffer, returning it once it is complete. If the buffer runs out first, returns
+     * null: bytes of the payload were consumed and kept, while an incomplete header is left in the buffer, to be
+     * passed again with more bytes after it.
+     *
+     * @throws ProtocolException if the message is malformed, its checksum doesn't match, or a full buffer holds no
+     *                           header.
+     */
+    @Nullable
+    public Message parse(ByteBuffer in) throws ProtocolException, IOException {
+        if (header == null && !readHeader(in))
+            return null;
+        int count = Math.min(in.remaining(), header.size - payloadPosition);
+        in.get(payload, payloadOffset + payloadPosition, count);
+        digest.update(payload, payloadOffset + payloadPosition, count);
+        payloadPosition += count;
+        bytesCopied += count;
+        if (payloadPosition < header.size)
+            return null;
+
+        try {
+            byte[] hash = Sha256Hash.hash(digest.digest());
+            BitcoinSerializer.verifyChecksum(header, hash);
+            Message message = serializer.deserializePayload(header, payload, payloadOffset, hash);
+            messageCount++;
+            return message;
+        } finally {
+            // The message doesn't keep a reference to a pooled payload, so the buffer can go back right away.
+            if (pooledBuffer != null)
+                pool.release(pooledBuffer);
+            header = null;
+            payload = null;
+            pooledBuffer = null;
+            payloadPosition = 0;
+            digest.reset();
+        }
+    }
+
+    private boolean readHeader(ByteBuffer in) throws ProtocolException, IOException {
+        int start = in.position();
+        try {
+            serializer.seekPastMagicBytes(in);
+            header = serializer.deserializeHeader(in);
+        } catch (BufferUnderflowException e) {
+            // If a whole buffer's worth of bytes didn't hold a header, give up. Otherwise reposition the buffer to
+            // where we started, so we don't skip part of the magic bytes before all of them are in the buffer.
+            if (start == 0 && in.limit() == in.capacity())
+                throw new ProtocolException("No magic bytes+header after reading " + in.capacity() + " bytes");
+            in.position(start);
+            return false;
+        }
+        if (!serializer.isParseRetainMode() && (header.command.equals("block") || header.command.equals("tx"))) {
+            pooledBuffer = pool.acquire(header.size);
+            payload = pooledBuffer.array();
+            payloadOffset = pooledBuffer.arrayOffset();
+        } else {
+            payload = new byte[header.size];
+            payloadOffset = 0;
+        }
+        return true;
+    }
+
+    /** Returns the number of messages parsed. */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /** Returns the number of payload bytes copied out of the buffers passed to {@link #parse(ByteBuffer)}. */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+}
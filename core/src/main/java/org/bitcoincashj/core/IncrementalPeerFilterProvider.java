@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.net.FilterMerger;
+
+import java.util.List;
+
+/**
+ * A {@link PeerFilterProvider} that can list the elements it puts into its Bloom filter. This lets a
+ * {@link FilterMerger} insert just the elements that are new into the filter it already has, rather than build a new
+ * filter whenever something changes.
+ */
+public interface IncrementalPeerFilterProvider extends PeerFilterProvider {
+    /**
+     * Adds the elements that {@link #getBloomFilter(int, double, long)} inserts into the filter to the given list. Like
+     * the filter, it is only called between {@link #beginBloomFilterCalculation()} and
+     * {@link #endBloomFilterCalculation()}.
+     */
+    void getBloomFilterElements(List<byte[]> elements);
+}
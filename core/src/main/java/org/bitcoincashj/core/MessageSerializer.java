@@ -18,6 +18,9 @@
 
 package org.bitcoincashj.core;
 
+import org.bitcoincashj.net.SerializedMessage;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
@@ -56,6 +59,16 @@ public abstract class MessageSerializer {
      */
     public abstract Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, ByteBuffer in) throws ProtocolException, BufferUnderflowException, UnsupportedOperationException;
 
+    /**
+     * Deserialize a payload that was read and checksummed already, for example by an {@link IncrementalMessageParser}.
+     * Blocks and transactions are parsed from the given range of the array, other messages need it to be the whole
+     * array and are given a copy otherwise.
+     *
+     * @param hash The double SHA256 of the payload.
+     */
+    public abstract Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, byte[] payload, int offset,
+                                               byte[] hash) throws ProtocolException, UnsupportedOperationException;
+
     /**
      * Whether the serializer will produce cached mode Messages
      */
@@ -167,4 +180,25 @@ public abstract class MessageSerializer {
      */
     public abstract void serialize(Message message, OutputStream out) throws IOException, UnsupportedOperationException;
 
+    /**
+     * Serializes the message, header included, into a buffer that can be written to any number of connections. The
+     * caller holds the only reference to the result, and must release it once it has been handed to them. This
+     * implementation wraps the bytes written by {@link #serialize(Message, OutputStream)}; subclasses can serialize
+     * into a pooled buffer instead.
+     *
+     * @throws UnsupportedOperationException if this serializer/deserializer
+     *                                       does not support serialization. This can occur either because it's a dummy
+     *                                       serializer (i.e. for messages with no network parameters), or because
+     *                                       it does not support serializing the given message.
+     */
+    public SerializedMessage serializeToBuffer(Message message) throws UnsupportedOperationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            serialize(message, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+        return SerializedMessage.wrap(out.toByteArray());
+    }
+
 }
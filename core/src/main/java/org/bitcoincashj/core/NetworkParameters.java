@@ -27,6 +27,7 @@ import org.bitcoincashj.utils.VersionTally;
 import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -335,6 +336,13 @@ public abstract class NetworkParameters {
         return checkpointHash != null;
     }
 
+    /**
+     * Returns the hashes of the checkpointed blocks, by height.
+     */
+    public Map<Integer, Sha256Hash> getCheckpoints() {
+        return Collections.unmodifiableMap(checkpoints);
+    }
+
     public int getSubsidyDecreaseBlockCount() {
         return subsidyDecreaseBlockCount;
     }
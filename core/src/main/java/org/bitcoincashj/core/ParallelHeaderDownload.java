@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.bitcoincashj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Downloads block headers from several peers at once and adds them to an SPV block chain, as a faster alternative
+ * to the headers-only part of the regular chain download, where one peer's headers are checked and added one at a
+ * time on its network thread.</p>
+ *
+ * <p>A getheaders request can only ask for the headers following a block we know, so the chain is split into ranges
+ * at checkpoints, the hashes of which are known up front. Each range is downloaded from a different peer, one batch of
+ * up to {@link HeadersMessage#MAX_HEADERS} at a time. The hashes, proof of work and linking of each batch are checked
+ * on a pool of threads while the next batch is being downloaded. Only adding the checked headers to the chain, which
+ * also checks the difficulty, happens one at a time and in order, on the thread that called
+ * {@link #download(List)}. After the last checkpoint, the rest of the chain is downloaded from a single peer.</p>
+ *
+ * <p>A peer that fails to answer, or answers with headers that don't check out, is disconnected and its range is
+ * downloaded again from another peer, starting where the chain got to. A peer that hasn't answered a request would
+ * otherwise have its late answer, or none, taken for the answer to the next getheaders request. The peers must not be downloading the
+ * chain in headers-only mode at the same time, see {@link Peer#getBlockHeaders(Sha256Hash, Sha256Hash)}.</p>
+ */
+public class ParallelHeaderDownload {
+    private static final Logger log = LoggerFactory.getLogger(ParallelHeaderDownload.class);
+
+    // How long to wait for a peer to answer a getheaders request before dropping it from the download.
+    private static final long REQUEST_TIMEOUT_SECONDS = 30;
+
+    private final AbstractBlockChain chain;
+    private final TreeMap<Integer, Sha256Hash> checkpoints;
+    private final ListeningExecutorService verifier;
+    private long stopTimeSecs = Long.MAX_VALUE;
+
+    // A checked batch of headers, the last one of its range if last is set.
+    private static class Batch {
+        final List<Block> headers;
+        final boolean last;
+
+        Batch(List<Block> headers, boolean last) {
+            this.headers = headers;
+            this.last = last;
+        }
+    }
+
+    // The headers between two checkpoints, or after the last one if endHash is the zero hash.
+    private class Range {
+        final int endHeight;
+        final Sha256Hash endHash;
+        // Replaced with every attempt, so that a dropped peer's fetcher can't add to the current one.
+        volatile BlockingQueue<ListenableFuture<Batch>> batches;
+        Peer peer;
+        Future<?> fetcher;
+
+        Range(int endHeight, Sha256Hash endHash) {
+            this.endHeight = endHeight;
+            this.endHash = endHash;
+        }
+
+        boolean isOpen() {
+            return endHash.equals(Sha256Hash.ZERO_HASH);
+        }
+
+        void start(ExecutorService fetchers, Peer peer, Sha256Hash fromHash, int fromHeight) {
+            if (fetcher != null)
+                fetcher.cancel(true);
+            this.peer = peer;
+            this.batches = new LinkedBlockingQueue<>();
+            this.fetcher = fetchers.submit(new Fetcher(this, batches, peer, fromHash, fromHeight));
+        }
+    }
+
+    // Requests the batches of a range one after the other, handing each to the verifier as soon as it arrives.
+    private class Fetcher implements Runnable {
+        private final Range range;
+        private final BlockingQueue<ListenableFuture<Batch>> batches;
+        private final Peer peer;
+        private Sha256Hash fromHash;
+        private int fromHeight;
+
+        Fetcher(Range range, BlockingQueue<ListenableFuture<Batch>> batches, Peer peer, Sha256Hash fromHash,
+                int fromHeight) {
+            this.range = range;
+            this.batches = batches;
+            this.peer = peer;
+            this.fromHash = fromHash;
+            this.fromHeight = fromHeight;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<Block> headers = peer.getBlockHeaders(fromHash, range.endHash)
+                            .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    boolean last = range.isOpen() ? headers.size() < HeadersMessage.MAX_HEADERS
+                            : fromHeight + headers.size() >= range.endHeight;
+                    batches.add(verifier.submit(new Verification(range, headers, fromHash, fromHeight, last)));
+                    if (last || headers.isEmpty())
+                        return;
+                    fromHash = headers.get(headers.size() - 1).getHash();
+                    fromHeight += headers.size();
+                }
+            } catch (InterruptedException e) {
+                // The range was given to another peer, or the download is over.
+            } catch (ExecutionException | TimeoutException e) {
+                batches.add(Futures.<Batch>immediateFailedFuture(e));
+            }
+        }
+    }
+
+    // Checks the hashes, proof of work and linking of a batch, and that it stays on the checkpointed chain.
+    private static class Verification implements Callable<Batch> {
+        private final Range range;
+        private final List<Block> headers;
+        private final Sha256Hash fromHash;
+        private final int fromHeight;
+        private final boolean last;
+
+        Verification(Range range, List<Block> headers, Sha256Hash fromHash, int fromHeight, boolean last) {
+            this.range = range;
+            this.headers = headers;
+            this.fromHash = fromHash;
+            this.fromHeight = fromHeight;
+            this.last = last;
+        }
+
+        @Override
+        public Batch call() throws VerificationException {
+            if (headers.isEmpty() && !range.isOpen())
+                throw new VerificationException("No headers after " + fromHash + " at height " + fromHeight);
+            Sha256Hash prevHash = fromHash;
+            int height = fromHeight;
+            for (Block header : headers) {
+                if (!header.getPrevBlockHash().equals(prevHash))
+                    throw new VerificationException("Header " + header.getHashAsString() + " does not follow " + prevHash);
+                header.verifyHeader();
+                prevHash = header.getHash();
+                height++;
+                if (!range.isOpen() && height >= range.endHeight
+                        && (height > range.endHeight || !prevHash.equals(range.endHash)))
+                    throw new VerificationException("Header " + prevHash + " at height " + height
+                            + " is not on the checkpointed chain");
+            }
+            return new Batch(headers, last);
+        }
+    }
+
+    /**
+     * @param chain       The chain to add the headers to. It must be an SPV chain, which doesn't need the transactions.
+     * @param checkpoints The hashes of blocks in the chain by height, which split it into ranges that can be
+     *                    downloaded at the same time, usually {@link NetworkParameters#getCheckpoints()}.
+     * @param verifier    The threads to check headers on.
+     */
+    public ParallelHeaderDownload(AbstractBlockChain chain, Map<Integer, Sha256Hash> checkpoints,
+                                  ListeningExecutorService verifier) {
+        checkArgument(!chain.shouldVerifyTransactions(), "Headers can only be added to an SPV chain");
+        this.chain = chain;
+        this.checkpoints = new TreeMap<>(checkpoints);
+        this.verifier = checkNotNull(verifier);
+    }
+
+    /**
+     * Stops the download at the first header created at or after the given time, so that the blocks from there on can
+     * be downloaded in full, like the fast catchup time of {@link Peer#setDownloadParameters(long, boolean)}.
+     */
+    public void setStopTimeSecs(long stopTimeSecs) {
+        this.stopTimeSecs = stopTimeSecs;
+    }
+
+    /**
+     * Downloads the headers that follow the head of the chain from the given peers, until the first peer to run out of
+     * them or the stop time, and adds them to the chain. Blocks until done. If all the peers fail, the download is
+     * given up, leaving the chain wherever it got to.
+     *
+     * @return The new head of the chain.
+     */
+    public StoredBlock download(List<Peer> peers) throws InterruptedException, VerificationException, PrunedException {
+        List<Peer> usable = new ArrayList<>(peers);
+        checkArgument(!usable.isEmpty(), "No peers to download from");
+        StoredBlock head = chain.getChainHead();
+        List<Range> ranges = new ArrayList<>();
+        for (Map.Entry<Integer, Sha256Hash> checkpoint : checkpoints.tailMap(head.getHeight(), false).entrySet())
+            ranges.add(new Range(checkpoint.getKey(), checkpoint.getValue()));
+        ranges.add(new Range(Integer.MAX_VALUE, Sha256Hash.ZERO_HASH));
+        log.info("Downloading headers from height {} in {} ranges from {} peers", head.getHeight() + 1, ranges.size(),
+                usable.size());
+
+        ExecutorService fetchers = Executors.newCachedThreadPool(new ContextPropagatingThreadFactory("Header download"));
+        try {
+            int started = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                // Keep a range in flight for each peer, without running too far ahead of what has been added.
+                while (started < ranges.size() && started < i + usable.size()) {
+                    Range range = ranges.get(started);
+                    int fromHeight = started == 0 ? head.getHeight() : ranges.get(started - 1).endHeight;
+                    Sha256Hash fromHash = started == 0 ? head.getHeader().getHash() : ranges.get(started - 1).endHash;
+                    range.start(fetchers, usable.get(started % usable.size()), fromHash, fromHeight);
+                    started++;
+                }
+                Range range = ranges.get(i);
+                boolean last = false;
+                while (!last) {
+                    Batch batch;
+                    try {
+                        batch = range.batches.take().get();
+                    } catch (ExecutionException e) {
+                        log.warn("{}: Dropping peer from header download: {}", range.peer, e.getCause().toString());
+                        usable.remove(range.peer);
+                        range.peer.close();
+                        if (usable.isEmpty()) {
+                            log.warn("No peers left to download headers from, stopping at height {}",
+                                    chain.getBestChainHeight());
+                            return chain.getChainHead();
+                        }
+                        StoredBlock reached = chain.getChainHead();
+                        range.start(fetchers, usable.get(i % usable.size()), reached.getHeader().getHash(),
+                                reached.getHeight());
+                        continue;
+                    }
+                    for (Block header : batch.headers) {
+                        if (header.getTimeSeconds() >= stopTimeSecs) {
+                            log.info("Passed the stop time at height {}", chain.getBestChainHeight() + 1);
+                            return chain.getChainHead();
+                        }
+                        if (!chain.add(header))
+                            throw new VerificationException("Header does not connect: " + header.getHashAsString());
+                    }
+                    last = batch.last;
+                }
+            }
+            log.info("Downloaded headers up to height {}", chain.getBestChainHeight());
+            return chain.getChainHead();
+        } finally {
+            fetchers.shutdownNow();
+        }
+    }
+}
@@ -147,6 +147,12 @@ public class Peer extends PeerSocketHandler {
     private final CopyOnWriteArrayList<GetDataRequest> getDataFutures;
     @GuardedBy("getAddrFutures")
     private final LinkedList<SettableFuture<AddressMessage>> getAddrFutures;
+    @GuardedBy("getHeadersFutures")
+    private final LinkedList<SettableFuture<List<Block>>> getHeadersFutures;
+    @GuardedBy("getHeadersFutures")
+    private final LinkedList<GetHeadersMessage> getHeadersToSend;
+    @GuardedBy("getHeadersFutures")
+    private boolean sendingGetHeaders;
     @Nullable
     @GuardedBy("lock")
     private LinkedList<SettableFuture<UTXOsMessage>> getutxoFutures;
@@ -231,6 +237,8 @@ public class Peer extends PeerSocketHandler {
         this.vDownloadData = chain != null;
         this.getDataFutures = new CopyOnWriteArrayList<>();
         this.getAddrFutures = new LinkedList<>();
+        this.getHeadersFutures = new LinkedList<>();
+        this.getHeadersToSend = new LinkedList<>();
         this.fastCatchupTimeSecs = params.getGenesisBlock().getTimeSeconds();
         this.pendingPings = new CopyOnWriteArrayList<>();
         this.vMinProtocolVersion = params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.PONG);
@@ -420,6 +428,15 @@ public class Peer extends PeerSocketHandler {
 
     @Override
     public void connectionClosed() {
+        // The requests of getBlockHeaders() will never be answered.
+        List<SettableFuture<List<Block>>> unanswered;
+        synchronized (getHeadersFutures) {
+            unanswered = new ArrayList<>(getHeadersFutures);
+            getHeadersFutures.clear();
+            getHeadersToSend.clear();
+        }
+        for (SettableFuture<List<Block>> future : unanswered)
+            future.setException(new PeerException("Connection closed before the headers were received"));
         for (final ListenerRegistration<PeerDisconnectedEventListener> registration : disconnectedEventListeners) {
             registration.executor.execute(new Runnable() {
                 @Override
@@ -670,6 +687,15 @@ public class Peer extends PeerSocketHandler {
         // likely when we've requested them as part of chain download using fast catchup. We need to add each block to
         // the chain if it pre-dates the fast catchup time. If we go past it, we can stop processing the headers and
         // request the full blocks from that point on instead.
+        SettableFuture<List<Block>> future;
+        synchronized (getHeadersFutures) {
+            future = getHeadersFutures.poll();
+        }
+        if (future != null) {
+            // An answer to getBlockHeaders(), peers answer getheaders in the order they were sent.
+            future.set(m.getBlockHeaders());
+            return;
+        }
         boolean downloadBlockBodies;
         long fastCatchupTimeSecs;
 
@@ -1365,6 +1391,52 @@ public class Peer extends PeerSocketHandler {
         return future;
     }
 
+    /**
+     * <p>Asks the peer for the headers of the blocks that follow the given one in its best chain, up to and including
+     * the block with the stop hash, or up to {@link HeadersMessage#MAX_HEADERS} of them. Use
+     * {@link Sha256Hash#ZERO_HASH} as the stop hash to get as many as possible. Returns a future that completes with
+     * the headers once the peer has replied.</p>
+     *
+     * <p>This is for downloading headers outside of the regular chain download, see {@link ParallelHeaderDownload}, and
+     * shouldn't be used while the peer is downloading the chain in headers-only mode: the answers can't be told
+     * apart.</p>
+     */
+    public ListenableFuture<List<Block>> getBlockHeaders(Sha256Hash fromHash, Sha256Hash stopHash) {
+        SettableFuture<List<Block>> future = SettableFuture.create();
+        GetHeadersMessage message = new GetHeadersMessage(params, new BlockLocator().add(fromHash), stopHash);
+        // Requests are sent in the order their futures were queued, so that answers complete the futures of concurrent
+        // requests in the right order. The sending happens outside the lock, as the network thread takes it to
+        // complete the futures; whichever thread finds no send in progress sends what the others queued meanwhile.
+        synchronized (getHeadersFutures) {
+            getHeadersFutures.add(future);
+            getHeadersToSend.add(message);
+            if (sendingGetHeaders)
+                return future;
+            sendingGetHeaders = true;
+        }
+        try {
+            GetHeadersMessage next;
+            while ((next = pollGetHeadersToSend()) != null)
+                sendMessage(next);
+        } catch (RuntimeException e) {
+            synchronized (getHeadersFutures) {
+                sendingGetHeaders = false;
+            }
+            throw e;
+        }
+        return future;
+    }
+
+    @Nullable
+    private GetHeadersMessage pollGetHeadersToSend() {
+        synchronized (getHeadersFutures) {
+            GetHeadersMessage next = getHeadersToSend.poll();
+            if (next == null)
+                sendingGetHeaders = false;
+            return next;
+        }
+    }
+
     /**
      * When downloading the block chain, the bodies will be skipped for blocks created before the given date. Any
      * transactions relevant to the wallet will therefore not be found, but if you know your wallet has no such
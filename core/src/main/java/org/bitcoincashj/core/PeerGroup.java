@@ -1436,6 +1436,31 @@ public class PeerGroup implements TransactionBroadcaster {
         }
     }
 
+    /**
+     * Sets how far the estimated false positive rate of the bloom filter may rise, as a multiple of the rate it was
+     * built for, as new keys and outpoints are inserted into it before a new filter with a new tweak is built. The
+     * default is {@link FilterMerger#DEFAULT_REBUILD_THRESHOLD}. This only applies when all the filter providers
+     * implement {@link IncrementalPeerFilterProvider}, as {@link Wallet} does; otherwise a new filter is built every time.
+     */
+    public void setBloomFilterRebuildThreshold(double rebuildThreshold) {
+        bloomFilterMerger.setRebuildThreshold(rebuildThreshold);
+    }
+
+    /** Returns the number of bloom filters that were built from scratch. */
+    public int getBloomFilterRebuildCount() {
+        return bloomFilterMerger.getRebuildCount();
+    }
+
+    /** Returns the total time spent building bloom filters from scratch, in milliseconds. */
+    public long getBloomFilterRebuildTimeMillis() {
+        return bloomFilterMerger.getRebuildTimeMillis();
+    }
+
+    /** Returns the number of times new elements were inserted into the bloom filter instead of building a new one. */
+    public int getBloomFilterIncrementalUpdateCount() {
+        return bloomFilterMerger.getIncrementalUpdateCount();
+    }
+
     /**
      * Returns the number of currently connected peers. To be informed when this count changes, use
      * {@link PeerConnectedEventListener#onPeerConnected} and {@link PeerDisconnectedEventListener#onPeerDisconnected}.
@@ -1609,6 +1634,39 @@ public class PeerGroup implements TransactionBroadcaster {
         }
     }
 
+    /**
+     * <p>Downloads the headers of the blocks that predate the fast catchup time from all connected peers at once, see
+     * {@link ParallelHeaderDownload}, splitting up the chain at the checkpoints of the network parameters. Call this
+     * before {@link #startBlockChainDownload(PeerDataEventListener)}, which then carries on from wherever it got to.
+     * Only SPV chains can be downloaded this way.</p>
+     *
+     * @return A future that completes with the new head of the chain.
+     */
+    public ListenableFuture<StoredBlock> downloadHeadersInParallel() {
+        checkState(chain != null && !chain.shouldVerifyTransactions(), "Needs an SPV chain");
+        final List<Peer> peers = getConnectedPeers();
+        checkState(!peers.isEmpty(), "No connected peers");
+        final long stopTimeSecs = getFastCatchupTimeSecs();
+        final Context context = Context.get();
+        return Threading.THREAD_POOL.submit(new Callable<StoredBlock>() {
+            @Override
+            public StoredBlock call() throws Exception {
+                Context.propagate(context);
+                ListeningExecutorService verifier = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors(),
+                        new ContextPropagatingThreadFactory("Header verification")));
+                try {
+                    ParallelHeaderDownload download = new ParallelHeaderDownload(chain, params.getCheckpoints(),
+                            verifier);
+                    download.setStopTimeSecs(stopTimeSecs);
+                    return download.download(peers);
+                } finally {
+                    verifier.shutdown();
+                }
+            }
+        });
+    }
+
     protected void handleNewPeer(final Peer peer) {
         int newSize = -1;
         lock.lock();
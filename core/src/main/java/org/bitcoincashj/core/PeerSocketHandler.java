@@ -24,13 +24,13 @@ import org.bitcoincashj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 
 import static com.google.common.base.Preconditions.*;
@@ -52,21 +52,23 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
     protected MessageWriteTarget writeTarget = null;
 
     // The ByteBuffers passed to us from the writeTarget are static in size, and usually smaller than some messages we
-    // will receive. For SPV clients, this should be rare (ie we're mostly dealing with small transactions), but for
-    // messages which are larger than the read buffer, we have to keep a temporary buffer with its bytes.
-    private byte[] largeReadBuffer;
-    private int largeReadBufferPos;
-    private BitcoinSerializer.BitcoinPacketHeader header;
+    // will receive, so the parser keeps the part of a message that has been read so far.
+    private final IncrementalMessageParser parser;
+    // If set, received messages are processed here rather than on the thread that read them.
+    @Nullable
+    private volatile Executor messageExecutor;
 
     public PeerSocketHandler(NetworkParameters params, InetSocketAddress remoteIp) {
         checkNotNull(params);
         serializer = params.getDefaultSerializer();
+        parser = new IncrementalMessageParser(serializer);
         this.peerAddress = new PeerAddress(params, remoteIp);
     }
 
     public PeerSocketHandler(NetworkParameters params, PeerAddress peerAddress) {
         checkNotNull(params);
         serializer = params.getDefaultSerializer();
+        parser = new IncrementalMessageParser(serializer);
         this.peerAddress = checkNotNull(peerAddress);
     }
 
@@ -76,6 +78,26 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
      * TODO: Maybe use something other than the unchecked NotYetConnectedException here
      */
     public ListenableFuture sendMessage(Message message) throws NotYetConnectedException {
+        checkConnected();
+        SerializedMessage serialized = serializer.serializeToBuffer(message);
+        try {
+            return write(serialized);
+        } finally {
+            serialized.release();
+        }
+    }
+
+    /**
+     * Sends a message that was serialized ahead of time, for example to send the same message to many peers while
+     * serializing it only once. The caller keeps its reference to the message. Throws NotYetConnectedException if we
+     * are not yet connected to the remote peer.
+     */
+    public ListenableFuture<?> sendMessage(SerializedMessage message) throws NotYetConnectedException {
+        checkConnected();
+        return write(message);
+    }
+
+    private void checkConnected() throws NotYetConnectedException {
         lock.lock();
         try {
             if (writeTarget == null)
@@ -83,11 +105,11 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         } finally {
             lock.unlock();
         }
-        // TODO: Some round-tripping could be avoided here
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    }
+
+    private ListenableFuture<?> write(SerializedMessage message) {
         try {
-            serializer.serialize(message, out);
-            return writeTarget.writeBytes(out.toByteArray());
+            return message.writeTo(writeTarget);
         } catch (IOException e) {
             exceptionCaught(e);
             return Futures.immediateFailedFuture(e);
@@ -126,69 +148,47 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         checkArgument(buff.position() == 0 &&
                 buff.capacity() >= BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH + 4);
         try {
-            // Repeatedly try to deserialize messages until we hit a BufferUnderflowException
-            boolean firstMessage = true;
-            while (true) {
-                // If we are in the middle of reading a message, try to fill that one first, before we expect another
-                if (largeReadBuffer != null) {
-                    // This can only happen in the first iteration
-                    checkState(firstMessage);
-                    // Read new bytes into the largeReadBuffer
-                    int bytesToGet = Math.min(buff.remaining(), largeReadBuffer.length - largeReadBufferPos);
-                    buff.get(largeReadBuffer, largeReadBufferPos, bytesToGet);
-                    largeReadBufferPos += bytesToGet;
-                    // Check the largeReadBuffer's status
-                    if (largeReadBufferPos == largeReadBuffer.length) {
-                        // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
-                        largeReadBuffer = null;
-                        header = null;
-                        firstMessage = false;
-                    } else // ...or just returning if we don't have enough bytes yet
-                        return buff.position();
-                }
-                // Now try to deserialize any messages left in buff
-                Message message;
-                int preSerializePosition = buff.position();
-                try {
-                    message = serializer.deserialize(buff);
-                } catch (BufferUnderflowException e) {
-                    // If we went through the whole buffer without a full message, we need to use the largeReadBuffer
-                    if (firstMessage && buff.limit() == buff.capacity()) {
-                        // ...so reposition the buffer to 0 and read the next message header
-                        buff.position(0);
-                        try {
-                            serializer.seekPastMagicBytes(buff);
-                            header = serializer.deserializeHeader(buff);
-                            // Initialize the largeReadBuffer with the next message's size and fill it with any bytes
-                            // left in buff
-                            largeReadBuffer = new byte[header.size];
-                            largeReadBufferPos = buff.remaining();
-                            buff.get(largeReadBuffer, 0, largeReadBufferPos);
-                        } catch (BufferUnderflowException e1) {
-                            // If we went through a whole buffer's worth of bytes without getting a header, give up
-                            // In cases where the buff is just really small, we could create a second largeReadBuffer
-                            // that we use to deserialize the magic+header, but that is rather complicated when the buff
-                            // should probably be at least that big anyway (for efficiency)
-                            throw new ProtocolException("No magic bytes+header after reading " + buff.capacity() + " bytes");
-                        }
-                    } else {
-                        // Reposition the buffer to its original position, which saves us from skipping messages by
-                        // seeking past part of the magic bytes before all of them are in the buffer
-                        buff.position(preSerializePosition);
-                    }
-                    return buff.position();
-                }
-                // Process our freshly deserialized message
-                processMessage(message);
-                firstMessage = false;
+            // Deserialize messages until the parser runs out of bytes, it keeps what it has of an incomplete payload
+            Message message;
+            while ((message = parser.parse(buff)) != null) {
+                Executor executor = messageExecutor;
+                if (executor == null)
+                    processMessage(message);
+                else
+                    executor.execute(processLater(message));
             }
+            return buff.position();
         } catch (Exception e) {
             exceptionCaught(e);
             return -1; // Returning -1 also throws an IllegalStateException upstream and kills the connection
         }
     }
 
+    private Runnable processLater(final Message message) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processMessage(message);
+                } catch (Exception e) {
+                    exceptionCaught(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets an executor to process received messages on, rather than the thread that reads them from the connection,
+     * or null to go back to processing them on that thread. The executor must run the messages one at a time and in
+     * order, like those from {@link com.google.common.util.concurrent.MoreExecutors#newSequentialExecutor(Executor)}
+     * do. Should be set before the connection opens. Whoever sets it should also call {@link #connectionOpened()} and
+     * {@link #connectionClosed()} on the same executor, so that no message is processed before the connection has
+     * opened or after it has closed; {@link org.bitcoincashj.net.MultiSelectorClientManager} does.
+     */
+    public void setMessageExecutor(@Nullable Executor messageExecutor) {
+        this.messageExecutor = messageExecutor;
+    }
+
     /**
      * Sets the {@link MessageWriteTarget} used to write messages to the peer. This should almost never be called, it is
      * called automatically by {@link NioClient} or
@@ -215,6 +215,21 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         return Message.MAX_SIZE;
     }
 
+    /**
+     * Returns the number of messages received from the peer.
+     */
+    public long getMessagesReceived() {
+        return parser.getMessageCount();
+    }
+
+    /**
+     * Returns the number of payload bytes copied out of the connection's read buffer, which is what was received less
+     * the message headers. See {@link IncrementalMessageParser}.
+     */
+    public long getPayloadBytesCopied() {
+        return parser.getBytesCopied();
+    }
+
     /**
      * @return the IP address and port of peer.
      */
@@ -18,6 +18,7 @@ package org.bitcoincashj.core;
 
 import org.bitcoincashj.store.BlockStore;
 import org.bitcoincashj.store.BlockStoreException;
+import org.bitcoincashj.store.HeightIndexedBlockStore;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -124,6 +125,25 @@ public class StoredBlock {
         return store.get(getHeader().getPrevBlockHash());
     }
 
+    /**
+     * Given a block store, looks up the ancestor of this block at the given height. If the store is a
+     * {@link HeightIndexedBlockStore} this is usually a constant time lookup, otherwise the chain is walked back one
+     * block at a time.
+     *
+     * @return the ancestor at the given height, this block if the height is its own, or null if it was not found in
+     * the store.
+     */
+    public StoredBlock getAncestor(BlockStore store, int height) throws BlockStoreException {
+        if (store instanceof HeightIndexedBlockStore)
+            return ((HeightIndexedBlockStore) store).getAncestor(this, height);
+        if (height < 0 || height > this.height)
+            return null;
+        StoredBlock cursor = this;
+        while (cursor != null && cursor.height > height)
+            cursor = cursor.getPrev(store);
+        return cursor;
+    }
+
     /**
      * Serializes the stored block to a custom packed format. Used by {@link CheckpointManager}.
      */
@@ -148,6 +148,12 @@ public class Transaction extends ChildMessage {
     // These are in memory helpers only. They contain the transaction hashes without and with witness.
     private Sha256Hash cachedTxId;
 
+    // The parts of the BIP143 style signature hash that are the same for every input, see getSigHashMidstate().
+    // Immutable once computed, so it can be read without locking. Unlike the serialization cache it survives changes
+    // to scriptSigs, which don't affect it; everything that does calls invalidateSigHashMidstate().
+    @Nullable
+    private volatile SigHashMidstate sigHashMidstate;
+
     // Data about how confirmed this tx is. Serialized, may be null.
     @Nullable
     private TransactionConfidence confidence;
@@ -829,6 +835,7 @@ public class Transaction extends ChildMessage {
      */
     public void clearInputs() {
         unCache();
+        invalidateSigHashMidstate();
         for (TransactionInput input : inputs) {
             input.setParent(null);
         }
@@ -856,6 +863,7 @@ public class Transaction extends ChildMessage {
      */
     public TransactionInput addInput(TransactionInput input) {
         unCache();
+        invalidateSigHashMidstate();
         input.setParent(this);
         inputs.add(input);
         adjustLength(inputs.size(), input.length);
@@ -983,6 +991,7 @@ public class Transaction extends ChildMessage {
      */
     public void clearOutputs() {
         unCache();
+        invalidateSigHashMidstate();
         for (TransactionOutput output : outputs) {
             output.setParent(null);
         }
@@ -996,6 +1005,7 @@ public class Transaction extends ChildMessage {
      */
     public TransactionOutput addOutput(TransactionOutput to) {
         unCache();
+        invalidateSigHashMidstate();
         to.setParent(this);
         outputs.add(to);
         adjustLength(outputs.size(), to.length);
@@ -1339,7 +1349,7 @@ public class Transaction extends ChildMessage {
      * @param type         Should be SigHash.ALL
      * @param anyoneCanPay should be false.
      */
-    public synchronized Sha256Hash hashForSignatureWitness(
+    public Sha256Hash hashForSignatureWitness(
             int inputIndex,
             Script scriptCode,
             Coin prevValue,
@@ -1348,7 +1358,7 @@ public class Transaction extends ChildMessage {
         return hashForSignatureWitness(inputIndex, scriptCode, prevValue, type, anyoneCanPay, true);
     }
 
-    public synchronized Sha256Hash hashForSignatureWitness(
+    public Sha256Hash hashForSignatureWitness(
             int inputIndex,
             Script scriptCode,
             Coin prevValue,
@@ -1359,7 +1369,7 @@ public class Transaction extends ChildMessage {
         return hashForSignatureWitness(inputIndex, connectedScript, prevValue, type, anyoneCanPay, useForkId);
     }
 
-    public synchronized Sha256Hash hashForSignatureWitness(
+    public Sha256Hash hashForSignatureWitness(
             int inputIndex,
             byte[] connectedScript,
             Coin prevValue,
@@ -1368,7 +1378,7 @@ public class Transaction extends ChildMessage {
         return hashForSignatureWitness(inputIndex, connectedScript, prevValue, type, anyoneCanPay, true);
     }
 
-    public synchronized Sha256Hash hashForSignatureWitness(
+    public Sha256Hash hashForSignatureWitness(
             int inputIndex,
             byte[] connectedScript,
             Coin prevValue,
@@ -1376,60 +1386,41 @@ public class Transaction extends ChildMessage {
             boolean anyoneCanPay,
             boolean useForkId) {
         byte sigHashType = (byte) TransactionSignature.calcSigHashValue(type, anyoneCanPay, useForkId);
-        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH ? 256 : length + 4);
-        try {
-            byte[] hashPrevouts = new byte[32];
-            byte[] hashSequence = new byte[32];
-            byte[] hashOutputs = new byte[32];
-            anyoneCanPay = (sigHashType & SIGHASH_ANYONECANPAY_VALUE) == SIGHASH_ANYONECANPAY_VALUE;
-
-            if (!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(256);
-                for (TransactionInput input : this.inputs) {
-                    bosHashPrevouts.write(input.getOutpoint().getHash().getReversedBytes());
-                    uint32ToByteStreamLE(input.getOutpoint().getIndex(), bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
-            }
-
-            if (!anyoneCanPay && type != SigHash.SINGLE && type != SigHash.NONE) {
-                ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(256);
-                for (TransactionInput input : this.inputs) {
-                    uint32ToByteStreamLE(input.getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
+        anyoneCanPay = (sigHashType & SIGHASH_ANYONECANPAY_VALUE) == SIGHASH_ANYONECANPAY_VALUE;
+        SigHashMidstate midstate = getSigHashMidstate();
+        byte[] hashPrevouts = ZERO_HASH;
+        byte[] hashSequence = ZERO_HASH;
+        byte[] hashOutputs = ZERO_HASH;
+        if (!anyoneCanPay)
+            hashPrevouts = midstate.hashPrevouts;
+        if (!anyoneCanPay && type != SigHash.SINGLE && type != SigHash.NONE)
+            hashSequence = midstate.hashSequence;
+        if (type != SigHash.SINGLE && type != SigHash.NONE) {
+            hashOutputs = midstate.hashOutputs;
+        } else if (type == SigHash.SINGLE && inputIndex < outputs.size()) {
+            ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
+            try {
+                serializeOutputForSigHash(outputs.get(inputIndex), bosHashOutputs);
+            } catch (IOException e) {
+                throw new RuntimeException(e);  // Cannot happen.
             }
+            hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+        }
 
-            if (type != SigHash.SINGLE && type != SigHash.NONE) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                for (TransactionOutput output : this.outputs) {
-                    uint64ToByteStreamLE(
-                            BigInteger.valueOf(output.getValue().getValue()),
-                            bosHashOutputs
-                    );
-                    bosHashOutputs.write(new VarInt(output.getScriptBytes().length).encode());
-                    bosHashOutputs.write(output.getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
-            } else if (type == SigHash.SINGLE && inputIndex < outputs.size()) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                uint64ToByteStreamLE(
-                        BigInteger.valueOf(this.outputs.get(inputIndex).getValue().getValue()),
-                        bosHashOutputs
-                );
-                bosHashOutputs.write(new VarInt(this.outputs.get(inputIndex).getScriptBytes().length).encode());
-                bosHashOutputs.write(this.outputs.get(inputIndex).getScriptBytes());
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
-            }
+        // Only the script code varies in size, so size the buffer for it rather than for the whole transaction.
+        TransactionInput input = inputs.get(inputIndex);
+        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(SIGHASH_PREIMAGE_FIXED_BYTES
+                + VarInt.sizeOf(connectedScript.length) + connectedScript.length);
+        try {
             uint32ToByteStreamLE(version, bos);
             bos.write(hashPrevouts);
             bos.write(hashSequence);
-            bos.write(inputs.get(inputIndex).getOutpoint().getHash().getReversedBytes());
-            uint32ToByteStreamLE(inputs.get(inputIndex).getOutpoint().getIndex(), bos);
+            bos.write(input.getOutpoint().getHash().getReversedBytes());
+            uint32ToByteStreamLE(input.getOutpoint().getIndex(), bos);
             bos.write(new VarInt(connectedScript.length).encode());
             bos.write(connectedScript);
             uint64ToByteStreamLE(BigInteger.valueOf(prevValue.getValue()), bos);
-            uint32ToByteStreamLE(inputs.get(inputIndex).getSequenceNumber(), bos);
+            uint32ToByteStreamLE(input.getSequenceNumber(), bos);
             bos.write(hashOutputs);
             uint32ToByteStreamLE(this.lockTime, bos);
             uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
@@ -1440,6 +1431,72 @@ public class Transaction extends ChildMessage {
         return Sha256Hash.twiceOf(bos.toByteArray());
     }
 
+    // version, hashPrevouts, hashSequence, outpoint, value, sequence, hashOutputs, lock time and sighash type.
+    private static final int SIGHASH_PREIMAGE_FIXED_BYTES = 4 + 32 + 32 + 36 + 8 + 4 + 32 + 4 + 4;
+    private static final byte[] ZERO_HASH = new byte[32];
+
+    /** The hashes of all outpoints, sequence numbers and outputs, which are shared by every input's signature hash. */
+    private static final class SigHashMidstate {
+        final byte[] hashPrevouts;
+        final byte[] hashSequence;
+        final byte[] hashOutputs;
+
+        SigHashMidstate(byte[] hashPrevouts, byte[] hashSequence, byte[] hashOutputs) {
+            this.hashPrevouts = hashPrevouts;
+            this.hashSequence = hashSequence;
+            this.hashOutputs = hashOutputs;
+        }
+    }
+
+    /**
+     * Returns the signature hash midstate, computing it if the transaction changed since it was last needed. This is
+     * what makes signing or verifying every input of a transaction linear rather than quadratic in its size. Two
+     * threads may race to compute it, which is harmless as they compute the same thing.
+     */
+    private SigHashMidstate getSigHashMidstate() {
+        SigHashMidstate midstate = sigHashMidstate;
+        if (midstate != null)
+            return midstate;
+        try {
+            ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(inputs.size() * 36);
+            ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(inputs.size() * 4);
+            for (TransactionInput input : this.inputs) {
+                bosHashPrevouts.write(input.getOutpoint().getHash().getReversedBytes());
+                uint32ToByteStreamLE(input.getOutpoint().getIndex(), bosHashPrevouts);
+                uint32ToByteStreamLE(input.getSequenceNumber(), bosSequence);
+            }
+            ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
+            for (TransactionOutput output : this.outputs)
+                serializeOutputForSigHash(output, bosHashOutputs);
+            midstate = new SigHashMidstate(Sha256Hash.hashTwice(bosHashPrevouts.toByteArray()),
+                    Sha256Hash.hashTwice(bosSequence.toByteArray()), Sha256Hash.hashTwice(bosHashOutputs.toByteArray()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        sigHashMidstate = midstate;
+        return midstate;
+    }
+
+    private static void serializeOutputForSigHash(TransactionOutput output, OutputStream stream) throws IOException {
+        uint64ToByteStreamLE(BigInteger.valueOf(output.getValue().getValue()), stream);
+        stream.write(new VarInt(output.getScriptBytes().length).encode());
+        stream.write(output.getScriptBytes());
+    }
+
+    /**
+     * Lets this transaction reuse the signature hash midstate already computed for the given one, so that it isn't
+     * computed again. Only valid if both have the same inputs and outputs, for example because this one was just
+     * deserialized from the other.
+     */
+    public void reuseSigHashMidstate(Transaction other) {
+        sigHashMidstate = other.getSigHashMidstate();
+    }
+
+    /** Must be called when an outpoint, sequence number or output of this transaction changes. */
+    void invalidateSigHashMidstate() {
+        sigHashMidstate = null;
+    }
+
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         // version
@@ -1535,6 +1592,8 @@ public class Transaction extends ChildMessage {
      */
     public void shuffleOutputs() {
         Collections.shuffle(outputs);
+        unCache();
+        invalidateSigHashMidstate();
     }
 
     /**
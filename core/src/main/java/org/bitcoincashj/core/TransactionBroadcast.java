@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.bitcoincashj.core.listeners.PreMessageReceivedEventListener;
+import org.bitcoincashj.net.SerializedMessage;
 import org.bitcoincashj.utils.Threading;
 import org.bitcoincashj.wallet.Wallet;
 import org.slf4j.Logger;
@@ -163,9 +164,11 @@ public class TransactionBroadcast {
             peers = peers.subList(0, numToBroadcastTo);
             log.info("broadcastTransaction: We have {} peers, adding {} to the memory pool", numConnected, tx.getTxId());
             log.info("Sending to {} peers, will wait for {}, sending to: {}", numToBroadcastTo, numWaitingFor, Joiner.on(",").join(peers));
+            // Serialize once and let all peers write from the same buffer.
+            SerializedMessage serialized = tx.getParams().getDefaultSerializer().serializeToBuffer(tx);
             for (final Peer peer : peers) {
                 try {
-                    ListenableFuture future = peer.sendMessage(tx);
+                    ListenableFuture<?> future = peer.sendMessage(serialized);
                     if (dropPeersAfterBroadcast) {
                         // We drop the peer shortly after the transaction has been sent, because this peer will not
                         // send us back useful broadcast confirmations.
@@ -183,6 +186,7 @@ public class TransactionBroadcast {
                     log.error("Caught exception sending to {}", peer, e);
                 }
             }
+            serialized.release();
         }
     }
 
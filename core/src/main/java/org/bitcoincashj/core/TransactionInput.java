@@ -226,6 +226,8 @@ public class TransactionInput extends ChildMessage {
     public void setSequenceNumber(long sequence) {
         unCache();
         this.sequence = sequence;
+        if (parent != null)
+            getParentTransaction().invalidateSigHashMidstate();
     }
 
     /**
@@ -172,6 +172,8 @@ public class TransactionOutput extends ChildMessage {
         checkNotNull(value);
         unCache();
         this.value = value.value;
+        if (parent != null)
+            getParentTransaction().invalidateSigHashMidstate();
     }
 
     /**
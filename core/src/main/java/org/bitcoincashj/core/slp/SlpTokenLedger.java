@@ -0,0 +1,292 @@
+package org.bitcoincashj.core.slp;
+
+import com.google.common.base.Predicate;
+import org.bitcoincashj.core.Coin;
+import org.bitcoincashj.core.Transaction;
+import org.bitcoincashj.core.TransactionConfidence;
+import org.bitcoincashj.core.TransactionInput;
+import org.bitcoincashj.core.TransactionOutPoint;
+import org.bitcoincashj.core.TransactionOutput;
+import org.bitcoincashj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoincashj.wallet.Wallet;
+import org.bitcoincashj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoincashj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoincashj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * <p>Keeps track of the SLP token outputs owned by a wallet and of the resulting balances, updating both
+ * incrementally as the wallet reports transactions instead of rescanning every dust output.</p>
+ *
+ * <p>Once registered with {@link #addTo(Wallet)}, every received or sent transaction is reconciled against the ledger
+ * in O(inputs + outputs) of that transaction: outputs it spends are dropped, and its own eligible outputs are added.
+ * Outputs are eligible by the same rules as {@link Wallet#getAllDustUtxos(boolean, boolean)} with immature coinbases
+ * and unsignable outputs excluded. Transactions that become dead, and coinbases whose depth changes, are reconciled
+ * the same way, and a re-organize triggers a full {@link #reset(List)}.</p>
+ *
+ * <p>Only outputs of transactions accepted by the <code>verified</code> predicate count towards balances. Outputs
+ * of other transactions are remembered until {@link #markVerified(Collection)} is called for them, see
+ * {@link #getUnverifiedTxIds()}. Balances are exact raw token amounts, before applying the token's decimals.</p>
+ */
+public class SlpTokenLedger implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        WalletReorganizeEventListener, TransactionConfidenceEventListener {
+    private static final Logger log = LoggerFactory.getLogger(SlpTokenLedger.class);
+
+    /** The kind of token an output carries, which determines the balance it is counted towards. */
+    public enum Kind {
+        TOKEN,
+        NFT_PARENT,
+        NFT
+    }
+
+    private static class Entry {
+        final SlpUTXO utxo;
+        final Kind kind;
+        boolean verified;
+
+        Entry(SlpUTXO utxo, Kind kind, boolean verified) {
+            this.utxo = utxo;
+            this.kind = kind;
+            this.verified = verified;
+        }
+    }
+
+    private final Wallet wallet;
+    private final Predicate<String> verified;
+    private final Map<TransactionOutPoint, Entry> utxos = new HashMap<>();
+    private final Map<String, Set<TransactionOutPoint>> unverified = new HashMap<>();
+    private final EnumMap<Kind, Map<String, Long>> balances = new EnumMap<>(Kind.class);
+
+    public SlpTokenLedger(Wallet wallet, Predicate<String> verified) {
+        this.wallet = wallet;
+        this.verified = verified;
+        for (Kind kind : Kind.values())
+            balances.put(kind, new HashMap<String, Long>());
+    }
+
+    /** Registers the ledger for the wallet events it needs and initializes it from the wallet's dust outputs. */
+    public void addTo(Wallet wallet) {
+        wallet.addCoinsReceivedEventListener(this);
+        wallet.addCoinsSentEventListener(this);
+        wallet.addReorganizeEventListener(this);
+        wallet.addTransactionConfidenceEventListener(this);
+        reset(wallet.getAllDustUtxos(true, true));
+    }
+
+    public void removeFrom(Wallet wallet) {
+        wallet.removeCoinsReceivedEventListener(this);
+        wallet.removeCoinsSentEventListener(this);
+        wallet.removeReorganizeEventListener(this);
+        wallet.removeTransactionConfidenceEventListener(this);
+    }
+
+    /** Discards all state and rebuilds it from the given outputs. */
+    public synchronized void reset(List<TransactionOutput> dustUtxos) {
+        utxos.clear();
+        unverified.clear();
+        for (Map<String, Long> kindBalances : balances.values())
+            kindBalances.clear();
+        Map<Transaction, SlpOpReturn> parsed = new HashMap<>();
+        for (TransactionOutput output : dustUtxos) {
+            Transaction tx = output.getParentTransaction();
+            if (tx == null)
+                continue;
+            if (!parsed.containsKey(tx))
+                parsed.put(tx, parse(tx));
+            SlpOpReturn slpOpReturn = parsed.get(tx);
+            if (slpOpReturn != null)
+                add(slpOpReturn, output);
+        }
+    }
+
+    /**
+     * Brings the ledger in line with the wallet for every output the given transaction creates or spends. Safe to
+     * call repeatedly for the same transaction.
+     */
+    public synchronized void reconcile(Transaction tx) {
+        if (!tx.isCoinBase()) {
+            for (TransactionInput input : tx.getInputs()) {
+                TransactionOutPoint outpoint = input.getOutpoint();
+                TransactionOutput connected = input.getConnectedOutput();
+                if (connected != null && connected.getParentTransaction() != null && isEligible(connected)) {
+                    if (!utxos.containsKey(outpoint)) {
+                        SlpOpReturn slpOpReturn = parse(connected.getParentTransaction());
+                        if (slpOpReturn != null)
+                            add(slpOpReturn, connected);
+                    }
+                } else {
+                    remove(outpoint);
+                }
+            }
+        }
+        SlpOpReturn slpOpReturn = parse(tx);
+        if (slpOpReturn == null)
+            return;
+        for (TransactionOutput output : tx.getOutputs()) {
+            TransactionOutPoint outpoint = output.getOutPointFor();
+            if (isEligible(output)) {
+                if (!utxos.containsKey(outpoint))
+                    add(slpOpReturn, output);
+            } else {
+                remove(outpoint);
+            }
+        }
+    }
+
+    /** Counts the outputs of the given transactions towards balances. */
+    public synchronized void markVerified(Collection<String> txIds) {
+        for (String txId : txIds) {
+            Set<TransactionOutPoint> outpoints = unverified.remove(txId);
+            if (outpoints == null)
+                continue;
+            for (TransactionOutPoint outpoint : outpoints) {
+                Entry entry = utxos.get(outpoint);
+                entry.verified = true;
+                adjustBalance(entry, 1);
+            }
+        }
+    }
+
+    /** Returns the transactions whose token outputs are tracked but not yet counted as verified. */
+    public synchronized Set<String> getUnverifiedTxIds() {
+        return new HashSet<>(unverified.keySet());
+    }
+
+    /** Returns the verified token outputs of the given kind. */
+    public synchronized List<SlpUTXO> getUtxos(Kind kind) {
+        List<SlpUTXO> result = new ArrayList<>();
+        for (Entry entry : utxos.values()) {
+            if (entry.kind == kind && entry.verified)
+                result.add(entry.utxo);
+        }
+        return result;
+    }
+
+    /** Returns the raw balance of every token of the given kind with a non-zero balance. */
+    public synchronized Map<String, Long> getRawBalances(Kind kind) {
+        return new HashMap<>(balances.get(kind));
+    }
+
+    public synchronized long getRawBalance(Kind kind, String tokenId) {
+        Long balance = balances.get(kind).get(tokenId);
+        return balance != null ? balance : 0;
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        reconcile(tx);
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        reconcile(tx);
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        // Coinbase outputs only become eligible once mature.
+        if (tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD || tx.isCoinBase())
+            reconcile(tx);
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+        reset(wallet.getAllDustUtxos(true, true));
+    }
+
+    private boolean isEligible(TransactionOutput output) {
+        return output.getValue().value == 546L && output.isAvailableForSpending() && !output.isFrozen()
+                && output.isMine(wallet) && output.getParentTransaction().isMature()
+                && wallet.canSignFor(output.getScriptPubKey());
+    }
+
+    private void add(SlpOpReturn slpOpReturn, TransactionOutput output) {
+        Kind kind = kindOf(slpOpReturn.getSlpTxType());
+        if (kind == null)
+            return;
+        long rawAmount;
+        try {
+            rawAmount = slpOpReturn.getRawAmountOfUtxo(output.getIndex() - 1);
+        } catch (RuntimeException e) {
+            return;
+        }
+        String txId = output.getParentTransactionHash().toString();
+        SlpUTXO utxo = new SlpUTXO(slpOpReturn.getTokenId(), rawAmount, output, SlpUTXO.SlpUtxoType.NORMAL);
+        Entry entry = new Entry(utxo, kind, verified.apply(txId));
+        TransactionOutPoint outpoint = output.getOutPointFor();
+        remove(outpoint);
+        utxos.put(outpoint, entry);
+        if (entry.verified) {
+            adjustBalance(entry, 1);
+        } else {
+            Set<TransactionOutPoint> outpoints = unverified.get(txId);
+            if (outpoints == null) {
+                outpoints = new HashSet<>();
+                unverified.put(txId, outpoints);
+            }
+            outpoints.add(outpoint);
+        }
+    }
+
+    private void remove(TransactionOutPoint outpoint) {
+        Entry entry = utxos.remove(outpoint);
+        if (entry == null)
+            return;
+        if (entry.verified) {
+            adjustBalance(entry, -1);
+        } else {
+            String txId = outpoint.getHash().toString();
+            Set<TransactionOutPoint> outpoints = unverified.get(txId);
+            if (outpoints != null) {
+                outpoints.remove(outpoint);
+                if (outpoints.isEmpty())
+                    unverified.remove(txId);
+            }
+        }
+    }
+
+    private void adjustBalance(Entry entry, int sign) {
+        Map<String, Long> kindBalances = balances.get(entry.kind);
+        String tokenId = entry.utxo.getTokenId();
+        Long current = kindBalances.get(tokenId);
+        long updated = (current != null ? current : 0) + sign * entry.utxo.getTokenAmountRaw();
+        if (updated == 0)
+            kindBalances.remove(tokenId);
+        else
+            kindBalances.put(tokenId, updated);
+    }
+
+    private static Kind kindOf(SlpOpReturn.SlpTxType txType) {
+        if (txType == null)
+            return null;
+        switch (txType) {
+            case SEND:
+            case GENESIS:
+            case MINT:
+                return Kind.TOKEN;
+            case NFT_PARENT_SEND:
+            case NFT_PARENT_GENESIS:
+            case NFT_PARENT_MINT:
+                return Kind.NFT_PARENT;
+            case NFT_CHILD_SEND:
+            case NFT_CHILD_GENESIS:
+                return Kind.NFT;
+            default:
+                return null;
+        }
+    }
+
+    /** Parses the SLP OP_RETURN of the given transaction, or returns null if it is not a well formed SLP transaction. */
+    private static SlpOpReturn parse(Transaction tx) {
+        try {
+            if (SlpOpReturn.isSlpTx(tx) || SlpOpReturn.isNftChildTx(tx))
+                return new SlpOpReturn(tx);
+        } catch (RuntimeException e) {
+            log.debug("Ignoring malformed SLP transaction {}", tx.getTxId());
+        }
+        return null;
+    }
+}
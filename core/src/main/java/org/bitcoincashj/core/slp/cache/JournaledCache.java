@@ -0,0 +1,185 @@
+package org.bitcoincashj.core.slp.cache;
+
+import org.bitcoincashj.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A bounded key/value cache with a hash-indexed in-memory view and an append-only journal on disk.</p>
+ *
+ * <p>Each {@link #put(Object, Object)} appends a single length-prefixed record to the journal, so persisting new
+ * entries costs O(new entries) rather than rewriting the whole file. Once the journal holds considerably more records
+ * than live entries (because of evictions or overwrites), it is compacted by writing the live entries to a temporary
+ * file and renaming it over the journal. When more than <code>maxEntries</code> entries are held, the least recently
+ * used one is evicted.</p>
+ *
+ * <p>Subclasses define how a single entry is encoded into a record. All methods are thread safe.</p>
+ */
+public abstract class JournaledCache<K, V> implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(JournaledCache.class);
+
+    /** Journals are never compacted while they hold fewer records than this. */
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final File file;
+    private final LinkedHashMap<K, V> entries;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    protected JournaledCache(File file, final int maxEntries) throws IOException {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.file = file;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        boolean truncated = load();
+        if (truncated || journalRecords > compactionThreshold())
+            compact();
+        else
+            openJournal();
+    }
+
+    /** Encodes a single entry into a journal record. */
+    protected abstract byte[] serialize(K key, V value) throws IOException;
+
+    /** Decodes a journal record written by {@link #serialize(Object, Object)}. */
+    protected abstract Map.Entry<K, V> deserialize(byte[] record) throws IOException;
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized boolean containsKey(K key) {
+        // Use get() rather than containsKey() so that lookups count as an access for LRU ordering.
+        return entries.get(key) != null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** Returns a snapshot of the cached values, least recently used first. */
+    public synchronized List<V> values() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /** Adds or replaces an entry, appending it to the journal unless an equal entry is already cached. */
+    public synchronized void put(K key, V value) throws IOException {
+        if (append(key, value)) {
+            journal.flush();
+            maybeCompact();
+        }
+    }
+
+    /** Adds all given entries, flushing the journal once at the end. */
+    public synchronized void putAll(Map<K, V> newEntries) throws IOException {
+        boolean appended = false;
+        for (Map.Entry<K, V> entry : newEntries.entrySet())
+            appended |= append(entry.getKey(), entry.getValue());
+        if (appended) {
+            journal.flush();
+            maybeCompact();
+        }
+    }
+
+    /** Rewrites the journal so that it contains exactly the live entries. */
+    public synchronized void compact() throws IOException {
+        if (journal != null)
+            journal.close();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            for (Map.Entry<K, V> entry : entries.entrySet())
+                writeRecord(out, serialize(entry.getKey(), entry.getValue()));
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (Utils.isWindows() && file.exists() && !file.delete())
+            throw new IOException("Failed to delete " + file + " for replacement");
+        if (!temp.renameTo(file))
+            throw new IOException("Failed to rename " + temp + " to " + file);
+        journalRecords = entries.size();
+        openJournal();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private boolean append(K key, V value) throws IOException {
+        V previous = entries.put(key, value);
+        if (value.equals(previous))
+            return false;
+        writeRecord(journal, serialize(key, value));
+        journalRecords++;
+        return true;
+    }
+
+    private void maybeCompact() throws IOException {
+        if (journalRecords > compactionThreshold())
+            compact();
+    }
+
+    private int compactionThreshold() {
+        return Math.max(MIN_COMPACTION_RECORDS, entries.size() * 2);
+    }
+
+    /** Replays the journal into memory. Returns true if a torn trailing record had to be dropped. */
+    private boolean load() throws IOException {
+        if (!file.exists())
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int first = in.read();
+                if (first == -1)
+                    return false;
+                try {
+                    int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+                    if (length < 0)
+                        throw new IOException("Negative record length " + length);
+                    byte[] record = new byte[length];
+                    in.readFully(record);
+                    Map.Entry<K, V> entry = deserialize(record);
+                    entries.put(entry.getKey(), entry.getValue());
+                    journalRecords++;
+                } catch (IOException e) {
+                    log.warn("Dropping unreadable tail of journal {}: {}", file, e.toString());
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    protected static <K, V> Map.Entry<K, V> entry(K key, V value) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+}
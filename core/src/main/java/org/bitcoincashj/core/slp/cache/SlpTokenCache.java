@@ -0,0 +1,101 @@
+package org.bitcoincashj.core.slp.cache;
+
+import org.bitcoincashj.core.slp.SlpToken;
+import org.bitcoincashj.core.slp.nft.NonFungibleSlpToken;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Token metadata fetched from SLPDB, keyed by token id. Each journal record is the token encoded as a JSON object,
+ * using the same fields as the legacy <code>.tokens</code>/<code>.nfts</code> files.
+ */
+public abstract class SlpTokenCache<T extends SlpToken> extends JournaledCache<String, T> {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    protected SlpTokenCache(File file, int maxEntries) throws IOException {
+        super(file, maxEntries);
+    }
+
+    public void add(T token) throws IOException {
+        put(token.getTokenId(), token);
+    }
+
+    /** Encodes the token into the JSON object stored in the journal. */
+    public abstract JSONObject toJson(T token);
+
+    /** Decodes a token from its JSON representation. */
+    public abstract T fromJson(JSONObject tokenObj);
+
+    @Override
+    protected byte[] serialize(String key, T value) {
+        return toJson(value).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected Map.Entry<String, T> deserialize(byte[] record) throws IOException {
+        try {
+            T token = fromJson(new JSONObject(new String(record, StandardCharsets.UTF_8)));
+            return entry(token.getTokenId(), token);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Cache for fungible SLP token details. */
+    public static class Tokens extends SlpTokenCache<SlpToken> {
+        public Tokens(File file) throws IOException {
+            this(file, DEFAULT_MAX_ENTRIES);
+        }
+
+        public Tokens(File file, int maxEntries) throws IOException {
+            super(file, maxEntries);
+        }
+
+        @Override
+        public JSONObject toJson(SlpToken token) {
+            JSONObject tokenObj = new JSONObject();
+            tokenObj.put("tokenId", token.getTokenId());
+            tokenObj.put("ticker", token.getTicker());
+            tokenObj.put("decimals", token.getDecimals());
+            return tokenObj;
+        }
+
+        @Override
+        public SlpToken fromJson(JSONObject tokenObj) {
+            return new SlpToken(tokenObj.getString("tokenId"), tokenObj.getString("ticker"), tokenObj.getInt("decimals"));
+        }
+    }
+
+    /** Cache for NFT child token details. */
+    public static class Nfts extends SlpTokenCache<NonFungibleSlpToken> {
+        public Nfts(File file) throws IOException {
+            this(file, DEFAULT_MAX_ENTRIES);
+        }
+
+        public Nfts(File file, int maxEntries) throws IOException {
+            super(file, maxEntries);
+        }
+
+        @Override
+        public JSONObject toJson(NonFungibleSlpToken nft) {
+            JSONObject tokenObj = new JSONObject();
+            tokenObj.put("tokenId", nft.getTokenId());
+            tokenObj.put("nftParentId", nft.getNftParentId());
+            tokenObj.put("name", nft.getName());
+            tokenObj.put("ticker", nft.getTicker());
+            tokenObj.put("decimals", nft.getDecimals());
+            return tokenObj;
+        }
+
+        @Override
+        public NonFungibleSlpToken fromJson(JSONObject tokenObj) {
+            return new NonFungibleSlpToken(tokenObj.getString("tokenId"), tokenObj.getString("nftParentId"),
+                    tokenObj.getString("name"), tokenObj.getString("ticker"), tokenObj.getInt("decimals"));
+        }
+    }
+}
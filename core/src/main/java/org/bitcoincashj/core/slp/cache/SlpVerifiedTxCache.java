@@ -0,0 +1,56 @@
+package org.bitcoincashj.core.slp.cache;
+
+import org.bitcoincashj.core.Sha256Hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Set of SLP transactions that SLPDB has reported as valid, keyed by the raw 32 byte txid. Each journal record is
+ * just the txid.
+ */
+public class SlpVerifiedTxCache extends JournaledCache<Sha256Hash, Boolean> {
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    public SlpVerifiedTxCache(File file) throws IOException {
+        this(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    public SlpVerifiedTxCache(File file, int maxEntries) throws IOException {
+        super(file, maxEntries);
+    }
+
+    public boolean contains(Sha256Hash txId) {
+        return containsKey(txId);
+    }
+
+    public boolean contains(String txId) {
+        return contains(Sha256Hash.wrap(txId));
+    }
+
+    public void add(Sha256Hash txId) throws IOException {
+        put(txId, Boolean.TRUE);
+    }
+
+    public void addAll(Collection<String> txIds) throws IOException {
+        Map<Sha256Hash, Boolean> newEntries = new HashMap<>();
+        for (String txId : txIds)
+            newEntries.put(Sha256Hash.wrap(txId), Boolean.TRUE);
+        putAll(newEntries);
+    }
+
+    @Override
+    protected byte[] serialize(Sha256Hash key, Boolean value) {
+        return key.getBytes();
+    }
+
+    @Override
+    protected Map.Entry<Sha256Hash, Boolean> deserialize(byte[] record) throws IOException {
+        if (record.length != Sha256Hash.LENGTH)
+            throw new IOException("Unexpected txid record length " + record.length);
+        return entry(Sha256Hash.wrap(record), Boolean.TRUE);
+    }
+}
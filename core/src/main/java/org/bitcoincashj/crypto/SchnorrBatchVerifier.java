@@ -0,0 +1,153 @@
+package org.bitcoincashj.crypto;
+
+import com.google.common.collect.Lists;
+import org.bitcoincashj.core.ECKey;
+import org.bitcoincashj.core.Sha256Hash;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bitcoincashj.crypto.SchnorrSignature.n;
+import static org.bitcoincashj.crypto.SchnorrSignature.p;
+
+/**
+ * <p>Collects Schnorr signature checks so that they can be verified together, which is several times cheaper than
+ * verifying them one by one.</p>
+ *
+ * <p>Each signature <code>(r, s)</code> over message <code>m</code> by key <code>P</code> is valid iff
+ * <code>sG = R + eP</code>, where <code>R</code> is the point with x coordinate <code>r</code> and a quadratic residue
+ * y coordinate and <code>e = H(r || P || m)</code>. {@link #verify()} checks a random linear combination of all these
+ * equations with a single multi-scalar multiplication. If any signature is invalid, the combination fails except with
+ * negligible probability; it does not tell which one, so callers fall back to checking signatures individually.</p>
+ *
+ * <p>Adding signatures is thread safe, so a batch can be shared between verification threads.</p>
+ */
+public class SchnorrBatchVerifier {
+    /** Signatures are combined in chunks of this size, to bound the memory used by the multiplication. */
+    private static final int MAX_CHUNK_SIZE = 512;
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private static class Entry {
+        final ECPoint R;
+        final ECPoint P;
+        final BigInteger s;
+        final BigInteger e;
+
+        Entry(ECPoint R, ECPoint P, BigInteger s, BigInteger e) {
+            this.R = R;
+            this.P = P;
+            this.s = s;
+            this.e = e;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Adds a signature to the batch. Returns false without adding it if it is malformed in a way that makes it
+     * invalid regardless of the rest of the batch, in which case {@link SchnorrSignature#schnorr_verify(byte[], byte[],
+     * byte[])} would also have rejected it.
+     *
+     * @param msg    32 byte message hash.
+     * @param pubkey 33 byte compressed public key.
+     * @param sig    64 byte signature, without sighash flags.
+     */
+    public boolean add(byte[] msg, byte[] pubkey, byte[] sig) {
+        if (msg.length != 32 || pubkey.length != 33 || sig.length != 64)
+            return false;
+        if (pubkey[0] != 2 && pubkey[0] != 3)
+            return false;
+        ECCurve curve = ECKey.CURVE.getCurve();
+        ECPoint P;
+        try {
+            P = curve.decodePoint(pubkey);
+        } catch (IllegalArgumentException x) {
+            return false; // Not on the curve.
+        }
+        BigInteger r = SchnorrSignature.toBigInteger(sig, 0, 32);
+        BigInteger s = SchnorrSignature.toBigInteger(sig, 32, 32);
+        if (r.compareTo(p) >= 0 || s.compareTo(n) >= 0)
+            return false;
+
+        // The field's square root is computed as y^2^((p+1)/4), which is itself a square, so it is the y coordinate
+        // of the R the signer committed to.
+        ECFieldElement x = curve.fromBigInteger(r);
+        ECFieldElement y = x.square().multiply(x).add(curve.getB()).sqrt();
+        if (y == null)
+            return false; // r is not the x coordinate of a point.
+        ECPoint R = curve.createPoint(r, y.toBigInteger());
+
+        byte[] eData = new byte[32 + 33 + 32];
+        System.arraycopy(sig, 0, eData, 0, 32);
+        System.arraycopy(pubkey, 0, eData, 32, 33);
+        System.arraycopy(msg, 0, eData, 65, 32);
+        BigInteger e = SchnorrSignature.toBigInteger(Sha256Hash.hash(eData)).mod(n);
+
+        synchronized (this) {
+            entries.add(new Entry(R, P, s, e));
+        }
+        return true;
+    }
+
+    /** Moves all signatures of the given batch into this one. */
+    public void addAll(SchnorrBatchVerifier other) {
+        List<Entry> otherEntries;
+        synchronized (other) {
+            otherEntries = new ArrayList<>(other.entries);
+            other.entries.clear();
+        }
+        synchronized (this) {
+            entries.addAll(otherEntries);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns true if all signatures in the batch are valid. An empty batch is valid.
+     */
+    public boolean verify() {
+        List<Entry> toVerify;
+        synchronized (this) {
+            toVerify = new ArrayList<>(entries);
+        }
+        for (List<Entry> chunk : Lists.partition(toVerify, MAX_CHUNK_SIZE)) {
+            if (!verifyChunk(chunk))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks <code>(sum a_i s_i) G - sum a_i R_i - sum (a_i e_i) P_i = 0</code> for random 128 bit <code>a_i</code>
+     * (and <code>a_0 = 1</code>).
+     */
+    private static boolean verifyChunk(List<Entry> chunk) {
+        int size = chunk.size();
+        ECPoint[] points = new ECPoint[1 + 2 * size];
+        BigInteger[] scalars = new BigInteger[1 + 2 * size];
+        BigInteger sumS = BigInteger.ZERO;
+        for (int i = 0; i < size; i++) {
+            Entry entry = chunk.get(i);
+            BigInteger a = i == 0 ? BigInteger.ONE : new BigInteger(128, secureRandom);
+            sumS = sumS.add(a.multiply(entry.s));
+            // Negate the point rather than the scalar, so that the scalar stays short.
+            points[1 + 2 * i] = entry.R.negate();
+            scalars[1 + 2 * i] = a;
+            points[2 + 2 * i] = entry.P;
+            scalars[2 + 2 * i] = n.subtract(a.multiply(entry.e).mod(n)).mod(n);
+        }
+        points[0] = ECKey.CURVE.getG();
+        scalars[0] = sumS.mod(n);
+        return ECAlgorithms.sumOfMultiplies(points, scalars).isInfinity();
+    }
+}
@@ -2,6 +2,8 @@ package org.bitcoincashj.crypto;
 
 import com.google.common.base.Preconditions;
 import org.bitcoincashj.core.*;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
 
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
@@ -101,11 +103,11 @@ public class SchnorrSignature {
     }
 
     public static BigInteger toBigInteger(byte[] data, int startPos, int len) {
-        return new BigInteger(bytesToHex(data, startPos, len), 16);
+        return new BigInteger(1, Arrays.copyOfRange(data, startPos, startPos + len));
     }
 
     public static BigInteger toBigInteger(byte[] data) {
-        return new BigInteger(bytesToHex(data), 16);
+        return new BigInteger(1, data);
     }
 
     public static byte[] bytes_from_point(BigInteger[] point) {
@@ -115,44 +117,46 @@ public class SchnorrSignature {
         return res;
     }
 
+    /**
+     * Signs the given 32 byte message. Point multiplications go through BouncyCastle's fixed-point comb multiplier,
+     * which precomputes multiples of the generator once per JVM, rather than the affine double-and-add above.
+     */
     public static byte[] schnorr_sign(byte[] msg, BigInteger seckey) {
         if (msg.length != 32)
             throw new RuntimeException("The message must be a 32-byte array.");
 
-        if (BigInteger.ZERO.compareTo(seckey) > 0 || seckey.compareTo(n.subtract(BigInteger.ONE)) > 0)
+        if (BigInteger.ONE.compareTo(seckey) > 0 || seckey.compareTo(n.subtract(BigInteger.ONE)) > 0)
             throw new RuntimeException("The secret key must be an integer in the range 1..n-1.");
 
         byte[] resultData = new byte[32 + msg.length];
         System.arraycopy(to32BytesData(seckey), 0, resultData, 0, 32);
         System.arraycopy(msg, 0, resultData, 32, msg.length);
 
-        try {
-            BigInteger k0 = toBigInteger(sha256(resultData)).mod(n);
-            if (BigInteger.ZERO.compareTo(k0) == 0)
-                throw new RuntimeException("Failure. This happens only with negligible probability.");
-
-            BigInteger[] R = point_mul(G, k0);
-
-            BigInteger k = BigInteger.ONE.compareTo(jacobi(R[1])) != 0 ? n.subtract(k0) : k0;
-            byte[] R0Bytes = to32BytesData(R[0]);
-            byte[] eData = new byte[32 + 33 + 32];
-            System.arraycopy(R0Bytes, 0, eData, 0, 32);
-            System.arraycopy(bytes_from_point(point_mul(G, seckey)), 0, eData, 32, 33);
-            System.arraycopy(msg, 0, eData, 65, 32);
-            eData = sha256(eData);
-            BigInteger e = toBigInteger(eData).mod(n);
-
-            byte[] finalData = new byte[64];
-            System.arraycopy(R0Bytes, 0, finalData, 0, 32);
-            System.arraycopy(to32BytesData(e.multiply(seckey).add(k).mod(n)), 0, finalData, 32, 32);
-
-            return finalData;
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Error occurs during schnorr_sign, e=" + e);
-        }
+        BigInteger k0 = toBigInteger(Sha256Hash.hash(resultData)).mod(n);
+        if (BigInteger.ZERO.compareTo(k0) == 0)
+            throw new RuntimeException("Failure. This happens only with negligible probability.");
+
+        ECPoint R = ECKey.publicPointFromPrivate(k0).normalize();
+
+        BigInteger k = BigInteger.ONE.compareTo(jacobi(R.getAffineYCoord().toBigInteger())) != 0 ? n.subtract(k0) : k0;
+        byte[] R0Bytes = R.getAffineXCoord().getEncoded();
+        byte[] eData = new byte[32 + 33 + 32];
+        System.arraycopy(R0Bytes, 0, eData, 0, 32);
+        System.arraycopy(ECKey.publicPointFromPrivate(seckey).getEncoded(true), 0, eData, 32, 33);
+        System.arraycopy(msg, 0, eData, 65, 32);
+        BigInteger e = toBigInteger(Sha256Hash.hash(eData)).mod(n);
+
+        byte[] finalData = new byte[64];
+        System.arraycopy(R0Bytes, 0, finalData, 0, 32);
+        System.arraycopy(to32BytesData(e.multiply(seckey).add(k).mod(n)), 0, finalData, 32, 32);
+
+        return finalData;
     }
 
+    /**
+     * Verifies a signature over the given 32 byte message. <code>sG - eP</code> is computed as a single interleaved
+     * multiplication using the curve's GLV endomorphism, instead of two separate affine multiplications.
+     */
     public static boolean schnorr_verify(byte[] msg, byte[] pubkey, byte[] sig) {
         if (msg.length != 32)
             throw new RuntimeException("The message must be a 32-byte array.");
@@ -163,9 +167,14 @@ public class SchnorrSignature {
         if (sig.length != 64)
             throw new RuntimeException("The signature must be a 64-byte array.");
 
-        BigInteger[] P = point_from_bytes(pubkey);
-        if (P == null)
+        if (pubkey[0] != 2 && pubkey[0] != 3)
             return false;
+        ECPoint P;
+        try {
+            P = ECKey.CURVE.getCurve().decodePoint(pubkey);
+        } catch (IllegalArgumentException x) {
+            return false; // Not on the curve.
+        }
 
         BigInteger r = toBigInteger(sig, 0, 32);
         BigInteger s = toBigInteger(sig, 32, 32);
@@ -173,20 +182,15 @@ public class SchnorrSignature {
         if (r.compareTo(p) >= 0 || s.compareTo(n) >= 0)
             return false;
 
-        try {
-            byte[] eData = new byte[32 + 33 + 32];
-            System.arraycopy(sig, 0, eData, 0, 32);
-            System.arraycopy(bytes_from_point(P), 0, eData, 32, 33);
-            System.arraycopy(msg, 0, eData, 65, 32);
-            eData = sha256(eData);
-            BigInteger e = toBigInteger(eData).mod(n);
-
-            BigInteger[] R = point_add(point_mul(G, s), point_mul(P, n.subtract(e)));
-            return R != null && BigInteger.ONE.compareTo(jacobi(R[1])) == 0 && r.compareTo(R[0]) == 0;
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Error occurs during schnorr_verify, e=" + e);
-        }
+        byte[] eData = new byte[32 + 33 + 32];
+        System.arraycopy(sig, 0, eData, 0, 32);
+        System.arraycopy(pubkey, 0, eData, 32, 33);
+        System.arraycopy(msg, 0, eData, 65, 32);
+        BigInteger e = toBigInteger(Sha256Hash.hash(eData)).mod(n);
+
+        ECPoint R = ECAlgorithms.sumOfTwoMultiplies(ECKey.CURVE.getG(), s, P, n.subtract(e).mod(n)).normalize();
+        return !R.isInfinity() && BigInteger.ONE.compareTo(jacobi(R.getAffineYCoord().toBigInteger())) == 0
+                && r.compareTo(R.getAffineXCoord().toBigInteger()) == 0;
     }
 
     public static byte[] hexStringToByteArray(String s) {
@@ -28,6 +28,7 @@ import org.bitcoincashj.crypto.TransactionSignature;
 import org.bitcoincashj.net.discovery.DnsDiscovery;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.store.BlockStoreException;
+import org.bitcoincashj.store.HeightIndexedBlockStore;
 import org.bitcoincashj.store.SPVBlockStore;
 import org.bitcoincashj.wallet.*;
 import org.bouncycastle.util.encoders.Hex;
@@ -157,7 +158,7 @@ public class MultisigAppKit extends WalletKitCore {
                     vStore.clear();
                 }
             }
-            vChain = new BlockChain(params, vStore);
+            vChain = new BlockChain(params, new HeightIndexedBlockStore(vStore));
             vPeerGroup = createPeerGroup();
             if (this.userAgent != null)
                 vPeerGroup.setUserAgent(userAgent, version);
@@ -19,6 +19,7 @@ package org.bitcoincashj.kits;
 
 import org.bitcoincashj.core.*;
 import org.bitcoincashj.net.SlpDbProcessor;
+import org.bitcoincashj.net.SlpDbValidationPipeline;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.store.SPVBlockStore;
 import org.bitcoincashj.wallet.KeyChainGroupStructure;
@@ -83,21 +84,9 @@ public class SlpAppKit extends WalletKitCore {
     @Override
     protected void startUp() throws Exception {
         super.startUp();
-        File txsDataFile = new File(this.directory(), this.filePrefix + ".txs");
-        if (txsDataFile.exists()) {
-            this.loadRecordedTxs();
-        }
-        File tokenDataFile = new File(this.directory(), this.filePrefix + ".tokens");
-        this.tokensFile = tokenDataFile;
-        if (tokenDataFile.exists()) {
-            this.loadTokens();
-        }
-        File nftDataFile = new File(this.directory(), this.filePrefix + ".nfts");
-        this.nftsFile = nftDataFile;
-        if (nftDataFile.exists()) {
-            this.loadNfts();
-        }
-
+        this.openSlpCaches();
+        this.startSlpLedger();
         this.slpDbProcessor = new SlpDbProcessor();
+        this.slpValidationPipeline = new SlpDbValidationPipeline(this.slpDbProcessor);
     }
 }
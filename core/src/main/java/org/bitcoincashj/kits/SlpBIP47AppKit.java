@@ -23,6 +23,7 @@ import org.bitcoincashj.crypto.ChildNumber;
 import org.bitcoincashj.crypto.DeterministicKey;
 import org.bitcoincashj.crypto.HDKeyDerivation;
 import org.bitcoincashj.net.SlpDbProcessor;
+import org.bitcoincashj.net.SlpDbValidationPipeline;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.store.SPVBlockStore;
 import org.bitcoincashj.wallet.KeyChainGroupStructure;
@@ -81,22 +82,10 @@ public class SlpBIP47AppKit extends BIP47AppKit {
     @Override
     protected void startUp() throws Exception {
         super.startUp();
-        File txsDataFile = new File(this.directory(), this.filePrefix + ".txs");
-        if (txsDataFile.exists()) {
-            this.loadRecordedTxs();
-        }
-        File tokenDataFile = new File(this.directory(), this.filePrefix + ".tokens");
-        this.tokensFile = tokenDataFile;
-        if (tokenDataFile.exists()) {
-            this.loadTokens();
-        }
-        File nftDataFile = new File(this.directory(), this.filePrefix + ".nfts");
-        this.nftsFile = nftDataFile;
-        if (nftDataFile.exists()) {
-            this.loadNfts();
-        }
-
+        this.openSlpCaches();
+        this.startSlpLedger();
         this.slpDbProcessor = new SlpDbProcessor();
+        this.slpValidationPipeline = new SlpDbValidationPipeline(this.slpDbProcessor);
     }
 
     /**
@@ -1,11 +1,14 @@
 package org.bitcoincashj.kits;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closeables;
 import com.google.common.util.concurrent.*;
 import org.bitcoincashj.core.*;
 import org.bitcoincashj.core.listeners.DownloadProgressTracker;
 import org.bitcoincashj.core.slp.*;
+import org.bitcoincashj.core.slp.cache.SlpTokenCache;
+import org.bitcoincashj.core.slp.cache.SlpVerifiedTxCache;
 import org.bitcoincashj.core.slp.nft.NonFungibleSlpToken;
 import org.bitcoincashj.core.slp.opreturn.SlpOpReturnOutputGenesis;
 import org.bitcoincashj.crypto.DeterministicKey;
@@ -17,10 +20,12 @@ import org.bitcoincashj.protocols.payments.slp.SlpPaymentSession;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.store.BlockStore;
 import org.bitcoincashj.store.BlockStoreException;
+import org.bitcoincashj.store.HeightIndexedBlockStore;
 import org.bitcoincashj.store.SPVBlockStore;
 import org.bitcoincashj.wallet.*;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,9 +37,15 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -73,21 +84,28 @@ public class WalletKitCore extends AbstractIdleService {
     public boolean useTor = false;
     public String torProxyIp = "127.0.0.1";
     public String torProxyPort = "9050";
+    public boolean useVirtualThreads = false;
 
     /** SLP common stuff **/
     protected File tokensFile;
     protected File nftsFile;
+    protected int maxVerifiedSlpTxs = SlpVerifiedTxCache.DEFAULT_MAX_ENTRIES;
+    protected int maxCachedTokens = SlpTokenCache.DEFAULT_MAX_ENTRIES;
     protected ArrayList<SlpUTXO> slpUtxos = new ArrayList<>();
-    protected ArrayList<SlpToken> slpTokens = new ArrayList<>();
+    // The caches and the ledger are only set up by kits that track tokens, see openSlpCaches() and startSlpLedger().
+    // They stay null in the others, which have no tokens.
+    protected SlpTokenCache.Tokens slpTokens;
     protected ArrayList<SlpTokenBalance> slpBalances = new ArrayList<>();
-    protected ArrayList<String> verifiedSlpTxs = new ArrayList<>();
+    protected SlpVerifiedTxCache verifiedSlpTxs;
     protected ArrayList<SlpUTXO> nftUtxos = new ArrayList<>();
-    protected ArrayList<NonFungibleSlpToken> nfts = new ArrayList<>();
+    protected SlpTokenCache.Nfts nfts;
     protected ArrayList<SlpTokenBalance> nftBalances = new ArrayList<>();
     protected ArrayList<SlpUTXO> nftParentUtxos = new ArrayList<>();
     protected ArrayList<SlpTokenBalance> nftParentBalances = new ArrayList<>();
 
     protected SlpDbProcessor slpDbProcessor;
+    protected SlpDbValidationPipeline slpValidationPipeline;
+    protected SlpTokenLedger slpLedger;
     protected boolean recalculatingTokens = false;
     protected boolean recalculatingNfts = false;
 
@@ -151,8 +169,15 @@ public class WalletKitCore extends AbstractIdleService {
         return this.nftParentBalances;
     }
 
+    /** Returns the ledger tracking exact raw token balances of the wallet, or null if this kit doesn't track tokens. */
+    public SlpTokenLedger getSlpLedger() {
+        return this.slpLedger;
+    }
+
     public ArrayList<SlpToken> getSlpTokens() {
-        return this.slpTokens;
+        if (this.slpTokens == null)
+            return new ArrayList<>();
+        return new ArrayList<>(this.slpTokens.values());
     }
 
     public ArrayList<SlpUTXO> getSlpUtxos() {
@@ -180,29 +205,11 @@ public class WalletKitCore extends AbstractIdleService {
     }
 
     public SlpToken getSlpToken(String tokenId) {
-        for (SlpToken slpToken : this.slpTokens) {
-            String slpTokenTokenId = slpToken.getTokenId();
-            if (slpTokenTokenId != null) {
-                if (slpTokenTokenId.equals(tokenId)) {
-                    return slpToken;
-                }
-            }
-        }
-
-        return null;
+        return this.slpTokens != null ? this.slpTokens.get(tokenId) : null;
     }
 
     public NonFungibleSlpToken getNft(String tokenId) {
-        for (NonFungibleSlpToken slpToken : this.nfts) {
-            String slpTokenTokenId = slpToken.getTokenId();
-            if (slpTokenTokenId != null) {
-                if (slpTokenTokenId.equals(tokenId)) {
-                    return slpToken;
-                }
-            }
-        }
-
-        return null;
+        return this.nfts != null ? this.nfts.get(tokenId) : null;
     }
 
     public NetworkParameters params() {
@@ -221,6 +228,14 @@ public class WalletKitCore extends AbstractIdleService {
         this.torProxyPort = port;
     }
 
+    /**
+     * Runs the connections made over Tor on virtual threads, where the runtime has them. Off by default; see
+     * {@link BlockingClientManager#setUseVirtualThreads(boolean)}.
+     */
+    public void setUseVirtualThreads(boolean status) {
+        this.useVirtualThreads = status;
+    }
+
     public BlockChain chain() {
         checkState(state() == Service.State.STARTING || state() == Service.State.RUNNING, "Cannot call until startup is complete");
         return vChain;
@@ -413,7 +428,7 @@ public class WalletKitCore extends AbstractIdleService {
                     vStore.clear();
                 }
             }
-            vChain = new BlockChain(params, vStore);
+            vChain = new BlockChain(params, new HeightIndexedBlockStore(vStore));
             vPeerGroup = createPeerGroup();
             if (this.userAgent != null)
                 vPeerGroup.setUserAgent(userAgent, version);
@@ -470,9 +485,14 @@ public class WalletKitCore extends AbstractIdleService {
         // Runs in a separate thread.
         try {
             Context.propagate(context);
+            if (slpLedger != null)
+                slpLedger.removeFrom(vWallet);
             vPeerGroup.stop();
             vWallet.saveToFile(vWalletFile);
             vStore.close();
+            if (slpValidationPipeline != null)
+                slpValidationPipeline.shutdown();
+            closeSlpCaches();
 
             vPeerGroup = null;
             vWallet = null;
@@ -578,7 +598,9 @@ public class WalletKitCore extends AbstractIdleService {
         if (useTor) {
             System.setProperty("socksProxyHost", torProxyIp);
             System.setProperty("socksProxyPort", torProxyPort);
-            return new PeerGroup(this.vWallet.getParams(), this.vChain, new BlockingClientManager());
+            BlockingClientManager manager = new BlockingClientManager();
+            manager.setUseVirtualThreads(useVirtualThreads);
+            return new PeerGroup(this.vWallet.getParams(), this.vChain, manager);
         } else {
             return new PeerGroup(this.vWallet.getParams(), this.vChain);
         }
@@ -662,16 +684,12 @@ public class WalletKitCore extends AbstractIdleService {
     }
 
     public boolean isTokenMapped(SlpOpReturn.SlpTokenType tokenType, String tokenId) {
-        ArrayList<SlpToken> tokensArray = new ArrayList<SlpToken>(tokenType == SlpOpReturn.SlpTokenType.SLP ? this.slpTokens : this.nfts);
-        for(SlpToken token : tokensArray) {
-            String slpTokenId = token.getTokenId();
-            return slpTokenId != null && slpTokenId.equals(tokenId);
-        }
-        return false;
+        SlpTokenCache<?> cache = tokenType == SlpOpReturn.SlpTokenType.SLP ? this.slpTokens : this.nfts;
+        return cache != null && cache.containsKey(tokenId);
     }
 
     public boolean hasTransactionBeenRecorded(String txid) {
-        return this.verifiedSlpTxs.contains(txid);
+        return this.verifiedSlpTxs != null && this.verifiedSlpTxs.contains(txid);
     }
 
     public Transaction createSlpTransaction(String slpDestinationAddress, String tokenId, double numTokens, @Nullable KeyParameter aesKey) throws InsufficientMoneyException {
@@ -724,126 +742,156 @@ public class WalletKitCore extends AbstractIdleService {
     }
 
     public void recalculateSlpUtxos() {
+        if (this.slpLedger == null)
+            return;
         if (!recalculatingTokens) {
-            boolean addedVerifiedTx = false;
-            boolean addedToken = false;
             recalculatingTokens = true;
-            this.slpUtxos.clear();
-            this.slpBalances.clear();
-            this.nftParentUtxos.clear();
-            this.nftParentBalances.clear();
-            List<TransactionOutput> utxos = this.wallet().getAllDustUtxos(true, true);
-            ArrayList<SlpUTXO> slpUtxosToAdd = new ArrayList<>();
-            ArrayList<SlpUTXO> nftParentUtxosToAdd = new ArrayList<>();
-            ArrayList<SlpToken> tokensToAdd = new ArrayList<>();
-
-            for (TransactionOutput utxo : utxos) {
-                Transaction tx = utxo.getParentTransaction();
-                if (tx != null) {
-                    if (SlpOpReturn.isSlpTx(tx)) {
-                        if (hasTransactionBeenRecorded(tx.getTxId().toString())) {
-                            SlpOpReturn slpOpReturn = new SlpOpReturn(tx);
-                            String tokenId = slpOpReturn.getTokenId();
-
-                            if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.SLP, tokenId)) {
-                                SlpToken slpToken = this.tryCacheToken(tokenId);
-                                if(slpToken != null) {
-                                    tokensToAdd.add(slpToken);
-                                    addedToken = true;
-                                }
-                            } else {
-                                SlpUTXO slpUTXO = processSlpUtxo(slpOpReturn, utxo);
-                                SlpToken slpToken = this.getSlpToken(tokenId);
-
-                                if(slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.SEND || slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.GENESIS || slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.MINT) {
-                                    this.calculateTokenBalance(SlpOpReturn.SlpTokenType.SLP, slpUTXO, slpToken);
-                                    slpUtxosToAdd.add(slpUTXO);
-                                } else if(slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.NFT_PARENT_SEND || slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.NFT_PARENT_GENESIS || slpOpReturn.getSlpTxType() == SlpOpReturn.SlpTxType.NFT_PARENT_MINT) {
-                                    this.calculateNftParentBalance(slpUTXO, slpToken);
-                                    nftParentUtxosToAdd.add(slpUTXO);
-                                }
-                            }
-                        } else {
-                            SlpDbValidTransaction validTxQuery = new SlpDbValidTransaction(tx.getTxId().toString());
-                            boolean valid = this.slpDbProcessor.isValidSlpTx(validTxQuery.getEncoded());
-                            if (valid) {
-                                this.verifiedSlpTxs.add(tx.getTxId().toString());
-                                addedVerifiedTx = true;
-                            }
-                        }
+            this.rebuildSlpUtxos();
+            Set<String> unverifiedTxs = this.slpLedger.getUnverifiedTxIds();
+            if (!unverifiedTxs.isEmpty()) {
+                this.validateSlpTxs(unverifiedTxs, new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuildSlpUtxos();
                     }
-                }
-            }
-
-            this.slpUtxos.addAll(slpUtxosToAdd);
-            this.nftParentUtxos.addAll(nftParentUtxosToAdd);
-
-            if(addedVerifiedTx) {
-                this.saveVerifiedTxs(this.verifiedSlpTxs);
-            }
-
-            if(addedToken) {
-                this.slpTokens.addAll(tokensToAdd);
-                this.saveTokens(this.slpTokens);
+                });
             }
             recalculatingTokens = false;
         }
     }
 
+    /**
+     * Refreshes the SLP and NFT parent UTXOs and balances from {@link #slpLedger}, fetching the details of tokens
+     * not seen before. Outputs of tokens whose details are unavailable are left out.
+     */
+    protected void rebuildSlpUtxos() {
+        List<SlpUTXO> tokenUtxos = this.slpLedger.getUtxos(SlpTokenLedger.Kind.TOKEN);
+        List<SlpUTXO> nftParentUtxos = this.slpLedger.getUtxos(SlpTokenLedger.Kind.NFT_PARENT);
+        Map<String, Long> tokenBalances = this.slpLedger.getRawBalances(SlpTokenLedger.Kind.TOKEN);
+        Map<String, Long> nftParentBalances = this.slpLedger.getRawBalances(SlpTokenLedger.Kind.NFT_PARENT);
+        this.cacheUnknownTokens(tokenBalances.keySet());
+        this.cacheUnknownTokens(nftParentBalances.keySet());
+
+        this.slpUtxos.clear();
+        this.slpBalances.clear();
+        this.nftParentUtxos.clear();
+        this.nftParentBalances.clear();
+        for (SlpUTXO slpUTXO : tokenUtxos) {
+            if (this.isTokenMapped(SlpOpReturn.SlpTokenType.SLP, slpUTXO.getTokenId()))
+                this.slpUtxos.add(slpUTXO);
+        }
+        for (SlpUTXO slpUTXO : nftParentUtxos) {
+            if (this.isTokenMapped(SlpOpReturn.SlpTokenType.SLP, slpUTXO.getTokenId()))
+                this.nftParentUtxos.add(slpUTXO);
+        }
+        for (Map.Entry<String, Long> balance : tokenBalances.entrySet()) {
+            SlpToken slpToken = this.getSlpToken(balance.getKey());
+            if (slpToken != null)
+                this.slpBalances.add(toTokenBalance(slpToken, balance.getValue()));
+        }
+        for (Map.Entry<String, Long> balance : nftParentBalances.entrySet()) {
+            SlpToken slpToken = this.getSlpToken(balance.getKey());
+            if (slpToken != null)
+                this.nftParentBalances.add(toTokenBalance(slpToken, balance.getValue()));
+        }
+    }
+
     public void recalculateNftUtxos() {
+        if (this.slpLedger == null)
+            return;
         if (!recalculatingNfts) {
-            boolean addedVerifiedTx = false;
-            boolean addedNft = false;
             recalculatingNfts = true;
-            this.nftUtxos.clear();
-            this.nftBalances.clear();
-            List<TransactionOutput> utxos = this.wallet().getAllDustUtxos(true, true);
-            ArrayList<SlpUTXO> nftUtxosToAdd = new ArrayList<>();
-            ArrayList<NonFungibleSlpToken> nftsToAdd = new ArrayList<>();
-
-            for (TransactionOutput utxo : utxos) {
-                Transaction tx = utxo.getParentTransaction();
-                if (tx != null) {
-                    if (SlpOpReturn.isNftChildTx(tx)) {
-                        if (hasTransactionBeenRecorded(tx.getTxId().toString())) {
-                            SlpOpReturn slpOpReturn = new SlpOpReturn(tx);
-                            String tokenId = slpOpReturn.getTokenId();
-
-                            if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.NFT, tokenId)) {
-                                NonFungibleSlpToken nft = this.tryCacheNft(tokenId);
-                                if(nft != null) {
-                                    nftsToAdd.add(nft);
-                                    addedNft = true;
-                                }
-                            } else {
-                                SlpUTXO slpUTXO = processSlpUtxo(slpOpReturn, utxo);
-                                NonFungibleSlpToken slpToken = this.getNft(tokenId);
-                                this.calculateTokenBalance(SlpOpReturn.SlpTokenType.NFT, slpUTXO, slpToken);
-                                nftUtxosToAdd.add(slpUTXO);
-                            }
-                        } else {
-                            SlpDbValidTransaction validTxQuery = new SlpDbValidTransaction(tx.getTxId().toString());
-                            boolean valid = this.slpDbProcessor.isValidSlpTx(validTxQuery.getEncoded());
-                            if (valid) {
-                                this.verifiedSlpTxs.add(tx.getTxId().toString());
-                                addedVerifiedTx = true;
-                            }
-                        }
+            this.rebuildNftUtxos();
+            Set<String> unverifiedTxs = this.slpLedger.getUnverifiedTxIds();
+            if (!unverifiedTxs.isEmpty()) {
+                this.validateSlpTxs(unverifiedTxs, new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuildNftUtxos();
+                    }
+                });
+            }
+            recalculatingNfts = false;
+        }
+    }
+
+    /**
+     * Refreshes the NFT child UTXOs and balances from {@link #slpLedger}, fetching the details of NFTs not seen
+     * before. Outputs of NFTs whose details are unavailable are left out.
+     */
+    protected void rebuildNftUtxos() {
+        List<SlpUTXO> utxos = this.slpLedger.getUtxos(SlpTokenLedger.Kind.NFT);
+        Map<String, Long> balances = this.slpLedger.getRawBalances(SlpTokenLedger.Kind.NFT);
+        for (String tokenId : balances.keySet()) {
+            if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.NFT, tokenId)) {
+                NonFungibleSlpToken nft = this.tryCacheNft(tokenId);
+                if (nft != null) {
+                    try {
+                        this.nfts.add(nft);
+                    } catch (IOException e) {
+                        log.warn("Failed to cache NFT " + tokenId, e);
                     }
                 }
             }
+        }
 
-            this.nftUtxos.addAll(nftUtxosToAdd);
+        this.nftUtxos.clear();
+        this.nftBalances.clear();
+        for (SlpUTXO slpUTXO : utxos) {
+            if (this.isTokenMapped(SlpOpReturn.SlpTokenType.NFT, slpUTXO.getTokenId()))
+                this.nftUtxos.add(slpUTXO);
+        }
+        for (Map.Entry<String, Long> balance : balances.entrySet()) {
+            NonFungibleSlpToken nft = this.getNft(balance.getKey());
+            if (nft != null)
+                this.nftBalances.add(toTokenBalance(nft, balance.getValue()));
+        }
+    }
 
-            if(addedVerifiedTx) {
-                this.saveVerifiedTxs(this.verifiedSlpTxs);
+    private void cacheUnknownTokens(Set<String> tokenIds) {
+        for (String tokenId : tokenIds) {
+            if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.SLP, tokenId)) {
+                SlpToken slpToken = this.tryCacheToken(tokenId);
+                if (slpToken != null) {
+                    try {
+                        this.slpTokens.add(slpToken);
+                    } catch (IOException e) {
+                        log.warn("Failed to cache SLP token " + tokenId, e);
+                    }
+                }
             }
+        }
+    }
 
-            if(addedNft) {
-                this.nfts.addAll(nftsToAdd);
-                this.saveNfts(this.nfts);
-            }
-            recalculatingNfts = false;
+    private static SlpTokenBalance toTokenBalance(SlpToken token, long rawBalance) {
+        return new SlpTokenBalance(token.getTokenId(), BigDecimal.valueOf(rawBalance).scaleByPowerOfTen(-token.getDecimals()).doubleValue());
+    }
+
+    /**
+     * Validates the given transactions through {@link #slpValidationPipeline}, recording valid ones as they come in
+     * and running <code>onProgress</code> after every batch that verified something new. Blocks until all batches
+     * have completed.
+     */
+    protected void validateSlpTxs(Set<String> txIds, final Runnable onProgress) {
+        try {
+            this.slpValidationPipeline.validate(txIds, new SlpDbValidationPipeline.Listener() {
+                @Override
+                public void onBatchValidated(Set<String> validTxIds, int remainingBatches) {
+                    if (!validTxIds.isEmpty()) {
+                        try {
+                            verifiedSlpTxs.addAll(validTxIds);
+                        } catch (IOException e) {
+                            log.warn("Failed to persist verified SLP transactions", e);
+                        }
+                        slpLedger.markVerified(validTxIds);
+                        onProgress.run();
+                    }
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("SLP validation failed", e);
         }
     }
 
@@ -883,160 +931,96 @@ public class WalletKitCore extends AbstractIdleService {
         }
     }
 
-    protected void saveTokens(ArrayList<SlpToken> slpTokens) {
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.directory(), tokensFile.getName())), StandardCharsets.UTF_8))) {
-            JSONArray json = new JSONArray();
-            for (SlpToken slpToken : slpTokens) {
-                JSONObject tokenObj = new JSONObject();
-                tokenObj.put("tokenId", slpToken.getTokenId());
-                tokenObj.put("ticker", slpToken.getTicker());
-                tokenObj.put("decimals", slpToken.getDecimals());
-                json.put(tokenObj);
-            }
-            writer.write(json.toString());
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Opens the verified transaction and token caches stored next to the wallet, importing the legacy
+     * <code>.txs</code>, <code>.tokens</code> and <code>.nfts</code> files into them the first time.
+     */
+    protected void openSlpCaches() throws IOException {
+        this.verifiedSlpTxs = new SlpVerifiedTxCache(new File(this.directory(), this.filePrefix + ".txcache"), this.maxVerifiedSlpTxs);
+        this.slpTokens = new SlpTokenCache.Tokens(new File(this.directory(), this.filePrefix + ".tokencache"), this.maxCachedTokens);
+        this.nfts = new SlpTokenCache.Nfts(new File(this.directory(), this.filePrefix + ".nftcache"), this.maxCachedTokens);
+
+        File txsDataFile = new File(this.directory(), this.filePrefix + ".txs");
+        if (this.verifiedSlpTxs.isEmpty() && txsDataFile.exists()) {
+            this.loadRecordedTxs();
+        }
+        this.tokensFile = new File(this.directory(), this.filePrefix + ".tokens");
+        if (this.slpTokens.isEmpty() && this.tokensFile.exists()) {
+            this.loadTokens();
+        }
+        this.nftsFile = new File(this.directory(), this.filePrefix + ".nfts");
+        if (this.nfts.isEmpty() && this.nftsFile.exists()) {
+            this.loadNfts();
         }
     }
 
-    protected void saveNfts(ArrayList<NonFungibleSlpToken> nfts) {
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.directory(), nftsFile.getName())), StandardCharsets.UTF_8))) {
-            JSONArray json = new JSONArray();
-            for (NonFungibleSlpToken nft : nfts) {
-                JSONObject tokenObj = new JSONObject();
-                tokenObj.put("tokenId", nft.getTokenId());
-                tokenObj.put("nftParentId", nft.getNftParentId());
-                tokenObj.put("name", nft.getName());
-                tokenObj.put("ticker", nft.getTicker());
-                tokenObj.put("decimals", nft.getDecimals());
-                json.put(tokenObj);
+    /**
+     * Starts tracking the wallet's token outputs in {@link #slpLedger}. Must be called after the wallet has been
+     * loaded and {@link #openSlpCaches()} has run.
+     */
+    protected void startSlpLedger() {
+        this.slpLedger = new SlpTokenLedger(this.wallet(), new Predicate<String>() {
+            @Override
+            public boolean apply(String txId) {
+                return verifiedSlpTxs.contains(txId);
             }
-            writer.write(json.toString());
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        });
+        this.slpLedger.addTo(this.wallet());
     }
 
-    protected void loadTokens() {
-        BufferedReader br = null;
-        try {
-            FileInputStream is = new FileInputStream(new File(this.directory(), this.tokensFile.getName()));
-            br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line = br.readLine();
-
-            while (line != null) {
-                sb.append(line);
-                sb.append(System.lineSeparator());
-                line = br.readLine();
-            }
-            String jsonString = sb.toString();
-
-            try {
-                JSONArray tokensJson = new JSONArray(jsonString);
-                for (int x = 0; x < tokensJson.length(); x++) {
-                    JSONObject tokenObj = tokensJson.getJSONObject(x);
-                    String tokenId = tokenObj.getString("tokenId");
-                    String ticker = tokenObj.getString("ticker");
-                    int decimals = tokenObj.getInt("decimals");
-                    SlpToken slpToken = new SlpToken(tokenId, ticker, decimals);
-                    if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.SLP, tokenId)) {
-                        this.slpTokens.add(slpToken);
-                    }
-                }
-            } catch (Exception e) {
-                this.slpTokens = new ArrayList<>();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                assert br != null;
-                br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    protected void closeSlpCaches() throws IOException {
+        if (this.verifiedSlpTxs != null)
+            this.verifiedSlpTxs.close();
+        if (this.slpTokens != null)
+            this.slpTokens.close();
+        if (this.nfts != null)
+            this.nfts.close();
     }
 
-    protected void loadNfts() {
-        BufferedReader br = null;
+    /**
+     * Limits how many verified transactions and token details are kept in the SLP caches; the least recently used
+     * entries are evicted beyond that. Must be called before the kit is started.
+     */
+    public WalletKitCore setSlpCacheSize(int maxVerifiedSlpTxs, int maxCachedTokens) {
+        this.maxVerifiedSlpTxs = maxVerifiedSlpTxs;
+        this.maxCachedTokens = maxCachedTokens;
+        return this;
+    }
+
+    protected void loadTokens() throws IOException {
+        Map<String, SlpToken> tokens = new HashMap<>();
         try {
-            FileInputStream is = new FileInputStream(new File(this.directory(), this.nftsFile.getName()));
-            br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line = br.readLine();
-
-            while (line != null) {
-                sb.append(line);
-                sb.append(System.lineSeparator());
-                line = br.readLine();
-            }
-            String jsonString = sb.toString();
-
-            try {
-                JSONArray tokensJson = new JSONArray(jsonString);
-                for (int x = 0; x < tokensJson.length(); x++) {
-                    JSONObject tokenObj = tokensJson.getJSONObject(x);
-                    String tokenId = tokenObj.getString("tokenId");
-                    String nftParentId = tokenObj.getString("nftParentId");
-                    String ticker = tokenObj.getString("ticker");
-                    String name = tokenObj.getString("name");
-                    int decimals = tokenObj.getInt("decimals");
-                    NonFungibleSlpToken nft = new NonFungibleSlpToken(tokenId, nftParentId, name, ticker, decimals);
-                    if (!this.isTokenMapped(SlpOpReturn.SlpTokenType.NFT, tokenId)) {
-                        this.nfts.add(nft);
-                    }
-                }
-            } catch (Exception e) {
-                this.nfts = new ArrayList<>();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                assert br != null;
-                br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            JSONArray tokensJson = new JSONArray(new String(Files.readAllBytes(this.tokensFile.toPath()), StandardCharsets.UTF_8));
+            for (int x = 0; x < tokensJson.length(); x++) {
+                SlpToken slpToken = this.slpTokens.fromJson(tokensJson.getJSONObject(x));
+                tokens.put(slpToken.getTokenId(), slpToken);
             }
+        } catch (JSONException e) {
+            log.warn("Ignoring unreadable " + this.tokensFile, e);
         }
+        this.slpTokens.putAll(tokens);
     }
 
-    protected void saveVerifiedTxs(ArrayList<String> recordedSlpTxs) {
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.directory(), this.filePrefix + ".txs")), StandardCharsets.UTF_8))) {
-            StringBuilder text = new StringBuilder();
-            for (String txHash : recordedSlpTxs) {
-                text.append(txHash).append("\n");
+    protected void loadNfts() throws IOException {
+        Map<String, NonFungibleSlpToken> tokens = new HashMap<>();
+        try {
+            JSONArray tokensJson = new JSONArray(new String(Files.readAllBytes(this.nftsFile.toPath()), StandardCharsets.UTF_8));
+            for (int x = 0; x < tokensJson.length(); x++) {
+                NonFungibleSlpToken nft = this.nfts.fromJson(tokensJson.getJSONObject(x));
+                tokens.put(nft.getTokenId(), nft);
             }
-            writer.write(text.toString());
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (JSONException e) {
+            log.warn("Ignoring unreadable " + this.nftsFile, e);
         }
+        this.nfts.putAll(tokens);
     }
 
-    protected void loadRecordedTxs() {
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new FileReader(new File(this.directory(), this.filePrefix + ".txs")));
-            String line = br.readLine();
-            while (line != null) {
-                String txHash = line;
-                this.verifiedSlpTxs.add(txHash);
-                line = br.readLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                assert br != null;
-                br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    protected void loadRecordedTxs() throws IOException {
+        List<String> txHashes = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(this.directory(), this.filePrefix + ".txs").toPath(), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty())
+                txHashes.add(line.trim());
         }
+        this.verifiedSlpTxs.addAll(txHashes);
     }
 }
@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.bitcoincashj.core.Context;
 import org.bitcoincashj.core.Peer;
+import org.bitcoincashj.utils.Threading;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
@@ -32,6 +33,8 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -42,7 +45,7 @@ import static com.google.common.base.Preconditions.checkState;
  * and {@link BlockingClientManager}, unless you wish to connect over a proxy or use some other network settings that
  * cannot be set using NIO.</p>
  */
-public class BlockingClient implements MessageWriteTarget {
+public class BlockingClient implements SerializedMessageWriteTarget {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(BlockingClient.class);
 
     private static final int BUFFER_SIZE_LOWER_BOUND = 4096;
@@ -51,6 +54,8 @@ public class BlockingClient implements MessageWriteTarget {
     private Socket socket;
     private volatile boolean vCloseRequested = false;
     private SettableFuture<SocketAddress> connectFuture;
+    // Held while writing rather than synchronizing, so that a virtual thread blocked on a write doesn't pin its carrier.
+    private final ReentrantLock writeLock = Threading.lock(BlockingClient.class);
 
     /**
      * <p>Creates a new client to the given server address using the given {@link StreamConnection} to decode the data.
@@ -67,13 +72,27 @@ public class BlockingClient implements MessageWriteTarget {
     public BlockingClient(final SocketAddress serverAddress, final StreamConnection connection,
                           final int connectTimeoutMillis, final SocketFactory socketFactory,
                           @Nullable final Set<BlockingClient> clientSet) throws IOException {
+        this(serverAddress, connection, connectTimeoutMillis, socketFactory, clientSet, null);
+    }
+
+    /**
+     * <p>Creates a new client as {@link #BlockingClient(SocketAddress, StreamConnection, int, SocketFactory, Set)}
+     * does, running its network event processing thread from the given factory, for example one for virtual threads
+     * from {@link Threading#virtualThreadFactory()}.</p>
+     *
+     * @param threadFactory The factory for the network event processing thread, or null for a platform thread.
+     */
+    public BlockingClient(final SocketAddress serverAddress, final StreamConnection connection,
+                          final int connectTimeoutMillis, final SocketFactory socketFactory,
+                          @Nullable final Set<BlockingClient> clientSet,
+                          @Nullable ThreadFactory threadFactory) throws IOException {
         connectFuture = SettableFuture.create();
         // Try to fit at least one message in the network buffer, but place an upper and lower limit on its size to make
         // sure it doesn't get too large or have to call read too often.
         connection.setWriteTarget(this);
         socket = socketFactory.createSocket();
         final Context context = Context.get();
-        Thread t = new Thread() {
+        Runnable loop = new Runnable() {
             @Override
             public void run() {
                 Context.propagate(context);
@@ -102,6 +121,7 @@ public class BlockingClient implements MessageWriteTarget {
                 }
             }
         };
+        Thread t = threadFactory != null ? threadFactory.newThread(loop) : new Thread(loop);
         t.setName("BlockingClient network thread for " + serverAddress);
         t.setDaemon(true);
         t.start();
@@ -149,7 +169,8 @@ public class BlockingClient implements MessageWriteTarget {
     }
 
     @Override
-    public synchronized ListenableFuture writeBytes(byte[] message) throws IOException {
+    public ListenableFuture<?> writeBytes(byte[] message) throws IOException {
+        writeLock.lock();
         try {
             OutputStream stream = socket.getOutputStream();
             stream.write(message);
@@ -159,6 +180,25 @@ public class BlockingClient implements MessageWriteTarget {
             log.error("Error writing message to connection, closing connection", e);
             closeConnection();
             throw e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public ListenableFuture<?> writeMessage(SerializedMessage message) throws IOException {
+        writeLock.lock();
+        try {
+            OutputStream stream = socket.getOutputStream();
+            message.writeTo(stream);
+            stream.flush();
+            return Futures.immediateFuture(null);
+        } catch (IOException e) {
+            log.error("Error writing message to connection, closing connection", e);
+            closeConnection();
+            throw e;
+        } finally {
+            writeLock.unlock();
         }
     }
 
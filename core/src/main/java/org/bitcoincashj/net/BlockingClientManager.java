@@ -18,7 +18,9 @@ package org.bitcoincashj.net;
 
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoincashj.utils.Threading;
 
+import javax.annotation.Nullable;
 import javax.net.SocketFactory;
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -26,6 +28,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -35,12 +38,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p>Generally, using {@link NioClient} and {@link NioClientManager} should be preferred over {@link BlockingClient}
  * and {@link BlockingClientManager} as they scale significantly better, unless you wish to connect over a proxy or use
  * some other network settings that cannot be set using NIO.</p>
+ *
+ * <p>Each connection has a thread of its own, blocked in reads most of the time. Platform threads make that expensive
+ * with many connections, so on runtimes that have virtual threads they can be used instead, see
+ * {@link #setUseVirtualThreads(boolean)}.</p>
  */
 public class BlockingClientManager extends AbstractIdleService implements ClientConnectionManager {
     private final SocketFactory socketFactory;
     private final Set<BlockingClient> clients = Collections.synchronizedSet(new HashSet<BlockingClient>());
 
     private int connectTimeoutMillis = 1000;
+    @Nullable
+    private volatile ThreadFactory threadFactory;
 
     public BlockingClientManager() {
         socketFactory = SocketFactory.getDefault();
@@ -59,7 +68,8 @@ public class BlockingClientManager extends AbstractIdleService implements Client
         try {
             if (!isRunning())
                 throw new IllegalStateException();
-            return new BlockingClient(serverAddress, connection, connectTimeoutMillis, socketFactory, clients).getConnectFuture();
+            return new BlockingClient(serverAddress, connection, connectTimeoutMillis, socketFactory, clients,
+                    threadFactory).getConnectFuture();
         } catch (IOException e) {
             throw new RuntimeException(e); // This should only happen if we are, eg, out of system resources
         }
@@ -72,6 +82,21 @@ public class BlockingClientManager extends AbstractIdleService implements Client
         this.connectTimeoutMillis = connectTimeoutMillis;
     }
 
+    /**
+     * Sets whether connections opened from now on run on virtual threads. They only do if the runtime has them (Java 21
+     * or later), otherwise they keep running on platform threads; see {@link #isUsingVirtualThreads()}.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.threadFactory = useVirtualThreads ? Threading.virtualThreadFactory() : null;
+    }
+
+    /**
+     * Returns true if connections opened from now on run on virtual threads.
+     */
+    public boolean isUsingVirtualThreads() {
+        return threadFactory != null;
+    }
+
     @Override
     protected void startUp() throws Exception {
     }
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A pool of {@link ByteBuffer}s. Outbound messages use direct buffers: writing a heap buffer to a socket makes the
+ * JDK copy it into a temporary direct buffer first, while allocating direct buffers is too slow to do per message, so
+ * messages are serialized straight into buffers from here and the buffers are reused. Inbound blocks and transactions
+ * are parsed from byte arrays, so they are read into pooled heap buffers instead.</p>
+ *
+ * <p>Buffers come in power of two sizes from {@link #MIN_BUFFER_SIZE} up to {@link #MAX_POOLED_BUFFER_SIZE}, and at
+ * most {@link #MAX_IDLE_BUFFERS} idle buffers of each size are kept. Larger requests get a heap buffer that isn't
+ * pooled, as messages that large are rare. A buffer that is never released is simply garbage collected.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class ByteBufferPool {
+    public static final int MIN_BUFFER_SIZE = 256;
+    public static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    public static final int MAX_IDLE_BUFFERS = 64;
+
+    private static final ByteBufferPool DEFAULT = new ByteBufferPool(true);
+    private static final ByteBufferPool HEAP = new ByteBufferPool(false);
+
+    private final boolean direct;
+    private final List<Queue<ByteBuffer>> idle = new ArrayList<>();
+    private final List<AtomicInteger> idleCounts = new ArrayList<>();
+
+    /** Returns the pool of direct buffers shared by all connections. */
+    public static ByteBufferPool get() {
+        return DEFAULT;
+    }
+
+    /** Returns the pool of heap buffers shared by all connections. */
+    public static ByteBufferPool getHeap() {
+        return HEAP;
+    }
+
+    /** Creates a pool of direct buffers. */
+    public ByteBufferPool() {
+        this(true);
+    }
+
+    /** Creates a pool of direct buffers, or of heap buffers, which have an accessible array. */
+    public ByteBufferPool(boolean direct) {
+        this.direct = direct;
+        for (int size = MIN_BUFFER_SIZE; size <= MAX_POOLED_BUFFER_SIZE; size <<= 1) {
+            idle.add(new ConcurrentLinkedQueue<ByteBuffer>());
+            idleCounts.add(new AtomicInteger());
+        }
+    }
+
+    /** Returns whether this pool hands out direct buffers rather than heap buffers. */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns a buffer with a capacity of at least size bytes, with its position at zero and its limit at size. Pass it
+     * to {@link #release(ByteBuffer)} once it is no longer used.
+     */
+    public ByteBuffer acquire(int size) {
+        checkArgument(size >= 0);
+        if (size > MAX_POOLED_BUFFER_SIZE)
+            return ByteBuffer.allocate(size);
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = idle.get(sizeClass).poll();
+        if (buffer != null)
+            idleCounts.get(sizeClass).decrementAndGet();
+        else
+            buffer = direct ? ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass)
+                    : ByteBuffer.allocate(MIN_BUFFER_SIZE << sizeClass);
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool. The buffer must not be used afterwards, not even
+     * through views created from it.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || buffer.isReadOnly() || capacity < MIN_BUFFER_SIZE || capacity > MAX_POOLED_BUFFER_SIZE
+                || Integer.bitCount(capacity) != 1)
+            return;
+        int sizeClass = sizeClass(capacity);
+        if (idleCounts.get(sizeClass).incrementAndGet() > MAX_IDLE_BUFFERS) {
+            idleCounts.get(sizeClass).decrementAndGet();
+            return;
+        }
+        idle.get(sizeClass).offer(buffer);
+    }
+
+    /** Returns how many buffers that would serve the given size are idle in the pool. */
+    public int getIdleCount(int size) {
+        return size > MAX_POOLED_BUFFER_SIZE ? 0 : idleCounts.get(sizeClass(size)).get();
+    }
+
+    // Index of the smallest size class holding size bytes.
+    private static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+}
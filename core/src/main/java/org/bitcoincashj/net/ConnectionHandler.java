@@ -45,7 +45,7 @@ import static com.google.common.base.Preconditions.checkState;
  * A simple NIO MessageWriteTarget which handles all the business logic of a connection (reading+writing bytes).
  * Used only by the NioClient and NioServer classes
  */
-class ConnectionHandler implements MessageWriteTarget {
+class ConnectionHandler implements SerializedMessageWriteTarget {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(ConnectionHandler.class);
     // We lock when touching local flags and when writing data, but NEVER when calling any methods which leave this
     // class into non-Java classes.
@@ -55,6 +55,8 @@ class ConnectionHandler implements MessageWriteTarget {
     private static final int BUFFER_SIZE_UPPER_BOUND = 65536;
 
     private static final int OUTBOUND_BUFFER_BYTE_COUNT = Message.MAX_SIZE + 24; // 24 byte message header
+    // Linux won't take more than 1024 buffers in one write.
+    private static final int MAX_BUFFERS_PER_WRITE = 256;
 
     @GuardedBy("lock")
     private final ByteBuffer readBuff;
@@ -73,11 +75,13 @@ class ConnectionHandler implements MessageWriteTarget {
     private final LinkedList<BytesAndFuture> bytesToWrite = new LinkedList<>();
 
     private static class BytesAndFuture {
+        public final SerializedMessage message;
         public final ByteBuffer bytes;
-        public final SettableFuture future;
+        public final SettableFuture<Object> future;
 
-        public BytesAndFuture(ByteBuffer bytes, SettableFuture future) {
-            this.bytes = bytes;
+        public BytesAndFuture(SerializedMessage message, SettableFuture<Object> future) {
+            this.message = message;
+            this.bytes = message.buffer();
             this.future = future;
         }
     }
@@ -131,22 +135,28 @@ class ConnectionHandler implements MessageWriteTarget {
     private void tryWriteBytes() throws IOException {
         lock.lock();
         try {
-            // Iterate through the outbound ByteBuff queue, pushing as much as possible into the OS' network buffer.
-            Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
-            while (iterator.hasNext()) {
-                BytesAndFuture bytesAndFuture = iterator.next();
-                bytesToWriteRemaining -= channel.write(bytesAndFuture.bytes);
-                if (!bytesAndFuture.bytes.hasRemaining()) {
+            // Push as much of the outbound queue as possible into the OS' network buffer, in a single gathering write.
+            if (!bytesToWrite.isEmpty()) {
+                ByteBuffer[] buffers = new ByteBuffer[Math.min(bytesToWrite.size(), MAX_BUFFERS_PER_WRITE)];
+                Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
+                for (int i = 0; i < buffers.length; i++)
+                    buffers[i] = iterator.next().bytes;
+                bytesToWriteRemaining -= channel.write(buffers);
+                iterator = bytesToWrite.iterator();
+                while (iterator.hasNext()) {
+                    BytesAndFuture bytesAndFuture = iterator.next();
+                    if (bytesAndFuture.bytes.hasRemaining())
+                        break;
                     iterator.remove();
+                    bytesAndFuture.message.release();
                     bytesAndFuture.future.set(null);
-                } else {
-                    setWriteOps();
-                    break;
                 }
             }
-            // If we are done writing, clear the OP_WRITE interestOps
+            // If we are done writing, clear the OP_WRITE interestOps, otherwise wait for more buffer space
             if (bytesToWrite.isEmpty())
                 key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            else
+                setWriteOps();
             // Don't bother waking up the selector here, since we're just removing an op, not adding
         } finally {
             lock.unlock();
@@ -154,7 +164,13 @@ class ConnectionHandler implements MessageWriteTarget {
     }
 
     @Override
-    public ListenableFuture writeBytes(byte[] message) throws IOException {
+    public ListenableFuture<?> writeBytes(byte[] message) throws IOException {
+        // Copied, as the caller may reuse the array once we return and the bytes can wait in the queue until then.
+        return writeMessage(SerializedMessage.wrap(Arrays.copyOf(message, message.length)));
+    }
+
+    @Override
+    public ListenableFuture<?> writeMessage(SerializedMessage message) throws IOException {
         boolean andUnlock = true;
         lock.lock();
         try {
@@ -163,13 +179,12 @@ class ConnectionHandler implements MessageWriteTarget {
             // append to it when we want to send a message. We then let tryWriteBytes() either send the message or
             // register our SelectionKey to wakeup when we have free outbound buffer space available.
 
-            if (bytesToWriteRemaining + message.length > OUTBOUND_BUFFER_BYTE_COUNT)
+            if (bytesToWriteRemaining + message.length() > OUTBOUND_BUFFER_BYTE_COUNT)
                 throw new IOException("Outbound buffer overflowed");
-            // Just dump the message onto the write buffer and call tryWriteBytes
-            // TODO: Kill the needless message duplication when the write completes right away
+            // Just queue the message, which may be shared with other connections, and call tryWriteBytes
             final SettableFuture<Object> future = SettableFuture.create();
-            bytesToWrite.offer(new BytesAndFuture(ByteBuffer.wrap(Arrays.copyOf(message, message.length)), future));
-            bytesToWriteRemaining += message.length;
+            bytesToWrite.offer(new BytesAndFuture(message.retain(), future));
+            bytesToWriteRemaining += message.length();
             setWriteOps();
             return future;
         } catch (IOException e) {
@@ -208,6 +223,11 @@ class ConnectionHandler implements MessageWriteTarget {
         try {
             callClosed = !closeCalled;
             closeCalled = true;
+            // Nothing more will be written, so give up our references to what was left in the queue.
+            for (BytesAndFuture bytesAndFuture : bytesToWrite)
+                bytesAndFuture.message.release();
+            bytesToWrite.clear();
+            bytesToWriteRemaining = 0;
         } finally {
             lock.unlock();
         }
@@ -17,11 +17,20 @@
 package org.bitcoincashj.net;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.bitcoincashj.core.BloomFilter;
+import org.bitcoincashj.core.IncrementalPeerFilterProvider;
 import org.bitcoincashj.core.PeerFilterProvider;
 import org.bitcoincashj.core.PeerGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 // This code is unit tested by the PeerGroup tests.
 
@@ -38,12 +47,37 @@ import java.util.LinkedList;
  * thread. However the bloomFilterFPRate property IS thread safe, for convenience.</p>
  */
 public class FilterMerger {
-    // We use a constant tweak to avoid giving up privacy when we regenerate our filter with new keys
-    private final long bloomFilterTweak = (long) (Math.random() * Long.MAX_VALUE);
+    private static final Logger log = LoggerFactory.getLogger(FilterMerger.class);
+
+    /**
+     * The default for {@link #setRebuildThreshold(double)}: a filter is rebuilt once its estimated false positive rate
+     * is twice what it was built for.
+     */
+    public static final double DEFAULT_REBUILD_THRESHOLD = 2.0;
+
+    // We use a constant tweak to avoid giving up privacy when we regenerate our filter with new keys. It is only
+    // changed when a filter gets too full, and the new filter has a different size anyway.
+    private long bloomFilterTweak = (long) (Math.random() * Long.MAX_VALUE);
 
     private volatile double vBloomFilterFPRate;
+    private volatile double vRebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
     private int lastBloomFilterElementCount;
+    private double lastBloomFilterFPRate;
+    // The false positive rate of lastFilter when it holds lastBloomFilterElementCount elements, which is higher than
+    // asked for if the filter had to be capped to the maximum size.
+    private double lastDesignFPRate;
     private BloomFilter lastFilter;
+    // The elements inserted into lastFilter, or null if a provider can't list its elements.
+    @Nullable
+    private Set<ByteBuffer> lastFilterElements;
+    // The providers lastFilter was last built from. The elements of providers that have been removed since are still
+    // in it, so it is rebuilt when they change.
+    private ImmutableSet<PeerFilterProvider> lastFilterProviders;
+
+    // Only written by the thread calculating filters.
+    private volatile int rebuildCount;
+    private volatile long rebuildTimeNanos;
+    private volatile int incrementalUpdateCount;
 
     public FilterMerger(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
@@ -55,6 +89,12 @@ public class FilterMerger {
         public boolean changed;
     }
 
+    /**
+     * Calculates the filter for all the given providers. If they all implement {@link IncrementalPeerFilterProvider},
+     * the elements that are new since the last calculation are inserted into a copy of the last filter, and a new
+     * filter is only built once the estimated false positive rate passes the rebuild threshold, or when the providers
+     * differ from the ones the last filter was built from. Otherwise, a new filter is built every time.
+     */
     public Result calculate(ImmutableList<PeerFilterProvider> providers) {
         LinkedList<PeerFilterProvider> begunProviders = new LinkedList<>();
         try {
@@ -75,18 +115,14 @@ public class FilterMerger {
             }
 
             if (elements > 0) {
-                // We stair-step our element count so that we avoid creating a filter with different parameters
-                // as much as possible as that results in a loss of privacy.
-                // The constant 100 here is somewhat arbitrary, but makes sense for small to medium wallets -
-                // it will likely mean we never need to create a filter with different parameters.
-                lastBloomFilterElementCount = elements > lastBloomFilterElementCount ? elements + 100 : lastBloomFilterElementCount;
                 double fpRate = vBloomFilterFPRate;
-                // We now always use UPDATE_ALL because with SegWit there is hardly any wallet that can do without.
-                BloomFilter filter = new BloomFilter(lastBloomFilterElementCount, fpRate, bloomFilterTweak,
-                        BloomFilter.BloomUpdate.UPDATE_ALL);
-                for (PeerFilterProvider p : providers)
-                    filter.merge(p.getBloomFilter(lastBloomFilterElementCount, fpRate, bloomFilterTweak));
-
+                List<byte[]> listed = listElements(providers, elements);
+                BloomFilter filter = null;
+                if (listed != null && lastFilterElements != null && fpRate == lastBloomFilterFPRate
+                        && ImmutableSet.copyOf(providers).equals(lastFilterProviders))
+                    filter = insertNewElements(listed);
+                if (filter == null)
+                    filter = rebuild(providers, elements, fpRate, listed);
                 result.changed = !filter.equals(lastFilter);
                 result.filter = lastFilter = filter;
             }
@@ -102,6 +138,80 @@ public class FilterMerger {
         }
     }
 
+    // Returns the elements of all providers, or null if one of them can't list its elements.
+    @Nullable
+    private static List<byte[]> listElements(ImmutableList<PeerFilterProvider> providers, int expectedSize) {
+        List<byte[]> elements = new ArrayList<>(expectedSize);
+        for (PeerFilterProvider p : providers) {
+            if (!(p instanceof IncrementalPeerFilterProvider))
+                return null;
+            ((IncrementalPeerFilterProvider) p).getBloomFilterElements(elements);
+        }
+        return elements;
+    }
+
+    // Returns the last filter with the elements that aren't in it yet added, or null if that would make it too full.
+    @Nullable
+    private BloomFilter insertNewElements(List<byte[]> elements) {
+        BloomFilter filter = null;
+        for (byte[] element : elements) {
+            if (lastFilterElements.add(ByteBuffer.wrap(element))) {
+                if (filter == null) {
+                    // Peers may have been given the last filter, so it must not change.
+                    filter = new BloomFilter(lastBloomFilterElementCount, lastBloomFilterFPRate, bloomFilterTweak,
+                            BloomFilter.BloomUpdate.UPDATE_ALL);
+                    filter.merge(lastFilter);
+                }
+                filter.insert(element);
+            }
+        }
+        if (filter == null)
+            return lastFilter;
+        // Elements that were removed from the providers since the filter was built still count, their bits are set.
+        double estimate = filter.getFalsePositiveRate(lastFilterElements.size());
+        if (estimate > lastDesignFPRate * vRebuildThreshold) {
+            log.info("Bloom filter with {} elements has an estimated false positive rate of {}, rebuilding",
+                    lastFilterElements.size(), estimate);
+            bloomFilterTweak = (long) (Math.random() * Long.MAX_VALUE);
+            return null;
+        }
+        incrementalUpdateCount++;
+        return filter;
+    }
+
+    private BloomFilter rebuild(ImmutableList<PeerFilterProvider> providers, int elements, double fpRate,
+                                @Nullable List<byte[]> listed) {
+        long start = System.nanoTime();
+        // We stair-step our element count so that we avoid creating a filter with different parameters
+        // as much as possible as that results in a loss of privacy.
+        // The constant 100 here is somewhat arbitrary, but makes sense for small to medium wallets -
+        // it will likely mean we never need to create a filter with different parameters. Larger sets get a tenth
+        // more room, so that they can grow for a while before the filter needs to be rebuilt.
+        if (elements > lastBloomFilterElementCount)
+            lastBloomFilterElementCount = elements + Math.max(100, elements / 10);
+        // We now always use UPDATE_ALL because with SegWit there is hardly any wallet that can do without.
+        BloomFilter filter = new BloomFilter(lastBloomFilterElementCount, fpRate, bloomFilterTweak,
+                BloomFilter.BloomUpdate.UPDATE_ALL);
+        if (listed != null) {
+            lastFilterElements = new HashSet<>(listed.size());
+            for (byte[] element : listed)
+                if (lastFilterElements.add(ByteBuffer.wrap(element)))
+                    filter.insert(element);
+        } else {
+            lastFilterElements = null;
+            for (PeerFilterProvider p : providers)
+                filter.merge(p.getBloomFilter(lastBloomFilterElementCount, fpRate, bloomFilterTweak));
+        }
+        lastFilterProviders = ImmutableSet.copyOf(providers);
+        lastBloomFilterFPRate = fpRate;
+        lastDesignFPRate = filter.getFalsePositiveRate(lastBloomFilterElementCount);
+        long elapsed = System.nanoTime() - start;
+        rebuildCount++;
+        rebuildTimeNanos += elapsed;
+        log.info("Built Bloom filter for {} elements in {} ms", elements, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return filter;
+    }
+
     public void setBloomFilterFPRate(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
     }
@@ -113,4 +223,32 @@ public class FilterMerger {
     public BloomFilter getLastFilter() {
         return lastFilter;
     }
+
+    /**
+     * Sets how far the estimated false positive rate of a filter may rise above the rate it was built for, as a
+     * multiple, before a new filter is built. Only used with {@link IncrementalPeerFilterProvider}s.
+     */
+    public void setRebuildThreshold(double rebuildThreshold) {
+        checkArgument(rebuildThreshold >= 1.0, "threshold must be at least 1");
+        this.vRebuildThreshold = rebuildThreshold;
+    }
+
+    public double getRebuildThreshold() {
+        return vRebuildThreshold;
+    }
+
+    /** Returns the number of filters built from scratch. */
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /** Returns the total time spent building filters from scratch, in milliseconds. */
+    public long getRebuildTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(rebuildTimeNanos);
+    }
+
+    /** Returns the number of times new elements were inserted into the last filter instead of building a new one. */
+    public int getIncrementalUpdateCount() {
+        return incrementalUpdateCount;
+    }
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoincashj.core.PeerSocketHandler;
+import org.bitcoincashj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link ClientConnectionManager} that spreads connections over several {@link NioClientManager}s, each of which
+ * selects, reads and parses on a thread of its own, so that with many connections network processing isn't limited to
+ * a single core. New connections are assigned to the selectors round robin.</p>
+ *
+ * <p>Optionally, the messages that {@link PeerSocketHandler}s parse are handed to an executor to be processed, so that
+ * the selector threads only read and parse, while the executor's threads run the message handling and the listeners
+ * called from it. Each peer's messages are still processed one at a time and in the order they arrived, after its
+ * {@link StreamConnection#connectionOpened()} and before its {@link StreamConnection#connectionClosed()}, which are
+ * called on the executor too. The selectors keep reading while messages wait for the executor, so an executor that
+ * can't keep up lets them pile up in memory.</p>
+ */
+public class MultiSelectorClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(MultiSelectorClientManager.class);
+
+    private final List<NioClientManager> selectors;
+    @Nullable
+    private final Executor messageExecutor;
+    private final AtomicInteger nextSelector = new AtomicInteger();
+
+    /**
+     * Creates a manager with a selector for each available processor, which processes messages on the selector
+     * threads.
+     */
+    public MultiSelectorClientManager() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param selectors       The number of selector threads.
+     * @param messageExecutor The executor to process the messages of {@link PeerSocketHandler}s on, or null to process
+     *                        them on the selector threads.
+     */
+    public MultiSelectorClientManager(int selectors, @Nullable Executor messageExecutor) {
+        checkArgument(selectors > 0, "selectors must be positive");
+        ImmutableList.Builder<NioClientManager> builder = ImmutableList.builder();
+        for (int i = 0; i < selectors; i++)
+            builder.add(new NioClientManager());
+        this.selectors = builder.build();
+        this.messageExecutor = messageExecutor;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        for (NioClientManager selector : selectors)
+            selector.startAsync();
+        for (NioClientManager selector : selectors)
+            selector.awaitRunning();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        for (NioClientManager selector : selectors)
+            selector.stopAsync();
+        for (NioClientManager selector : selectors)
+            selector.awaitTerminated();
+    }
+
+    @Override
+    public ListenableFuture<SocketAddress> openConnection(SocketAddress serverAddress, StreamConnection connection) {
+        if (!isRunning())
+            throw new IllegalStateException();
+        if (messageExecutor != null && connection instanceof PeerSocketHandler) {
+            Executor sequentialExecutor = MoreExecutors.newSequentialExecutor(messageExecutor);
+            ((PeerSocketHandler) connection).setMessageExecutor(sequentialExecutor);
+            connection = new SequentialConnection(connection, sequentialExecutor);
+        }
+        int index = (nextSelector.getAndIncrement() & Integer.MAX_VALUE) % selectors.size();
+        return selectors.get(index).openConnection(serverAddress, connection);
+    }
+
+    /** Returns the number of selector threads. */
+    public int getSelectorCount() {
+        return selectors.size();
+    }
+
+    @Override
+    public int getConnectedClientCount() {
+        int count = 0;
+        for (NioClientManager selector : selectors)
+            count += selector.getConnectedClientCount();
+        return count;
+    }
+
+    @Override
+    public void closeConnections(int n) {
+        // Close connections on the busiest selectors, to keep the remaining ones spread out.
+        while (n-- > 0) {
+            NioClientManager busiest = null;
+            for (NioClientManager selector : selectors)
+                if (busiest == null || selector.getConnectedClientCount() > busiest.getConnectedClientCount())
+                    busiest = selector;
+            if (busiest.getConnectedClientCount() == 0)
+                return;
+            busiest.closeConnections(1);
+        }
+    }
+
+    @Override
+    protected Executor executor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new ContextPropagatingThreadFactory("MultiSelectorClientManager").newThread(command).start();
+            }
+        };
+    }
+
+    /**
+     * Calls {@link StreamConnection#connectionOpened()} and {@link StreamConnection#connectionClosed()} on the executor
+     * that processes the connection's messages, so that they are ordered with them.
+     */
+    private static class SequentialConnection implements StreamConnection {
+        private final StreamConnection connection;
+        private final Executor executor;
+        private volatile MessageWriteTarget writeTarget;
+
+        SequentialConnection(StreamConnection connection, Executor executor) {
+            this.connection = connection;
+            this.executor = executor;
+        }
+
+        @Override
+        public void connectionOpened() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connection.connectionOpened();
+                    } catch (Exception e) {
+                        log.warn("Error opening connection, closing it", e);
+                        writeTarget.closeConnection();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void connectionClosed() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connection.connectionClosed();
+                    } catch (Exception e) {
+                        log.warn("Error closing connection", e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int receiveBytes(ByteBuffer buff) throws Exception {
+            return connection.receiveBytes(buff);
+        }
+
+        @Override
+        public void setWriteTarget(MessageWriteTarget writeTarget) {
+            this.writeTarget = writeTarget;
+            connection.setWriteTarget(writeTarget);
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return connection.getMaxMessageSize();
+        }
+    }
+}
@@ -32,7 +32,7 @@ import java.nio.ByteBuffer;
 /**
  * Creates a simple connection to a server using a {@link StreamConnection} to process data.
  */
-public class NioClient implements MessageWriteTarget {
+public class NioClient implements SerializedMessageWriteTarget {
     private static final Logger log = LoggerFactory.getLogger(NioClient.class);
 
     private final Handler handler;
@@ -125,7 +125,12 @@ public class NioClient implements MessageWriteTarget {
     }
 
     @Override
-    public synchronized ListenableFuture writeBytes(byte[] message) throws IOException {
+    public synchronized ListenableFuture<?> writeBytes(byte[] message) throws IOException {
         return handler.writeTarget.writeBytes(message);
     }
+
+    @Override
+    public synchronized ListenableFuture<?> writeMessage(SerializedMessage message) throws IOException {
+        return message.writeTo(handler.writeTarget);
+    }
 }
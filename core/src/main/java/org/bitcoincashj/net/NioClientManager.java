@@ -38,7 +38,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A class which manages a set of client connections. Uses Java NIO to select network events and processes them in a
- * single network processing thread.
+ * single network processing thread. {@link MultiSelectorClientManager} spreads connections over several of these.
  */
 public class NioClientManager extends AbstractExecutionThreadService implements ClientConnectionManager {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(NioClientManager.class);
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A message serialized for the wire, header included, ready to be written to any number of connections. Sending
+ * the same transaction to many peers this way serializes and hashes it only once, and each connection writes from the
+ * same buffer.</p>
+ *
+ * <p>The buffer usually comes from a {@link ByteBufferPool}, so it is reference counted: whoever creates the message
+ * holds a reference, each {@link MessageWriteTarget} takes its own for as long as the write takes, and the buffer goes
+ * back to the pool once all of them called {@link #release()}. Forgetting to release only means the buffer is garbage
+ * collected rather than reused.</p>
+ */
+public class SerializedMessage {
+    // The message, and the whole buffer it was written to, which is what goes back to the pool.
+    private final ByteBuffer content;
+    private final ByteBuffer buffer;
+    @Nullable
+    private final ByteBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * @param buffer The serialized message from its position to its limit.
+     * @param pool   The pool to return the buffer to when released, or null if it wasn't pooled.
+     */
+    public SerializedMessage(ByteBuffer buffer, @Nullable ByteBufferPool pool) {
+        this.buffer = checkNotNull(buffer);
+        this.content = buffer.slice();
+        this.pool = pool;
+    }
+
+    /** Wraps bytes that were serialized already. The array is not copied, so it must not be changed afterwards. */
+    public static SerializedMessage wrap(byte[] bytes) {
+        return new SerializedMessage(ByteBuffer.wrap(bytes), null);
+    }
+
+    /** Returns the length of the message, header included. */
+    public int length() {
+        return content.remaining();
+    }
+
+    /**
+     * Returns a read only view of the message, with its own position. The view must not be used once the reference it
+     * was obtained under is released.
+     */
+    public ByteBuffer buffer() {
+        checkState(references.get() > 0, "Message was released");
+        return content.asReadOnlyBuffer();
+    }
+
+    /** Writes the whole message to the given stream. */
+    public void writeTo(OutputStream out) throws IOException {
+        checkState(references.get() > 0, "Message was released");
+        if (content.hasArray()) {
+            out.write(content.array(), content.arrayOffset(), content.remaining());
+            return;
+        }
+        ByteBuffer view = content.duplicate();
+        byte[] chunk = new byte[Math.min(view.remaining(), 8192)];
+        while (view.hasRemaining()) {
+            int n = Math.min(view.remaining(), chunk.length);
+            view.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Writes the message to the given target, from its buffer if the target is a {@link SerializedMessageWriteTarget},
+     * otherwise copied into a byte array. The caller keeps its reference to the message.
+     */
+    public ListenableFuture<?> writeTo(MessageWriteTarget target) throws IOException {
+        if (target instanceof SerializedMessageWriteTarget)
+            return ((SerializedMessageWriteTarget) target).writeMessage(this);
+        checkState(references.get() > 0, "Message was released");
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return target.writeBytes(bytes);
+    }
+
+    /** Takes another reference to the message, which must be released separately. */
+    public SerializedMessage retain() {
+        int count;
+        do {
+            count = references.get();
+            checkState(count > 0, "Message was released");
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /** Gives up a reference to the message. The buffer goes back to its pool with the last one. */
+    public void release() {
+        int count = references.decrementAndGet();
+        checkState(count >= 0, "Message was released too often");
+        if (count == 0 && pool != null)
+            pool.release(buffer);
+    }
+}
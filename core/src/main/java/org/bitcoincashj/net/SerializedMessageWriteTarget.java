@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+
+/**
+ * A {@link MessageWriteTarget} that writes {@link SerializedMessage}s from their buffer, without copying them first.
+ * Messages written to other targets are copied into a byte array, see {@link SerializedMessage#writeTo(MessageWriteTarget)}.
+ */
+public interface SerializedMessageWriteTarget extends MessageWriteTarget {
+    /**
+     * Writes a message that was serialized ahead of time, possibly for several targets. The target takes its own
+     * reference to the message for as long as the write takes, so the caller can release its reference right away.
+     * The returned future completes when all bytes have been written to the OS network buffer.
+     */
+    ListenableFuture<?> writeMessage(SerializedMessage message) throws IOException;
+}
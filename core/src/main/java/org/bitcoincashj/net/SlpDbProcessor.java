@@ -6,14 +6,30 @@ import org.json.JSONObject;
 import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 public class SlpDbProcessor {
-    private final String[] slpDbInstances = new String[]{"slpdb.fountainhead.cash", "slpdb.bitcoin.com"};
+    private static final String[] DEFAULT_SLPDB_INSTANCES = new String[]{"https://slpdb.fountainhead.cash", "https://slpdb.bitcoin.com"};
+    private final String[] slpDbInstances;
     private final String slpDbEndpoint = "/q/";
+    private final int tries;
+    private final int initialBackOff;
 
     public SlpDbProcessor() {
+        this(12, 1000, DEFAULT_SLPDB_INSTANCES);
+    }
 
+    /**
+     * Creates a processor querying the given SLPDB base URLs (e.g. <code>https://slpdb.fountainhead.cash</code>),
+     * retrying failed requests up to <code>tries</code> times with exponential back-off starting at
+     * <code>initialBackOff</code> milliseconds.
+     */
+    public SlpDbProcessor(int tries, int initialBackOff, String... slpDbInstances) {
+        this.tries = tries;
+        this.initialBackOff = initialBackOff;
+        this.slpDbInstances = slpDbInstances;
     }
 
     private String readData(Reader rd) throws IOException {
@@ -26,14 +42,13 @@ public class SlpDbProcessor {
     }
 
     public JSONObject getTokenData(String base64Query) {
-        int tries = 12;
-        int backOff = 1000;
+        int backOff = initialBackOff;
         JSONObject tokenObj = null;
         for (int x = tries; x > 0; x--) {
             int randServer = new Random().nextInt(slpDbInstances.length);
             String slpDbServer = slpDbInstances[randServer];
 
-            try (InputStream is = new URL("https://" + slpDbServer + slpDbEndpoint + base64Query).openStream()) {
+            try (InputStream is = new URL(slpDbServer + slpDbEndpoint + base64Query).openStream()) {
                 BufferedReader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
                 String jsonText = readData(rd);
                 JSONArray tokenArray = new JSONObject(jsonText).getJSONArray("t");
@@ -58,13 +73,12 @@ public class SlpDbProcessor {
 
     public boolean isValidSlpTx(String base64Query) {
         boolean valid = false;
-        int tries = 12;
-        int backOff = 1000;
+        int backOff = initialBackOff;
         //while(!valid && tries > 0) {
         for (int x = tries; x > 0; x--) {
             int randServer = new Random().nextInt(slpDbInstances.length);
             String slpDbServer = slpDbInstances[randServer];
-            try (InputStream is = new URL("https://" + slpDbServer + slpDbEndpoint + base64Query).openStream()) {
+            try (InputStream is = new URL(slpDbServer + slpDbEndpoint + base64Query).openStream()) {
                 BufferedReader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
                 String jsonText = readData(rd);
                 JSONArray confirmedArray = new JSONObject(jsonText).getJSONArray("c");
@@ -90,4 +104,45 @@ public class SlpDbProcessor {
 
         return valid;
     }
+
+    /**
+     * Queries validity of a batch of transactions, see {@link SlpDbValidTransactions}. Returns the txids SLPDB reports
+     * as valid, or an empty set if no server could be reached. Transactions missing from the result are either
+     * invalid or not yet known to SLPDB.
+     */
+    public Set<String> getValidTxs(String base64Query) {
+        int backOff = initialBackOff;
+        for (int x = tries; x > 0; x--) {
+            int randServer = new Random().nextInt(slpDbInstances.length);
+            String slpDbServer = slpDbInstances[randServer];
+            try (InputStream is = new URL(slpDbServer + slpDbEndpoint + base64Query).openStream()) {
+                BufferedReader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+                JSONObject response = new JSONObject(readData(rd));
+                Set<String> validTxs = new HashSet<>();
+                collectValidTxs(response.getJSONArray("c"), validTxs);
+                collectValidTxs(response.getJSONArray("u"), validTxs);
+                return validTxs;
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    Thread.sleep(backOff);
+                    backOff *= 2;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        return new HashSet<>();
+    }
+
+    private void collectValidTxs(JSONArray results, Set<String> validTxs) {
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            if (result.optBoolean("valid")) {
+                validTxs.add(result.getString("txid"));
+            }
+        }
+    }
 }
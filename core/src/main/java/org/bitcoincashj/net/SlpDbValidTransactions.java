@@ -0,0 +1,49 @@
+package org.bitcoincashj.net;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Batched variant of {@link SlpDbValidTransaction}: asks SLPDB for the validity of several transactions in one query.
+ * Only valid transactions are returned, each as <code>{txid: ..., valid: true}</code>.
+ */
+public class SlpDbValidTransactions {
+    private String json;
+
+    public SlpDbValidTransactions(Collection<String> txIds) {
+        JSONObject json = new JSONObject();
+        json.put("v", 3);
+        JSONObject q = new JSONObject();
+        q.put("db", new JSONArray().put("c").put("u"));
+        JSONObject findJson = new JSONObject();
+        JSONObject inJson = new JSONObject();
+        inJson.put("$in", new JSONArray(txIds));
+        findJson.put("tx.h", inJson);
+        findJson.put("slp.valid", true);
+        q.put("find", findJson);
+        JSONObject project = new JSONObject();
+        project.put("tx.h", 1);
+        project.put("slp.valid", 1);
+        project.put("_id", 0);
+        q.put("project", project);
+        q.put("limit", txIds.size());
+        json.put("q", q);
+        JSONObject r = new JSONObject();
+        r.put("f", "[.[] | {txid: .tx.h, valid: .slp.valid}]");
+        json.put("r", r);
+
+        this.json = json.toString();
+    }
+
+    public String getJson() {
+        return this.json;
+    }
+
+    public String getEncoded() {
+        return new String(Base64.encode(this.json.getBytes()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,109 @@
+package org.bitcoincashj.net;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoincashj.utils.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Validates SLP transactions against SLPDB in batches. Txids handed to {@link #validate(Collection, Listener)} are
+ * grouped into {@link SlpDbValidTransactions} queries of at most <code>batchSize</code> txids, which are run on a
+ * fixed pool of <code>maxInFlight</code> threads, so no more than that many requests hit SLPDB at any time.</p>
+ *
+ * <p>Results are reported per batch through a {@link Listener} as soon as each batch completes, so callers can update
+ * balances incrementally instead of waiting for the whole set. Listener invocations never overlap.</p>
+ */
+public class SlpDbValidationPipeline {
+    private static final Logger log = LoggerFactory.getLogger(SlpDbValidationPipeline.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 20;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /** Receives the outcome of each completed batch. */
+    public interface Listener {
+        /**
+         * Called once per batch with the txids of that batch SLPDB reported as valid (possibly empty), and the number
+         * of batches still outstanding for the same {@link #validate(Collection, Listener)} call.
+         */
+        void onBatchValidated(Set<String> validTxIds, int remainingBatches);
+    }
+
+    private final SlpDbProcessor slpDbProcessor;
+    private final int batchSize;
+    private final ListeningExecutorService executor;
+    private final Object listenerLock = new Object();
+
+    public SlpDbValidationPipeline(SlpDbProcessor slpDbProcessor) {
+        this(slpDbProcessor, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public SlpDbValidationPipeline(SlpDbProcessor slpDbProcessor, int batchSize, int maxInFlight) {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        this.slpDbProcessor = slpDbProcessor;
+        this.batchSize = batchSize;
+        this.executor = MoreExecutors.listeningDecorator(
+                Executors.newFixedThreadPool(maxInFlight, new DaemonThreadFactory("SLPDB validation")));
+    }
+
+    /**
+     * Submits the given txids for validation. The returned future completes with the union of all valid txids once
+     * every batch has been answered; <code>listener</code> (if not null) is invoked as each individual batch completes.
+     */
+    public ListenableFuture<Set<String>> validate(Collection<String> txIds, final Listener listener) {
+        List<List<String>> batches = Lists.partition(new ArrayList<>(new HashSet<>(txIds)), batchSize);
+        final int[] remaining = {batches.size()};
+        List<ListenableFuture<Set<String>>> futures = new ArrayList<>(batches.size());
+        for (final List<String> batch : batches) {
+            futures.add(executor.submit(new Callable<Set<String>>() {
+                @Override
+                public Set<String> call() {
+                    Set<String> validTxIds = slpDbProcessor.getValidTxs(new SlpDbValidTransactions(batch).getEncoded());
+                    // Only report txids we actually asked about, in case the server returns more.
+                    validTxIds.retainAll(batch);
+                    synchronized (listenerLock) {
+                        remaining[0]--;
+                        if (listener != null) {
+                            try {
+                                listener.onBatchValidated(validTxIds, remaining[0]);
+                            } catch (RuntimeException e) {
+                                log.warn("Exception in SLP validation listener", e);
+                            }
+                        }
+                    }
+                    return validTxIds;
+                }
+            }));
+        }
+
+        return Futures.transform(Futures.allAsList(futures), new Function<List<Set<String>>, Set<String>>() {
+            @Override
+            public Set<String> apply(List<Set<String>> results) {
+                Set<String> validTxIds = new HashSet<>();
+                for (Set<String> batchResult : results)
+                    validTxIds.addAll(batchResult);
+                return validTxIds;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /** Stops the worker threads. Batches not yet started are dropped. */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
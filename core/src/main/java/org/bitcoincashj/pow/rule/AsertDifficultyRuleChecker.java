@@ -58,7 +58,7 @@ public class AsertDifficultyRuleChecker extends AbstractPowRulesChecker {
                 referenceBlockBits = Utils.decodeCompactBits(networkParameters.getAsertReferenceBlockBits());
             } else {
                 StoredBlock asertReferenceBlock = getAsertReferenceBlock(storedPrev, blockStore);
-                referenceBlockAncestorTime = BigInteger.valueOf(asertReferenceBlock.getPrev(blockStore).getHeader().getTimeSeconds());
+                referenceBlockAncestorTime = BigInteger.valueOf(asertReferenceBlock.getAncestor(blockStore, asertReferenceBlock.getHeight() - 1).getHeader().getTimeSeconds());
                 referenceBlockHeight = BigInteger.valueOf(asertReferenceBlock.getHeight());
                 referenceBlockBits = asertReferenceBlock.getHeader().getDifficultyTargetAsInteger();
             }
@@ -75,8 +75,8 @@ public class AsertDifficultyRuleChecker extends AbstractPowRulesChecker {
         while (true) {
             if (AbstractBitcoinNetParams.isAsertEnabled(prev, blockStore, networkParameters)) {
                 bestAsertCandidate = prev;
-                prev = prev.getPrev(blockStore);
-            } else if (!AbstractBitcoinNetParams.isAsertEnabled(prev, blockStore, networkParameters)) {
+                prev = prev.getAncestor(blockStore, prev.getHeight() - 1);
+            } else {
                 return bestAsertCandidate;
             }
         }
@@ -35,21 +35,19 @@ public class DifficultyTransitionPointRuleChecker extends AbstractPowRulesChecke
 
         Block prevBlock = storedPrev.getHeader();
 
-        Block lastBlockInterval = findLastBlockInterval(prevBlock, blockStore);
+        Block lastBlockInterval = findLastBlockInterval(storedPrev, blockStore);
         int timeSpan = (int) (prevBlock.getTimeSeconds() - lastBlockInterval.getTimeSeconds());
         BigInteger newTarget = calculateNewTarget(prevBlock, timeSpan);
 
         networkParameters.verifyDifficulty(newTarget, nextBlock);
     }
 
-    private Block findLastBlockInterval(Block prevBlock, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock cursor = blockStore.get(prevBlock.getHash());
-        for (int i = 0; i < networkParameters.getInterval() - 1; i++) {
-            if (cursor == null) {
-                throw new VerificationException("Difficulty transition point but we did " +
-                        "not find a way back to the genesis block.");
-            }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+    private Block findLastBlockInterval(StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
+        StoredBlock cursor = storedPrev.getAncestor(blockStore,
+                storedPrev.getHeight() - (networkParameters.getInterval() - 1));
+        if (cursor == null) {
+            throw new VerificationException("Difficulty transition point but we did " +
+                    "not find a way back to the genesis block.");
         }
         return cursor.getHeader();
     }
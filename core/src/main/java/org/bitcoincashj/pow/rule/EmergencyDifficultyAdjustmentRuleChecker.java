@@ -48,20 +48,13 @@ public class EmergencyDifficultyAdjustmentRuleChecker extends AbstractPowRulesCh
     }
 
     private long getMedianProducingTimeInSeconds(int sizeOfBlocks, StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock cursor = blockStore.get(storedPrev.getHeader().getHash());
-        for (int i = 0; i < sizeOfBlocks; i++) {
-            if (cursor == null) {
-                throw new NullPointerException("Not enough blocks to check difficulty.");
-            }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+        StoredBlock cursor = storedPrev.getAncestor(blockStore, storedPrev.getHeight() - sizeOfBlocks);
+        if (cursor == null) {
+            throw new NullPointerException("Not enough blocks to check difficulty.");
         }
         //Check to see if there are enough blocks before cursor to correctly calculate the median time
-        StoredBlock beforeCursor = cursor;
-        for (int i = 0; i < 10; i++) {
-            beforeCursor = blockStore.get(beforeCursor.getHeader().getPrevBlockHash());
-            if (beforeCursor == null)
-                throw new NullPointerException("Not enough blocks to check difficulty.");
-        }
+        if (cursor.getAncestor(blockStore, cursor.getHeight() - 10) == null)
+            throw new NullPointerException("Not enough blocks to check difficulty.");
         return BlockChain.getMedianTimestampOfRecentBlocks(storedPrev, blockStore) -
                 BlockChain.getMedianTimestampOfRecentBlocks(cursor, blockStore);
     }
@@ -84,10 +84,10 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
          */
         StoredBlock[] blocks = new StoredBlock[3];
         blocks[2] = pindex;
-        blocks[1] = pindex.getPrev(blockStore);
+        blocks[1] = pindex.getAncestor(blockStore, pindex.getHeight() - 1);
         if (blocks[1] == null)
             throw new BlockStoreException("Not enough blocks in blockStore to calculate difficulty");
-        blocks[0] = blocks[1].getPrev(blockStore);
+        blocks[0] = blocks[1].getAncestor(blockStore, blocks[1].getHeight() - 1);
         if (blocks[0] == null)
             throw new BlockStoreException("Not enough blocks in blockStore to calculate difficulty");
 
@@ -118,12 +118,9 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
     }
 
     private StoredBlock getFirst(StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock first = storedPrev;
-        for (int i = AVERAGE_BLOCKS_PER_DAY; i > 0; --i) {
-            first = first.getPrev(blockStore);
-            if (first == null) {
-                throw new BlockStoreException("The previous block no longer exists");
-            }
+        StoredBlock first = storedPrev.getAncestor(blockStore, storedPrev.getHeight() - AVERAGE_BLOCKS_PER_DAY);
+        if (first == null) {
+            throw new BlockStoreException("The previous block no longer exists");
         }
         return GetMostSuitableBlock(first, blockStore);
     }
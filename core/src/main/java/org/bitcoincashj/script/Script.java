@@ -20,6 +20,7 @@
 package org.bitcoincashj.script;
 
 import org.bitcoincashj.core.*;
+import org.bitcoincashj.crypto.SchnorrBatchVerifier;
 import org.bitcoincashj.crypto.SchnorrSignature;
 import org.bitcoincashj.crypto.TransactionSignature;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
@@ -105,6 +106,10 @@ public class Script {
      */
     public static final int MAX_P2SH_SIGOPS = 15;
 
+    // Consulted by OP_CHECKSIG and OP_CHECKDATASIG before verifying a signature, may be null.
+    @Nullable
+    private static volatile SignatureCache signatureCache = new SignatureCache();
+
     // The program is a set of chunks where each element is either [opcode] or [data, data, data ...]
     protected List<ScriptChunk> chunks;
     // Unfortunately, scripts are not ever re-serialized or canonicalized when used in signature hashing. Thus we
@@ -866,6 +871,18 @@ public class Script {
      */
     public static void executeScript(@Nullable Transaction txContainingThis, long index,
                                      Script script, LinkedList<byte[]> stack, Coin value, Set<VerifyFlag> verifyFlags) throws ScriptException {
+        executeScript(txContainingThis, index, script, stack, value, verifyFlags, null);
+    }
+
+    /**
+     * Like {@link #executeScript(Transaction, long, Script, LinkedList, Coin, Set)}, but if
+     * <code>deferredSchnorr</code> is given, Schnorr signatures checked by OP_CHECKSIG and OP_CHECKDATASIG (and their
+     * VERIFY variants) are assumed to be valid and added to it instead of being verified. The script only really
+     * succeeded if the batch verifies afterwards; if it fails, it must be executed again without deferring.
+     */
+    public static void executeScript(@Nullable Transaction txContainingThis, long index,
+                                     Script script, LinkedList<byte[]> stack, Coin value, Set<VerifyFlag> verifyFlags,
+                                     @Nullable SchnorrBatchVerifier deferredSchnorr) throws ScriptException {
         int opCount = 0;
         int lastCodeSepLocation = 0;
 
@@ -1320,7 +1337,7 @@ public class Script {
                     case OP_CHECKSIGVERIFY:
                         if (txContainingThis == null)
                             throw new IllegalStateException("Script attempted signature check but no tx was provided");
-                        executeCheckSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, value, verifyFlags);
+                        executeCheckSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, value, verifyFlags, deferredSchnorr);
                         break;
                     case OP_CHECKMULTISIG:
                     case OP_CHECKMULTISIGVERIFY:
@@ -1355,7 +1372,7 @@ public class Script {
                         if (txContainingThis == null)
                             throw new IllegalStateException("Script attempted signature check but no tx was provided");
 
-                        executeCheckDataSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, verifyFlags);
+                        executeCheckDataSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, verifyFlags, deferredSchnorr);
                         break;
                     case OP_REVERSEBYTES:
                         if (stack.size() < 1)
@@ -1501,7 +1518,8 @@ public class Script {
     // https://github.com/bitcoincashorg/bitcoincash.org/blob/master/spec/op_checkdatasig.md
     private static void executeCheckDataSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                             int lastCodeSepLocation, int opcode,
-                                            Set<VerifyFlag> verifyFlags) throws ScriptException {
+                                            Set<VerifyFlag> verifyFlags,
+                                            @Nullable SchnorrBatchVerifier deferredSchnorr) throws ScriptException {
         final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
                 || verifyFlags.contains(VerifyFlag.DERSIG)
                 || verifyFlags.contains(VerifyFlag.LOW_S);
@@ -1519,14 +1537,14 @@ public class Script {
 
             Sha256Hash hash = Sha256Hash.of(messageByte);
 
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = verifyEcdsa(hash.getBytes(), sig, sigBytes, pubKey, verifyFlags);
         } catch (VerificationException.NoncanonicalSignature e1) {
             try {
                 SchnorrSignature sig = SchnorrSignature.decodeFromBitcoin(sigBytes);
 
                 Sha256Hash hash = Sha256Hash.of(messageByte);
 
-                sigValid = ECKey.verifySchnorr(hash.getBytes(), sig, pubKey);
+                sigValid = verifySchnorr(hash.getBytes(), sig, pubKey, verifyFlags, deferredSchnorr);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -1547,19 +1565,16 @@ public class Script {
                 throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
     }
 
-    private static void executeCheckSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
-                                        int lastCodeSepLocation, int opcode, Coin value,
-                                        Set<VerifyFlag> verifyFlags) throws ScriptException {
+    /**
+     * The signature check of OP_CHECKSIG(VERIFY): returns whether the signature is valid for the given public key and
+     * the script code following the last OP_CODESEPARATOR, from which the signature itself is removed first.
+     */
+    private static boolean checkSig(Transaction txContainingThis, int index, byte[] connectedScript, byte[] sigBytes,
+                                    byte[] pubKey, Coin value, Set<VerifyFlag> verifyFlags,
+                                    @Nullable SchnorrBatchVerifier deferredSchnorr) {
         final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
                 || verifyFlags.contains(VerifyFlag.DERSIG)
                 || verifyFlags.contains(VerifyFlag.LOW_S);
-        if (stack.size() < 2)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSIG(VERIFY) on a stack with size < 2");
-        byte[] pubKey = stack.pollLast();
-        byte[] sigBytes = stack.pollLast();
-
-        byte[] prog = script.getProgram();
-        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
 
         UnsafeByteArrayOutputStream outStream = new UnsafeByteArrayOutputStream(sigBytes.length + 1);
         try {
@@ -1579,7 +1594,7 @@ public class Script {
             Sha256Hash hash = sig.useForkId() ?
                     txContainingThis.hashForSignatureWitness(index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
                     txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = verifyEcdsa(hash.getBytes(), sig, sigBytes, pubKey, verifyFlags);
         } catch (VerificationException.NoncanonicalSignature e) {
             //try Schnorr sig
             try {
@@ -1589,7 +1604,7 @@ public class Script {
                 Sha256Hash hash = sig.useForkId() ?
                         txContainingThis.hashForSignatureWitness(index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
                         txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-                sigValid = ECKey.verifySchnorr(hash.getBytes(), sig, pubKey);
+                sigValid = verifySchnorr(hash.getBytes(), sig, pubKey, verifyFlags, deferredSchnorr);
             } catch (Exception e1) {
                 e1.printStackTrace();
             }
@@ -1605,6 +1620,23 @@ public class Script {
             log.warn("Signature checking failed!", e);
         }
 
+        return sigValid;
+    }
+
+    private static void executeCheckSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
+                                        int lastCodeSepLocation, int opcode, Coin value,
+                                        Set<VerifyFlag> verifyFlags,
+                                        @Nullable SchnorrBatchVerifier deferredSchnorr) throws ScriptException {
+        if (stack.size() < 2)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSIG(VERIFY) on a stack with size < 2");
+        byte[] pubKey = stack.pollLast();
+        byte[] sigBytes = stack.pollLast();
+
+        byte[] prog = script.getProgram();
+        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
+        boolean sigValid = checkSig(txContainingThis, index, connectedScript, sigBytes, pubKey, value, verifyFlags,
+                deferredSchnorr);
+
         if (opcode == OP_CHECKSIG)
             stack.add(sigValid ? new byte[]{1} : new byte[]{});
         else if (opcode == OP_CHECKSIGVERIFY)
@@ -1612,46 +1644,28 @@ public class Script {
                 throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
     }
 
-    private static int executeMultiSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
-                                       int opCount, int lastCodeSepLocation, int opcode, Coin value,
-                                       Set<VerifyFlag> verifyFlags) throws ScriptException {
+    /**
+     * Outcome of the signature checks of OP_CHECKMULTISIG(VERIFY). Whether the last matching signature was a Schnorr
+     * signature matters to the caller, as it decides whether the dummy element is consumed.
+     */
+    private enum MultiSigResult {
+        INVALID,
+        VALID_ECDSA_LAST,
+        VALID_SCHNORR_LAST
+    }
+
+    /**
+     * The signature checks of OP_CHECKMULTISIG(VERIFY): matches the signatures in order against the public keys in
+     * order. Both lists are consumed.
+     */
+    private static MultiSigResult checkMultiSig(Transaction txContainingThis, int index, byte[] connectedScript,
+                                                LinkedList<byte[]> sigs, LinkedList<byte[]> pubkeys, Coin value,
+                                                Set<VerifyFlag> verifyFlags) {
         boolean usingSchnorr = false;
 
         final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
                 || verifyFlags.contains(VerifyFlag.DERSIG)
                 || verifyFlags.contains(VerifyFlag.LOW_S);
-        if (stack.size() < 1)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < 2");
-        int pubKeyCount = castToBigInteger(stack.pollLast(), verifyFlags.contains(VerifyFlag.MINIMALDATA)).intValue();
-        if (pubKeyCount < 0 || pubKeyCount > MAX_PUBKEYS_PER_MULTISIG)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_PUBKEY_COUNT, "OP_CHECKMULTISIG(VERIFY) with pubkey count out of range");
-        opCount += pubKeyCount;
-        if (opCount > MAX_OPS_PER_SCRIPT)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "Total op count > 201 during OP_CHECKMULTISIG(VERIFY)");
-        if (stack.size() < pubKeyCount + 1)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + 2");
-
-        LinkedList<byte[]> pubkeys = new LinkedList<>();
-        for (int i = 0; i < pubKeyCount; i++) {
-            byte[] pubKey = stack.pollLast();
-            pubkeys.add(pubKey);
-        }
-
-        int sigCount = castToBigInteger(stack.pollLast(), verifyFlags.contains(VerifyFlag.MINIMALDATA)).intValue();
-        if (sigCount < 0 || sigCount > pubKeyCount)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_COUNT, "OP_CHECKMULTISIG(VERIFY) with sig count out of range");
-        if (stack.size() < sigCount + 1)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + num_of_signatures + 3");
-
-        LinkedList<byte[]> sigs = new LinkedList<>();
-        for (int i = 0; i < sigCount; i++) {
-            byte[] sig = stack.pollLast();
-            sigs.add(sig);
-        }
-
-        byte[] prog = script.getProgram();
-        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
-
         for (byte[] sig : sigs) {
             UnsafeByteArrayOutputStream outStream = new UnsafeByteArrayOutputStream(sig.length + 1);
             try {
@@ -1662,7 +1676,6 @@ public class Script {
             connectedScript = removeAllInstancesOf(connectedScript, outStream.toByteArray());
         }
 
-        boolean valid = true;
         while (sigs.size() > 0) {
             byte[] pubKey = pubkeys.pollFirst();
             // We could reasonably move this out of the loop, but because signature verification is significantly
@@ -1696,13 +1709,51 @@ public class Script {
                 e.printStackTrace();
             }
 
-            if (sigs.size() > pubkeys.size()) {
-                valid = false;
-                usingSchnorr = false;
-                break;
-            }
+            if (sigs.size() > pubkeys.size())
+                return MultiSigResult.INVALID;
+        }
+        return usingSchnorr ? MultiSigResult.VALID_SCHNORR_LAST : MultiSigResult.VALID_ECDSA_LAST;
+    }
+
+    private static int executeMultiSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
+                                       int opCount, int lastCodeSepLocation, int opcode, Coin value,
+                                       Set<VerifyFlag> verifyFlags) throws ScriptException {
+        if (stack.size() < 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < 2");
+        int pubKeyCount = castToBigInteger(stack.pollLast(), verifyFlags.contains(VerifyFlag.MINIMALDATA)).intValue();
+        if (pubKeyCount < 0 || pubKeyCount > MAX_PUBKEYS_PER_MULTISIG)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_PUBKEY_COUNT, "OP_CHECKMULTISIG(VERIFY) with pubkey count out of range");
+        opCount += pubKeyCount;
+        if (opCount > MAX_OPS_PER_SCRIPT)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "Total op count > 201 during OP_CHECKMULTISIG(VERIFY)");
+        if (stack.size() < pubKeyCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + 2");
+
+        LinkedList<byte[]> pubkeys = new LinkedList<>();
+        for (int i = 0; i < pubKeyCount; i++) {
+            byte[] pubKey = stack.pollLast();
+            pubkeys.add(pubKey);
         }
 
+        int sigCount = castToBigInteger(stack.pollLast(), verifyFlags.contains(VerifyFlag.MINIMALDATA)).intValue();
+        if (sigCount < 0 || sigCount > pubKeyCount)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_COUNT, "OP_CHECKMULTISIG(VERIFY) with sig count out of range");
+        if (stack.size() < sigCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + num_of_signatures + 3");
+
+        LinkedList<byte[]> sigs = new LinkedList<>();
+        for (int i = 0; i < sigCount; i++) {
+            byte[] sig = stack.pollLast();
+            sigs.add(sig);
+        }
+
+        byte[] prog = script.getProgram();
+        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
+        MultiSigResult result = checkMultiSig(txContainingThis, index, connectedScript, sigs, pubkeys, value,
+                verifyFlags);
+        boolean valid = result != MultiSigResult.INVALID;
+        boolean usingSchnorr = result == MultiSigResult.VALID_SCHNORR_LAST;
+
         // We uselessly remove a stack object to emulate a Bitcoin Core bug.
         // This only applies to non-Schnorr multisig inputs
         if(!usingSchnorr) {
@@ -1751,23 +1802,47 @@ public class Script {
      */
     public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
                                 Set<VerifyFlag> verifyFlags) throws ScriptException {
+        correctlySpends(txContainingThis, scriptSigIndex, scriptPubKey, value, verifyFlags, null);
+    }
+
+    /**
+     * Verifies that this script (interpreted as a scriptSig) correctly spends the given scriptPubKey, deferring
+     * Schnorr signature checks to the given batch as described in
+     * {@link #executeScript(Transaction, long, Script, LinkedList, Coin, Set, SchnorrBatchVerifier)}.
+     */
+    public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
+                                Set<VerifyFlag> verifyFlags, @Nullable SchnorrBatchVerifier deferredSchnorr)
+            throws ScriptException {
+        if (correctlySpendsStandard(txContainingThis, (int) scriptSigIndex, scriptPubKey, value, verifyFlags,
+                deferredSchnorr))
+            return;
+        correctlySpendsInterpreted(txContainingThis, scriptSigIndex, scriptPubKey, value, verifyFlags, deferredSchnorr);
+    }
+
+    /** Verifies the spend by running the script interpreter, whatever the scripts are. */
+    void correctlySpendsInterpreted(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
+                                    Set<VerifyFlag> verifyFlags, @Nullable SchnorrBatchVerifier deferredSchnorr)
+            throws ScriptException {
         // Clone the transaction because executing the script involves editing it, and if we die, we'll leave
         // the tx half broken (also it's not so thread safe to work on it directly.
+        Transaction original = txContainingThis;
         try {
             txContainingThis = txContainingThis.getParams().getDefaultSerializer().makeTransaction(txContainingThis.bitcoinSerialize());
         } catch (ProtocolException e) {
             throw new RuntimeException(e);   // Should not happen unless we were given a totally broken transaction.
         }
+        // The copy is identical, so the signature hash midstate carries over to it and to every other input's copy.
+        txContainingThis.reuseSigHashMidstate(original);
         if (getProgram().length > MAX_SCRIPT_SIZE || scriptPubKey.getProgram().length > MAX_SCRIPT_SIZE)
             throw new ScriptException(ScriptError.SCRIPT_ERR_SCRIPT_SIZE, "Script larger than 10,000 bytes");
 
         LinkedList<byte[]> stack = new LinkedList<>();
         LinkedList<byte[]> p2shStack = null;
 
-        executeScript(txContainingThis, scriptSigIndex, this, stack, value, verifyFlags);
+        executeScript(txContainingThis, scriptSigIndex, this, stack, value, verifyFlags, deferredSchnorr);
         if (verifyFlags.contains(VerifyFlag.P2SH))
             p2shStack = new LinkedList<>(stack);
-        executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags);
+        executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags, deferredSchnorr);
 
         if (stack.size() == 0)
             throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "Stack empty at end of script execution.");
@@ -1798,7 +1873,7 @@ public class Script {
             byte[] scriptPubKeyBytes = p2shStack.pollLast();
             Script scriptPubKeyP2SH = new Script(scriptPubKeyBytes);
 
-            executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags);
+            executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags, deferredSchnorr);
 
             if (p2shStack.size() == 0)
                 throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "P2SH stack empty at end of script execution.");
@@ -1810,6 +1885,147 @@ public class Script {
         }
     }
 
+    /**
+     * <p>Fast path of {@link #correctlySpends(Transaction, long, Script, Coin, Set, SchnorrBatchVerifier)} for spends
+     * of P2PKH, P2PK, bare multisig and P2SH multisig outputs, which make up nearly all transactions. Recognizes the
+     * templates and checks the signatures directly, without copying the transaction or running the interpreter.</p>
+     *
+     * <p>Returns true only if the interpreter would accept the spend as well. False means the spend is invalid or
+     * isn't of a recognized form, and the interpreter has to decide, which also gets the error reported right.</p>
+     */
+    boolean correctlySpendsStandard(Transaction txContainingThis, int index, Script scriptPubKey, Coin value,
+                                    Set<VerifyFlag> verifyFlags, @Nullable SchnorrBatchVerifier deferredSchnorr) {
+        if (getQuickProgram().length > MAX_SCRIPT_SIZE || scriptPubKey.getQuickProgram().length > MAX_SCRIPT_SIZE)
+            return false;
+        final boolean minimalData = verifyFlags.contains(VerifyFlag.MINIMALDATA);
+        // Every chunk of the scriptSig must be a plain push, so that executing it just pushes what we read here.
+        for (ScriptChunk chunk : chunks)
+            if (chunk.opcode > OP_PUSHDATA4)
+                return false;
+        if (!hasValidPushes(this, minimalData) || !hasValidPushes(scriptPubKey, minimalData))
+            return false;
+        int size = chunks.size();
+
+        if (ScriptPattern.isP2PKH(scriptPubKey)) {
+            if (size != 2)
+                return false;
+            byte[] pubKey = pushedData(chunks.get(1));
+            if (!Arrays.equals(Utils.sha256hash160(pubKey), ScriptPattern.extractHashFromP2PKH(scriptPubKey)))
+                return false;
+            return checkSig(txContainingThis, index, scriptPubKey.getQuickProgram(), pushedData(chunks.get(0)),
+                    pubKey, value, verifyFlags, deferredSchnorr);
+        }
+        if (ScriptPattern.isP2PK(scriptPubKey)) {
+            if (size != 1)
+                return false;
+            return checkSig(txContainingThis, index, scriptPubKey.getQuickProgram(), pushedData(chunks.get(0)),
+                    ScriptPattern.extractKeyFromP2PK(scriptPubKey), value, verifyFlags, deferredSchnorr);
+        }
+        if (ScriptPattern.isSentToMultisig(scriptPubKey))
+            return correctlySpendsMultiSig(txContainingThis, index, chunks, scriptPubKey, value, verifyFlags);
+        if (verifyFlags.contains(VerifyFlag.P2SH) && ScriptPattern.isP2SH(scriptPubKey)) {
+            if (size < 1)
+                return false;
+            byte[] redeemScriptBytes = pushedData(chunks.get(size - 1));
+            if (!Arrays.equals(Utils.sha256hash160(redeemScriptBytes), ScriptPattern.extractHashFromP2SH(scriptPubKey)))
+                return false;
+            Script redeemScript;
+            try {
+                redeemScript = new Script(redeemScriptBytes);
+            } catch (ScriptException e) {
+                return false;
+            }
+            if (!ScriptPattern.isSentToMultisig(redeemScript) || !hasValidPushes(redeemScript, minimalData))
+                return false;
+            return correctlySpendsMultiSig(txContainingThis, index, chunks.subList(0, size - 1), redeemScript, value,
+                    verifyFlags);
+        }
+        return false;
+    }
+
+    /** Checks <code>OP_0 &lt;sig&gt;...</code> against <code>m &lt;pubkey&gt;... n OP_CHECKMULTISIG</code>. */
+    private static boolean correctlySpendsMultiSig(Transaction txContainingThis, int index, List<ScriptChunk> sigChunks,
+                                                   Script multiSigScript, Coin value, Set<VerifyFlag> verifyFlags) {
+        List<ScriptChunk> scriptChunks = multiSigScript.chunks;
+        if (!scriptChunks.get(scriptChunks.size() - 1).equalsOpCode(OP_CHECKMULTISIG))
+            return false;
+        int sigCount = decodeFromOpN(scriptChunks.get(0).opcode);
+        int pubKeyCount = decodeFromOpN(scriptChunks.get(scriptChunks.size() - 2).opcode);
+        if (sigCount > pubKeyCount || pubKeyCount > MAX_PUBKEYS_PER_MULTISIG)
+            return false;
+        // A dummy element followed by exactly the signatures. The interpreter would also accept a non-empty dummy when
+        // the last signature is a Schnorr signature, but that's never the standard form.
+        if (sigChunks.size() != sigCount + 1 || pushedData(sigChunks.get(0)).length != 0)
+            return false;
+
+        // The interpreter pops these off the stack, so it matches them starting from the last ones.
+        LinkedList<byte[]> sigs = new LinkedList<>();
+        for (int i = sigCount; i >= 1; i--)
+            sigs.add(pushedData(sigChunks.get(i)));
+        LinkedList<byte[]> pubkeys = new LinkedList<>();
+        for (int i = pubKeyCount; i >= 1; i--)
+            pubkeys.add(pushedData(scriptChunks.get(i)));
+        return checkMultiSig(txContainingThis, index, multiSigScript.getQuickProgram(), sigs, pubkeys, value,
+                verifyFlags) != MultiSigResult.INVALID;
+    }
+
+    /** Returns false if executing the script would fail on the size or, if required, the encoding of a push. */
+    private static boolean hasValidPushes(Script script, boolean minimalData) {
+        for (ScriptChunk chunk : script.chunks) {
+            if (chunk.opcode > OP_PUSHDATA4)
+                continue;
+            if (chunk.data != null && chunk.data.length > MAX_SCRIPT_ELEMENT_SIZE)
+                return false;
+            if (minimalData && !chunk.isShortestPossiblePushData())
+                return false;
+        }
+        return true;
+    }
+
+    /** The element a push chunk puts on the stack when executed. */
+    private static byte[] pushedData(ScriptChunk chunk) {
+        return chunk.opcode == OP_0 ? new byte[]{} : chunk.data;
+    }
+
+    /**
+     * Sets the cache of valid signatures that OP_CHECKSIG(VERIFY) and OP_CHECKDATASIG(VERIFY) consult before verifying
+     * a signature and add to afterwards, or null to always verify. By default a cache of
+     * {@link SignatureCache#DEFAULT_MAX_ENTRIES} is shared by all scripts.
+     */
+    public static void setSignatureCache(@Nullable SignatureCache cache) {
+        signatureCache = cache;
+    }
+
+    @Nullable
+    public static SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    private static boolean verifyEcdsa(byte[] hash, TransactionSignature sig, byte[] sigBytes, byte[] pubKey,
+                                       Set<VerifyFlag> verifyFlags) {
+        SignatureCache cache = signatureCache;
+        if (cache != null && cache.contains(SignatureCache.Scheme.ECDSA, verifyFlags, hash, pubKey, sigBytes))
+            return true;
+        boolean valid = ECKey.verify(hash, sig, pubKey);
+        if (valid && cache != null)
+            cache.add(SignatureCache.Scheme.ECDSA, verifyFlags, hash, pubKey, sigBytes);
+        return valid;
+    }
+
+    private static boolean verifySchnorr(byte[] hash, SchnorrSignature sig, byte[] pubKey, Set<VerifyFlag> verifyFlags,
+                                         @Nullable SchnorrBatchVerifier deferredSchnorr) {
+        SignatureCache cache = signatureCache;
+        if (cache != null && cache.contains(SignatureCache.Scheme.SCHNORR, verifyFlags, hash, pubKey,
+                sig.getSignature()))
+            return true;
+        if (deferredSchnorr != null)
+            return deferredSchnorr.add(hash, pubKey, sig.getSignature());
+        boolean valid = ECKey.verifySchnorr(hash, sig, pubKey);
+        if (valid && cache != null)
+            cache.add(SignatureCache.Scheme.SCHNORR, verifyFlags, hash, pubKey, sig.getSignature());
+        return valid;
+    }
+
     // Utility that doesn't copy for internal use
     private byte[] getQuickProgram() {
         if (program != null)
@@ -0,0 +1,112 @@
+package org.bitcoincashj.script;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoincashj.core.Sha256Hash;
+import org.bitcoincashj.core.Utils;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers signatures that have been found valid, so that a transaction whose scripts were already executed, for
+ * example when it was first relayed, doesn't pay for signature verification again when it is seen in a block.</p>
+ *
+ * <p>Entries are keyed by a hash of the signature scheme, the verify flags that decide how a signature is parsed, the
+ * signature hash, public key and signature, so a hit means exactly this check succeeded before. Only successful checks
+ * are cached. The cache is bounded and safe to use from many threads; see
+ * {@link Script#setSignatureCache(SignatureCache)} for how to install one.</p>
+ */
+public class SignatureCache {
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /** The algorithm a signature was checked with. */
+    public enum Scheme {
+        ECDSA, SCHNORR
+    }
+
+    // The flags that can change the result of a signature check. Others don't, and leaving them out of the key lets
+    // checks made under the standard flags, for example on relay, be found again under the consensus flags.
+    private static final EnumSet<Script.VerifyFlag> SIGNATURE_FLAGS = EnumSet.of(Script.VerifyFlag.STRICTENC,
+            Script.VerifyFlag.DERSIG, Script.VerifyFlag.LOW_S);
+
+    private final Cache<Sha256Hash, Boolean> validSignatures;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SignatureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public SignatureCache(int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        validSignatures = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    /** Returns true if the given check is known to be valid, counting a hit or a miss. */
+    public boolean contains(Scheme scheme, Set<Script.VerifyFlag> verifyFlags, byte[] sigHash, byte[] pubKey,
+                            byte[] signature) {
+        if (validSignatures.getIfPresent(key(scheme, verifyFlags, sigHash, pubKey, signature)) != null) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /** Records that the given check was found valid. */
+    public void add(Scheme scheme, Set<Script.VerifyFlag> verifyFlags, byte[] sigHash, byte[] pubKey,
+                    byte[] signature) {
+        validSignatures.put(key(scheme, verifyFlags, sigHash, pubKey, signature), Boolean.TRUE);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long size() {
+        return validSignatures.size();
+    }
+
+    /** Forgets all cached signatures and resets the counters. */
+    public void clear() {
+        validSignatures.invalidateAll();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache{" + size() + " entries, " + getHits() + " hits, " + getMisses() + " misses}";
+    }
+
+    private static Sha256Hash key(Scheme scheme, Set<Script.VerifyFlag> verifyFlags, byte[] sigHash, byte[] pubKey,
+                                  byte[] signature) {
+        // Length prefixes keep different splits of the same bytes apart.
+        byte[] data = new byte[2 + 6 + sigHash.length + pubKey.length + signature.length];
+        data[0] = (byte) scheme.ordinal();
+        int bit = 0;
+        for (Script.VerifyFlag flag : SIGNATURE_FLAGS) {
+            if (verifyFlags.contains(flag))
+                data[1] |= 1 << bit;
+            bit++;
+        }
+        int offset = 2;
+        for (byte[] part : new byte[][]{sigHash, pubKey, signature}) {
+            Utils.uint16ToByteArrayLE(part.length, data, offset);
+            offset += 2;
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return Sha256Hash.of(data);
+    }
+}
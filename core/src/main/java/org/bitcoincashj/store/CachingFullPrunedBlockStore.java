@@ -0,0 +1,518 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import net.jcip.annotations.GuardedBy;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>A write-back cache of the unspent transaction output set, in front of any other {@link FullPrunedBlockStore}.</p>
+ *
+ * <p>Outputs that are added and removed are kept in memory, and written to the underlying store in one batch write
+ * once they take up more than {@link #setMaxDirtyBytes(long)}, or when the last write is more than
+ * {@link #setFlushIntervalMillis(long)} ago. An output that is created and spent between two writes never reaches the
+ * underlying store at all. Outputs read from the underlying store are kept in a read cache of
+ * {@link #setReadCacheSize(int)} entries.</p>
+ *
+ * <p>The verified chain head is written together with the outputs, so the underlying store is always consistent, but
+ * it may be some way behind: after a crash, the blocks after its verified chain head are verified again. Block headers
+ * and undo data are written to the underlying store right away, so reorganizations, which undo the outputs of the
+ * disconnected blocks with that data, work the same with the cache as without it.</p>
+ *
+ * <p>Call {@link #flush()} or {@link #close()} before shutting down, or the outputs since the last write are lost.</p>
+ */
+public class CachingFullPrunedBlockStore implements FullPrunedBlockStore {
+    private static final Logger log = LoggerFactory.getLogger(CachingFullPrunedBlockStore.class);
+
+    /** The default for {@link #setMaxDirtyBytes(long)}. */
+    public static final long DEFAULT_MAX_DIRTY_BYTES = 100 * 1024 * 1024;
+    /** The default for {@link #setFlushIntervalMillis(long)}. */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** The default for {@link #setReadCacheSize(int)}. */
+    public static final int DEFAULT_READ_CACHE_SIZE = 100000;
+
+    private final FullPrunedBlockStore store;
+    private final ReentrantLock lock = Threading.lock(CachingFullPrunedBlockStore.class);
+
+    // The outputs that changed since the last write to the store.
+    @GuardedBy("lock")
+    private final Map<StoredTransactionOutPoint, Entry> dirty = new HashMap<>();
+    @GuardedBy("lock")
+    private long dirtyBytes;
+    @GuardedBy("lock")
+    private final LinkedHashMap<StoredTransactionOutPoint, UTXO> readCache = new LinkedHashMap<StoredTransactionOutPoint, UTXO>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StoredTransactionOutPoint, UTXO> eldest) {
+            return size() > readCacheSize;
+        }
+    };
+    @GuardedBy("lock")
+    private StoredBlock verifiedChainHead;
+    @GuardedBy("lock")
+    private StoredBlock storedVerifiedChainHead;
+    @GuardedBy("lock")
+    private long lastFlushTime;
+    // Changes every time the store is written to, so that outputs read from it meanwhile don't go into the read cache.
+    @GuardedBy("lock")
+    private long flushCount;
+
+    private volatile long maxDirtyBytes = DEFAULT_MAX_DIRTY_BYTES;
+    private volatile long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private volatile int readCacheSize = DEFAULT_READ_CACHE_SIZE;
+
+    // The changes of the batch write in progress on each thread, which no other thread sees until they are committed.
+    private final ThreadLocal<BatchWrite> batchWrite = new ThreadLocal<>();
+
+    // What became of an output since the last write: utxo is null if it was spent. stored is what the store has,
+    // which needs to be removed from it first, or null if it doesn't have the output.
+    private static class Entry {
+        @Nullable
+        final UTXO utxo;
+        @Nullable
+        final UTXO stored;
+
+        Entry(@Nullable UTXO utxo, @Nullable UTXO stored) {
+            this.utxo = utxo;
+            this.stored = stored;
+        }
+
+        // Created and spent since the last write, so the store needs to know nothing about it.
+        boolean isVoid() {
+            return utxo == null && stored == null;
+        }
+
+        // A rough estimate of the memory taken by the entry with its key, in bytes.
+        long estimateSize() {
+            long size = 200;
+            if (utxo != null)
+                size += utxo.getScript().getProgram().length;
+            if (stored != null && stored != utxo)
+                size += 100 + stored.getScript().getProgram().length;
+            return size;
+        }
+    }
+
+    private static class BatchWrite {
+        final Map<StoredTransactionOutPoint, Entry> entries = new HashMap<>();
+        @Nullable
+        StoredBlock verifiedChainHead;
+    }
+
+    /**
+     * Creates a cache in front of the given store, which it takes over: the store must not be used directly anymore.
+     */
+    public CachingFullPrunedBlockStore(FullPrunedBlockStore store) throws BlockStoreException {
+        this.store = checkNotNull(store);
+        this.verifiedChainHead = this.storedVerifiedChainHead = store.getVerifiedChainHead();
+        this.lastFlushTime = Utils.currentTimeMillis();
+    }
+
+    /**
+     * Sets how much memory, roughly, the changed outputs may take up before they are written to the store. The default
+     * is {@link #DEFAULT_MAX_DIRTY_BYTES}.
+     */
+    public void setMaxDirtyBytes(long maxDirtyBytes) {
+        checkArgument(maxDirtyBytes >= 0);
+        this.maxDirtyBytes = maxDirtyBytes;
+    }
+
+    /**
+     * Sets how long after a write to the store the changed outputs are written again at the latest, when a batch write
+     * is committed. The default is {@link #DEFAULT_FLUSH_INTERVAL_MILLIS}.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        checkArgument(flushIntervalMillis >= 0);
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Sets the number of outputs read from the store that are kept in memory. The default is
+     * {@link #DEFAULT_READ_CACHE_SIZE}.
+     */
+    public void setReadCacheSize(int readCacheSize) {
+        checkArgument(readCacheSize >= 0);
+        this.readCacheSize = readCacheSize;
+    }
+
+    /** Returns the number of outputs that changed since the last write to the store. */
+    public int getDirtyCount() {
+        lock.lock();
+        try {
+            return dirty.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns a rough estimate of the memory taken by the outputs that changed since the last write, in bytes. */
+    public long getDirtyBytes() {
+        lock.lock();
+        try {
+            return dirtyBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of times the changed outputs were written to the store. */
+    public long getFlushCount() {
+        lock.lock();
+        try {
+            return flushCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the store the changes are written to. */
+    public FullPrunedBlockStore getStore() {
+        return store;
+    }
+
+    /**
+     * Writes the outputs that changed, and the verified chain head, to the store in one batch write.
+     */
+    public void flush() throws BlockStoreException {
+        lock.lock();
+        try {
+            if (dirty.isEmpty() && verifiedChainHead == storedVerifiedChainHead) {
+                lastFlushTime = Utils.currentTimeMillis();
+                return;
+            }
+            long start = System.nanoTime();
+            store.beginDatabaseBatchWrite();
+            try {
+                for (Entry entry : dirty.values()) {
+                    if (entry.stored != null)
+                        store.removeUnspentTransactionOutput(entry.stored);
+                    if (entry.utxo != null)
+                        store.addUnspentTransactionOutput(entry.utxo);
+                }
+                if (verifiedChainHead != storedVerifiedChainHead)
+                    store.setVerifiedChainHead(verifiedChainHead);
+                store.commitDatabaseBatchWrite();
+            } catch (BlockStoreException | RuntimeException e) {
+                store.abortDatabaseBatchWrite();
+                throw e;
+            }
+            int written = dirty.size();
+            for (Map.Entry<StoredTransactionOutPoint, Entry> entry : dirty.entrySet())
+                if (entry.getValue().utxo != null)
+                    readCache.put(entry.getKey(), entry.getValue().utxo);
+            dirty.clear();
+            dirtyBytes = 0;
+            storedVerifiedChainHead = verifiedChainHead;
+            lastFlushTime = Utils.currentTimeMillis();
+            flushCount++;
+            log.info("Wrote {} changed outputs up to height {} in {} ms", written, verifiedChainHead.getHeight(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes the changed outputs to the store if there are too many, or it's time to.
+    private void maybeFlush() {
+        lock.lock();
+        try {
+            if (dirtyBytes < maxDirtyBytes && Utils.currentTimeMillis() - lastFlushTime < flushIntervalMillis)
+                return;
+            flush();
+        } catch (BlockStoreException | RuntimeException e) {
+            // The changes stay in the cache, to be written with the next ones.
+            log.error("Failed to write changed outputs to the store, will try again", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        store.put(block);
+    }
+
+    @Override
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        return store.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        return store.getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        store.setChainHead(chainHead);
+    }
+
+    @Override
+    public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
+        store.put(storedBlock, undoableBlock);
+    }
+
+    @Override
+    public StoredBlock getOnceUndoableStoredBlock(Sha256Hash hash) throws BlockStoreException {
+        return store.getOnceUndoableStoredBlock(hash);
+    }
+
+    @Override
+    public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
+        return store.getUndoBlock(hash);
+    }
+
+    // Returns what became of the output since the last write to the store, or null if nothing did.
+    @Nullable
+    private Entry getEntry(StoredTransactionOutPoint outPoint) {
+        BatchWrite batch = batchWrite.get();
+        if (batch != null) {
+            Entry entry = batch.entries.get(outPoint);
+            if (entry != null)
+                return entry;
+        }
+        lock.lock();
+        try {
+            return dirty.get(outPoint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, index);
+        Entry entry = getEntry(outPoint);
+        if (entry != null)
+            return entry.utxo;
+        return getStoredTransactionOutput(outPoint);
+    }
+
+    // Returns the output as the store has it, from the read cache if possible.
+    @Nullable
+    private UTXO getStoredTransactionOutput(StoredTransactionOutPoint outPoint) throws BlockStoreException {
+        long flushes;
+        lock.lock();
+        try {
+            UTXO cached = readCache.get(outPoint);
+            if (cached != null)
+                return cached;
+            flushes = flushCount;
+        } finally {
+            lock.unlock();
+        }
+        UTXO out = store.getTransactionOutput(outPoint.getHash(), outPoint.getIndex());
+        if (out != null) {
+            lock.lock();
+            try {
+                if (flushCount == flushes && !dirty.containsKey(outPoint))
+                    readCache.put(outPoint, out);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+        Entry entry = getEntry(outPoint);
+        // Adding an output that is there already is ignored, like the database stores do. An output that isn't in the
+        // cache is assumed to be new to the store too, as it is unless transactions are duplicated.
+        if (entry != null && entry.utxo != null)
+            return;
+        change(outPoint, new Entry(out, entry != null ? entry.stored : null));
+    }
+
+    @Override
+    public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+        Entry entry = getEntry(outPoint);
+        UTXO stored;
+        if (entry != null) {
+            if (entry.utxo == null)
+                throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+            stored = entry.stored;
+        } else {
+            stored = getStoredTransactionOutput(outPoint);
+            if (stored == null)
+                throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+        }
+        change(outPoint, new Entry(null, stored));
+    }
+
+    private void change(StoredTransactionOutPoint outPoint, Entry entry) {
+        BatchWrite batch = batchWrite.get();
+        if (batch != null) {
+            batch.entries.put(outPoint, entry);
+        } else {
+            lock.lock();
+            try {
+                applyChange(outPoint, entry);
+            } finally {
+                lock.unlock();
+            }
+            maybeFlush();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void applyChange(StoredTransactionOutPoint outPoint, Entry entry) {
+        Entry old = entry.isVoid() ? dirty.remove(outPoint) : dirty.put(outPoint, entry);
+        if (old != null)
+            dirtyBytes -= old.estimateSize();
+        if (!entry.isVoid())
+            dirtyBytes += entry.estimateSize();
+        readCache.remove(outPoint);
+    }
+
+    @Override
+    public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        boolean anyChanged = false;
+        boolean anyUnchanged = false;
+        for (int i = 0; i < numOutputs; i++) {
+            Entry entry = getEntry(new StoredTransactionOutPoint(hash, i));
+            if (entry == null) {
+                anyUnchanged = true;
+            } else if (entry.utxo != null) {
+                return true;
+            } else {
+                anyChanged = true;
+            }
+        }
+        if (!anyUnchanged)
+            return false;
+        if (!anyChanged)
+            return store.hasUnspentOutputs(hash, numOutputs);
+        // The store may still have the spent ones, so ask about the others one by one.
+        for (int i = 0; i < numOutputs; i++) {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, i);
+            if (getEntry(outPoint) == null && getStoredTransactionOutput(outPoint) != null)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public StoredBlock getVerifiedChainHead() throws BlockStoreException {
+        BatchWrite batch = batchWrite.get();
+        if (batch != null && batch.verifiedChainHead != null)
+            return batch.verifiedChainHead;
+        lock.lock();
+        try {
+            return verifiedChainHead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
+        BatchWrite batch = batchWrite.get();
+        if (batch != null) {
+            batch.verifiedChainHead = chainHead;
+        } else {
+            commitVerifiedChainHead(chainHead);
+            maybeFlush();
+        }
+    }
+
+    private void commitVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
+        lock.lock();
+        try {
+            verifiedChainHead = chainHead;
+        } finally {
+            lock.unlock();
+        }
+        if (store.getChainHead().getHeight() < chainHead.getHeight())
+            store.setChainHead(chainHead);
+    }
+
+    @Override
+    public void beginDatabaseBatchWrite() throws BlockStoreException {
+        if (batchWrite.get() == null)
+            batchWrite.set(new BatchWrite());
+    }
+
+    @Override
+    public void commitDatabaseBatchWrite() throws BlockStoreException {
+        BatchWrite batch = batchWrite.get();
+        if (batch == null)
+            return;
+        batchWrite.remove();
+        lock.lock();
+        try {
+            for (Map.Entry<StoredTransactionOutPoint, Entry> entry : batch.entries.entrySet())
+                applyChange(entry.getKey(), entry.getValue());
+        } finally {
+            lock.unlock();
+        }
+        if (batch.verifiedChainHead != null)
+            commitVerifiedChainHead(batch.verifiedChainHead);
+        maybeFlush();
+    }
+
+    @Override
+    public void abortDatabaseBatchWrite() throws BlockStoreException {
+        if (batchWrite.get() == null)
+            log.warn("Warning: Rollback attempt without transaction");
+        batchWrite.remove();
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<ECKey> keys) throws UTXOProviderException {
+        try {
+            flush();
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+        return store.getOpenTransactionOutputs(keys);
+    }
+
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        try {
+            return getVerifiedChainHead().getHeight();
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return store.getParams();
+    }
+
+    /** Writes the changed outputs to the store, and closes it. */
+    @Override
+    public void close() throws BlockStoreException {
+        flush();
+        store.close();
+    }
+}
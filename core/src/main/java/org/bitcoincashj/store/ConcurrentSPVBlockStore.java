@@ -0,0 +1,219 @@
+package org.bitcoincashj.store;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoincashj.core.NetworkParameters;
+import org.bitcoincashj.core.ProtocolException;
+import org.bitcoincashj.core.Sha256Hash;
+import org.bitcoincashj.core.StoredBlock;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>An {@link SPVBlockStore} whose reads don't block each other or wait for writers in the common case.</p>
+ *
+ * <p>Writers are serialized by a {@link ReentrantReadWriteLock}, and make a version number odd for as long as they
+ * write. Readers scan the memory mapped ring optimistically through their own view of the buffer, copy the record
+ * they are looking for, and only then validate that the version is still the even one they started with; if it isn't,
+ * they retry once under the read lock. Recently used blocks are served from a concurrent cache without touching the
+ * ring at all. The file format is identical to {@link SPVBlockStore}, so the two can be used interchangeably on the
+ * same file.</p>
+ */
+public class ConcurrentSPVBlockStore extends SPVBlockStore {
+    private final ReentrantReadWriteLock ringLock = new ReentrantReadWriteLock();
+    // Odd while a write to the ring is in progress. Bumped twice by every write, so that optimistic reads and negative
+    // cache entries from before a write can be told apart.
+    private final AtomicLong version = new AtomicLong();
+    private final Cache<Sha256Hash, StoredBlock> blocks = CacheBuilder.newBuilder()
+            .maximumSize(2050)  // Slightly more than the difficulty transition period.
+            .build();
+    private final Cache<Sha256Hash, Long> notFound = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .build();
+    private volatile StoredBlock chainHead;
+
+    public ConcurrentSPVBlockStore(NetworkParameters params, File file) throws BlockStoreException {
+        super(params, file);
+    }
+
+    public ConcurrentSPVBlockStore(NetworkParameters params, File file, int capacity, boolean grow)
+            throws BlockStoreException {
+        super(params, file, capacity, grow);
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        Sha256Hash hash = block.getHeader().getHash();
+        ringLock.writeLock().lock();
+        try {
+            version.incrementAndGet();
+            try {
+                writeBlock(buffer, block);
+            } finally {
+                version.incrementAndGet();
+            }
+        } finally {
+            ringLock.writeLock().unlock();
+        }
+        blocks.put(hash, block);
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        StoredBlock cacheHit = blocks.getIfPresent(hash);
+        if (cacheHit != null)
+            return cacheHit;
+        long seen = version.get();
+        Long missedAt = notFound.getIfPresent(hash);
+        if (missedAt != null && missedAt == seen)
+            return null;
+
+        byte[] record = null;
+        boolean valid = false;
+        if ((seen & 1) == 0) {
+            record = findRecord(buffer.duplicate(), hash.getBytes());
+            // A compare-and-set rather than a plain read, as only a volatile write keeps the reads of the ring above
+            // from being moved after it.
+            valid = version.compareAndSet(seen, seen);
+        }
+        if (!valid) {
+            ringLock.readLock().lock();
+            try {
+                seen = version.get();
+                record = findRecord(buffer.duplicate(), hash.getBytes());
+            } finally {
+                ringLock.readLock().unlock();
+            }
+        }
+
+        if (record == null) {
+            notFound.put(hash, seen);
+            return null;
+        }
+        try {
+            StoredBlock storedBlock = StoredBlock.deserializeCompact(params, ByteBuffer.wrap(record));
+            blocks.put(hash, storedBlock);
+            return storedBlock;
+        } catch (ProtocolException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * Walks the ring backwards from the cursor looking for the given hash, and returns a copy of the compact block
+     * that follows it. The view may be modified concurrently, so this must neither throw nor loop forever on
+     * inconsistent data; the caller validates the result.
+     */
+    @Nullable
+    private byte[] findRecord(ByteBuffer view, byte[] targetHashBytes) {
+        int cursor = view.getInt(4);
+        if (cursor < FILE_PROLOGUE_BYTES || cursor > fileLength)
+            return null;
+        final int capacity = (fileLength - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+        byte[] scratch = new byte[32];
+        for (int i = 0; i < capacity; i++) {
+            cursor -= RECORD_SIZE;
+            if (cursor < FILE_PROLOGUE_BYTES) {
+                // We hit the start, so wrap around.
+                cursor = fileLength - RECORD_SIZE;
+            }
+            if (cursor + RECORD_SIZE > fileLength)
+                return null;
+            view.position(cursor);
+            view.get(scratch);
+            if (Arrays.equals(scratch, targetHashBytes)) {
+                byte[] record = new byte[StoredBlock.COMPACT_SERIALIZED_SIZE];
+                view.get(record);
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        StoredBlock head = chainHead;
+        if (head != null)
+            return head;
+        // Under the write lock, so that a concurrent setChainHead() can't be overwritten with the head read here.
+        ringLock.writeLock().lock();
+        try {
+            head = chainHead;
+            if (head != null)
+                return head;
+            byte[] headHash = new byte[32];
+            ByteBuffer view = buffer.duplicate();
+            view.position(8);
+            view.get(headHash);
+            Sha256Hash hash = Sha256Hash.wrap(headHash);
+            head = get(hash);
+            if (head == null)
+                throw new BlockStoreException("Corrupted block store: could not find chain head: " + hash);
+            chainHead = head;
+            return head;
+        } finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        ringLock.writeLock().lock();
+        try {
+            this.chainHead = chainHead;
+            writeChainHead(buffer, chainHead);
+        } finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        ringLock.writeLock().lock();
+        try {
+            super.close();
+            blocks.invalidateAll();
+            notFound.invalidateAll();
+            chainHead = null;
+        } finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws Exception {
+        ringLock.writeLock().lock();
+        try {
+            version.incrementAndGet();
+            try {
+                super.clear();
+            } finally {
+                version.incrementAndGet();
+            }
+            blocks.invalidateAll();
+            notFound.invalidateAll();
+            chainHead = null;
+        } finally {
+            ringLock.writeLock().unlock();
+        }
+    }
+}
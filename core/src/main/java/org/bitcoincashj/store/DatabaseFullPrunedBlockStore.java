@@ -18,6 +18,9 @@
 
 package org.bitcoincashj.store;
 
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.jcip.annotations.GuardedBy;
 import org.bitcoincashj.core.*;
 import org.bitcoincashj.script.Script;
 import org.bitcoincashj.script.Script.ScriptType;
@@ -32,6 +35,8 @@ import java.math.BigInteger;
 import java.sql.*;
 import java.util.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * <p>A generic full pruned block store for a relational database.  This generic class requires
  * certain table structures for the block store.</p>
@@ -76,6 +81,10 @@ import java.util.*;
  *     <tr><td>addresstargetable</td><td>integer</td></tr>
  *     <tr><td>coinbase</td><td>boolean</td></tr>
  * </table>
+ *
+ * <p>Threads share a bounded pool of connections, see {@link #setMaxConnections(int)}, and the statements prepared on
+ * each connection are reused. Between {@link #beginDatabaseBatchWrite()} and {@link #commitDatabaseBatchWrite()}, the
+ * outputs added and removed are queued up and sent to the database in JDBC batches, as part of the same transaction.</p>
  */
 public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockStore {
     private static final Logger log = LoggerFactory.getLogger(DatabaseFullPrunedBlockStore.class);
@@ -84,6 +93,13 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     private static final String VERIFIED_CHAIN_HEAD_SETTING = "verifiedchainhead";
     private static final String VERSION_SETTING = "version";
 
+    /** The default for {@link #setMaxConnections(int)}. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    // How long to wait for a connection when all of them are in use.
+    private static final long CONNECTION_WAIT_MILLIS = 60000;
+    // The number of output writes a batch write queues up before sending them to the database.
+    private static final int MAX_PENDING_WRITES = 10000;
+
     // Drop table SQL.
     private static final String DROP_SETTINGS_TABLE = "DROP TABLE settings";
     private static final String DROP_HEADERS_TABLE = "DROP TABLE headers";
@@ -139,6 +155,72 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     protected String password;
     protected String schemaName;
 
+    // The connection the current thread took from the pool, if any.
+    private final ThreadLocal<PooledConnection> pooledConnection = new ThreadLocal<>();
+    @GuardedBy("this")
+    private final LinkedList<PooledConnection> idleConnections = new LinkedList<>();
+    @GuardedBy("this")
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // A connection with the statements prepared on it, and the UTXO writes queued up by a batch write that haven't
+    // been sent to the database yet. Only used by one thread at a time.
+    private static class PooledConnection {
+        final Connection connection;
+        final Map<String, PreparedStatement> statements = new HashMap<>();
+        // The number of calls on the current thread that are using the connection.
+        int users;
+        boolean batchWrite;
+        final Map<StoredTransactionOutPoint, UTXO> pendingAdds = new LinkedHashMap<>();
+        final Map<StoredTransactionOutPoint, UTXO> pendingRemoves = new LinkedHashMap<>();
+        final Multiset<Sha256Hash> pendingAddHashes = HashMultiset.create();
+        final Multiset<Sha256Hash> pendingRemoveHashes = HashMultiset.create();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        void addPending(UTXO out) {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+            // Adding an output that is there already is ignored.
+            if (pendingAdds.containsKey(outPoint))
+                return;
+            pendingAdds.put(outPoint, out);
+            pendingAddHashes.add(out.getHash());
+        }
+
+        // Returns false if the output was removed already.
+        boolean removePending(UTXO out) {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+            if (pendingAdds.remove(outPoint) != null) {
+                // It never gets to the database.
+                pendingAddHashes.remove(out.getHash());
+                return true;
+            }
+            if (pendingRemoves.containsKey(outPoint))
+                return false;
+            pendingRemoves.put(outPoint, out);
+            pendingRemoveHashes.add(out.getHash());
+            return true;
+        }
+
+        int numPendingWrites() {
+            return pendingAdds.size() + pendingRemoves.size();
+        }
+
+        void clearPendingWrites() {
+            pendingAdds.clear();
+            pendingRemoves.clear();
+            pendingAddHashes.clear();
+            pendingRemoveHashes.clear();
+        }
+
+        void closeStatements() throws SQLException {
+            for (PreparedStatement s : statements.values())
+                s.close();
+            statements.clear();
+        }
+    }
+
     /**
      * <p>Create a new DatabaseFullPrunedBlockStore, using the full connection URL instead of a hostname and password,
      * and optionally allowing a schema to be specified.</p>
@@ -170,7 +252,6 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         }
 
         maybeConnect();
-
         try {
             // Create tables if needed
             if (!tablesExists()) {
@@ -181,6 +262,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             initFromDatabase();
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -436,37 +519,126 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     }
 
     /**
-     * <p>If there isn't a connection on the {@link ThreadLocal} then create and store it.</p>
+     * <p>Takes a connection from the pool for the current thread, unless it already has one, and counts one more use of
+     * it. Every call must be matched by a call to {@link #releaseConnection()}, usually in a finally block, which gives
+     * the connection back once the thread is done with it. While a batch write is in progress, the thread keeps its
+     * connection until the batch write is committed or aborted.</p>
+     * <p>Connections are made as needed, up to {@link #setMaxConnections(int)}; after that, threads wait for one to be
+     * given back. The current connection is available from {@link #conn}.</p>
      * <p>This will also automatically set up the schema if it does not exist within the DB.</p>
      *
      * @throws BlockStoreException if successful connection to the DB couldn't be made.
      */
-    protected synchronized final void maybeConnect() throws BlockStoreException {
-        try {
-            if (conn.get() != null && !conn.get().isClosed())
-                return;
+    protected final void maybeConnect() throws BlockStoreException {
+        PooledConnection connection = pooledConnection.get();
+        if (connection == null) {
+            connection = takeConnection();
+            pooledConnection.set(connection);
+            conn.set(connection.connection);
+        }
+        connection.users++;
+    }
 
-            if (username == null || password == null) {
-                conn.set(DriverManager.getConnection(connectionURL));
-            } else {
-                Properties props = new Properties();
-                props.setProperty("user", this.username);
-                props.setProperty("password", this.password);
-                conn.set(DriverManager.getConnection(connectionURL, props));
+    /**
+     * Counts one use less of the current thread's connection, see {@link #maybeConnect()}, and gives it back to the pool
+     * when it isn't used anymore.
+     */
+    protected final void releaseConnection() {
+        PooledConnection connection = pooledConnection.get();
+        if (connection == null || --connection.users > 0 || connection.batchWrite)
+            return;
+        pooledConnection.remove();
+        conn.remove();
+        synchronized (this) {
+            // Unless the store was closed meanwhile.
+            if (allConnections.contains(connection.connection)) {
+                idleConnections.addFirst(connection);
+                notifyAll();
             }
-            allConnections.add(conn.get());
-            Connection connection = conn.get();
-            // set the schema if one is needed
-            if (schemaName != null) {
-                Statement s = connection.createStatement();
-                for (String sql : getCreateSchemeSQL()) {
-                    s.execute(sql);
+        }
+    }
+
+    private synchronized PooledConnection takeConnection() throws BlockStoreException {
+        long deadline = System.currentTimeMillis() + CONNECTION_WAIT_MILLIS;
+        try {
+            while (true) {
+                PooledConnection connection = idleConnections.pollFirst();
+                if (connection != null) {
+                    if (!connection.connection.isClosed())
+                        return connection;
+                    allConnections.remove(connection.connection);
+                } else if (allConnections.size() < maxConnections) {
+                    return new PooledConnection(connect());
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        throw new BlockStoreException("Timed out waiting for one of " + allConnections.size()
+                                + " database connections");
+                    wait(wait);
                 }
             }
-            log.info("Made a new connection to database " + connectionURL);
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockStoreException(e);
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection;
+        if (username == null || password == null) {
+            connection = DriverManager.getConnection(connectionURL);
+        } else {
+            Properties props = new Properties();
+            props.setProperty("user", this.username);
+            props.setProperty("password", this.password);
+            connection = DriverManager.getConnection(connectionURL, props);
+        }
+        allConnections.add(connection);
+        // set the schema if one is needed
+        if (schemaName != null) {
+            Statement s = connection.createStatement();
+            for (String sql : getCreateSchemeSQL()) {
+                s.execute(sql);
+            }
+        }
+        log.info("Made a new connection to database " + connectionURL);
+        return connection;
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL on the current thread's connection. Statements are kept with their
+     * connection and reused, so the caller must not close it. Must be called between {@link #maybeConnect()} and
+     * {@link #releaseConnection()}.
+     */
+    protected PreparedStatement getPreparedStatement(String sql) throws SQLException {
+        PooledConnection connection = pooledConnection.get();
+        PreparedStatement s = connection.statements.get(sql);
+        if (s == null) {
+            s = connection.connection.prepareStatement(sql);
+            connection.statements.put(sql, s);
         }
+        return s;
+    }
+
+    /**
+     * Sets the maximum number of connections to the database, shared by all threads using this store. The default is
+     * {@link #DEFAULT_MAX_CONNECTIONS}.
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        checkArgument(maxConnections > 0);
+        this.maxConnections = maxConnections;
+        notifyAll();
+    }
+
+    public synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /** Returns the number of connections to the database that are open, whether in use or not. */
+    public synchronized int getConnectionCount() {
+        return allConnections.size();
     }
 
     @Override
@@ -477,14 +649,24 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                     conn.rollback();
                 }
                 conn.close();
-                if (conn == this.conn.get()) {
-                    this.conn.set(null);
-                }
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
         allConnections.clear();
+        idleConnections.clear();
+        pooledConnection.remove();
+        this.conn.remove();
+        notifyAll();
+    }
+
+    // Drops the prepared statements of the idle connections and the current thread's one, after the tables changed.
+    private synchronized void clearPreparedStatements() throws SQLException {
+        for (PooledConnection connection : idleConnections)
+            connection.closeStatements();
+        PooledConnection current = pooledConnection.get();
+        if (current != null)
+            current.closeStatements();
     }
 
     /**
@@ -635,33 +817,27 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     }
 
     protected void putUpdateStoredBlock(StoredBlock storedBlock, boolean wasUndoable) throws SQLException {
+        // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
+        byte[] hashBytes = new byte[28];
+        System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
         try {
-            PreparedStatement s =
-                    conn.get().prepareStatement(getInsertHeadersSQL());
-            // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
-            byte[] hashBytes = new byte[28];
-            System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
+            PreparedStatement s = getPreparedStatement(getInsertHeadersSQL());
             s.setBytes(1, hashBytes);
             s.setBytes(2, storedBlock.getChainWork().toByteArray());
             s.setInt(3, storedBlock.getHeight());
             s.setBytes(4, storedBlock.getHeader().cloneAsHeader().unsafeBitcoinSerialize());
             s.setBoolean(5, wasUndoable);
             s.executeUpdate();
-            s.close();
         } catch (SQLException e) {
             // It is possible we try to add a duplicate StoredBlock if we upgraded
             // In that case, we just update the entry to mark it wasUndoable
-            if (!(e.getSQLState().equals(getDuplicateKeyErrorCode())) || !wasUndoable)
+            if (!getDuplicateKeyErrorCode().equals(e.getSQLState()) || !wasUndoable)
                 throw e;
 
-            PreparedStatement s = conn.get().prepareStatement(getUpdateHeadersSQL());
+            PreparedStatement s = getPreparedStatement(getUpdateHeadersSQL());
             s.setBoolean(1, true);
-            // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
-            byte[] hashBytes = new byte[28];
-            System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
             s.setBytes(2, hashBytes);
             s.executeUpdate();
-            s.close();
         }
     }
 
@@ -672,13 +848,14 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             putUpdateStoredBlock(storedBlock, false);
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
 
     @Override
     public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
-        maybeConnect();
         // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
         byte[] hashBytes = new byte[28];
         System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
@@ -702,10 +879,10 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             throw new BlockStoreException(e);
         }
 
+        maybeConnect();
         try {
             try {
-                PreparedStatement s =
-                        conn.get().prepareStatement(getInsertUndoableBlocksSQL());
+                PreparedStatement s = getPreparedStatement(getInsertUndoableBlocksSQL());
                 s.setBytes(1, hashBytes);
                 s.setInt(2, height);
                 if (transactions == null) {
@@ -716,19 +893,17 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                     s.setBytes(4, transactions);
                 }
                 s.executeUpdate();
-                s.close();
                 try {
                     putUpdateStoredBlock(storedBlock, true);
                 } catch (SQLException e) {
                     throw new BlockStoreException(e);
                 }
             } catch (SQLException e) {
-                if (!e.getSQLState().equals(getDuplicateKeyErrorCode()))
+                if (!getDuplicateKeyErrorCode().equals(e.getSQLState()))
                     throw new BlockStoreException(e);
 
                 // There is probably an update-or-insert statement, but it wasn't obvious from the docs
-                PreparedStatement s =
-                        conn.get().prepareStatement(getUpdateUndoableBlocksSQL());
+                PreparedStatement s = getPreparedStatement(getUpdateUndoableBlocksSQL());
                 s.setBytes(3, hashBytes);
                 if (transactions == null) {
                     s.setBytes(1, txOutChanges);
@@ -738,10 +913,11 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                     s.setBytes(2, transactions);
                 }
                 s.executeUpdate();
-                s.close();
             }
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -752,40 +928,33 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         if (verifiedChainHeadHash != null && verifiedChainHeadHash.equals(hash))
             return verifiedChainHeadBlock;
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectHeadersSQL());
+            PreparedStatement s = getPreparedStatement(getSelectHeadersSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
             byte[] hashBytes = new byte[28];
             System.arraycopy(hash.getBytes(), 4, hashBytes, 0, 28);
             s.setBytes(1, hashBytes);
-            ResultSet results = s.executeQuery();
-            if (!results.next()) {
-                return null;
-            }
-            // Parse it.
+            try (ResultSet results = s.executeQuery()) {
+                if (!results.next()) {
+                    return null;
+                }
+                // Parse it.
 
-            if (wasUndoableOnly && !results.getBoolean(4))
-                return null;
+                if (wasUndoableOnly && !results.getBoolean(4))
+                    return null;
 
-            BigInteger chainWork = new BigInteger(results.getBytes(1));
-            int height = results.getInt(2);
-            Block b = params.getDefaultSerializer().makeBlock(results.getBytes(3));
-            b.verifyHeader();
-            StoredBlock stored = new StoredBlock(b, chainWork, height);
-            return stored;
+                BigInteger chainWork = new BigInteger(results.getBytes(1));
+                int height = results.getInt(2);
+                Block b = params.getDefaultSerializer().makeBlock(results.getBytes(3));
+                b.verifyHeader();
+                StoredBlock stored = new StoredBlock(b, chainWork, height);
+                return stored;
+            }
         } catch (SQLException | VerificationException e) {
             // VerificationException: Should not be able to happen unless the database contains bad blocks.
             throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            releaseConnection();
         }
     }
 
@@ -802,22 +971,23 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     @Override
     public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectUndoableBlocksSQL());
+            PreparedStatement s = getPreparedStatement(getSelectUndoableBlocksSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
 
             byte[] hashBytes = new byte[28];
             System.arraycopy(hash.getBytes(), 4, hashBytes, 0, 28);
             s.setBytes(1, hashBytes);
-            ResultSet results = s.executeQuery();
-            if (!results.next()) {
-                return null;
+            byte[] txOutChanges;
+            byte[] transactions;
+            try (ResultSet results = s.executeQuery()) {
+                if (!results.next()) {
+                    return null;
+                }
+                // Parse it.
+                txOutChanges = results.getBytes(1);
+                transactions = results.getBytes(2);
             }
-            // Parse it.
-            byte[] txOutChanges = results.getBytes(1);
-            byte[] transactions = results.getBytes(2);
             StoredUndoableBlock block;
             if (txOutChanges == null) {
                 int numTxn = (int) Utils.readUint32(transactions, 0);
@@ -839,13 +1009,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             // IOException, ProtocolException, ClassCastException, NullPointerException: Corrupted database.
             throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            releaseConnection();
         }
     }
 
@@ -861,14 +1025,14 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.chainHeadBlock = chainHead;
         maybeConnect();
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getUpdateSettingsSLQ());
+            PreparedStatement s = getPreparedStatement(getUpdateSettingsSLQ());
             s.setString(2, CHAIN_HEAD_SETTING);
             s.setBytes(1, hash.getBytes());
             s.executeUpdate();
-            s.close();
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -884,191 +1048,278 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.verifiedChainHeadBlock = chainHead;
         maybeConnect();
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getUpdateSettingsSLQ());
+            PreparedStatement s = getPreparedStatement(getUpdateSettingsSLQ());
             s.setString(2, VERIFIED_CHAIN_HEAD_SETTING);
             s.setBytes(1, hash.getBytes());
             s.executeUpdate();
-            s.close();
+            if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
+                setChainHead(chainHead);
+            removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
-        if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
-            setChainHead(chainHead);
-        removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
     }
 
-    private void removeUndoableBlocksWhereHeightIsLessThan(int height) throws BlockStoreException {
-        try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getDeleteUndoableBlocksSQL());
-            s.setInt(1, height);
-            if (log.isDebugEnabled())
-                log.debug("Deleting undoable undoable block with height <= " + height);
-            s.executeUpdate();
-            s.close();
-        } catch (SQLException ex) {
-            throw new BlockStoreException(ex);
-        }
+    private void removeUndoableBlocksWhereHeightIsLessThan(int height) throws SQLException {
+        PreparedStatement s = getPreparedStatement(getDeleteUndoableBlocksSQL());
+        s.setInt(1, height);
+        if (log.isDebugEnabled())
+            log.debug("Deleting undoable undoable block with height <= " + height);
+        s.executeUpdate();
     }
 
     @Override
     public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectOpenoutputsSQL());
+            // Outputs added or removed in the current batch write haven't been sent to the database yet.
+            PooledConnection connection = pooledConnection.get();
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, index);
+            UTXO added = connection.pendingAdds.get(outPoint);
+            if (added != null)
+                return added;
+            if (connection.pendingRemoves.containsKey(outPoint))
+                return null;
+
+            PreparedStatement s = getPreparedStatement(getSelectOpenoutputsSQL());
             s.setBytes(1, hash.getBytes());
             // index is actually an unsigned int
             s.setInt(2, (int) index);
-            ResultSet results = s.executeQuery();
-            if (!results.next()) {
-                return null;
+            try (ResultSet results = s.executeQuery()) {
+                if (!results.next()) {
+                    return null;
+                }
+                // Parse it.
+                int height = results.getInt(1);
+                Coin value = Coin.valueOf(results.getLong(2));
+                byte[] scriptBytes = results.getBytes(3);
+                boolean coinbase = results.getBoolean(4);
+                String address = results.getString(5);
+                UTXO txout = new UTXO(hash,
+                        index,
+                        value,
+                        height,
+                        coinbase,
+                        new Script(scriptBytes),
+                        address);
+                return txout;
             }
-            // Parse it.
-            int height = results.getInt(1);
-            Coin value = Coin.valueOf(results.getLong(2));
-            byte[] scriptBytes = results.getBytes(3);
-            boolean coinbase = results.getBoolean(4);
-            String address = results.getString(5);
-            UTXO txout = new UTXO(hash,
-                    index,
-                    value,
-                    height,
-                    coinbase,
-                    new Script(scriptBytes),
-                    address);
-            return txout;
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            releaseConnection();
         }
     }
 
     @Override
     public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get().prepareStatement(getInsertOpenoutputsSQL());
-            s.setBytes(1, out.getHash().getBytes());
-            // index is actually an unsigned int
-            s.setInt(2, (int) out.getIndex());
-            s.setInt(3, out.getHeight());
-            s.setLong(4, out.getValue().value);
-            s.setBytes(5, out.getScript().getProgram());
-            s.setString(6, out.getAddress());
-            ScriptType scriptType = out.getScript().getScriptType();
-            s.setInt(7, scriptType != null ? scriptType.id : 0);
-            s.setBoolean(8, out.isCoinbase());
-            s.executeUpdate();
-            s.close();
+            PooledConnection connection = pooledConnection.get();
+            if (connection.batchWrite) {
+                connection.addPending(out);
+                if (connection.numPendingWrites() >= MAX_PENDING_WRITES)
+                    executePendingWrites(connection);
+            } else {
+                insertUnspentTransactionOutput(getPreparedStatement(getInsertOpenoutputsSQL()), out);
+            }
         } catch (SQLException e) {
-            if (!(e.getSQLState().equals(getDuplicateKeyErrorCode())))
-                throw new BlockStoreException(e);
+            throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException(e);
-                }
-            }
+            releaseConnection();
+        }
+    }
+
+    private void setInsertOpenoutputsParameters(PreparedStatement s, UTXO out) throws SQLException {
+        s.setBytes(1, out.getHash().getBytes());
+        // index is actually an unsigned int
+        s.setInt(2, (int) out.getIndex());
+        s.setInt(3, out.getHeight());
+        s.setLong(4, out.getValue().value);
+        s.setBytes(5, out.getScript().getProgram());
+        s.setString(6, out.getAddress());
+        ScriptType scriptType = out.getScript().getScriptType();
+        s.setInt(7, scriptType != null ? scriptType.id : 0);
+        s.setBoolean(8, out.isCoinbase());
+    }
+
+    private void insertUnspentTransactionOutput(PreparedStatement s, UTXO out) throws SQLException {
+        setInsertOpenoutputsParameters(s, out);
+        try {
+            s.executeUpdate();
+        } catch (SQLException e) {
+            if (!getDuplicateKeyErrorCode().equals(e.getSQLState()))
+                throw e;
         }
     }
 
     @Override
     public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
         maybeConnect();
-        // TODO: This should only need one query (maybe a stored procedure)
-        if (getTransactionOutput(out.getHash(), out.getIndex()) == null)
-            throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getDeleteOpenoutputsSQL());
-            s.setBytes(1, out.getHash().getBytes());
-            // index is actually an unsigned int
-            s.setInt(2, (int) out.getIndex());
-            s.executeUpdate();
-            s.close();
+            PooledConnection connection = pooledConnection.get();
+            if (connection.batchWrite) {
+                // Whether the database has the output is checked when the deletes are executed.
+                if (!connection.removePending(out))
+                    throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
+                if (connection.numPendingWrites() >= MAX_PENDING_WRITES)
+                    executePendingWrites(connection);
+            } else {
+                PreparedStatement s = getPreparedStatement(getDeleteOpenoutputsSQL());
+                s.setBytes(1, out.getHash().getBytes());
+                // index is actually an unsigned int
+                s.setInt(2, (int) out.getIndex());
+                if (s.executeUpdate() == 0)
+                    throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
+            }
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
+    /**
+     * Sends the UTXO deletes and inserts queued up by the current batch write to the database, as one JDBC batch each.
+     * Deletes go first, as an output that was removed may have been added again since.
+     */
+    private void executePendingWrites(PooledConnection connection) throws SQLException, BlockStoreException {
+        if (!connection.pendingRemoves.isEmpty()) {
+            PreparedStatement s = getPreparedStatement(getDeleteOpenoutputsSQL());
+            try {
+                for (UTXO out : connection.pendingRemoves.values()) {
+                    s.setBytes(1, out.getHash().getBytes());
+                    // index is actually an unsigned int
+                    s.setInt(2, (int) out.getIndex());
+                    s.addBatch();
+                }
+                int[] counts = s.executeBatch();
+                for (int count : counts)
+                    if (count == 0)
+                        throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
+            } finally {
+                s.clearBatch();
+            }
+        }
+        if (!connection.pendingAdds.isEmpty()) {
+            PreparedStatement s = getPreparedStatement(getInsertOpenoutputsSQL());
+            try {
+                for (UTXO out : connection.pendingAdds.values()) {
+                    setInsertOpenoutputsParameters(s, out);
+                    s.addBatch();
+                }
+                s.executeBatch();
+            } catch (BatchUpdateException e) {
+                if (!getDuplicateKeyErrorCode().equals(e.getSQLState()))
+                    throw e;
+                // Some of the outputs were there already, which is ignored, like when adding them one at a time.
+                s.clearBatch();
+                for (UTXO out : connection.pendingAdds.values())
+                    insertUnspentTransactionOutput(s, out);
+            } finally {
+                s.clearBatch();
+            }
+        }
+        connection.clearPendingWrites();
+    }
+
     @Override
     public void beginDatabaseBatchWrite() throws BlockStoreException {
         maybeConnect();
+        PooledConnection connection = pooledConnection.get();
         if (log.isDebugEnabled())
-            log.debug("Starting database batch write with connection: " + conn.get().toString());
+            log.debug("Starting database batch write with connection: " + connection.connection.toString());
         try {
-            conn.get().setAutoCommit(false);
+            connection.connection.setAutoCommit(false);
+            // Keeps the connection for this thread until the batch write is committed or aborted.
+            connection.batchWrite = true;
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
     @Override
     public void commitDatabaseBatchWrite() throws BlockStoreException {
         maybeConnect();
+        PooledConnection connection = pooledConnection.get();
         if (log.isDebugEnabled())
-            log.debug("Committing database batch write with connection: " + conn.get().toString());
+            log.debug("Committing database batch write with connection: " + connection.connection.toString());
+        boolean committed = false;
         try {
-            conn.get().commit();
-            conn.get().setAutoCommit(true);
+            executePendingWrites(connection);
+            connection.connection.commit();
+            connection.connection.setAutoCommit(true);
+            committed = true;
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            // Don't give a connection with half a transaction on it to anybody else.
+            if (!committed)
+                rollback(connection);
+            connection.batchWrite = false;
+            releaseConnection();
         }
     }
 
     @Override
     public void abortDatabaseBatchWrite() throws BlockStoreException {
         maybeConnect();
+        PooledConnection connection = pooledConnection.get();
         if (log.isDebugEnabled())
-            log.debug("Rollback database batch write with connection: " + conn.get().toString());
+            log.debug("Rollback database batch write with connection: " + connection.connection.toString());
         try {
-            if (!conn.get().getAutoCommit()) {
-                conn.get().rollback();
-                conn.get().setAutoCommit(true);
+            if (connection.batchWrite) {
+                connection.clearPendingWrites();
+                connection.connection.rollback();
+                connection.connection.setAutoCommit(true);
             } else {
                 log.warn("Warning: Rollback attempt without transaction");
             }
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            connection.batchWrite = false;
+            releaseConnection();
+        }
+    }
+
+    private void rollback(PooledConnection connection) {
+        connection.clearPendingWrites();
+        try {
+            connection.connection.rollback();
+            connection.connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Failed to roll back database batch write", e);
         }
     }
 
     @Override
     public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get().prepareStatement(getSelectOpenoutputsCountSQL());
+            PooledConnection connection = pooledConnection.get();
+            if (connection.pendingAddHashes.contains(hash))
+                return true;
+            // The database can't count the rows that are about to be deleted, so delete them first.
+            if (connection.pendingRemoveHashes.contains(hash))
+                executePendingWrites(connection);
+            PreparedStatement s = getPreparedStatement(getSelectOpenoutputsCountSQL());
             s.setBytes(1, hash.getBytes());
-            ResultSet results = s.executeQuery();
-            if (!results.next()) {
-                throw new BlockStoreException("Got no results from a COUNT(*) query");
+            try (ResultSet results = s.executeQuery()) {
+                if (!results.next()) {
+                    throw new BlockStoreException("Got no results from a COUNT(*) query");
+                }
+                int count = results.getInt(1);
+                return count != 0;
             }
-            int count = results.getInt(1);
-            return count != 0;
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            releaseConnection();
         }
     }
 
@@ -1099,6 +1350,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             initFromDatabase();
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1110,6 +1363,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     public void deleteStore() throws BlockStoreException {
         maybeConnect();
         try {
+            clearPreparedStatements();
             Statement s = conn.get().createStatement();
             for (String sql : getDropTablesSQL()) {
                 s.execute(sql);
@@ -1117,6 +1371,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.close();
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1136,36 +1392,33 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
      */
     public BigInteger calculateBalanceForAddress(Address address) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get().prepareStatement(getBalanceSelectSQL());
+            PreparedStatement s = getPreparedStatement(getBalanceSelectSQL());
             s.setString(1, address.toString());
-            ResultSet rs = s.executeQuery();
-            BigInteger balance = BigInteger.ZERO;
-            if (rs.next()) {
-                return BigInteger.valueOf(rs.getLong(1));
+            try (ResultSet rs = s.executeQuery()) {
+                BigInteger balance = BigInteger.ZERO;
+                if (rs.next()) {
+                    return BigInteger.valueOf(rs.getLong(1));
+                }
+                return balance;
             }
-            return balance;
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Could not close statement");
-                }
-            }
+            releaseConnection();
         }
     }
 
     @Override
     public List<UTXO> getOpenTransactionOutputs(List<ECKey> keys) throws UTXOProviderException {
-        PreparedStatement s = null;
         List<UTXO> outputs = new ArrayList<>();
         try {
             maybeConnect();
-            s = conn.get().prepareStatement(getTransactionOutputSelectSQL());
+        } catch (BlockStoreException ex) {
+            throw new UTXOProviderException(ex);
+        }
+        try {
+            PreparedStatement s = getPreparedStatement(getTransactionOutputSelectSQL());
             for (ECKey key : keys) {
                 s.setString(1, Address.fromKey(params, key).toString());
                 ResultSet rs = s.executeQuery();
@@ -1186,17 +1439,13 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                             toAddress);
                     outputs.add(output);
                 }
+                rs.close();
             }
             return outputs;
-        } catch (SQLException | BlockStoreException ex) {
+        } catch (SQLException ex) {
             throw new UTXOProviderException(ex);
         } finally {
-            if (s != null)
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new UTXOProviderException("Could not close statement", e);
-                }
+            releaseConnection();
         }
     }
 
@@ -1207,7 +1456,15 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
      */
     public void dumpSizes() throws SQLException, BlockStoreException {
         maybeConnect();
-        Statement s = conn.get().createStatement();
+        try {
+            dumpSizes(conn.get());
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    private void dumpSizes(Connection connection) throws SQLException {
+        Statement s = connection.createStatement();
         long size = 0;
         long totalSize = 0;
         int count = 0;
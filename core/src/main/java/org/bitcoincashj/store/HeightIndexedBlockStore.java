@@ -0,0 +1,154 @@
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.NetworkParameters;
+import org.bitcoincashj.core.Sha256Hash;
+import org.bitcoincashj.core.StoredBlock;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Wraps another {@link BlockStore} and additionally keeps a height to block index of the most recent blocks of the
+ * best chain, so that ancestors can be found without walking back one hash lookup at a time. This is what makes
+ * difficulty checks, which look dozens to thousands of blocks back for every header, cheap.</p>
+ *
+ * <p>The index covers the last <code>capacity</code> heights below the chain head and is brought up to date by
+ * {@link #setChainHead(StoredBlock)}, including across re-organizes. Use {@link StoredBlock#getAncestor(BlockStore, int)}
+ * rather than calling {@link #getAncestor(StoredBlock, int)} directly, so that code works with any store.</p>
+ */
+public class HeightIndexedBlockStore implements BlockStore {
+    /** Same as the default capacity of {@link SPVBlockStore}, and comfortably more than a difficulty period. */
+    public static final int DEFAULT_CAPACITY = 5000;
+
+    private final BlockStore delegate;
+    private final int capacity;
+    // Ring of best chain blocks, the block at height h lives at slot h % capacity.
+    private final StoredBlock[] index;
+    private int tipHeight = -1;
+    // Lowest height the index is known to be contiguous from, as it may not have been possible to fill the whole ring.
+    private int lowHeight = 0;
+
+    public HeightIndexedBlockStore(BlockStore delegate) throws BlockStoreException {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    public HeightIndexedBlockStore(BlockStore delegate, int capacity) throws BlockStoreException {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.index = new StoredBlock[capacity];
+        updateIndex(delegate.getChainHead());
+    }
+
+    /** Returns the wrapped store. */
+    public BlockStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        delegate.put(block);
+    }
+
+    @Override
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        return delegate.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        return delegate.getChainHead();
+    }
+
+    @Override
+    public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        delegate.setChainHead(chainHead);
+        updateIndex(chainHead);
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        delegate.close();
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return delegate.getParams();
+    }
+
+    /**
+     * Returns the ancestor of the given block at the given height, or null if it can't be found. The block doesn't
+     * have to be on the best chain: side chain blocks are walked back until they join it.
+     */
+    @Nullable
+    public synchronized StoredBlock getAncestor(StoredBlock block, int height) throws BlockStoreException {
+        if (height < 0 || height > block.getHeight())
+            return null;
+        StoredBlock cursor = block;
+        while (cursor.getHeight() > height && !isIndexed(cursor)) {
+            cursor = cursor.getPrev(delegate);
+            if (cursor == null)
+                return null;
+        }
+        if (cursor.getHeight() > height) {
+            // Cursor is on the indexed chain, so everything in the index below it is its ancestor.
+            int lowest = lowestIndexedHeight();
+            if (height >= lowest)
+                return index[height % capacity];
+            cursor = index[lowest % capacity];
+        }
+        // What's left is below the index, so fall back to walking.
+        while (cursor.getHeight() > height) {
+            cursor = cursor.getPrev(delegate);
+            if (cursor == null)
+                return null;
+        }
+        return cursor;
+    }
+
+    private int lowestIndexedHeight() {
+        return Math.max(lowHeight, tipHeight - capacity + 1);
+    }
+
+    private boolean isIndexed(int height, Sha256Hash hash) {
+        if (height < lowestIndexedHeight() || height > tipHeight)
+            return false;
+        StoredBlock indexed = index[height % capacity];
+        return indexed != null && indexed.getHeader().getHash().equals(hash);
+    }
+
+    private boolean isIndexed(StoredBlock block) {
+        return isIndexed(block.getHeight(), block.getHeader().getHash());
+    }
+
+    /**
+     * Writes the new head and its ancestors into the index until they join the previously indexed chain. Normally
+     * that's just the head itself; after a re-organize it's every block back to the fork point.
+     */
+    private void updateIndex(StoredBlock head) throws BlockStoreException {
+        int floor = Math.max(0, head.getHeight() - capacity + 1);
+        int lowestWritten = head.getHeight() + 1;
+        boolean joined = false;
+        StoredBlock cursor = head;
+        while (cursor != null) {
+            if (isIndexed(cursor)) {
+                joined = true;
+                break;
+            }
+            index[cursor.getHeight() % capacity] = cursor;
+            lowestWritten = cursor.getHeight();
+            if (cursor.getHeight() == floor)
+                break;
+            // Check the parent against the index before looking it up, which saves the lookup in the common case.
+            if (isIndexed(cursor.getHeight() - 1, cursor.getHeader().getPrevBlockHash())) {
+                joined = true;
+                break;
+            }
+            cursor = cursor.getPrev(delegate);
+        }
+        tipHeight = head.getHeight();
+        if (!joined)
+            lowHeight = lowestWritten;
+    }
+}
@@ -24,10 +24,8 @@ import org.iq80.leveldb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
+import javax.annotation.Nullable;
+import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -100,11 +98,19 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     protected int openOutCache;
     // Bloomfilter for caching calls to hasUnspentOutputs
     protected BloomFilter bloom;
+    protected long filterRebuilds;
+    protected long filterNegatives;
+    protected long filterFalsePositives;
 
     // Defaults for cache sizes
     static final long LEVELDB_READ_CACHE_DEFAULT = 100 * 1048576; // 100 meg
     static final int LEVELDB_WRITE_CACHE_DEFAULT = 10 * 1048576; // 10 meg
     static final int OPENOUT_CACHE_DEFAULT = 100000;
+    // The least number of outputs the bloom filter is sized for.
+    static final long FILTER_MIN_CAPACITY = 1 << 16;
+    // The bloom filter is saved to this file in the database folder on close.
+    static final String FILTER_FILE_NAME = "utxo.filter";
+    static final int FILTER_FILE_VERSION = 1;
 
     // LRUCache
     public class LRUCache extends LinkedHashMap<ByteBuffer, UTXO> {
@@ -122,27 +128,45 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
     }
 
-    // Simple bloomfilter. We take advantage of fact that a Transaction Hash
-    // can be split into 3 30bit numbers that are all random and uncorrelated
-    // so ideal to use as the input to a 3 function bloomfilter. No has function
-    // needed.
+    // Blocked bloomfilter of the hashes of transactions with unspent outputs, for
+    // answering most calls to hasUnspentOutputs without going to the database.
+    // Transaction hashes are random already, so no hash function is needed: the
+    // first 8 bytes pick a block of 512 bits, a cache line, and the next 8 bytes
+    // the bits within it.
+    // It is sized from the number of unspent outputs, and rebuilt from the database,
+    // sized anew, when more have been added than it was sized for.
     private class BloomFilter {
-        private byte[] cache;
+        private static final int BITS_PER_ELEMENT = 10;
+        // Bits set per element, of 9 bits each for a 512 bit block.
+        private static final int HASH_FUNCTIONS = 7;
+        private static final int LONGS_PER_BLOCK = 8;
+
+        private final long[] cache;
+        private final int blocks;
+        // The number of elements it is sized for.
+        private final long capacity;
+        private long bitsSet;
         public long returnedTrue;
         public long returnedFalse;
         public long added;
 
-        public BloomFilter() {
-            // 2^27 so since 8 bits in a byte this is
-            // 1,073,741,824 bits
-            cache = new byte[134217728];
-            // This size chosen as with 3 functions we should only get 4% errors
-            // with 150m entries.
+        public BloomFilter(long capacity) {
+            this.capacity = Math.max(capacity, FILTER_MIN_CAPACITY);
+            long bits = this.capacity * BITS_PER_ELEMENT;
+            blocks = (int) Math.min((bits + 511) / 512, Integer.MAX_VALUE / LONGS_PER_BLOCK);
+            cache = new long[blocks * LONGS_PER_BLOCK];
+        }
+
+        private BloomFilter(long capacity, long added, long[] cache) {
+            this.capacity = capacity;
+            this.added = added;
+            this.cache = cache;
+            this.blocks = cache.length / LONGS_PER_BLOCK;
+            for (long word : cache)
+                bitsSet += Long.bitCount(word);
         }
 
         // Called to prime cache.
-        // Might be idea to call periodically to flush out removed keys.
-        // Would need to benchmark 1st though.
         public void reloadCache(DB db) {
             // LevelDB is great at scanning consecutive keys.
             // This take seconds even with 20m keys to add.
@@ -150,17 +174,10 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             DBIterator iterator = db.iterator();
             byte[] key = getKey(KeyType.OPENOUT_ALL);
             for (iterator.seek(key); iterator.hasNext(); iterator.next()) {
-                ByteBuffer bbKey = ByteBuffer.wrap(iterator.peekNext().getKey());
-                byte firstByte = bbKey.get(); // remove the KeyType.OPENOUT_ALL
-                // byte.
-                if (key[0] != firstByte) {
-                    printStat();
-                    return;
-                }
-
-                byte[] hash = new byte[32];
-                bbKey.get(hash);
-                add(hash);
+                byte[] entryKey = iterator.peekNext().getKey();
+                if (key[0] != entryKey[0])
+                    break;
+                add(entryKey, 1);
             }
             try {
                 iterator.close();
@@ -171,21 +188,42 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
 
         public void printStat() {
-            log.info("Bloom Added: " + added + " T: " + returnedTrue + " F: " + returnedFalse);
+            log.info("Bloom Added: " + added + " T: " + returnedTrue + " F: " + returnedFalse + " Size: "
+                    + getSizeInBytes() + " FP rate: " + String.format(Locale.US, "%.4f", getFalsePositiveRate()));
         }
 
-        // Add a txhash to the filter.
-        public void add(byte[] hash) {
-            byte[] firstHash = new byte[4];
-            added++;
-            for (int i = 0; i < 3; i++) {
-                System.arraycopy(hash, i * 4, firstHash, 0, 4);
-                setBit(firstHash);
-            }
+        public boolean isFull() {
+            return added > capacity;
+        }
+
+        public long getSizeInBytes() {
+            return cache.length * 8L;
+        }
+
+        // The chance of a hash that was never added being reported as added, from
+        // the share of bits set.
+        public double getFalsePositiveRate() {
+            return Math.pow((double) bitsSet / (cache.length * 64L), HASH_FUNCTIONS);
         }
 
         public void add(Sha256Hash hash) {
-            add(hash.getBytes());
+            add(hash.getBytes(), 0);
+        }
+
+        // Add a txhash, at the given offset, to the filter.
+        private void add(byte[] hash, int offset) {
+            added++;
+            int block = block(hash, offset);
+            long bits = readLong(hash, offset + 8);
+            for (int i = 0; i < HASH_FUNCTIONS; i++, bits >>>= 9) {
+                int bit = (int) bits & 511;
+                int word = block + (bit >>> 6);
+                long mask = 1L << bit;
+                if ((cache[word] & mask) == 0) {
+                    cache[word] |= mask;
+                    bitsSet++;
+                }
+            }
         }
 
         // check if hash was added.
@@ -193,12 +231,12 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         // if returns true need to check what state is in DB as can
         // not be 100% sure.
         public boolean wasAdded(Sha256Hash hash) {
-
-            byte[] firstHash = new byte[4];
-            for (int i = 0; i < 3; i++) {
-                System.arraycopy(hash.getBytes(), i * 4, firstHash, 0, 4);
-                boolean result = getBit(firstHash);
-                if (!result) {
+            byte[] bytes = hash.getBytes();
+            int block = block(bytes, 0);
+            long bits = readLong(bytes, 8);
+            for (int i = 0; i < HASH_FUNCTIONS; i++, bits >>>= 9) {
+                int bit = (int) bits & 511;
+                if ((cache[block + (bit >>> 6)] & (1L << bit)) == 0) {
                     returnedFalse++;
                     return false;
                 }
@@ -207,27 +245,129 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             return true;
         }
 
-        private void setBit(byte[] entry) {
-            int arrayIndex = (entry[0] & 0x3F) << 21 | (entry[1] & 0xFF) << 13 | (entry[2] & 0xFF) << 5
-                    | (entry[3] & 0xFF) >> 3;
-            int bit = (entry[3] & 0x07);
-            int orBit = (0x1 << bit);
-            byte newEntry = (byte) ((int) cache[arrayIndex] | orBit);
-            cache[arrayIndex] = newEntry;
+        // Returns the index of the first long of the block for the hash.
+        private int block(byte[] hash, int offset) {
+            return (int) ((readLong(hash, offset) >>> 1) % blocks) * LONGS_PER_BLOCK;
+        }
+
+        private long readLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (bytes[offset + i] & 0xff);
+            return value;
         }
 
-        private boolean getBit(byte[] entry) {
-            int arrayIndex = (entry[0] & 0x3F) << 21 | (entry[1] & 0xFF) << 13 | (entry[2] & 0xFF) << 5
-                    | (entry[3] & 0xFF) >> 3;
-            int bit = (entry[3] & 0x07);
-            int orBit = (0x1 << bit);
-            byte arrayEntry = cache[arrayIndex];
+        // Saves the filter for the database state of the given verified chain head.
+        public void save(File file, Sha256Hash verifiedChainHead) throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+                    1 << 16))) {
+                out.writeInt(FILTER_FILE_VERSION);
+                out.write(verifiedChainHead.getBytes());
+                out.writeLong(capacity);
+                out.writeLong(added);
+                out.writeInt(cache.length);
+                for (long word : cache)
+                    out.writeLong(word);
+            }
+            if (!temp.renameTo(file))
+                throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
 
-            int result = arrayEntry & orBit;
-            return result != 0;
+    // Loads the filter saved for the database state of the given verified chain
+    // head, or returns null if there is none.
+    @Nullable
+    private BloomFilter loadFilter(File file, Sha256Hash verifiedChainHead) {
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILTER_FILE_VERSION)
+                return null;
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            if (!verifiedChainHead.equals(Sha256Hash.wrap(hash)))
+                return null;
+            long capacity = in.readLong();
+            long added = in.readLong();
+            long[] cache = new long[in.readInt()];
+            for (int i = 0; i < cache.length; i++)
+                cache[i] = in.readLong();
+            return new BloomFilter(capacity, added, cache);
+        } catch (IOException e) {
+            log.warn("Could not load bloom filter from " + file, e);
+            return null;
+        } finally {
+            // Only valid until the database changes.
+            if (!file.delete())
+                log.warn("Could not delete " + file);
         }
     }
 
+    // Builds the filter from the database, sized for twice the unspent outputs in it.
+    private void rebuildFilter() {
+        Stopwatch watch = Stopwatch.createStarted();
+        long count = 0;
+        DBIterator iterator = db.iterator();
+        byte[] key = getKey(KeyType.OPENOUT_ALL);
+        for (iterator.seek(key); iterator.hasNext(); iterator.next()) {
+            if (iterator.peekNext().getKey()[0] != key[0])
+                break;
+            count++;
+        }
+        try {
+            iterator.close();
+        } catch (IOException e) {
+            log.error("Error closing iterator", e);
+        }
+        bloom = new BloomFilter(count * 2);
+        bloom.reloadCache(db);
+        filterRebuilds++;
+        log.info("Built bloom filter for {} unspent outputs in {}", count, watch);
+    }
+
+    // Rebuilds the filter once more outputs were added than it was sized for,
+    // which can only be done from the database when no batch write is in progress.
+    // There is none yet while a new database is created.
+    private void maybeRebuildFilter() {
+        if (autoCommit && bloom != null && bloom.isFull())
+            rebuildFilter();
+    }
+
+    /**
+     * Returns how many times the bloom filter in front of {@link #hasUnspentOutputs(Sha256Hash, int)} was built from
+     * the database, at startup or because it was full.
+     */
+    public long getFilterRebuildCount() {
+        return filterRebuilds;
+    }
+
+    /** Returns the memory taken by the bloom filter in front of the database, in bytes. */
+    public long getFilterSizeInBytes() {
+        return bloom.getSizeInBytes();
+    }
+
+    /** Returns the estimated false positive rate of the bloom filter, from the share of its bits that are set. */
+    public double getFilterFalsePositiveRate() {
+        return bloom.getFalsePositiveRate();
+    }
+
+    /**
+     * Returns how many calls to {@link #hasUnspentOutputs(Sha256Hash, int)} were answered by the bloom filter alone,
+     * without going to the database.
+     */
+    public long getFilterNegativeCount() {
+        return filterNegatives;
+    }
+
+    /**
+     * Returns how many calls to {@link #hasUnspentOutputs(Sha256Hash, int)} went to the database because of the bloom
+     * filter, but found nothing there.
+     */
+    public long getFilterFalsePositiveCount() {
+        return filterFalsePositives;
+    }
+
     public LevelDBFullPrunedBlockStore(NetworkParameters params, String filename, int blockCount) {
         this(params, filename, blockCount, LEVELDB_READ_CACHE_DEFAULT, LEVELDB_WRITE_CACHE_DEFAULT,
                 OPENOUT_CACHE_DEFAULT, false, Integer.MAX_VALUE);
@@ -247,10 +387,15 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         this.leveldbReadCache = leveldbReadCache;
         this.leveldbWriteCache = leveldbWriteCache;
         this.openOutCache = openOutCache;
-        bloom = new BloomFilter();
         totalStopwatch = Stopwatch.createStarted();
         openDB();
-        bloom.reloadCache(db);
+        bloom = loadFilter(getFilterFile(), verifiedChainHeadHash);
+        if (bloom != null) {
+            log.info("Loaded bloom filter for {} unspent outputs", bloom.added);
+            bloom.printStat();
+        } else {
+            rebuildFilter();
+        }
 
         // Reset after bloom filter loaded
         totalStopwatch = Stopwatch.createStarted();
@@ -386,6 +531,15 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     @Override
     public void close() throws BlockStoreException {
+        // Saved so that the next start doesn't have to scan the database, unless
+        // there are uncommitted changes, which are discarded.
+        if (autoCommit) {
+            try {
+                bloom.save(getFilterFile(), verifiedChainHeadHash);
+            } catch (IOException e) {
+                log.warn("Could not save bloom filter", e);
+            }
+        }
         try {
             db.close();
         } catch (IOException e) {
@@ -393,6 +547,10 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
     }
 
+    private File getFilterFile() {
+        return new File(filename, FILTER_FILE_NAME);
+    }
+
     @Override
     public NetworkParameters getParams() {
         return params;
@@ -749,6 +907,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
         byte[] key = getTxKey(KeyType.OPENOUT_ALL, out.getHash(), (int) out.getIndex());
         batchPut(key, bos.toByteArray());
+        maybeRebuildFilter();
 
         if (autoCommit) {
             utxoCache.put(ByteBuffer.wrap(key), out);
@@ -897,6 +1056,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             if (instrument)
                 endMethod("hasUnspentOutputs");
             hasFalse++;
+            filterNegatives++;
             return false;
         }
         // no index is fine as will find any entry with any index...
@@ -919,6 +1079,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 return true;
             } else {
                 hasFalse++;
+                filterFalsePositives++;
                 try {
                     iterator.close();
                 } catch (IOException e) {
@@ -935,6 +1096,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             log.error("Error closing iterator", e);
         }
         hasFalse++;
+        filterFalsePositives++;
         if (instrument)
             endMethod("hasUnspentOutputs");
         return false;
@@ -1049,6 +1211,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         if (instrument)
             endMethod("commitDatabaseBatchWrite");
 
+        maybeRebuildFilter();
+
         if (instrument && verifiedChainHeadBlock.getHeight() % 1000 == 0) {
             log.info("Height: " + verifiedChainHeadBlock.getHeight());
             dumpStats();
@@ -1084,7 +1248,6 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             uncommited = null;
             uncommitedDeletes = null;
             autoCommit = true;
-            bloom = new BloomFilter();
             utxoCache = new LRUCache(openOutCache, 0.75f);
         } catch (IOException e) {
             log.error("Exception in resetStore.", e);
@@ -1096,5 +1259,6 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 c.delete();
         }
         openDB();
+        rebuildFilter();
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import com.google.common.base.Preconditions;
+import org.bitcoincashj.core.*;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * <p>Keeps {@link StoredBlock}s and {@link StoredUndoableBlock}s in memory like {@link MemoryFullPrunedBlockStore},
+ * but the {@link UTXO}s in a compact hash table outside of the Java heap, so that a large set of unspent outputs
+ * takes a fraction of the memory, and doesn't slow down garbage collection.</p>
+ *
+ * <p>A P2PKH output with its address takes about 150 bytes, instead of over 400 bytes of heap objects. In exchange,
+ * outputs are decoded into new {@link UTXO} objects every time they are read, which makes lookups somewhat slower. The changes of a batch write are kept on
+ * the heap until it is committed.</p>
+ */
+public class OffHeapFullPrunedBlockStore extends MemoryFullPrunedBlockStore {
+    private OffHeapUTXOTable unspentOutputs;
+    // The outputs added, or removed if null, in the batch write in progress on each thread.
+    private final ThreadLocal<Map<StoredTransactionOutPoint, UTXO>> batchWrite = new ThreadLocal<>();
+
+    /**
+     * Set up the OffHeapFullPrunedBlockStore
+     *
+     * @param params         The network parameters of this block store - used to get genesis block
+     * @param fullStoreDepth The depth of blocks to keep FullStoredBlocks instead of StoredBlocks
+     */
+    public OffHeapFullPrunedBlockStore(NetworkParameters params, int fullStoreDepth) {
+        super(params, fullStoreDepth);
+        unspentOutputs = new OffHeapUTXOTable();
+    }
+
+    /** Returns the number of unspent outputs in the store. */
+    public synchronized int getUnspentOutputCount() {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        return unspentOutputs.size();
+    }
+
+    /** Returns the memory taken outside of the Java heap by the unspent outputs, in bytes. */
+    public synchronized long getUnspentOutputBytes() {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        return unspentOutputs.getAllocatedBytes();
+    }
+
+    @Override
+    @Nullable
+    public synchronized UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        Map<StoredTransactionOutPoint, UTXO> batch = batchWrite.get();
+        if (batch != null) {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, index);
+            if (batch.containsKey(outPoint))
+                return batch.get(outPoint);
+        }
+        return unspentOutputs.get(hash, index);
+    }
+
+    @Override
+    public synchronized void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        Map<StoredTransactionOutPoint, UTXO> batch = batchWrite.get();
+        if (batch != null)
+            batch.put(new StoredTransactionOutPoint(out), out);
+        else
+            unspentOutputs.put(out);
+    }
+
+    @Override
+    public synchronized void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        Map<StoredTransactionOutPoint, UTXO> batch = batchWrite.get();
+        boolean removed;
+        if (batch != null) {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+            if (batch.containsKey(outPoint))
+                removed = batch.get(outPoint) != null;
+            else
+                removed = unspentOutputs.contains(out.getHash(), out.getIndex());
+            if (removed)
+                batch.put(outPoint, null);
+        } else {
+            removed = unspentOutputs.remove(out.getHash(), out.getIndex());
+        }
+        if (!removed)
+            throw new BlockStoreException("Tried to remove a UTXO from OffHeapFullPrunedBlockStore that it didn't have!");
+    }
+
+    @Override
+    public synchronized boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+        Map<StoredTransactionOutPoint, UTXO> batch = batchWrite.get();
+        for (int i = 0; i < numOutputs; i++) {
+            if (batch != null) {
+                StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, i);
+                if (batch.containsKey(outPoint)) {
+                    if (batch.get(outPoint) != null)
+                        return true;
+                    continue;
+                }
+            }
+            if (unspentOutputs.contains(hash, i))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void beginDatabaseBatchWrite() throws BlockStoreException {
+        super.beginDatabaseBatchWrite();
+        batchWrite.set(new HashMap<StoredTransactionOutPoint, UTXO>());
+    }
+
+    @Override
+    public synchronized void commitDatabaseBatchWrite() throws BlockStoreException {
+        super.commitDatabaseBatchWrite();
+        Map<StoredTransactionOutPoint, UTXO> batch = batchWrite.get();
+        batchWrite.remove();
+        if (batch == null)
+            return;
+        for (Map.Entry<StoredTransactionOutPoint, UTXO> entry : batch.entrySet()) {
+            if (entry.getValue() != null)
+                unspentOutputs.put(entry.getValue());
+            else
+                unspentOutputs.remove(entry.getKey().getHash(), entry.getKey().getIndex());
+        }
+    }
+
+    @Override
+    public synchronized void abortDatabaseBatchWrite() throws BlockStoreException {
+        super.abortDatabaseBatchWrite();
+        batchWrite.remove();
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<ECKey> keys) throws UTXOProviderException {
+        Set<String> addresses = new HashSet<>();
+        for (ECKey key : keys)
+            addresses.add(Address.fromKey(getParams(), key).toString());
+        List<UTXO> foundOutputs = new ArrayList<>();
+        synchronized (this) {
+            Preconditions.checkNotNull(unspentOutputs, "OffHeapFullPrunedBlockStore is closed");
+            unspentOutputs.findByAddress(addresses, foundOutputs);
+        }
+        return foundOutputs;
+    }
+
+    /** Releases the memory of the unspent outputs, once the garbage collector gets to it. */
+    @Override
+    public synchronized void close() {
+        super.close();
+        unspentOutputs = null;
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.script.Script;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A hash table of {@link UTXO}s that keeps them outside of the Java heap, in direct byte buffers, so that a large
+ * set of outputs costs neither heap nor garbage collection time.</p>
+ *
+ * <p>Each output is encoded into a record, which is appended to a chunk of memory:</p>
+ *
+ * <ul>
+ *     <li>the transaction hash, 32 bytes</li>
+ *     <li>the output index, the height and the value, as variable length integers of 7 bits per byte</li>
+ *     <li>a flags byte: coinbase, and whether there is an address</li>
+ *     <li>the script, prefixed by its length</li>
+ *     <li>the address, prefixed by its length, if there is one</li>
+ * </ul>
+ *
+ * <p>The table itself is an open addressing table with linear probing, of one long per slot: the reference to the
+ * record, and the top bits of the hash of the outpoint so that most mismatches are found without reading the record.
+ * Removed records are left where they are until there are more of them than live ones, then the live ones are copied
+ * into new chunks.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+class OffHeapUTXOTable {
+    // A reference to a record is the index of the chunk and the position within it.
+    private static final int POSITION_BITS = 24;
+    static final int DEFAULT_CHUNK_SIZE = 1 << POSITION_BITS;
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final long REF_MASK = (1L << 40) - 1;
+    private static final int TAG_SHIFT = 40;
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 27;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    private static final int FLAG_COINBASE = 1;
+    private static final int FLAG_ADDRESS = 2;
+
+    // Records are appended to chunks of this size, or of their own size if they are bigger.
+    private final int chunkSize;
+
+    private LongBuffer slots;
+    private int mask;
+    private int size;
+
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    // The chunk records are appended to, whose position is where the next one goes.
+    @Nullable
+    private ByteBuffer current;
+    private int currentIndex;
+    private long chunkBytes;
+    private long liveBytes;
+
+    private byte[] scratch = new byte[256];
+    // Where reading a record got to.
+    private int cursor;
+
+    OffHeapUTXOTable() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    OffHeapUTXOTable(int chunkSize) {
+        checkArgument(chunkSize > 0 && chunkSize <= DEFAULT_CHUNK_SIZE);
+        this.chunkSize = chunkSize;
+        allocateSlots(MIN_CAPACITY);
+    }
+
+    /** Returns the number of outputs in the table. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the memory taken by the table and the records, in bytes. */
+    long getAllocatedBytes() {
+        return (mask + 1) * 8L + chunkBytes;
+    }
+
+    /** Returns the memory taken by the records of the outputs in the table, in bytes. */
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    @Nullable
+    UTXO get(Sha256Hash hash, long index) {
+        int slot = find(hash.getBytes(), index);
+        if (slot < 0)
+            return null;
+        return decode(ref(slots.get(slot)), hash);
+    }
+
+    boolean contains(Sha256Hash hash, long index) {
+        return find(hash.getBytes(), index) >= 0;
+    }
+
+    /** Adds the output, or replaces the one with the same outpoint. */
+    void put(UTXO out) {
+        int length = encode(out);
+        byte[] txid = out.getHash().getBytes();
+        long hash = hash(txid, out.getIndex());
+        int slot = find(txid, out.getIndex());
+        if (slot >= 0) {
+            liveBytes -= recordLength(ref(slots.get(slot)));
+            slots.put(slot, entry(hash, append(scratch, length)));
+            maybeCompact();
+            return;
+        }
+        if (size + 1 > (mask + 1) * MAX_LOAD_FACTOR) {
+            resize((mask + 1) * 2);
+            slot = find(txid, out.getIndex());
+        }
+        slots.put(~slot, entry(hash, append(scratch, length)));
+        size++;
+    }
+
+    /** Removes the output, returning false if the table doesn't have it. */
+    boolean remove(Sha256Hash hash, long index) {
+        int slot = find(hash.getBytes(), index);
+        if (slot < 0)
+            return false;
+        liveBytes -= recordLength(ref(slots.get(slot)));
+        clearSlot(slot);
+        size--;
+        maybeCompact();
+        return true;
+    }
+
+    /** Adds the outputs paying to any of the given addresses to the list. */
+    void findByAddress(Set<String> addresses, List<UTXO> found) {
+        for (int i = 0; i <= mask; i++) {
+            long entry = slots.get(i);
+            if (entry == 0)
+                continue;
+            long ref = ref(entry);
+            skipToScript(ref);
+            String address = readAddress(ref);
+            if (addresses.contains(address))
+                found.add(decode(ref, null));
+        }
+    }
+
+    // Returns the slot of the outpoint, or the complement of the empty slot it would go into.
+    private int find(byte[] txid, long index) {
+        long hash = hash(txid, index);
+        long tag = hash >>> TAG_SHIFT;
+        long k0 = readLong(txid, 0), k1 = readLong(txid, 8), k2 = readLong(txid, 16), k3 = readLong(txid, 24);
+        int slot = (int) hash & mask;
+        while (true) {
+            long entry = slots.get(slot);
+            if (entry == 0)
+                return ~slot;
+            if (entry >>> TAG_SHIFT == tag) {
+                long ref = ref(entry);
+                ByteBuffer chunk = chunk(ref);
+                int pos = position(ref);
+                if (chunk.getLong(pos) == k0 && chunk.getLong(pos + 8) == k1 && chunk.getLong(pos + 16) == k2
+                        && chunk.getLong(pos + 24) == k3) {
+                    cursor = pos + 32;
+                    if (readVarInt(chunk) == index)
+                        return slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Empties the slot, moving the entries after it back so that all of them are still found from their hash.
+    private void clearSlot(int slot) {
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long entry = slots.get(next);
+            if (entry == 0)
+                break;
+            int home = (int) recordHash(ref(entry)) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots.put(slot, entry);
+                slot = next;
+            }
+        }
+        slots.put(slot, 0);
+    }
+
+    private void allocateSlots(int capacity) {
+        if (capacity > MAX_CAPACITY)
+            throw new IllegalStateException("Too many unspent outputs to hold in memory");
+        slots = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        LongBuffer old = slots;
+        allocateSlots(capacity);
+        for (int i = 0; i < old.capacity(); i++) {
+            long entry = old.get(i);
+            if (entry == 0)
+                continue;
+            int slot = (int) recordHash(ref(entry)) & mask;
+            while (slots.get(slot) != 0)
+                slot = (slot + 1) & mask;
+            slots.put(slot, entry);
+        }
+    }
+
+    // Copies the live records into new chunks once the removed ones take up more room than they do.
+    private void maybeCompact() {
+        long garbage = chunkBytes - liveBytes;
+        if (garbage <= liveBytes || garbage <= 2L * chunkSize)
+            return;
+        List<ByteBuffer> old = chunks;
+        chunks = new ArrayList<>();
+        current = null;
+        chunkBytes = 0;
+        liveBytes = 0;
+        for (int i = 0; i <= mask; i++) {
+            long entry = slots.get(i);
+            if (entry == 0)
+                continue;
+            long ref = ref(entry);
+            ByteBuffer chunk = old.get((int) (ref >>> POSITION_BITS));
+            int length = recordLength(chunk, position(ref));
+            ensureScratch(length);
+            read(chunk, position(ref), scratch, length);
+            slots.put(i, (entry & ~REF_MASK) | (append(scratch, length) + 1));
+        }
+    }
+
+    private long append(byte[] record, int length) {
+        ByteBuffer chunk = current;
+        int index = currentIndex;
+        if (chunk == null || chunk.remaining() < length) {
+            if (chunks.size() >= MAX_CHUNKS)
+                throw new IllegalStateException("Too many unspent outputs to hold in memory");
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+            index = chunks.size();
+            chunks.add(chunk);
+            chunkBytes += chunk.capacity();
+            // A record too big for a chunk gets one of its own.
+            if (length <= chunkSize) {
+                current = chunk;
+                currentIndex = index;
+            }
+        }
+        long ref = ((long) index << POSITION_BITS) | chunk.position();
+        chunk.put(record, 0, length);
+        liveBytes += length;
+        return ref;
+    }
+
+    // Encodes the output into the scratch buffer, returning the length of the record.
+    private int encode(UTXO out) {
+        byte[] program = out.getScript().getProgram();
+        int flags = out.isCoinbase() ? FLAG_COINBASE : 0;
+        byte[] address = null;
+        String outAddress = out.getAddress();
+        if (outAddress != null && !outAddress.isEmpty()) {
+            flags |= FLAG_ADDRESS;
+            address = outAddress.getBytes(StandardCharsets.UTF_8);
+        }
+        ensureScratch(32 + 10 * 3 + 1 + 5 + program.length + (address != null ? 5 + address.length : 0));
+        System.arraycopy(out.getHash().getBytes(), 0, scratch, 0, 32);
+        int pos = 32;
+        pos = writeVarInt(scratch, pos, out.getIndex());
+        pos = writeVarInt(scratch, pos, out.getHeight() & 0xFFFFFFFFL);
+        pos = writeVarInt(scratch, pos, out.getValue().value);
+        scratch[pos++] = (byte) flags;
+        pos = writeVarInt(scratch, pos, program.length);
+        System.arraycopy(program, 0, scratch, pos, program.length);
+        pos += program.length;
+        if (address != null) {
+            pos = writeVarInt(scratch, pos, address.length);
+            System.arraycopy(address, 0, scratch, pos, address.length);
+            pos += address.length;
+        }
+        return pos;
+    }
+
+    private UTXO decode(long ref, @Nullable Sha256Hash hash) {
+        ByteBuffer chunk = chunk(ref);
+        int pos = position(ref);
+        if (hash == null) {
+            byte[] txid = new byte[32];
+            read(chunk, pos, txid, 32);
+            hash = Sha256Hash.wrap(txid);
+        }
+        cursor = pos + 32;
+        long index = readVarInt(chunk);
+        int height = (int) readVarInt(chunk);
+        Coin value = Coin.valueOf(readVarInt(chunk));
+        int flags = chunk.get(cursor++);
+        byte[] program = new byte[(int) readVarInt(chunk)];
+        read(chunk, cursor, program, program.length);
+        cursor += program.length;
+        String address = "";
+        if ((flags & FLAG_ADDRESS) != 0) {
+            byte[] addressBytes = new byte[(int) readVarInt(chunk)];
+            read(chunk, cursor, addressBytes, addressBytes.length);
+            address = new String(addressBytes, StandardCharsets.UTF_8);
+        }
+        return new UTXO(hash, index, value, height, (flags & FLAG_COINBASE) != 0, new Script(program), address);
+    }
+
+    // Moves the cursor to the flags byte of the record.
+    private void skipToScript(long ref) {
+        ByteBuffer chunk = chunk(ref);
+        cursor = position(ref) + 32;
+        readVarInt(chunk);
+        readVarInt(chunk);
+        readVarInt(chunk);
+    }
+
+    // Reads the address of the record, with the cursor at its flags byte.
+    private String readAddress(long ref) {
+        ByteBuffer chunk = chunk(ref);
+        int flags = chunk.get(cursor++);
+        if ((flags & FLAG_ADDRESS) == 0)
+            return "";
+        int scriptLength = (int) readVarInt(chunk);
+        cursor += scriptLength;
+        byte[] address = new byte[(int) readVarInt(chunk)];
+        read(chunk, cursor, address, address.length);
+        return new String(address, StandardCharsets.UTF_8);
+    }
+
+    private int recordLength(long ref) {
+        return recordLength(chunk(ref), position(ref));
+    }
+
+    private int recordLength(ByteBuffer chunk, int pos) {
+        cursor = pos + 32;
+        readVarInt(chunk);
+        readVarInt(chunk);
+        readVarInt(chunk);
+        int flags = chunk.get(cursor++);
+        int scriptLength = (int) readVarInt(chunk);
+        cursor += scriptLength;
+        if ((flags & FLAG_ADDRESS) != 0) {
+            int addressLength = (int) readVarInt(chunk);
+            cursor += addressLength;
+        }
+        return cursor - pos;
+    }
+
+    private long recordHash(long ref) {
+        ByteBuffer chunk = chunk(ref);
+        int pos = position(ref);
+        cursor = pos + 32;
+        return hash(chunk.getLong(pos), readVarInt(chunk));
+    }
+
+    private ByteBuffer chunk(long ref) {
+        return chunks.get((int) (ref >>> POSITION_BITS));
+    }
+
+    private static int position(long ref) {
+        return (int) (ref & ((1 << POSITION_BITS) - 1));
+    }
+
+    private static long ref(long entry) {
+        return (entry & REF_MASK) - 1;
+    }
+
+    private static long entry(long hash, long ref) {
+        return (hash >>> TAG_SHIFT << TAG_SHIFT) | (ref + 1);
+    }
+
+    private static long hash(byte[] txid, long index) {
+        return hash(readLong(txid, 0), index);
+    }
+
+    // Transaction hashes are random already, this only mixes in the index.
+    private static long hash(long txidPrefix, long index) {
+        long hash = txidPrefix ^ (index * 0x9E3779B97F4A7C15L);
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+
+    private long readVarInt(ByteBuffer chunk) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get(cursor++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int writeVarInt(byte[] buf, int pos, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static void read(ByteBuffer chunk, int pos, byte[] dest, int length) {
+        ByteBuffer source = chunk.duplicate();
+        source.position(pos);
+        source.get(dest, 0, length);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        return value;
+    }
+}
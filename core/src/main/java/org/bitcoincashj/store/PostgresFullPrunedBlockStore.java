@@ -167,7 +167,6 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
 
     @Override
     public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
-        maybeConnect();
         // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
         byte[] hashBytes = new byte[28];
         System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
@@ -191,23 +190,23 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
             throw new BlockStoreException(e);
         }
 
-
+        maybeConnect();
         try {
             if (log.isDebugEnabled())
                 log.debug("Looking for undoable block with hash: " + Utils.HEX.encode(hashBytes));
 
-            PreparedStatement findS = conn.get().prepareStatement(SELECT_UNDOABLEBLOCKS_EXISTS_SQL);
+            PreparedStatement findS = getPreparedStatement(SELECT_UNDOABLEBLOCKS_EXISTS_SQL);
             findS.setBytes(1, hashBytes);
 
             ResultSet rs = findS.executeQuery();
-            if (rs.next()) {
+            boolean found = rs.next();
+            rs.close();
+            if (found) {
                 // We already have this output, update it.
-                findS.close();
 
                 // Postgres insert-or-updates are very complex (and finnicky).  This level of transaction isolation
                 // seems to work for bitcoinj
-                PreparedStatement s =
-                        conn.get().prepareStatement(getUpdateUndoableBlocksSQL());
+                PreparedStatement s = getPreparedStatement(getUpdateUndoableBlocksSQL());
                 s.setBytes(3, hashBytes);
 
                 if (log.isDebugEnabled())
@@ -221,13 +220,11 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
                     s.setBytes(2, transactions);
                 }
                 s.executeUpdate();
-                s.close();
 
                 return;
             }
 
-            PreparedStatement s =
-                    conn.get().prepareStatement(getInsertUndoableBlocksSQL());
+            PreparedStatement s = getPreparedStatement(getInsertUndoableBlocksSQL());
             s.setBytes(1, hashBytes);
             s.setInt(2, height);
 
@@ -242,15 +239,16 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
                 s.setBytes(4, transactions);
             }
             s.executeUpdate();
-            s.close();
             try {
                 putUpdateStoredBlock(storedBlock, true);
             } catch (SQLException e) {
                 throw new BlockStoreException(e);
             }
         } catch (SQLException e) {
-            if (!e.getSQLState().equals(POSTGRES_DUPLICATE_KEY_ERROR_CODE))
+            if (!POSTGRES_DUPLICATE_KEY_ERROR_CODE.equals(e.getSQLState()))
                 throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
 
     }
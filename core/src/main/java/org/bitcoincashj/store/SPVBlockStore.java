@@ -86,7 +86,7 @@ public class SPVBlockStore implements BlockStore {
     // Used to stop other applications/processes from opening the store.
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
-    private int fileLength;
+    protected int fileLength;
 
     /**
      * Creates and initializes an SPV block store that can hold {@link #DEFAULT_CAPACITY} block headers. Will create the
@@ -181,8 +181,16 @@ public class SPVBlockStore implements BlockStore {
         }
         Block genesis = params.getGenesisBlock().cloneAsHeader();
         StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
-        put(storedGenesis);
-        setChainHead(storedGenesis);
+        // Write directly rather than via put()/setChainHead(), which subclasses may override and which would run
+        // before their fields are initialized when called from our constructor.
+        lock.lock();
+        try {
+            writeBlock(buffer, storedGenesis);
+            writeChainHead(buffer, storedGenesis);
+            lastChainHead = storedGenesis;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -199,23 +207,38 @@ public class SPVBlockStore implements BlockStore {
 
         lock.lock();
         try {
-            int cursor = getRingCursor(buffer);
-            if (cursor == fileLength) {
-                // Wrapped around.
-                cursor = FILE_PROLOGUE_BYTES;
-            }
-            buffer.position(cursor);
             Sha256Hash hash = block.getHeader().getHash();
             notFoundCache.remove(hash);
-            buffer.put(hash.getBytes());
-            block.serializeCompact(buffer);
-            setRingCursor(buffer, buffer.position());
+            writeBlock(buffer, block);
             blockCache.put(hash, block);
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Appends the block to the ring at the current cursor and advances the cursor. Callers must prevent concurrent
+     * writes.
+     */
+    protected void writeBlock(MappedByteBuffer buffer, StoredBlock block) {
+        int cursor = getRingCursor(buffer);
+        if (cursor == fileLength) {
+            // Wrapped around.
+            cursor = FILE_PROLOGUE_BYTES;
+        }
+        buffer.position(cursor);
+        buffer.put(block.getHeader().getHash().getBytes());
+        block.serializeCompact(buffer);
+        setRingCursor(buffer, buffer.position());
+    }
+
+    /** Records the hash of the chain head in the file prologue. Callers must prevent concurrent writes. */
+    protected void writeChainHead(MappedByteBuffer buffer, StoredBlock chainHead) {
+        byte[] headHash = chainHead.getHeader().getHash().getBytes();
+        buffer.position(8);
+        buffer.put(headHash);
+    }
+
     @Override
     @Nullable
     public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
@@ -295,9 +318,7 @@ public class SPVBlockStore implements BlockStore {
         lock.lock();
         try {
             lastChainHead = chainHead;
-            byte[] headHash = chainHead.getHeader().getHash().getBytes();
-            buffer.position(8);
-            buffer.put(headHash);
+            writeChainHead(buffer, chainHead);
         } finally {
             lock.unlock();
         }
@@ -338,7 +359,7 @@ public class SPVBlockStore implements BlockStore {
     /**
      * Returns the offset from the file start where the latest block should be written (end of prev block).
      */
-    private int getRingCursor(ByteBuffer buffer) {
+    protected int getRingCursor(ByteBuffer buffer) {
         int c = buffer.getInt(4);
         checkState(c >= FILE_PROLOGUE_BYTES, "Integer overflow");
         return c;
@@ -28,6 +28,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Various threading related utilities. Provides a wrapper around explicit lock creation that lets you control whether
@@ -163,6 +164,17 @@ public class Threading {
             return factory.newReentrantLock(name);
     }
 
+    public static ReentrantReadWriteLock readWriteLock(Class<?> clazz) {
+        return readWriteLock(clazz.getSimpleName() + " lock");
+    }
+
+    public static ReentrantReadWriteLock readWriteLock(String name) {
+        if (Utils.isAndroidRuntime())
+            return new ReentrantReadWriteLock(true);
+        else
+            return factory.newReentrantReadWriteLock(name);
+    }
+
     public static void warnOnLockCycles() {
         setPolicy(CycleDetectingLockFactory.Policies.WARN);
     }
@@ -184,6 +196,38 @@ public class Threading {
         return policy;
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    // Virtual threads
+    //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Nullable
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    /**
+     * Returns a factory for virtual threads, or null if the runtime doesn't have them (before Java 21, or on Android).
+     * Virtual threads are cheap enough to have one per blocking task by the thousand, as the runtime parks them
+     * instead of an OS thread while they wait for I/O.
+     */
+    @Nullable
+    public static ThreadFactory virtualThreadFactory() {
+        return VIRTUAL_THREAD_FACTORY;
+    }
+
+    @Nullable
+    private static ThreadFactory createVirtualThreadFactory() {
+        // Looked up reflectively, as bitcoinj is built to run on older runtimes too.
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // Not available, or a preview feature that wasn't enabled.
+            return null;
+        }
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //
     // Generic worker pool.
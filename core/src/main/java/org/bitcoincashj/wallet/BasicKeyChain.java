@@ -592,6 +592,22 @@ public class BasicKeyChain implements EncryptableKeyChain {
         }
     }
 
+    /**
+     * Adds the elements that {@link #getFilter(int, double, long)} inserts, the public key and its hash for each key, to
+     * the given list.
+     */
+    public void getBloomFilterElements(List<byte[]> elements) {
+        lock.lock();
+        try {
+            for (ECKey key : hashToKeys.values()) {
+                elements.add(key.getPubKey());
+                elements.add(key.getPubKeyHash());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public int numBloomFilterEntries() {
         return numKeys() * 2;
@@ -816,6 +816,17 @@ public class KeyChainGroup implements KeyBag {
         return filter;
     }
 
+    /**
+     * Adds the elements that {@link #getBloomFilter(int, double, long)} inserts to the given list.
+     */
+    public void getBloomFilterElements(List<byte[]> elements) {
+        if (basic.numKeys() > 0)
+            basic.getBloomFilterElements(elements);
+        if (chains != null)
+            for (DeterministicKeyChain chain : chains)
+                chain.getBloomFilterElements(elements);
+    }
+
     public boolean isRequiringUpdateAllBloomFilter() {
         throw new UnsupportedOperationException();   // Unused.
     }
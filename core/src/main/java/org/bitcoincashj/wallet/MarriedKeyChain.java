@@ -298,6 +298,19 @@ public class MarriedKeyChain extends DeterministicKeyChain {
         return filter;
     }
 
+    @Override
+    public void getBloomFilterElements(List<byte[]> elements) {
+        lock.lock();
+        try {
+            for (Map.Entry<ByteString, RedeemData> entry : marriedKeysRedeemData.entrySet()) {
+                elements.add(entry.getKey().toByteArray());
+                elements.add(entry.getValue().redeemScript.getProgram());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public int numBloomFilterEntries() {
         maybeLookAhead();
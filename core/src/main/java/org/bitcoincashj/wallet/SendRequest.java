@@ -419,8 +419,7 @@ public class SendRequest {
         String base64Payload = Base64.toBase64String(json.getBytes());
 
         txIn.verify(output);
-        output.setFrozen(true);
-        wallet.saveNow();
+        wallet.setFrozen(output, true);
         return new MutablePair<>(pledgeInputReq.tx, base64Payload);
     }
 
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.wallet;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import org.bitcoincashj.core.Sha256Hash;
+import org.bitcoincashj.core.Transaction;
+import org.bitcoincashj.core.TransactionOutput;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptException;
+import org.bitcoincashj.script.ScriptPattern;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>The set of outputs a wallet could spend, indexed so that the common queries don't have to scan and sort all of
+ * them: outputs are kept apart by whether they are dust and by script type, and each part is ordered by value,
+ * largest first.</p>
+ *
+ * <p>Only properties that never change while an output is unspent are indexed. Whether an output is frozen, how deep
+ * its transaction is buried and whether a coinbase has matured change without the index being told, so readers still
+ * check those per output.</p>
+ *
+ * <p>Like the rest of the wallet's state, this is not thread safe and must only be used with the wallet lock held.</p>
+ */
+public class UnspentOutputIndex extends AbstractSet<TransactionOutput> {
+    /** The value of outputs that are only there to carry tokens or other data, rather than money. */
+    public static final long DUST_VALUE = 546;
+
+    private static class Entry implements Comparable<Entry> {
+        final TransactionOutput output;
+        final long value;
+        final Sha256Hash txId;
+        final int index;
+        @Nullable
+        final Script.ScriptType scriptType;
+
+        Entry(TransactionOutput output) {
+            Transaction parent = checkNotNull(output.getParentTransaction(), "Unspent outputs must have a parent");
+            this.output = output;
+            this.value = output.getValue().value;
+            this.txId = parent.getTxId();
+            this.index = output.getIndex();
+            this.scriptType = scriptTypeOf(output);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int c = Long.compare(other.value, value);
+            if (c != 0) return c;
+            c = txId.compareTo(other.txId);
+            if (c != 0) return c;
+            return Integer.compare(index, other.index);
+        }
+    }
+
+    private static final Function<Entry, TransactionOutput> TO_OUTPUT = new Function<Entry, TransactionOutput>() {
+        @Override
+        public TransactionOutput apply(Entry entry) {
+            return entry.output;
+        }
+    };
+
+    private final HashMap<TransactionOutput, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> nonDust = new TreeSet<>();
+    private final TreeSet<Entry> dust = new TreeSet<>();
+    private final EnumMap<Script.ScriptType, TreeSet<Entry>> byScriptType = new EnumMap<>(Script.ScriptType.class);
+
+    public UnspentOutputIndex() {
+        for (Script.ScriptType type : Script.ScriptType.values())
+            byScriptType.put(type, new TreeSet<Entry>());
+    }
+
+    @Override
+    public boolean add(TransactionOutput output) {
+        if (entries.containsKey(output))
+            return false;
+        Entry entry = new Entry(output);
+        entries.put(output, entry);
+        (entry.value == DUST_VALUE ? dust : nonDust).add(entry);
+        if (entry.scriptType != null)
+            byScriptType.get(entry.scriptType).add(entry);
+        changed();
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object output) {
+        Entry entry = entries.remove(output);
+        if (entry == null)
+            return false;
+        unindex(entry);
+        changed();
+        return true;
+    }
+
+    private void unindex(Entry entry) {
+        (entry.value == DUST_VALUE ? dust : nonDust).remove(entry);
+        if (entry.scriptType != null)
+            byScriptType.get(entry.scriptType).remove(entry);
+    }
+
+    @Override
+    public boolean contains(Object output) {
+        return entries.containsKey(output);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        nonDust.clear();
+        dust.clear();
+        for (TreeSet<Entry> outputs : byScriptType.values())
+            outputs.clear();
+        changed();
+    }
+
+    @Override
+    public Iterator<TransactionOutput> iterator() {
+        final Iterator<Entry> it = entries.values().iterator();
+        return new Iterator<TransactionOutput>() {
+            private Entry last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public TransactionOutput next() {
+                last = it.next();
+                return last.output;
+            }
+
+            @Override
+            public void remove() {
+                checkState(last != null);
+                it.remove();
+                unindex(last);
+                last = null;
+                changed();
+            }
+        };
+    }
+
+    /** Called after every change to the set. Subclasses can override this to keep derived state up to date. */
+    protected void changed() {
+    }
+
+    /** Returns the outputs that are not dust, largest value first. The view is live and read only. */
+    public Iterable<TransactionOutput> getNonDust() {
+        return view(nonDust);
+    }
+
+    /** Returns the outputs of exactly {@link #DUST_VALUE}, largest value first. The view is live and read only. */
+    public Iterable<TransactionOutput> getDust() {
+        return view(dust);
+    }
+
+    public int getDustCount() {
+        return dust.size();
+    }
+
+    /**
+     * Returns the outputs, dust included, with a script of the given type, largest value first. The view is live and
+     * read only.
+     */
+    public Iterable<TransactionOutput> getByScriptType(Script.ScriptType scriptType) {
+        return view(byScriptType.get(checkNotNull(scriptType)));
+    }
+
+    private static Iterable<TransactionOutput> view(Set<Entry> entries) {
+        return Iterables.unmodifiableIterable(Iterables.transform(entries, TO_OUTPUT));
+    }
+
+    @Nullable
+    private static Script.ScriptType scriptTypeOf(TransactionOutput output) {
+        Script script;
+        try {
+            script = output.getScriptPubKey();
+        } catch (ScriptException x) {
+            return null;
+        }
+        if (ScriptPattern.isP2PKH(script))
+            return Script.ScriptType.P2PKH;
+        if (ScriptPattern.isP2PK(script))
+            return Script.ScriptType.P2PK;
+        if (ScriptPattern.isP2SH(script))
+            return Script.ScriptType.P2SH;
+        return null;
+    }
+}
@@ -57,7 +57,9 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -100,12 +102,20 @@ import static com.google.common.base.Preconditions.*;
  * for more information about this.</p>
  */
 public class Wallet extends BaseTaggableObject
-        implements NewBestBlockListener, TransactionReceivedInBlockListener, PeerFilterProvider, KeyBag, TransactionBag, ReorganizeListener {
+        implements NewBestBlockListener, TransactionReceivedInBlockListener, IncrementalPeerFilterProvider, KeyBag, TransactionBag, ReorganizeListener {
     private static final Logger log = LoggerFactory.getLogger(Wallet.class);
     // Ordering: lock > keyChainGroupLock. KeyChainGroup is protected separately to allow fast querying of current receive address
     // even if the wallet itself is busy e.g. saving or processing a big reorg. Useful for reducing UI latency.
-    protected final ReentrantLock lock = Threading.lock(Wallet.class);
-    protected final ReentrantLock keyChainGroupLock = Threading.lock("Wallet-KeyChainGroup lock");
+    // Both are read/write locks. lock and keyChainGroupLock are the write sides and guard anything that changes state.
+    // Queries that only read, and that are called a lot from other threads, take the read sides instead so that they
+    // don't queue behind each other, only behind writers such as block processing. Whilst holding a read side, never
+    // take the write side of the same lock: that deadlocks.
+    private final ReentrantReadWriteLock walletLock = Threading.readWriteLock(Wallet.class);
+    protected final ReentrantReadWriteLock.WriteLock lock = walletLock.writeLock();
+    protected final ReentrantReadWriteLock.ReadLock readLock = walletLock.readLock();
+    private final ReentrantReadWriteLock keyChainGroupReadWriteLock = Threading.readWriteLock("Wallet-KeyChainGroup lock");
+    protected final ReentrantReadWriteLock.WriteLock keyChainGroupLock = keyChainGroupReadWriteLock.writeLock();
+    protected final ReentrantReadWriteLock.ReadLock keyChainGroupReadLock = keyChainGroupReadWriteLock.readLock();
 
     private static final int MINIMUM_BLOOM_DATA_LENGTH = 8;
 
@@ -137,8 +147,20 @@ public class Wallet extends BaseTaggableObject
     protected final Map<Sha256Hash, Transaction> transactions;
 
     // All the TransactionOutput objects that we could spend (ignoring whether we have the private key or not).
-    // Used to speed up various calculations.
-    protected final HashSet<TransactionOutput> myUnspents = new HashSet<>();
+    // Used to speed up various calculations. Any change invalidates the cached balances.
+    protected final UnspentOutputIndex myUnspents = new UnspentOutputIndex() {
+        @Override
+        protected void changed() {
+            invalidateCachedBalances();
+        }
+    };
+
+    // Balances are only recalculated after something they depend on has changed: the unspent outputs, transaction
+    // confidence (which decides what is available and what is mature), keys or frozen outputs. Each such change bumps
+    // the generation, and a cached balance is only served while its generation is current.
+    private final AtomicLong balanceGeneration = new AtomicLong();
+    private final AtomicReferenceArray<CachedBalance> cachedBalances =
+            new AtomicReferenceArray<>(BalanceType.values().length);
 
     // Transactions that were dropped by the risk analysis system. These are not in any pools and not serialized
     // to disk. We have to keep them around because if we ignore a tx because we think it will never confirm, but
@@ -456,7 +478,15 @@ public class Wallet extends BaseTaggableObject
         transactions = new HashMap<>();
         extensions = new HashMap<>();
         // Use a linked hash map to ensure ordering of event listeners is correct.
-        confidenceChanged = new LinkedHashMap<>();
+        confidenceChanged = new LinkedHashMap<Transaction, TransactionConfidence.Listener.ChangeReason>() {
+            @Override
+            public TransactionConfidence.Listener.ChangeReason put(Transaction tx,
+                                                                   TransactionConfidence.Listener.ChangeReason reason) {
+                // Every confidence change the wallet makes is recorded here, so this is where balances go stale.
+                invalidateCachedBalances();
+                return super.put(tx, reason);
+            }
+        };
         signers = new ArrayList<>();
         addTransactionSigner(new LocalSchnorrTransactionSigner());
         createTransientState();
@@ -863,6 +893,7 @@ public class Wallet extends BaseTaggableObject
         } finally {
             keyChainGroupLock.unlock();
         }
+        invalidateCachedBalances();
         saveNow();
         return result;
     }
@@ -897,6 +928,7 @@ public class Wallet extends BaseTaggableObject
             return keyChainGroup.importKeysAndEncrypt(keys, aesKey);
         } finally {
             keyChainGroupLock.unlock();
+            invalidateCachedBalances();
         }
     }
 
@@ -917,6 +949,7 @@ public class Wallet extends BaseTaggableObject
             keyChainGroup.addAndActivateHDChain(chain);
         } finally {
             keyChainGroupLock.unlock();
+            invalidateCachedBalances();
         }
     }
 
@@ -1140,11 +1173,11 @@ public class Wallet extends BaseTaggableObject
     @Override
     @Nullable
     public ECKey findKeyFromPubKeyHash(byte[] pubKeyHash, @Nullable Script.ScriptType scriptType) {
-        keyChainGroupLock.lock();
+        keyChainGroupReadLock.lock();
         try {
             return keyChainGroup.findKeyFromPubKeyHash(pubKeyHash, scriptType);
         } finally {
-            keyChainGroupLock.unlock();
+            keyChainGroupReadLock.unlock();
         }
     }
 
@@ -1152,11 +1185,11 @@ public class Wallet extends BaseTaggableObject
      * Returns true if the given key is in the wallet, false otherwise. Currently an O(N) operation.
      */
     public boolean hasKey(ECKey key) {
-        keyChainGroupLock.lock();
+        keyChainGroupReadLock.lock();
         try {
             return keyChainGroup.hasKey(key);
         } finally {
-            keyChainGroupLock.unlock();
+            keyChainGroupReadLock.unlock();
         }
     }
 
@@ -1185,11 +1218,11 @@ public class Wallet extends BaseTaggableObject
 
     @Override
     public boolean isWatchedScript(Script script) {
-        keyChainGroupLock.lock();
+        keyChainGroupReadLock.lock();
         try {
             return watchedScripts.contains(script);
         } finally {
-            keyChainGroupLock.unlock();
+            keyChainGroupReadLock.unlock();
         }
     }
 
@@ -1214,11 +1247,11 @@ public class Wallet extends BaseTaggableObject
     @Override
     @Nullable
     public ECKey findKeyFromPubKey(byte[] pubKey) {
-        keyChainGroupLock.lock();
+        keyChainGroupReadLock.lock();
         try {
             return keyChainGroup.findKeyFromPubKey(pubKey);
         } finally {
-            keyChainGroupLock.unlock();
+            keyChainGroupReadLock.unlock();
         }
     }
 
@@ -1234,11 +1267,11 @@ public class Wallet extends BaseTaggableObject
     @Nullable
     @Override
     public RedeemData findRedeemDataFromScriptHash(byte[] payToScriptHash) {
-        keyChainGroupLock.lock();
+        keyChainGroupReadLock.lock();
         try {
             return keyChainGroup.findRedeemDataFromScriptHash(payToScriptHash);
         } finally {
-            keyChainGroupLock.unlock();
+            keyChainGroupReadLock.unlock();
         }
     }
 
@@ -2997,6 +3030,8 @@ public class Wallet extends BaseTaggableObject
         // transactions due to a new block arriving. It will be called later instead.
         checkState(lock.isHeldByCurrentThread());
         checkState(onWalletChangedSuppressions >= 0);
+        // Whatever changed may have changed the balance too, even if listeners are only told about it later.
+        invalidateCachedBalances();
         if (onWalletChangedSuppressions > 0) return;
         for (final ListenerRegistration<WalletChangeEventListener> registration : changeListeners) {
             registration.executor.execute(new Runnable() {
@@ -3068,7 +3103,7 @@ public class Wallet extends BaseTaggableObject
      * @param includeDead If true, transactions that were overridden by a double spend are included.
      */
     public Set<Transaction> getTransactions(boolean includeDead) {
-        lock.lock();
+        readLock.lock();
         try {
             Set<Transaction> all = new HashSet<>();
             all.addAll(unspent.values());
@@ -3078,7 +3113,7 @@ public class Wallet extends BaseTaggableObject
                 all.addAll(dead.values());
             return all;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3086,7 +3121,7 @@ public class Wallet extends BaseTaggableObject
      * Returns a set of all WalletTransactions in the wallet.
      */
     public Iterable<WalletTransaction> getWalletTransactions() {
-        lock.lock();
+        readLock.lock();
         try {
             Set<WalletTransaction> all = new HashSet<>();
             addWalletTransactionsToSet(all, Pool.UNSPENT, unspent.values());
@@ -3095,7 +3130,7 @@ public class Wallet extends BaseTaggableObject
             addWalletTransactionsToSet(all, Pool.PENDING, pending.values());
             return all;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3168,7 +3203,7 @@ public class Wallet extends BaseTaggableObject
      * depending on how the wallet is implemented (eg if backed by a database).</p>
      */
     public List<Transaction> getRecentTransactions(int numTransactions, boolean includeDead) {
-        lock.lock();
+        readLock.lock();
         try {
             checkArgument(numTransactions >= 0);
             // Firstly, put all transactions into an array.
@@ -3186,7 +3221,7 @@ public class Wallet extends BaseTaggableObject
                 return all;
             }
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3195,17 +3230,17 @@ public class Wallet extends BaseTaggableObject
      */
     @Nullable
     public Transaction getTransaction(Sha256Hash hash) {
-        lock.lock();
+        readLock.lock();
         try {
             return transactions.get(hash);
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
     @Override
     public Map<Sha256Hash, Transaction> getTransactionPool(Pool pool) {
-        lock.lock();
+        readLock.lock();
         try {
             switch (pool) {
                 case UNSPENT:
@@ -3220,7 +3255,7 @@ public class Wallet extends BaseTaggableObject
                     throw new RuntimeException("Unknown wallet transaction type " + pool);
             }
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3373,7 +3408,7 @@ public class Wallet extends BaseTaggableObject
 
     @VisibleForTesting
     public int getPoolSize(WalletTransaction.Pool pool) {
-        lock.lock();
+        readLock.lock();
         try {
             switch (pool) {
                 case UNSPENT:
@@ -3387,13 +3422,13 @@ public class Wallet extends BaseTaggableObject
             }
             throw new RuntimeException("Unreachable");
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
     @VisibleForTesting
     public boolean poolContainsTxHash(final WalletTransaction.Pool pool, final Sha256Hash txHash) {
-        lock.lock();
+        readLock.lock();
         try {
             switch (pool) {
                 case UNSPENT:
@@ -3407,7 +3442,7 @@ public class Wallet extends BaseTaggableObject
             }
             throw new RuntimeException("Unreachable");
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3415,11 +3450,11 @@ public class Wallet extends BaseTaggableObject
      * Returns a copy of the internal unspent outputs list
      */
     public List<TransactionOutput> getUnspents() {
-        lock.lock();
+        readLock.lock();
         try {
             return new ArrayList<>(myUnspents);
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3565,11 +3600,11 @@ public class Wallet extends BaseTaggableObject
      * Returns an immutable view of the transactions currently waiting for network confirmations.
      */
     public Collection<Transaction> getPendingTransactions() {
-        lock.lock();
+        readLock.lock();
         try {
             return Collections.unmodifiableCollection(pending.values());
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3605,11 +3640,11 @@ public class Wallet extends BaseTaggableObject
      */
     @Nullable
     public Sha256Hash getLastBlockSeenHash() {
-        lock.lock();
+        readLock.lock();
         try {
             return lastBlockSeenHash;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3648,11 +3683,11 @@ public class Wallet extends BaseTaggableObject
      * time then this method returns zero.
      */
     public long getLastBlockSeenTimeSecs() {
-        lock.lock();
+        readLock.lock();
         try {
             return lastBlockSeenTimeSecs;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3677,11 +3712,11 @@ public class Wallet extends BaseTaggableObject
      * is old and doesn't have that data.
      */
     public int getLastBlockSeenHeight() {
-        lock.lock();
+        readLock.lock();
         try {
             return lastBlockSeenHeight;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -3769,26 +3804,83 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Returns the balance of this wallet as calculated by the provided balanceType.
+     * Returns the balance of this wallet as calculated by the provided balanceType. The result is cached until the
+     * wallet changes, so that repeated calls, for example from a UI that polls, cost almost nothing and don't wait for
+     * the wallet lock. Balances read from a {@link UTXOProvider} are never cached.
      */
     public Coin getBalance(BalanceType balanceType) {
+        CachedBalance cached = cachedBalances.get(balanceType.ordinal());
+        if (cached != null && cached.generation == balanceGeneration.get() && cached.selector == coinSelector
+                && vUTXOProvider == null)
+            return cached.value;
+        readLock.lock();
+        try {
+            // Read the generation before calculating, so that a change made meanwhile leaves the result stale.
+            long generation = balanceGeneration.get();
+            Coin value = calculateBalance(balanceType);
+            if (vUTXOProvider == null)
+                cachedBalances.set(balanceType.ordinal(), new CachedBalance(generation, coinSelector, value));
+            return value;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private Coin calculateBalance(BalanceType balanceType) {
+        checkState(isLockHeldByCurrentThread());
+        if (balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE) {
+            List<TransactionOutput> candidates = calculateAllSpendCandidates(true, balanceType == BalanceType.AVAILABLE_SPENDABLE);
+            CoinSelection selection = coinSelector.select(NetworkParameters.MAX_MONEY, candidates);
+            return selection.valueGathered;
+        } else if (balanceType == BalanceType.ESTIMATED || balanceType == BalanceType.ESTIMATED_SPENDABLE) {
+            List<TransactionOutput> all = calculateAllSpendCandidates(false, balanceType == BalanceType.ESTIMATED_SPENDABLE);
+            Coin value = Coin.ZERO;
+            for (TransactionOutput out : all) value = value.add(out.getValue());
+            return value;
+        } else {
+            throw new AssertionError("Unknown balance type");  // Unreachable.
+        }
+    }
+
+    private static class CachedBalance {
+        final long generation;
+        // AVAILABLE balances depend on the coin selector, which subclasses may swap.
+        final CoinSelector selector;
+        final Coin value;
+
+        CachedBalance(long generation, CoinSelector selector, Coin value) {
+            this.generation = generation;
+            this.selector = selector;
+            this.value = value;
+        }
+    }
+
+    // True if this thread holds either side of the wallet lock, which is enough for code that only reads.
+    private boolean isLockHeldByCurrentThread() {
+        return lock.isHeldByCurrentThread() || walletLock.getReadHoldCount() > 0;
+    }
+
+    /**
+     * Makes the next {@link #getBalance(BalanceType)} calculate the balance afresh. The wallet calls this itself
+     * whenever it changes; there is no need to call it after changing the wallet through its API.
+     */
+    protected void invalidateCachedBalances() {
+        balanceGeneration.incrementAndGet();
+    }
+
+    /**
+     * Freezes or unfreezes one of the wallet's outputs. Frozen outputs are neither spent nor counted in the balance.
+     * Use this rather than {@link TransactionOutput#setFrozen(boolean)}, so that the balances are updated.
+     */
+    public void setFrozen(TransactionOutput output, boolean frozen) {
         lock.lock();
         try {
-            if (balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE) {
-                List<TransactionOutput> candidates = calculateAllSpendCandidates(true, balanceType == BalanceType.AVAILABLE_SPENDABLE);
-                CoinSelection selection = coinSelector.select(NetworkParameters.MAX_MONEY, candidates);
-                return selection.valueGathered;
-            } else if (balanceType == BalanceType.ESTIMATED || balanceType == BalanceType.ESTIMATED_SPENDABLE) {
-                List<TransactionOutput> all = calculateAllSpendCandidates(false, balanceType == BalanceType.ESTIMATED_SPENDABLE);
-                Coin value = Coin.ZERO;
-                for (TransactionOutput out : all) value = value.add(out.getValue());
-                return value;
-            } else {
-                throw new AssertionError("Unknown balance type");  // Unreachable.
-            }
+            output.setFrozen(frozen);
+            invalidateCachedBalances();
         } finally {
             lock.unlock();
         }
+        saveNow();
     }
 
     /**
@@ -3797,14 +3889,14 @@ public class Wallet extends BaseTaggableObject
      * possible and returns the total.
      */
     public Coin getBalance(CoinSelector selector) {
-        lock.lock();
+        readLock.lock();
         try {
             checkNotNull(selector);
             List<TransactionOutput> candidates = calculateAllSpendCandidates(true, false);
             CoinSelection selection = selector.select(params.getMaxMoney(), candidates);
             return selection.valueGathered;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
@@ -4536,61 +4628,47 @@ public class Wallet extends BaseTaggableObject
      * @param excludeUnsignable        Whether to ignore outputs that we are tracking but don't have the keys to sign for.
      */
     public List<TransactionOutput> calculateAllSpendCandidates(boolean excludeImmatureCoinbases, boolean excludeUnsignable, boolean includeDust) {
-        lock.lock();
+        readLock.lock();
         try {
             List<TransactionOutput> candidates;
             if (vUTXOProvider == null) {
                 candidates = new ArrayList<TransactionOutput>(myUnspents.size());
-                for (TransactionOutput output : myUnspents) {
-                    if (excludeUnsignable && !canSignFor(output.getScriptPubKey())) continue;
-                    Transaction transaction = checkNotNull(output.getParentTransaction());
-                    if (excludeImmatureCoinbases && !transaction.isMature())
-                        continue;
-
-                    if(output.isFrozen()) {
-                        continue;
-                    }
-
-                    if (output.getValue().value != 546L) {
-                        candidates.add(output);
-                    } else if (includeDust) {
-                        candidates.add(output);
-                    }
-                }
+                addSpendCandidates(candidates, myUnspents.getNonDust(), excludeImmatureCoinbases, excludeUnsignable);
+                if (includeDust)
+                    addSpendCandidates(candidates, myUnspents.getDust(), excludeImmatureCoinbases, excludeUnsignable);
             } else {
                 candidates = calculateAllSpendCandidatesFromUTXOProvider(excludeImmatureCoinbases);
             }
             return candidates;
         } finally {
-            lock.unlock();
+            readLock.unlock();
         }
     }
 
     public List<TransactionOutput> getAllDustUtxos(boolean excludeImmatureCoinbases, boolean excludeUnsignable) {
-        lock.lock();
+        readLock.lock();
         try {
             List<TransactionOutput> candidates;
             if (vUTXOProvider == null) {
-                candidates = new ArrayList<TransactionOutput>(myUnspents.size());
-                for (TransactionOutput output : myUnspents) {
-                    if (excludeUnsignable && !canSignFor(output.getScriptPubKey())) continue;
-                    Transaction transaction = checkNotNull(output.getParentTransaction());
-                    if (excludeImmatureCoinbases && !transaction.isMature())
-                        continue;
-
-                    if(output.isFrozen())
-                        continue;
-
-                    if (output.getValue().value == 546L) {
-                        candidates.add(output);
-                    }
-                }
+                candidates = new ArrayList<TransactionOutput>(myUnspents.getDustCount());
+                addSpendCandidates(candidates, myUnspents.getDust(), excludeImmatureCoinbases, excludeUnsignable);
             } else {
                 candidates = calculateAllSpendCandidatesFromUTXOProvider(excludeImmatureCoinbases);
             }
             return candidates;
         } finally {
-            lock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    // Adds the outputs that pass the checks the index can't answer, as they change while the outputs are unspent.
+    private void addSpendCandidates(List<TransactionOutput> candidates, Iterable<TransactionOutput> outputs,
+                                    boolean excludeImmatureCoinbases, boolean excludeUnsignable) {
+        for (TransactionOutput output : outputs) {
+            if (output.isFrozen()) continue;
+            if (excludeImmatureCoinbases && !output.getParentTransaction().isMature()) continue;
+            if (excludeUnsignable && !canSignFor(output.getScriptPubKey())) continue;
+            candidates.add(output);
         }
     }
 
@@ -4643,7 +4721,7 @@ public class Wallet extends BaseTaggableObject
      * @return The list of candidates.
      */
     protected LinkedList<TransactionOutput> calculateAllSpendCandidatesFromUTXOProvider(boolean excludeImmatureCoinbases) {
-        checkState(lock.isHeldByCurrentThread());
+        checkState(isLockHeldByCurrentThread());
         UTXOProvider utxoProvider = checkNotNull(vUTXOProvider, "No UTXO provider has been set");
         LinkedList<TransactionOutput> candidates = new LinkedList<>();
         try {
@@ -4735,6 +4813,7 @@ public class Wallet extends BaseTaggableObject
         try {
             checkArgument(provider == null || provider.getParams().equals(params));
             this.vUTXOProvider = provider;
+            invalidateCachedBalances();
         } finally {
             lock.unlock();
         }
@@ -5103,6 +5182,22 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    @Override
+    public void getBloomFilterElements(List<byte[]> elements) {
+        beginBloomFilterCalculation();
+        try {
+            keyChainGroup.getBloomFilterElements(elements);
+            for (Script script : watchedScripts)
+                for (ScriptChunk chunk : script.getChunks())
+                    if (!chunk.isOpCode() && (chunk.data != null) && chunk.data.length >= MINIMUM_BLOOM_DATA_LENGTH)
+                        elements.add(chunk.data);
+            for (TransactionOutPoint point : bloomOutPoints)
+                elements.add(point.unsafeBitcoinSerialize());
+        } finally {
+            endBloomFilterCalculation();
+        }
+    }
+
     // Returns true if the output is one that won't be selected by a data element matching in the scriptSig.
     private boolean isTxOutputBloomFilterable(TransactionOutput out) {
         Script script = out.getScriptPubKey();
@@ -0,0 +1,321 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.wallet.selector;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.wallet.CoinSelection;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>A {@link CoinSelector} that looks for a set of outputs adding up to the target closely enough that no change
+ * output is needed, which makes for smaller transactions and doesn't leave a trail of tiny change outputs behind.</p>
+ *
+ * <p>The search is a depth first branch and bound over the outputs, largest first, accepting any set whose value is
+ * at least the target and at most the target plus the cost of change. Of those, it keeps the one that wastes least,
+ * counting both the value given up to fees and what the inputs cost to spend, so that an exact match of many small
+ * inputs doesn't win over a single input with change. It is bounded both by a number of tries and by a time budget. If
+ * it finds nothing better, the smallest output worth at least the target is used, or if there is none, a randomized
+ * knapsack approximation picks the set that overshoots the target the least. Either way, only outputs that
+ * {@link DefaultCoinSelector#isSelectable(Transaction)} accepts are used.</p>
+ *
+ * <p>Selection works on the values of the outputs. Fees are added to the target by the wallet, which asks again with
+ * a higher target if the inputs chosen make the transaction larger than estimated.</p>
+ */
+public class BranchAndBoundCoinSelector implements CoinSelector {
+    /** How many nodes of the search tree are visited at most. */
+    public static final int DEFAULT_MAX_TRIES = 100000;
+    /** How long the search and the knapsack fallback may take together at most, in milliseconds. */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 100;
+    private static final int KNAPSACK_ITERATIONS = 1000;
+    // Size of an input spending a P2PKH output with a compressed key.
+    private static final int P2PKH_INPUT_SIZE = 148;
+
+    private final Coin costOfChange;
+    private final Coin costPerInput;
+    private final int maxTries;
+    private final long timeBudgetNanos;
+    private final Random random = new Random();
+
+    /**
+     * Creates a selector that accepts overshooting the target by less than a dust output, which couldn't be given back
+     * as change anyway, and counts each input at what a P2PKH input costs at the default fee rate.
+     */
+    public BranchAndBoundCoinSelector() {
+        this(Transaction.MIN_NONDUST_OUTPUT.subtract(Coin.SATOSHI),
+                Transaction.DEFAULT_TX_FEE.multiply(P2PKH_INPUT_SIZE).divide(1000), DEFAULT_MAX_TRIES,
+                DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param costOfChange     How much more than the target a set of outputs may be worth and still count as an
+     *                         exact match. This is what creating a change output, and later spending it, would cost.
+     * @param costPerInput     What adding an input to the transaction costs in fees.
+     * @param maxTries         Maximum number of steps of the exact match search.
+     * @param timeBudgetMillis Maximum time the whole selection may take.
+     */
+    public BranchAndBoundCoinSelector(Coin costOfChange, Coin costPerInput, int maxTries, long timeBudgetMillis) {
+        checkArgument(costOfChange.signum() >= 0, "costOfChange must not be negative");
+        checkArgument(costPerInput.signum() >= 0, "costPerInput must not be negative");
+        checkArgument(maxTries > 0, "maxTries must be positive");
+        checkArgument(timeBudgetMillis > 0, "timeBudgetMillis must be positive");
+        this.costOfChange = costOfChange;
+        this.costPerInput = costPerInput;
+        this.maxTries = maxTries;
+        this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+    }
+
+    @Override
+    public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+        List<TransactionOutput> selectable = new ArrayList<>(candidates.size());
+        for (TransactionOutput output : candidates)
+            if (shouldSelect(output.getParentTransaction()))
+                selectable.add(output);
+        // When calculating the wallet balance, we may be asked to select all possible coins.
+        if (target.equals(NetworkParameters.MAX_MONEY))
+            return new CoinSelection(sum(selectable), selectable);
+        sortByValueDescending(selectable);
+        return selectSorted(target.value, selectable);
+    }
+
+    /**
+     * Selects inputs for several payments at once, for example a batch of payouts that go into separate transactions.
+     * The selections don't share any output. Targets are served largest first, as those have the fewest options; a
+     * selection gathering less than its target means the outputs left over after the larger payments weren't enough.
+     *
+     * @return one selection per target, in the order of the targets.
+     */
+    public List<CoinSelection> selectBatch(final List<Coin> targets, List<TransactionOutput> candidates) {
+        List<TransactionOutput> available = new ArrayList<>(candidates.size());
+        for (TransactionOutput output : candidates)
+            if (shouldSelect(output.getParentTransaction()))
+                available.add(output);
+        sortByValueDescending(available);
+
+        Integer[] order = new Integer[targets.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return targets.get(b).compareTo(targets.get(a));
+            }
+        });
+
+        CoinSelection[] selections = new CoinSelection[targets.size()];
+        for (int i : order) {
+            CoinSelection selection = selectSorted(checkNotNull(targets.get(i)).value, available);
+            selections[i] = selection;
+            if (selection.valueGathered.value >= targets.get(i).value) {
+                // Compare by identity, as outputs of one transaction that only differ by index all hash alike.
+                Set<TransactionOutput> used = Collections.newSetFromMap(new IdentityHashMap<TransactionOutput, Boolean>());
+                used.addAll(selection.gathered);
+                List<TransactionOutput> remaining = new ArrayList<>(available.size() - used.size());
+                for (TransactionOutput output : available)
+                    if (!used.contains(output))
+                        remaining.add(output);
+                available = remaining;
+            }
+        }
+        return Arrays.asList(selections);
+    }
+
+    /**
+     * Sub-classes can override this to just customize whether transactions are usable, but keep the search.
+     */
+    protected boolean shouldSelect(Transaction tx) {
+        if (tx != null) {
+            return DefaultCoinSelector.isSelectable(tx);
+        }
+        return true;
+    }
+
+    // The outputs must be sorted by value, largest first.
+    private CoinSelection selectSorted(long target, List<TransactionOutput> outputs) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        int n = outputs.size();
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++)
+            values[i] = outputs.get(i).getValue().value;
+        // remaining[i] is the value of outputs i and after.
+        long[] remaining = new long[n + 1];
+        for (int i = n - 1; i >= 0; i--)
+            remaining[i] = remaining[i + 1] + values[i];
+        if (remaining[0] < target)
+            return new CoinSelection(Coin.valueOf(remaining[0]), outputs);
+        if (target <= 0)
+            return new CoinSelection(Coin.ZERO, new ArrayList<TransactionOutput>());
+
+        // The smallest output worth at least the target: one input and a change output, which an exact match has to
+        // beat to be worth it.
+        int lowestLarger = firstAtMost(values, 0, target - 1) - 1;
+        long maxWaste = lowestLarger >= 0 ? costPerInput.value + costOfChange.value : Long.MAX_VALUE;
+        int[] exact = searchExactMatch(values, remaining, target, maxWaste, deadline);
+        if (exact != null)
+            return toSelection(outputs, values, exact);
+        if (lowestLarger >= 0)
+            return toSelection(outputs, values, new int[] { lowestLarger });
+        return toSelection(outputs, values, knapsack(values, target, deadline));
+    }
+
+    /**
+     * Branch and bound search for a set worth between the target and the target plus the cost of change, so that no
+     * change output is needed. Of the sets found, the one wasting least wins: the value overshooting the target plus
+     * what the inputs cost to spend. Returns the indexes of the outputs, or null if nothing wasting less than
+     * maxWaste was found.
+     */
+    private int[] searchExactMatch(long[] values, long[] remaining, long target, long maxWaste, long deadline) {
+        int n = values.length;
+        long upper = target + costOfChange.value;
+        // The outputs included so far, by index. Outputs up to depth that aren't in here are left out.
+        int[] included = new int[n];
+        int count = 0;
+        int[] best = null;
+        long bestWaste = maxWaste;
+        // Outputs worth more than the upper bound can never be part of a match.
+        int depth = firstAtMost(values, 0, upper);
+        long value = 0;
+        for (int tries = 0; tries < maxTries; tries++) {
+            if ((tries & 1023) == 1023 && System.nanoTime() > deadline)
+                break;
+            boolean backtrack = false;
+            if (value >= target) {
+                long waste = value - target + count * costPerInput.value;
+                if (waste < bestWaste) {
+                    best = Arrays.copyOf(included, count);
+                    bestWaste = waste;
+                }
+                // Adding more can only waste more.
+                backtrack = true;
+            } else if (value + remaining[depth] < target || (count + 1) * costPerInput.value >= bestWaste) {
+                // Can't reach the target any more, or can't do better than what was found already.
+                backtrack = true;
+            }
+            if (backtrack) {
+                // Go back to the last output included and try leaving it out instead.
+                if (count == 0)
+                    break;  // The whole tree has been searched.
+                int last = included[--count];
+                value -= values[last];
+                depth = last + 1;
+                // Including an output equal to the one just left out would only repeat that branch.
+                while (depth < n && values[depth] == values[last])
+                    depth++;
+            } else {
+                // Include the next output that still fits under the upper bound, leaving out any larger ones.
+                depth = firstAtMost(values, depth, upper - value);
+                if (depth == n)
+                    continue;  // Nothing fits, backtrack on the next round.
+                included[count++] = depth;
+                value += values[depth];
+                depth++;
+            }
+        }
+        return best;
+    }
+
+    // Returns the first index at or after from whose value is at most max, or the length if there is none. The values
+    // must be sorted largest first.
+    private static int firstAtMost(long[] values, int from, long max) {
+        int low = from, high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] > max)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Picks a set of outputs smaller than the target that overshoots it the least it can find in repeated random
+     * passes. Assumes they are worth at least the target together. At least one pass is made even if the deadline has
+     * passed, so that it doesn't return all of the outputs.
+     */
+    private int[] knapsack(long[] values, long target, long deadline) {
+        int n = values.length;
+        boolean[] best = new boolean[n];
+        long bestValue = 0;
+        for (int i = 0; i < n; i++) {
+            best[i] = true;
+            bestValue += values[i];
+        }
+        boolean[] included = new boolean[n];
+        for (int iteration = 0; iteration < KNAPSACK_ITERATIONS && bestValue != target; iteration++) {
+            if (iteration > 0 && System.nanoTime() > deadline)
+                break;
+            Arrays.fill(included, false);
+            long value = 0;
+            boolean reachedTarget = false;
+            // First pass picks outputs at random, the second fills up with the ones left out, largest first.
+            for (int pass = 0; pass < 2 && !reachedTarget; pass++) {
+                for (int i = 0; i < n; i++) {
+                    if (pass == 0 ? random.nextBoolean() : !included[i]) {
+                        value += values[i];
+                        included[i] = true;
+                        if (value >= target) {
+                            reachedTarget = true;
+                            if (value < bestValue) {
+                                bestValue = value;
+                                System.arraycopy(included, 0, best, 0, n);
+                            }
+                            value -= values[i];
+                            included[i] = false;
+                        }
+                    }
+                }
+            }
+        }
+        int count = 0;
+        for (boolean b : best)
+            if (b) count++;
+        int[] indexes = new int[count];
+        for (int i = 0, j = 0; i < n; i++)
+            if (best[i])
+                indexes[j++] = i;
+        return indexes;
+    }
+
+    private static CoinSelection toSelection(List<TransactionOutput> outputs, long[] values, int[] indexes) {
+        List<TransactionOutput> gathered = new ArrayList<>(indexes.length);
+        long total = 0;
+        for (int i : indexes) {
+            gathered.add(outputs.get(i));
+            total += values[i];
+        }
+        return new CoinSelection(Coin.valueOf(total), gathered);
+    }
+
+    private static void sortByValueDescending(List<TransactionOutput> outputs) {
+        Collections.sort(outputs, new Comparator<TransactionOutput>() {
+            @Override
+            public int compare(TransactionOutput a, TransactionOutput b) {
+                return Long.compare(b.getValue().value, a.getValue().value);
+            }
+        });
+    }
+
+    private static Coin sum(List<TransactionOutput> outputs) {
+        long total = 0;
+        for (TransactionOutput output : outputs)
+            total += output.getValue().value;
+        return Coin.valueOf(total);
+    }
+}
@@ -21,10 +21,7 @@ import org.bitcoincashj.core.*;
 import org.bitcoincashj.wallet.CoinSelection;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 /**
  * This class implements a {@link CoinSelector} which attempts to get the highest priority
@@ -38,20 +35,18 @@ public class DefaultCoinSelector implements CoinSelector {
     @Override
     public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
         ArrayList<TransactionOutput> selected = new ArrayList<>();
-        // Sort the inputs by age*value so we get the highest "coindays" spent.
-        // TODO: Consider changing the wallets internal format to track just outputs and keep them ordered.
-        ArrayList<TransactionOutput> sortedOutputs = new ArrayList<>(candidates);
-        // When calculating the wallet balance, we may be asked to select all possible coins, if so, avoid sorting
+        // Take the inputs in order of age*value so we get the highest "coindays" spent. Usually only a few of them
+        // are needed, so rather than sorting all of them they are taken from a heap one by one until we have enough.
+        // When calculating the wallet balance, we may be asked to select all possible coins, if so, avoid ordering
         // them in order to improve performance.
         // TODO: Take in network parameters when instanatiated, and then test against the current network. Or just have a boolean parameter for "give me everything"
-        if (!target.equals(NetworkParameters.MAX_MONEY)) {
-            sortOutputs(sortedOutputs);
-        }
-        // Now iterate over the sorted outputs until we have got as close to the target as possible or a little
+        Iterator<TransactionOutput> outputs = target.equals(NetworkParameters.MAX_MONEY) ? candidates.iterator()
+                : new PriorityIterator(candidates);
+        // Now iterate over the outputs until we have got as close to the target as possible or a little
         // bit over (excessive value will be change).
         long total = 0;
-        for (TransactionOutput output : sortedOutputs) {
-            if (total >= target.value) break;
+        while (total < target.value && outputs.hasNext()) {
+            TransactionOutput output = outputs.next();
             // Only pick chain-included transactions, or transactions that are ours and pending.
             if (!shouldSelect(output.getParentTransaction())) continue;
             selected.add(output);
@@ -64,26 +59,74 @@ public class DefaultCoinSelector implements CoinSelector {
 
     @VisibleForTesting
     public static void sortOutputs(ArrayList<TransactionOutput> outputs) {
-        Collections.sort(outputs, new Comparator<TransactionOutput>() {
-            @Override
-            public int compare(TransactionOutput a, TransactionOutput b) {
-                int depth1 = a.getParentTransactionDepthInBlocks();
-                int depth2 = b.getParentTransactionDepthInBlocks();
-                Coin aValue = a.getValue();
-                Coin bValue = b.getValue();
-                BigInteger aCoinDepth = BigInteger.valueOf(aValue.value).multiply(BigInteger.valueOf(depth1));
-                BigInteger bCoinDepth = BigInteger.valueOf(bValue.value).multiply(BigInteger.valueOf(depth2));
-                int c1 = bCoinDepth.compareTo(aCoinDepth);
-                if (c1 != 0) return c1;
-                // The "coin*days" destroyed are equal, sort by value alone to get the lowest transaction size.
-                int c2 = bValue.compareTo(aValue);
-                if (c2 != 0) return c2;
-                // They are entirely equivalent (possibly pending) so sort by hash to ensure a total ordering.
-                BigInteger aHash = a.getParentTransactionHash().toBigInteger();
-                BigInteger bHash = b.getParentTransactionHash().toBigInteger();
-                return aHash.compareTo(bHash);
-            }
-        });
+        PriorityIterator it = new PriorityIterator(outputs);
+        outputs.clear();
+        while (it.hasNext())
+            outputs.add(it.next());
+    }
+
+    /**
+     * An output with the keys it is ordered by, which are worked out once rather than on every comparison. The
+     * position in the candidate list comes last, so that outputs that are otherwise equal keep their order.
+     */
+    private static class PrioritizedOutput implements Comparable<PrioritizedOutput> {
+        final TransactionOutput output;
+        final BigInteger coinDepth;
+        final long value;
+        final BigInteger hash;
+        final int position;
+
+        PrioritizedOutput(TransactionOutput output, int position) {
+            this.output = output;
+            this.value = output.getValue().value;
+            this.coinDepth = BigInteger.valueOf(value)
+                    .multiply(BigInteger.valueOf(output.getParentTransactionDepthInBlocks()));
+            this.hash = output.getParentTransactionHash().toBigInteger();
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(PrioritizedOutput other) {
+            int c1 = other.coinDepth.compareTo(coinDepth);
+            if (c1 != 0) return c1;
+            // The "coin*days" destroyed are equal, sort by value alone to get the lowest transaction size.
+            int c2 = Long.compare(other.value, value);
+            if (c2 != 0) return c2;
+            // They are entirely equivalent (possibly pending) so sort by hash to ensure a total ordering.
+            int c3 = hash.compareTo(other.hash);
+            if (c3 != 0) return c3;
+            return Integer.compare(position, other.position);
+        }
+    }
+
+    /** Hands out outputs highest priority first. Building the heap is linear, each output taken is logarithmic. */
+    private static class PriorityIterator implements Iterator<TransactionOutput> {
+        private final PriorityQueue<PrioritizedOutput> queue;
+
+        PriorityIterator(List<TransactionOutput> outputs) {
+            List<PrioritizedOutput> prioritized = new ArrayList<>(outputs.size());
+            for (TransactionOutput output : outputs)
+                prioritized.add(new PrioritizedOutput(output, prioritized.size()));
+            queue = new PriorityQueue<>(prioritized);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public TransactionOutput next() {
+            PrioritizedOutput next = queue.poll();
+            if (next == null)
+                throw new NoSuchElementException();
+            return next.output;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     /**
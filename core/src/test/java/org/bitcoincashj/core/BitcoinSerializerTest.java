@@ -17,6 +17,7 @@
 
 package org.bitcoincashj.core;
 
+import org.bitcoincashj.net.SerializedMessage;
 import org.bitcoincashj.params.MainNetParams;
 import org.bitcoincashj.params.TestNet3Params;
 import org.junit.Test;
@@ -202,6 +203,24 @@ public class BitcoinSerializerTest {
         assertArrayEquals(headersMessageBytes, serializedBytes);
     }
 
+    @Test
+    public void serializeToBufferMatchesStream() throws Exception {
+        MessageSerializer serializer = MAINNET.getDefaultSerializer();
+        Transaction tx = new Transaction(MAINNET);
+        tx.addOutput(Coin.COIN, Address.fromKey(MAINNET, new ECKey()));
+        for (Message message : new Message[]{tx, new Ping(42)}) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            serializer.serialize(message, expected);
+            SerializedMessage serialized = serializer.serializeToBuffer(message);
+            assertTrue(serialized.buffer().isDirect());
+            assertEquals(expected.size(), serialized.length());
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            serialized.writeTo(actual);
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            serialized.release();
+        }
+    }
+
     @Test(expected = BufferUnderflowException.class)
     public void testBitcoinPacketHeaderTooShort() {
         new BitcoinSerializer.BitcoinPacketHeader(ByteBuffer.wrap(new byte[]{0}));
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.params.RegTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.bitcoincashj.store.MemoryFullPrunedBlockStore;
+import org.bitcoincashj.utils.VersionTally;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.bitcoincashj.core.Coin.FIFTY_COINS;
+import static org.bitcoincashj.crypto.SchnorrSignature.schnorr_sign;
+import static org.bitcoincashj.script.ScriptOpCodes.*;
+import static org.junit.Assert.*;
+
+public class FullPrunedBlockChainBatchVerifyTest {
+    // Signatures are only tried as Schnorr signatures when strict encoding is required.
+    private static final NetworkParameters REGTEST = new RegTestParams() {
+        @Override
+        public EnumSet<Script.VerifyFlag> getTransactionVerificationFlags(Block block, Transaction transaction,
+                                                                          VersionTally tally, Integer height) {
+            EnumSet<Script.VerifyFlag> verifyFlags = super.getTransactionVerificationFlags(block, transaction, tally,
+                    height);
+            verifyFlags.add(Script.VerifyFlag.STRICTENC);
+            return verifyFlags;
+        }
+    };
+
+    private MemoryFullPrunedBlockStore store;
+    private FullPrunedBlockChain chain;
+    private ECKey key;
+    private Block head;
+    private int height;
+    private Transaction coinbase;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(REGTEST));
+        store = new MemoryFullPrunedBlockStore(REGTEST, 10);
+        chain = new FullPrunedBlockChain(REGTEST, store);
+        key = new ECKey();
+        head = REGTEST.getGenesisBlock();
+        for (int i = 0; i <= REGTEST.getSpendableCoinbaseDepth(); i++) {
+            head = nextBlock(head);
+            assertTrue(chain.add(head));
+            if (coinbase == null)
+                coinbase = head.getTransactions().get(0);
+        }
+    }
+
+    @Test
+    public void droppedInvalidSignatureWithBatch() throws Exception {
+        assertTrue(spendWithInvalidSignature(true));
+    }
+
+    @Test
+    public void droppedInvalidSignatureWithoutBatch() throws Exception {
+        chain.setBatchVerifySignatures(false);
+        assertTrue(spendWithInvalidSignature(true));
+    }
+
+    @Test
+    public void checkedInvalidSignatureWithBatch() throws Exception {
+        try {
+            spendWithInvalidSignature(false);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+    }
+
+    // Spends an output checking a signature, with a well formed Schnorr signature of another message.
+    private boolean spendWithInvalidSignature(boolean dropResult) throws Exception {
+        ScriptBuilder builder = new ScriptBuilder().data(key.getPubKey()).op(OP_CHECKSIG);
+        if (dropResult)
+            builder.op(OP_DROP).opTrue();
+        Script scriptPubKey = builder.build();
+        Transaction fund = new Transaction(REGTEST);
+        fund.addOutput(FIFTY_COINS, scriptPubKey);
+        fund.addSignedInput(coinbase.getOutput(0), coinbase.getOutput(0).getValue(), key);
+        head = nextBlock(head);
+        head.addTransaction(fund);
+        head.solve();
+        assertTrue(chain.add(head));
+
+        byte[] signature = Arrays.copyOf(schnorr_sign(Sha256Hash.hash(new byte[] {1}), key.getPrivKey()), 65);
+        signature[64] = (byte) (Transaction.SigHash.ALL.value | Transaction.SigHash.FORKID.value);
+        Transaction spend = new Transaction(REGTEST);
+        spend.addOutput(FIFTY_COINS, key);
+        spend.addInput(fund.getOutput(0)).setScriptSig(new ScriptBuilder().data(signature).build());
+        head = nextBlock(head);
+        head.addTransaction(spend);
+        head.solve();
+        return chain.add(head);
+    }
+
+    private Block nextBlock(Block prev) {
+        return prev.createNextBlockWithCoinbase(Block.BLOCK_VERSION_BIP66, key.getPubKey(), FIFTY_COINS, ++height);
+    }
+}
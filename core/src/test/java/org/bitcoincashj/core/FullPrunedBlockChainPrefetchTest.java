@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.params.RegTestParams;
+import org.bitcoincashj.store.BlockStoreException;
+import org.bitcoincashj.store.MemoryFullPrunedBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bitcoincashj.core.Coin.FIFTY_COINS;
+import static org.junit.Assert.*;
+
+public class FullPrunedBlockChainPrefetchTest {
+    private static final NetworkParameters REGTEST = RegTestParams.get();
+
+    private PrefetchCountingStore store;
+    private FullPrunedBlockChain chain;
+    private ECKey key;
+    private Block head;
+    private int height;
+    // Coinbase transactions old enough to be spent, oldest first.
+    private List<Transaction> coinbases;
+
+    // Counts the outputs looked up by threads other than the one that created it, and fails them if asked to.
+    private static class PrefetchCountingStore extends MemoryFullPrunedBlockStore {
+        final Thread owner = Thread.currentThread();
+        final AtomicInteger prefetched = new AtomicInteger();
+        volatile boolean failPrefetch;
+
+        PrefetchCountingStore(NetworkParameters params, int fullStoreDepth) {
+            super(params, fullStoreDepth);
+        }
+
+        @Override
+        public synchronized UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+            if (Thread.currentThread() != owner) {
+                prefetched.incrementAndGet();
+                if (failPrefetch)
+                    throw new BlockStoreException("Timeout trying to lock table");
+            }
+            return super.getTransactionOutput(hash, index);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(REGTEST));
+        store = new PrefetchCountingStore(REGTEST, 10);
+        chain = new FullPrunedBlockChain(REGTEST, store);
+        chain.setPrefetchThreads(2);
+        key = new ECKey();
+        head = REGTEST.getGenesisBlock();
+        coinbases = new ArrayList<>();
+        for (int i = 0; i < REGTEST.getSpendableCoinbaseDepth() + 3; i++) {
+            head = nextBlock(head);
+            assertTrue(chain.add(head));
+            coinbases.add(head.getTransactions().get(0));
+        }
+    }
+
+    @Test
+    public void nextBlockIsPrefetched() throws Exception {
+        Block block = spend(nextBlock(head), coinbases.get(0));
+        Block next = spend(nextBlock(block), coinbases.get(1));
+        chain.prefetchOutputs(block);
+        chain.prefetchOutputs(next);
+        assertTrue(chain.add(block));
+        assertTrue(chain.add(next));
+        assertEquals(2, store.prefetched.get());
+        assertNull(store.getTransactionOutput(coinbases.get(0).getTxId(), 0));
+        assertNull(store.getTransactionOutput(coinbases.get(1).getTxId(), 0));
+        assertEquals(next.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+    }
+
+    @Test
+    public void failedPrefetchIsLookedUpAgain() throws Exception {
+        Block block = spend(nextBlock(head), coinbases.get(0));
+        store.failPrefetch = true;
+        chain.prefetchOutputs(block);
+        assertTrue(chain.add(block));
+        assertEquals(1, store.prefetched.get());
+        assertNull(store.getTransactionOutput(coinbases.get(0).getTxId(), 0));
+    }
+
+    @Test
+    public void outputCreatedByPreviousBlock() throws Exception {
+        Block block = spend(nextBlock(head), coinbases.get(0));
+        Transaction created = block.getTransactions().get(1);
+        Block next = spend(nextBlock(block), created);
+        // Looked up before the output exists.
+        chain.prefetchOutputs(next);
+        assertTrue(chain.add(block));
+        assertTrue(chain.add(next));
+        assertNull(store.getTransactionOutput(created.getTxId(), 0));
+    }
+
+    @Test
+    public void outputSpentByPreviousBlock() throws Exception {
+        Block block = spend(nextBlock(head), coinbases.get(0));
+        Block next = nextBlock(block);
+        next.addTransaction(spendTransaction(coinbases.get(0), FIFTY_COINS.divide(2)));
+        next.solve();
+        // Looked up before the output is spent.
+        chain.prefetchOutputs(next);
+        Thread.sleep(100);
+        assertTrue(chain.add(block));
+        try {
+            chain.add(next);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        assertEquals(block.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+    }
+
+    @Test
+    public void outputSpentTwiceInBlock() throws Exception {
+        Block block = nextBlock(head);
+        block.addTransaction(spendTransaction(coinbases.get(0), FIFTY_COINS));
+        block.addTransaction(spendTransaction(coinbases.get(0), FIFTY_COINS.divide(2)));
+        block.solve();
+        try {
+            chain.add(block);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        assertNotNull(store.getTransactionOutput(coinbases.get(0).getTxId(), 0));
+    }
+
+    @Test
+    public void reorganize() throws Exception {
+        Block fork = head;
+        int forkHeight = height;
+        Block block = spend(nextBlock(fork), coinbases.get(0));
+        assertTrue(chain.add(block));
+        // The other chain spends the same output, which the reorganization makes unspent again.
+        height = forkHeight;
+        Block other = nextBlock(fork);
+        other.addTransaction(spendTransaction(coinbases.get(0), FIFTY_COINS.divide(2)));
+        other.solve();
+        Block otherNext = nextBlock(other);
+        Block otherHead = spend(nextBlock(otherNext), coinbases.get(1));
+        chain.prefetchOutputs(otherHead);
+        chain.add(other);
+        chain.add(otherNext);
+        assertTrue(chain.add(otherHead));
+        assertEquals(otherHead.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+        assertNull(store.getTransactionOutput(coinbases.get(0).getTxId(), 0));
+        assertNull(store.getTransactionOutput(coinbases.get(1).getTxId(), 0));
+        assertNull(store.getTransactionOutput(block.getTransactions().get(1).getTxId(), 0));
+        assertNotNull(store.getTransactionOutput(other.getTransactions().get(1).getTxId(), 0));
+    }
+
+    private Block nextBlock(Block prev) {
+        return prev.createNextBlockWithCoinbase(Block.BLOCK_VERSION_BIP66, key.getPubKey(), FIFTY_COINS, ++height);
+    }
+
+    private Block spend(Block block, Transaction from) {
+        block.addTransaction(spendTransaction(from, FIFTY_COINS));
+        block.solve();
+        return block;
+    }
+
+    private Transaction spendTransaction(Transaction from, Coin value) {
+        Transaction tx = new Transaction(REGTEST);
+        tx.addOutput(value, key);
+        tx.addSignedInput(from.getOutput(0), from.getOutput(0).getValue(), key);
+        return tx;
+    }
+}
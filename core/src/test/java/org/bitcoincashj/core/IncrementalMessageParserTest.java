@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoincashj.net.ByteBufferPool;
+import org.bitcoincashj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IncrementalMessageParserTest {
+    private static final NetworkParameters MAINNET = MainNetParams.get();
+
+    private MessageSerializer serializer;
+    private ByteBufferPool pool;
+    private IncrementalMessageParser parser;
+    private Block block;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(MAINNET));
+        serializer = MAINNET.getDefaultSerializer();
+        pool = new ByteBufferPool(false);
+        parser = new IncrementalMessageParser(serializer, pool);
+        block = serializer.makeBlock(ByteStreams.toByteArray(getClass().getResourceAsStream("block481815.dat")));
+    }
+
+    @Test
+    public void messagesSplitAcrossReads() throws Exception {
+        Transaction tx = block.getTransactions().get(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // Bitcoin Core sometimes sends bytes that aren't part of any message.
+        stream.write(new byte[] {1, 2, 3});
+        serializer.serialize(new Ping(1), stream);
+        serializer.serialize(block, stream);
+        serializer.serialize(tx, stream);
+        serializer.serialize(new Ping(2), stream);
+
+        List<Message> messages = feed(stream.toByteArray(), 1000, new Random(1));
+        assertEquals(4, messages.size());
+        assertEquals(1, ((Ping) messages.get(0)).getNonce());
+        Block received = (Block) messages.get(1);
+        assertEquals(block.getHash(), received.getHash());
+        assertEquals(block.getTransactions(), received.getTransactions());
+        assertEquals(tx.getTxId(), ((Transaction) messages.get(2)).getTxId());
+        assertEquals(2, ((Ping) messages.get(3)).getNonce());
+
+        assertEquals(4, parser.getMessageCount());
+        assertEquals(8 + block.getMessageSize() + tx.getMessageSize() + 8, parser.getBytesCopied());
+    }
+
+    @Test
+    public void pooledPayloadIsReused() throws Exception {
+        // Two transactions of the same size class, so the second is read into the buffer of the first.
+        List<Transaction> candidates = new ArrayList<>();
+        for (Transaction tx : block.getTransactions())
+            if (tx.getMessageSize() > ByteBufferPool.MIN_BUFFER_SIZE && tx.getMessageSize() <= 2 * ByteBufferPool.MIN_BUFFER_SIZE)
+                candidates.add(tx);
+        Transaction first = candidates.get(0);
+        Transaction second = candidates.get(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.serialize(first, stream);
+        serializer.serialize(second, stream);
+
+        List<Message> messages = feed(stream.toByteArray(), 1000, new Random(2));
+        assertEquals(2, messages.size());
+        // Reading the second into the buffer must not have changed the first.
+        assertEquals(first.getTxId(), ((Transaction) messages.get(0)).getTxId());
+        assertArrayEquals(first.bitcoinSerialize(), messages.get(0).bitcoinSerialize());
+        assertEquals(second.getTxId(), ((Transaction) messages.get(1)).getTxId());
+        assertEquals(1, pool.getIdleCount(first.getMessageSize()));
+    }
+
+    @Test
+    public void badChecksum() throws Exception {
+        Transaction tx = block.getTransactions().get(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.serialize(tx, stream);
+        byte[] bytes = stream.toByteArray();
+        bytes[bytes.length - 1]++;
+        try {
+            feed(bytes, 1000, new Random(4));
+            fail();
+        } catch (ProtocolException e) {
+            // Expected.
+        }
+        assertEquals(1, pool.getIdleCount(tx.getMessageSize()));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void noHeaderInFullBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        parser.parse(buffer);
+    }
+
+    @Test
+    public void incompleteHeaderIsLeftInBuffer() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.serialize(new Ping(3), stream);
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        buffer.put(stream.toByteArray(), 0, 10);
+        buffer.flip();
+        assertNull(parser.parse(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    // Passes the bytes through a read buffer of the given size in pieces of random length, as a connection would.
+    private List<Message> feed(byte[] bytes, int bufferSize, Random random) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        List<Message> messages = new ArrayList<>();
+        int position = 0;
+        while (position < bytes.length) {
+            int count = Math.min(Math.min(buffer.remaining(), 1 + random.nextInt(bufferSize)), bytes.length - position);
+            buffer.put(bytes, position, count);
+            position += count;
+            buffer.flip();
+            Message message;
+            while ((message = parser.parse(buffer)) != null)
+                messages.add(message);
+            buffer.compact();
+        }
+        return messages;
+    }
+}
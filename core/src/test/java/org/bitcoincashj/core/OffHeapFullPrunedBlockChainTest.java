@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import org.bitcoincashj.store.BlockStoreException;
+import org.bitcoincashj.store.FullPrunedBlockStore;
+import org.bitcoincashj.store.OffHeapFullPrunedBlockStore;
+
+/**
+ * An OffHeapFullPrunedBlockStore implementation of the FullPrunedBlockStoreTest
+ */
+public class OffHeapFullPrunedBlockChainTest extends AbstractFullPrunedBlockChainTest {
+    @Override
+    public FullPrunedBlockStore createStore(NetworkParameters params, int blockCount) throws BlockStoreException {
+        return new OffHeapFullPrunedBlockStore(params, blockCount);
+    }
+
+    @Override
+    public void resetStore(FullPrunedBlockStore store) throws BlockStoreException {
+        //No-op for memory store, because it's not persistent
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.core;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoincashj.core.listeners.PeerDisconnectedEventListener;
+import org.bitcoincashj.net.NioClientManager;
+import org.bitcoincashj.net.NioServer;
+import org.bitcoincashj.net.StreamConnection;
+import org.bitcoincashj.net.StreamConnectionFactory;
+import org.bitcoincashj.params.RegTestParams;
+import org.bitcoincashj.store.MemoryBlockStore;
+import org.bitcoincashj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downloads a synthetic chain of headers from peers in this process, which serve it over loopback connections.
+ */
+public class ParallelHeaderDownloadTest {
+    private static final NetworkParameters REGTEST = RegTestParams.get();
+    private static final int HEIGHT = 10000;
+
+    private static final List<Block> headers = new ArrayList<>();
+    private static final Map<Sha256Hash, Integer> heights = new HashMap<>();
+
+    private BlockChain chain;
+    private ListeningExecutorService verifier;
+    private NioClientManager clientManager;
+    private final List<NioServer> servers = new ArrayList<>();
+
+    // The remote side of a connection, which serves the synthetic chain.
+    private static class HeaderServer extends PeerSocketHandler {
+        final AtomicInteger requests = new AtomicInteger();
+        final boolean tamper;
+        // Doesn't answer getheaders requests if set.
+        volatile boolean silent;
+
+        HeaderServer(InetSocketAddress remote, boolean tamper) {
+            super(REGTEST, remote);
+            this.tamper = tamper;
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            if (m instanceof VersionMessage) {
+                VersionMessage version = new VersionMessage(REGTEST, HEIGHT);
+                version.localServices = VersionMessage.NODE_NETWORK | VersionMessage.NODE_BITCOIN_CASH;
+                sendMessage(version);
+                sendMessage(new VersionAck());
+            } else if (m instanceof GetHeadersMessage) {
+                requests.incrementAndGet();
+                if (silent)
+                    return;
+                GetHeadersMessage request = (GetHeadersMessage) m;
+                List<Block> answer = new ArrayList<>();
+                Integer from = heights.get(request.getLocator().get(0));
+                for (int height = from + 1; height <= HEIGHT && answer.size() < HeadersMessage.MAX_HEADERS; height++) {
+                    Block header = headers.get(height);
+                    answer.add(header);
+                    if (header.getHash().equals(request.getStopHash()))
+                        break;
+                }
+                if (tamper && !answer.isEmpty()) {
+                    Block tampered = answer.get(answer.size() / 2).cloneAsHeader();
+                    tampered.setNonce(tampered.getNonce() + 1);
+                    answer.set(answer.size() / 2, tampered);
+                }
+                sendMessage(new HeadersMessage(REGTEST, answer));
+            }
+        }
+
+        @Override
+        protected void timeoutOccurred() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Context.propagate(new Context(REGTEST));
+        Block prev = REGTEST.getGenesisBlock().cloneAsHeader();
+        headers.add(prev);
+        heights.put(prev.getHash(), 0);
+        for (int height = 1; height <= HEIGHT; height++) {
+            prev = prev.createNextBlock(null, Block.BLOCK_VERSION_BIP66, 0, height).cloneAsHeader();
+            headers.add(prev);
+            heights.put(prev.getHash(), height);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(REGTEST));
+        chain = new BlockChain(REGTEST, new MemoryBlockStore(REGTEST));
+        verifier = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+        clientManager = new NioClientManager();
+        clientManager.startAsync().awaitRunning();
+    }
+
+    @After
+    public void tearDown() {
+        clientManager.stopAsync().awaitTerminated();
+        for (NioServer server : servers)
+            server.stopAsync().awaitTerminated();
+        verifier.shutdown();
+    }
+
+    @Test
+    public void downloadsRangesFromSeveralPeers() throws Exception {
+        List<HeaderServer> remotes = new ArrayList<>();
+        List<Peer> peers = connectPeers(3, false, remotes);
+        StoredBlock head = newDownload(2500, 5000, 7500).download(peers);
+        assertEquals(HEIGHT, head.getHeight());
+        assertEquals(headers.get(HEIGHT), head.getHeader());
+        for (HeaderServer remote : remotes)
+            assertTrue(remote.requests.get() > 0);
+    }
+
+    @Test
+    public void peerServingBadHeadersIsDropped() throws Exception {
+        List<Peer> peers = connectPeers(1, true, new ArrayList<HeaderServer>());
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        peers.get(0).addDisconnectedEventListener(Threading.SAME_THREAD, new PeerDisconnectedEventListener() {
+            @Override
+            public void onPeerDisconnected(Peer peer, int peerCount) {
+                disconnected.countDown();
+            }
+        });
+        peers.addAll(connectPeers(2, false, new ArrayList<HeaderServer>()));
+        StoredBlock head = newDownload(2500, 5000, 7500).download(peers);
+        assertEquals(HEIGHT, head.getHeight());
+        assertEquals(headers.get(HEIGHT), head.getHeader());
+        assertTrue(disconnected.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unansweredRequestsFailWhenDisconnected() throws Exception {
+        List<HeaderServer> remotes = new ArrayList<>();
+        Peer peer = connectPeers(1, false, remotes).get(0);
+        remotes.get(0).silent = true;
+        ListenableFuture<List<Block>> future = peer.getBlockHeaders(headers.get(0).getHash(), Sha256Hash.ZERO_HASH);
+        peer.close();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PeerException);
+        }
+    }
+
+    @Test
+    public void onlyBadPeers() throws Exception {
+        List<Peer> peers = connectPeers(2, true, new ArrayList<HeaderServer>());
+        // Each peer's first batch fails, so nothing gets added.
+        assertEquals(0, newDownload(5000).download(peers).getHeight());
+    }
+
+    @Test
+    public void stopsAtStopTime() throws Exception {
+        List<Peer> peers = connectPeers(2, false, new ArrayList<HeaderServer>());
+        ParallelHeaderDownload download = newDownload(2500, 5000, 7500);
+        download.setStopTimeSecs(headers.get(4321).getTimeSeconds());
+        assertEquals(4320, download.download(peers).getHeight());
+    }
+
+    @Test
+    public void carriesOnFromChainHead() throws Exception {
+        for (int height = 1; height <= 6000; height++)
+            assertTrue(chain.add(headers.get(height)));
+        List<HeaderServer> remotes = new ArrayList<>();
+        List<Peer> peers = connectPeers(2, false, remotes);
+        StoredBlock head = newDownload(2500, 5000, 7500).download(peers);
+        assertEquals(HEIGHT, head.getHeight());
+        // One request up to the checkpoint at 7500, and two after it.
+        assertEquals(3, remotes.get(0).requests.get() + remotes.get(1).requests.get());
+    }
+
+    private ParallelHeaderDownload newDownload(int... checkpointHeights) {
+        Map<Integer, Sha256Hash> checkpoints = new HashMap<>();
+        for (int height : checkpointHeights)
+            checkpoints.put(height, headers.get(height).getHash());
+        return new ParallelHeaderDownload(chain, checkpoints, verifier);
+    }
+
+    // Starts the given number of servers, and returns peers connected to them which have finished their handshake.
+    private List<Peer> connectPeers(int count, final boolean tamper, final List<HeaderServer> remotes)
+            throws Exception {
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            NioServer server = new NioServer(new StreamConnectionFactory() {
+                @Override
+                public StreamConnection getNewConnection(InetAddress inetAddress, int port) {
+                    HeaderServer remote = new HeaderServer(new InetSocketAddress(inetAddress, port), tamper);
+                    remotes.add(remote);
+                    return remote;
+                }
+            }, address);
+            server.startAsync().awaitRunning();
+            servers.add(server);
+            Peer peer = new Peer(REGTEST, new VersionMessage(REGTEST, 0), new PeerAddress(REGTEST, address), chain);
+            clientManager.openConnection(address, peer);
+            peer.getVersionHandshakeFuture().get(10, TimeUnit.SECONDS);
+            peers.add(peer);
+        }
+        return peers;
+    }
+}
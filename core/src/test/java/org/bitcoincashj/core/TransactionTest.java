@@ -428,4 +428,57 @@ public class TransactionTest {
         tx = serializer.withProtocolVersion(protoVersionNoWitness).makeTransaction(HEX.decode(txHex));
         assertEquals(txHex, tx.toHexString());
     }
+
+    @Test
+    public void witnessSignatureHashBip143Vector() {
+        // Native P2WPKH example from BIP143, second input.
+        Transaction tx = UNITTEST.getDefaultSerializer().makeTransaction(HEX.decode(
+                "0100000002fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f0000000000eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac11000000"));
+        byte[] scriptCode = HEX.decode("76a9141d0f172a0ecb48aee1be1f2687d2963ae33f71a188ac");
+        Sha256Hash hash = tx.hashForSignatureWitness(1, scriptCode, Coin.valueOf(600000000), Transaction.SigHash.ALL,
+                false, false);
+        assertEquals("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670", hash.toString());
+    }
+
+    @Test
+    public void witnessSignatureHashFollowsMutations() {
+        Transaction tx = new Transaction(UNITTEST);
+        for (int i = 0; i < 3; i++)
+            tx.addInput(new TransactionInput(UNITTEST, tx, new byte[0],
+                    new TransactionOutPoint(UNITTEST, i, Sha256Hash.of(new byte[] { (byte) i }))));
+        tx.addOutput(Coin.COIN, ADDRESS);
+        tx.addOutput(Coin.CENT, ADDRESS);
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+
+        // Script sigs are not part of the signature hash, but a change to anything else must be picked up.
+        Sha256Hash before = tx.hashForSignatureWitness(0, new byte[0], Coin.COIN, Transaction.SigHash.ALL, false);
+        tx.getInput(1).setScriptSig(new ScriptBuilder().data(new byte[72]).build());
+        assertEquals(before, tx.hashForSignatureWitness(0, new byte[0], Coin.COIN, Transaction.SigHash.ALL, false));
+        tx.getInput(1).setSequenceNumber(0);
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+        tx.getOutput(1).setValue(Coin.MILLICOIN);
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+        tx.addOutput(Coin.SATOSHI, ADDRESS);
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+        tx.shuffleOutputs();
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+        tx.addInput(new TransactionInput(UNITTEST, tx, new byte[0],
+                new TransactionOutPoint(UNITTEST, 3, Sha256Hash.of(new byte[] { 3 }))));
+        assertWitnessSignatureHashesMatchFreshCopy(tx);
+        assertNotEquals(before, tx.hashForSignatureWitness(0, new byte[0], Coin.COIN, Transaction.SigHash.ALL, false));
+    }
+
+    private static void assertWitnessSignatureHashesMatchFreshCopy(Transaction tx) {
+        Transaction copy = UNITTEST.getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
+        byte[] scriptCode = ScriptBuilder.createOutputScript(ADDRESS).getProgram();
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            for (Transaction.SigHash type : new Transaction.SigHash[] { Transaction.SigHash.ALL, Transaction.SigHash.NONE,
+                    Transaction.SigHash.SINGLE }) {
+                for (boolean anyoneCanPay : new boolean[] { false, true }) {
+                    assertEquals(copy.hashForSignatureWitness(i, scriptCode, Coin.COIN, type, anyoneCanPay),
+                            tx.hashForSignatureWitness(i, scriptCode, Coin.COIN, type, anyoneCanPay));
+                }
+            }
+        }
+    }
 }
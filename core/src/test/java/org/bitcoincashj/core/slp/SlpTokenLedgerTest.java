@@ -0,0 +1,116 @@
+package org.bitcoincashj.core.slp;
+
+import com.google.common.base.Predicate;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.core.slp.opreturn.SlpOpReturnOutputSend;
+import org.bitcoincashj.testing.TestWithWallet;
+import org.bitcoincashj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.bitcoincashj.core.Coin.COIN;
+import static org.bitcoincashj.testing.FakeTxBuilder.createFakeTx;
+import static org.junit.Assert.*;
+
+public class SlpTokenLedgerTest extends TestWithWallet {
+    private static final String TOKEN_ID = "4de69e374a8ed21cbddd47f2338cc0f479dc58daa2bbe11cd604ca488eca0ddf";
+    private static final Coin DUST = Coin.valueOf(546);
+
+    private final Set<String> verifiedTxs = new HashSet<>();
+    private SlpTokenLedger ledger;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ledger = new SlpTokenLedger(wallet, new Predicate<String>() {
+            @Override
+            public boolean apply(String txId) {
+                return verifiedTxs.contains(txId);
+            }
+        });
+        ledger.addTo(wallet);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        ledger.removeFrom(wallet);
+        super.tearDown();
+    }
+
+    private Transaction tokenTx(TransactionOutput spent, long amount, long change, Address to) {
+        Transaction tx = new Transaction(UNITTEST);
+        tx.addOutput(Coin.ZERO, new SlpOpReturnOutputSend(TOKEN_ID, amount, change).getScript());
+        tx.addOutput(DUST, to);
+        if (change > 0)
+            tx.addOutput(DUST, myAddress);
+        tx.addInput(spent);
+        return tx;
+    }
+
+    @Test
+    public void receiveVerifyAndSpend() throws Exception {
+        Address other = Address.fromKey(UNITTEST, new ECKey());
+        Transaction funding = createFakeTx(UNITTEST, COIN, other);
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN,
+                tokenTx(funding.getOutput(0), 100, 50, myAddress));
+        Threading.waitForUserCode();
+
+        // Not verified yet, so nothing counts.
+        assertEquals(Collections.singleton(received.getTxId().toString()), ledger.getUnverifiedTxIds());
+        assertEquals(0, ledger.getRawBalance(SlpTokenLedger.Kind.TOKEN, TOKEN_ID));
+
+        verifiedTxs.add(received.getTxId().toString());
+        ledger.markVerified(ledger.getUnverifiedTxIds());
+        assertTrue(ledger.getUnverifiedTxIds().isEmpty());
+        assertEquals(150, ledger.getRawBalance(SlpTokenLedger.Kind.TOKEN, TOKEN_ID));
+        assertEquals(2, ledger.getUtxos(SlpTokenLedger.Kind.TOKEN).size());
+
+        // Spend the 100 token output to somebody else.
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, tokenTx(received.getOutput(1), 100, 0, other));
+        Threading.waitForUserCode();
+        assertEquals(50, ledger.getRawBalance(SlpTokenLedger.Kind.TOKEN, TOKEN_ID));
+        assertEquals(1, ledger.getUtxos(SlpTokenLedger.Kind.TOKEN).size());
+
+        // Reconciling again is a no-op, and a full reset agrees with the incremental state.
+        ledger.reconcile(received);
+        assertEquals(50, ledger.getRawBalance(SlpTokenLedger.Kind.TOKEN, TOKEN_ID));
+        ledger.reset(wallet.getAllDustUtxos(true, true));
+        assertEquals(50, ledger.getRawBalance(SlpTokenLedger.Kind.TOKEN, TOKEN_ID));
+        assertEquals(Collections.singletonMap(TOKEN_ID, 50L), ledger.getRawBalances(SlpTokenLedger.Kind.TOKEN));
+    }
+
+    @Test
+    public void unsignableOutputsDoNotCount() throws Exception {
+        ECKey watchingKey = ECKey.fromPublicOnly(new ECKey());
+        wallet.importKey(watchingKey);
+        Address watched = Address.fromKey(UNITTEST, watchingKey);
+        Transaction funding = createFakeTx(UNITTEST, COIN, Address.fromKey(UNITTEST, new ECKey()));
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN,
+                tokenTx(funding.getOutput(0), 100, 50, watched));
+        Threading.waitForUserCode();
+        verifiedTxs.add(received.getTxId().toString());
+        ledger.markVerified(ledger.getUnverifiedTxIds());
+
+        // Only the change can be signed for, and the incremental state agrees with a full reset.
+        assertEquals(Collections.singletonMap(TOKEN_ID, 50L), ledger.getRawBalances(SlpTokenLedger.Kind.TOKEN));
+        assertEquals(1, ledger.getUtxos(SlpTokenLedger.Kind.TOKEN).size());
+        ledger.reset(wallet.getAllDustUtxos(true, true));
+        assertEquals(Collections.singletonMap(TOKEN_ID, 50L), ledger.getRawBalances(SlpTokenLedger.Kind.TOKEN));
+        assertEquals(1, ledger.getUtxos(SlpTokenLedger.Kind.TOKEN).size());
+    }
+
+    @Test
+    public void ignoresNonSlpOutputs() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, DUST);
+        Threading.waitForUserCode();
+        assertTrue(ledger.getUnverifiedTxIds().isEmpty());
+        assertTrue(ledger.getRawBalances(SlpTokenLedger.Kind.TOKEN).isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package org.bitcoincashj.core.slp.cache;
+
+import org.bitcoincashj.core.Sha256Hash;
+import org.bitcoincashj.core.slp.SlpToken;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JournaledCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "test.txcache");
+    }
+
+    private static Sha256Hash txId(int i) {
+        return Sha256Hash.of(new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16)});
+    }
+
+    @Test
+    public void persistsAcrossReopen() throws Exception {
+        SlpVerifiedTxCache cache = new SlpVerifiedTxCache(file);
+        cache.add(txId(1));
+        cache.addAll(Arrays.asList(txId(2).toString(), txId(3).toString()));
+        cache.close();
+        // Each new txid is one length-prefixed 32 byte record.
+        assertEquals(3 * (4 + 32), file.length());
+
+        cache = new SlpVerifiedTxCache(file);
+        assertEquals(3, cache.size());
+        assertTrue(cache.contains(txId(1)));
+        assertTrue(cache.contains(txId(3).toString()));
+        assertFalse(cache.contains(txId(4)));
+        cache.close();
+    }
+
+    @Test
+    public void duplicatesAreNotJournaled() throws Exception {
+        SlpVerifiedTxCache cache = new SlpVerifiedTxCache(file);
+        cache.add(txId(1));
+        cache.add(txId(1));
+        cache.close();
+        assertEquals(4 + 32, file.length());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        SlpVerifiedTxCache cache = new SlpVerifiedTxCache(file, 2);
+        cache.add(txId(1));
+        cache.add(txId(2));
+        assertTrue(cache.contains(txId(1)));
+        cache.add(txId(3));
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(txId(1)));
+        assertFalse(cache.contains(txId(2)));
+        assertTrue(cache.contains(txId(3)));
+        cache.close();
+    }
+
+    @Test
+    public void compactsJournal() throws Exception {
+        SlpVerifiedTxCache cache = new SlpVerifiedTxCache(file, 10);
+        for (int i = 0; i < 2000; i++)
+            cache.add(txId(i));
+        cache.close();
+        // Evictions are dropped from the journal once it grows past the compaction threshold.
+        assertTrue(file.length() < 1100 * (4 + 32));
+
+        cache = new SlpVerifiedTxCache(file, 10);
+        assertEquals(10, cache.size());
+        assertTrue(cache.contains(txId(1999)));
+        assertFalse(cache.contains(txId(0)));
+        cache.close();
+    }
+
+    @Test
+    public void dropsTornRecord() throws Exception {
+        SlpVerifiedTxCache cache = new SlpVerifiedTxCache(file);
+        cache.add(txId(1));
+        cache.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 32, 1, 2, 3});
+        }
+
+        cache = new SlpVerifiedTxCache(file);
+        assertEquals(1, cache.size());
+        cache.add(txId(2));
+        cache.close();
+        assertEquals(2 * (4 + 32), file.length());
+    }
+
+    @Test
+    public void tokens() throws Exception {
+        SlpTokenCache.Tokens cache = new SlpTokenCache.Tokens(file);
+        cache.add(new SlpToken("aa", "TKN", 8));
+        cache.close();
+
+        cache = new SlpTokenCache.Tokens(file);
+        SlpToken token = cache.get("aa");
+        assertEquals("TKN", token.getTicker());
+        assertEquals(8, token.getDecimals());
+        assertNull(cache.get("bb"));
+        cache.close();
+    }
+}
@@ -0,0 +1,81 @@
+package org.bitcoincashj.crypto;
+
+import org.bitcoincashj.core.Sha256Hash;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.bitcoincashj.crypto.SchnorrSignature.*;
+import static org.junit.Assert.*;
+
+public class SchnorrBatchVerifierTest {
+    private static final int COUNT = 20;
+
+    private byte[][] msgs = new byte[COUNT][];
+    private byte[][] pubkeys = new byte[COUNT][];
+    private byte[][] sigs = new byte[COUNT][];
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < COUNT; i++) {
+            BigInteger seckey = toBigInteger(Sha256Hash.hash(new byte[]{(byte) i, 1})).mod(n);
+            msgs[i] = Sha256Hash.hash(new byte[]{(byte) i, 2});
+            pubkeys[i] = bytes_from_point(point_mul(G, seckey));
+            sigs[i] = schnorr_sign(msgs[i], seckey);
+        }
+    }
+
+    @Test
+    public void validBatch() {
+        SchnorrBatchVerifier batch = new SchnorrBatchVerifier();
+        assertTrue(batch.verify());
+        for (int i = 0; i < COUNT; i++)
+            assertTrue(batch.add(msgs[i], pubkeys[i], sigs[i]));
+        assertEquals(COUNT, batch.size());
+        assertTrue(batch.verify());
+    }
+
+    @Test
+    public void invalidSignatureFailsBatch() {
+        for (int bad = 0; bad < COUNT; bad += 7) {
+            SchnorrBatchVerifier batch = new SchnorrBatchVerifier();
+            for (int i = 0; i < COUNT; i++) {
+                // A signature for a different message is well formed, so it can only be caught by the batch.
+                byte[] msg = i == bad ? msgs[(i + 1) % COUNT] : msgs[i];
+                assertTrue(batch.add(msg, pubkeys[i], sigs[i]));
+            }
+            assertFalse(batch.verify());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedSignatures() {
+        SchnorrBatchVerifier batch = new SchnorrBatchVerifier();
+        // Wrong lengths.
+        assertFalse(batch.add(msgs[0], Arrays.copyOf(pubkeys[0], 32), sigs[0]));
+        assertFalse(batch.add(msgs[0], pubkeys[0], Arrays.copyOf(sigs[0], 63)));
+        // Uncompressed prefix.
+        byte[] pubkey = Arrays.copyOf(pubkeys[0], 33);
+        pubkey[0] = 4;
+        assertFalse(batch.add(msgs[0], pubkey, sigs[0]));
+        // s equal to the curve order.
+        byte[] sig = Arrays.copyOf(sigs[0], 64);
+        System.arraycopy(to32BytesData(n), 0, sig, 32, 32);
+        assertFalse(batch.add(msgs[0], pubkeys[0], sig));
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void addAllMovesSignatures() {
+        SchnorrBatchVerifier batch = new SchnorrBatchVerifier();
+        SchnorrBatchVerifier other = new SchnorrBatchVerifier();
+        batch.add(msgs[0], pubkeys[0], sigs[0]);
+        other.add(msgs[1], pubkeys[1], sigs[1]);
+        batch.addAll(other);
+        assertEquals(2, batch.size());
+        assertEquals(0, other.size());
+        assertTrue(batch.verify());
+    }
+}
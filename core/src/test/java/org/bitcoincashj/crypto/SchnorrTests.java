@@ -1,12 +1,18 @@
 package org.bitcoincashj.crypto;
 
+import org.bitcoincashj.core.Sha256Hash;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.Scanner;
 
+import static org.bitcoincashj.crypto.SchnorrSignature.*;
+import static org.junit.Assert.*;
+
 public class SchnorrTests {
     /*
     Credit goes to:
@@ -61,6 +67,7 @@ public class SchnorrTests {
                 System.out.println("All test vectors passed.");
             else
                 System.out.println("Some test vectors failed.");
+            assertTrue("Some test vectors failed.", all_passed);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } finally {
@@ -68,4 +75,46 @@ public class SchnorrTests {
                 scanner.close();
         }
     }
+
+    @Test
+    public void matchesAffineArithmetic() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            BigInteger seckey = new BigInteger(256, random).mod(n.subtract(BigInteger.ONE)).add(BigInteger.ONE);
+            byte[] msg = new byte[32];
+            random.nextBytes(msg);
+
+            byte[] sig = schnorr_sign(msg, seckey);
+            assertArrayEquals(referenceSign(msg, seckey), sig);
+            byte[] pubkey = bytes_from_point(point_mul(G, seckey));
+            assertTrue(schnorr_verify(msg, pubkey, sig));
+
+            // Tampering with any part must be rejected.
+            byte[] badSig = Arrays.copyOf(sig, 64);
+            badSig[63] ^= 1;
+            assertFalse(schnorr_verify(msg, pubkey, badSig));
+            byte[] badMsg = Arrays.copyOf(msg, 32);
+            badMsg[0] ^= 1;
+            assertFalse(schnorr_verify(badMsg, pubkey, sig));
+        }
+    }
+
+    /** Signs with the original affine point arithmetic. */
+    private static byte[] referenceSign(byte[] msg, BigInteger seckey) {
+        byte[] resultData = new byte[64];
+        System.arraycopy(to32BytesData(seckey), 0, resultData, 0, 32);
+        System.arraycopy(msg, 0, resultData, 32, 32);
+        BigInteger k0 = toBigInteger(Sha256Hash.hash(resultData)).mod(n);
+        BigInteger[] R = point_mul(G, k0);
+        BigInteger k = BigInteger.ONE.compareTo(jacobi(R[1])) != 0 ? n.subtract(k0) : k0;
+        byte[] eData = new byte[32 + 33 + 32];
+        System.arraycopy(to32BytesData(R[0]), 0, eData, 0, 32);
+        System.arraycopy(bytes_from_point(point_mul(G, seckey)), 0, eData, 32, 33);
+        System.arraycopy(msg, 0, eData, 65, 32);
+        BigInteger e = toBigInteger(Sha256Hash.hash(eData)).mod(n);
+        byte[] sig = new byte[64];
+        System.arraycopy(to32BytesData(R[0]), 0, sig, 0, 32);
+        System.arraycopy(to32BytesData(e.multiply(seckey).add(k).mod(n)), 0, sig, 32, 32);
+        return sig;
+    }
 }
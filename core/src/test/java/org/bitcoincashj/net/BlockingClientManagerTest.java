@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlockingClientManagerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final int CONNECTIONS = 1024;
+
+    private InetSocketAddress address;
+    private NioServer server;
+    private final List<MessageWriteTarget> serverTargets = new CopyOnWriteArrayList<>();
+    private BlockingClientManager manager;
+
+    private class Client extends PeerSocketHandler {
+        final CountDownLatch received;
+        final CountDownLatch closed;
+
+        Client(CountDownLatch received, CountDownLatch closed) {
+            super(UNITTEST, address);
+            this.received = received;
+            this.closed = closed;
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            received.countDown();
+        }
+
+        @Override
+        protected void timeoutOccurred() {
+        }
+
+        @Override
+        public void connectionClosed() {
+            closed.countDown();
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        server = new NioServer(new StreamConnectionFactory() {
+            @Override
+            public StreamConnection getNewConnection(InetAddress inetAddress, int port) {
+                return new StreamConnection() {
+                    @Override
+                    public void connectionClosed() {
+                    }
+
+                    @Override
+                    public void connectionOpened() {
+                    }
+
+                    @Override
+                    public int receiveBytes(ByteBuffer buff) {
+                        return buff.remaining();
+                    }
+
+                    @Override
+                    public void setWriteTarget(MessageWriteTarget writeTarget) {
+                        serverTargets.add(writeTarget);
+                    }
+
+                    @Override
+                    public int getMaxMessageSize() {
+                        return Message.MAX_SIZE;
+                    }
+                };
+            }
+        }, address);
+        server.startAsync().awaitRunning();
+        manager = new BlockingClientManager();
+        // The server accepts connections faster than they can all be opened, but its backlog is short.
+        manager.setConnectTimeoutMillis(30000);
+    }
+
+    @After
+    public void tearDown() {
+        if (manager.isRunning())
+            manager.stopAsync().awaitTerminated();
+        server.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void virtualThreadsIfSupported() throws Exception {
+        assertFalse(manager.isUsingVirtualThreads());
+        manager.setUseVirtualThreads(true);
+        assertEquals(Threading.virtualThreadFactory() != null, manager.isUsingVirtualThreads());
+        manager.setUseVirtualThreads(false);
+        assertFalse(manager.isUsingVirtualThreads());
+    }
+
+    @Test
+    public void thousandsOfConnections() throws Exception {
+        // Runs on platform threads where the runtime has no virtual threads, which copes with this many as well.
+        manager.setUseVirtualThreads(true);
+        manager.startAsync().awaitRunning();
+        CountDownLatch received = new CountDownLatch(CONNECTIONS);
+        CountDownLatch closed = new CountDownLatch(CONNECTIONS);
+        List<ListenableFuture<SocketAddress>> connects = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++)
+            connects.add(manager.openConnection(address, new Client(received, closed)));
+        for (ListenableFuture<SocketAddress> connect : connects)
+            assertEquals(address, connect.get(60, TimeUnit.SECONDS));
+        assertEquals(CONNECTIONS, manager.getConnectedClientCount());
+
+        // All of them are open at once: each gets a message from the server.
+        while (serverTargets.size() < CONNECTIONS)
+            Thread.sleep(10);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        UNITTEST.getDefaultSerializer().serialize(new Ping(1), stream);
+        SerializedMessage ping = SerializedMessage.wrap(stream.toByteArray());
+        for (MessageWriteTarget target : serverTargets)
+            ping.writeTo(target);
+        assertTrue(received.await(60, TimeUnit.SECONDS));
+        assertEquals(CONNECTIONS, manager.getConnectedClientCount());
+
+        manager.stopAsync().awaitTerminated();
+        assertTrue(closed.await(60, TimeUnit.SECONDS));
+        assertEquals(0, manager.getConnectedClientCount());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FilterMergerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Wallet wallet;
+    private FilterMerger merger;
+    private final List<ECKey> keys = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(UNITTEST));
+        wallet = Wallet.createBasic(UNITTEST);
+        merger = new FilterMerger(PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE);
+    }
+
+    @Test
+    public void newKeysAreInsertedIntoTheLastFilter() {
+        importKeys(50);
+        FilterMerger.Result first = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertTrue(first.changed);
+        assertEquals(1, merger.getRebuildCount());
+        assertEquals(0, merger.getIncrementalUpdateCount());
+        assertContainsKeys(first.filter);
+
+        importKeys(5);
+        FilterMerger.Result second = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertTrue(second.changed);
+        assertEquals(1, merger.getRebuildCount());
+        assertEquals(1, merger.getIncrementalUpdateCount());
+        assertContainsKeys(second.filter);
+        // The filter given to peers before is left alone.
+        assertFalse(first.filter.contains(keys.get(52).getPubKey()));
+
+        FilterMerger.Result third = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertFalse(third.changed);
+        assertSame(second.filter, third.filter);
+        assertEquals(1, merger.getRebuildCount());
+        assertEquals(1, merger.getIncrementalUpdateCount());
+    }
+
+    @Test
+    public void rebuiltWhenTooFull() {
+        importKeys(50);
+        BloomFilter first = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet)).filter;
+
+        // Far more elements than the filter was built to hold.
+        importKeys(500);
+        FilterMerger.Result second = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertTrue(second.changed);
+        assertEquals(2, merger.getRebuildCount());
+        assertEquals(0, merger.getIncrementalUpdateCount());
+        assertContainsKeys(second.filter);
+        assertTrue(second.filter.getFalsePositiveRate(keys.size() * 2) < PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE);
+        // The tweak is new, so the filter has nothing in common with the old one.
+        assertNotEquals(first.toString(), second.filter.toString());
+    }
+
+    @Test
+    public void rebuildThreshold() {
+        merger.setRebuildThreshold(1.0);
+        importKeys(50);
+        merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        // Within the room left in the filter, so the estimate stays below what it was built for.
+        importKeys(20);
+        merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertEquals(1, merger.getRebuildCount());
+        assertEquals(1, merger.getIncrementalUpdateCount());
+        importKeys(50);
+        merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertEquals(2, merger.getRebuildCount());
+        assertEquals(1, merger.getIncrementalUpdateCount());
+    }
+
+    @Test
+    public void rebuiltWhenProviderRemoved() {
+        importKeys(50);
+        Wallet other = Wallet.createBasic(UNITTEST);
+        ECKey otherKey = new ECKey();
+        other.importKey(otherKey);
+        BloomFilter first = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet, other)).filter;
+        assertTrue(first.contains(otherKey.getPubKey()));
+        assertEquals(1, merger.getRebuildCount());
+
+        FilterMerger.Result second = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet));
+        assertTrue(second.changed);
+        assertEquals(2, merger.getRebuildCount());
+        assertEquals(0, merger.getIncrementalUpdateCount());
+        assertContainsKeys(second.filter);
+        assertFalse(second.filter.contains(otherKey.getPubKey()));
+
+        // Adding it back is a different set of providers again.
+        FilterMerger.Result third = merger.calculate(ImmutableList.<PeerFilterProvider>of(wallet, other));
+        assertTrue(third.filter.contains(otherKey.getPubKey()));
+        assertEquals(3, merger.getRebuildCount());
+        assertEquals(0, merger.getIncrementalUpdateCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rebuildThresholdBelowOne() {
+        merger.setRebuildThreshold(0.5);
+    }
+
+    @Test
+    public void providersThatCantListElementsAreRebuiltEveryTime() {
+        importKeys(50);
+        PeerFilterProvider provider = new PeerFilterProvider() {
+            @Override
+            public long getEarliestKeyCreationTime() {
+                return wallet.getEarliestKeyCreationTime();
+            }
+
+            @Override
+            public void beginBloomFilterCalculation() {
+                wallet.beginBloomFilterCalculation();
+            }
+
+            @Override
+            public int getBloomFilterElementCount() {
+                return wallet.getBloomFilterElementCount();
+            }
+
+            @Override
+            public BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
+                return wallet.getBloomFilter(size, falsePositiveRate, nTweak);
+            }
+
+            @Override
+            public void endBloomFilterCalculation() {
+                wallet.endBloomFilterCalculation();
+            }
+        };
+        BloomFilter first = merger.calculate(ImmutableList.of(provider)).filter;
+        importKeys(5);
+        FilterMerger.Result second = merger.calculate(ImmutableList.of(provider));
+        assertTrue(second.changed);
+        assertContainsKeys(second.filter);
+        assertEquals(2, merger.getRebuildCount());
+        assertEquals(0, merger.getIncrementalUpdateCount());
+
+        // The same elements give the same filter as before.
+        FilterMerger.Result third = merger.calculate(ImmutableList.of(provider));
+        assertFalse(third.changed);
+        assertNotEquals(first, third.filter);
+        assertEquals(3, merger.getRebuildCount());
+    }
+
+    private void importKeys(int count) {
+        List<ECKey> imported = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            imported.add(new ECKey());
+        wallet.importKeys(imported);
+        keys.addAll(imported);
+    }
+
+    private void assertContainsKeys(BloomFilter filter) {
+        for (ECKey key : keys) {
+            assertTrue(filter.contains(key.getPubKey()));
+            assertTrue(filter.contains(key.getPubKeyHash()));
+        }
+    }
+}
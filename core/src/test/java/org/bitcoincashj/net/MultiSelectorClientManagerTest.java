@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.utils.ContextPropagatingThreadFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class MultiSelectorClientManagerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private InetSocketAddress address;
+    private NioServer server;
+    private final List<MessageWriteTarget> serverTargets = new CopyOnWriteArrayList<>();
+    private MultiSelectorClientManager manager;
+    private ExecutorService workers;
+
+    private class Client extends PeerSocketHandler {
+        final List<Long> nonces = Collections.synchronizedList(new ArrayList<Long>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch received;
+
+        Client(int messages) {
+            super(UNITTEST, address);
+            received = new CountDownLatch(messages);
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            nonces.add(((Ping) m).getNonce());
+            threads.add(Thread.currentThread().getName());
+            received.countDown();
+        }
+
+        @Override
+        protected void timeoutOccurred() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        server = new NioServer(new StreamConnectionFactory() {
+            @Override
+            public StreamConnection getNewConnection(InetAddress inetAddress, int port) {
+                return new StreamConnection() {
+                    @Override
+                    public void connectionClosed() {
+                    }
+
+                    @Override
+                    public void connectionOpened() {
+                    }
+
+                    @Override
+                    public int receiveBytes(ByteBuffer buff) {
+                        return buff.remaining();
+                    }
+
+                    @Override
+                    public void setWriteTarget(MessageWriteTarget writeTarget) {
+                        serverTargets.add(writeTarget);
+                    }
+
+                    @Override
+                    public int getMaxMessageSize() {
+                        return Message.MAX_SIZE;
+                    }
+                };
+            }
+        }, address);
+        server.startAsync().awaitRunning();
+        workers = Executors.newFixedThreadPool(4, new ContextPropagatingThreadFactory("message worker"));
+    }
+
+    @After
+    public void tearDown() {
+        if (manager != null)
+            manager.stopAsync().awaitTerminated();
+        server.stopAsync().awaitTerminated();
+        workers.shutdown();
+    }
+
+    @Test
+    public void connectionsAreCountedAndClosed() throws Exception {
+        manager = new MultiSelectorClientManager(3, null);
+        manager.startAsync().awaitRunning();
+        assertEquals(3, manager.getSelectorCount());
+        for (int i = 0; i < 7; i++)
+            manager.openConnection(address, new Client(1)).get(10, TimeUnit.SECONDS);
+        assertEquals(7, manager.getConnectedClientCount());
+
+        manager.closeConnections(2);
+        assertEquals(5, manager.getConnectedClientCount());
+        manager.closeConnections(10);
+        assertEquals(0, manager.getConnectedClientCount());
+    }
+
+    @Test
+    public void messagesProcessedOnSelectorThreads() throws Exception {
+        manager = new MultiSelectorClientManager(2, null);
+        manager.startAsync().awaitRunning();
+        Client client = new Client(10);
+        manager.openConnection(address, client).get(10, TimeUnit.SECONDS);
+        sendPings(10);
+        assertTrue(client.received.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.nCopies(10, "NioClientManager"), client.threads);
+    }
+
+    @Test
+    public void handoffKeepsEachPeersOrder() throws Exception {
+        manager = new MultiSelectorClientManager(2, workers);
+        manager.startAsync().awaitRunning();
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Client client = new Client(500);
+            manager.openConnection(address, client).get(10, TimeUnit.SECONDS);
+            clients.add(client);
+        }
+        sendPings(500);
+        for (Client client : clients) {
+            assertTrue(client.received.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 500; i++)
+                assertEquals(i, (long) client.nonces.get(i));
+            assertEquals(Collections.nCopies(500, "message worker"), client.threads);
+        }
+    }
+
+    @Test
+    public void handoffKeepsMessagesBetweenOpenAndClose() throws Exception {
+        manager = new MultiSelectorClientManager(2, workers);
+        manager.startAsync().awaitRunning();
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch closed = new CountDownLatch(1);
+        Client client = new Client(100) {
+            @Override
+            protected void processMessage(Message m) {
+                events.add("message");
+                super.processMessage(m);
+            }
+
+            @Override
+            public void connectionOpened() {
+                // Slow enough for the messages to arrive before it returns.
+                Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+                events.add("opened " + Thread.currentThread().getName());
+            }
+
+            @Override
+            public void connectionClosed() {
+                events.add("closed " + Thread.currentThread().getName());
+                closed.countDown();
+            }
+        };
+        manager.openConnection(address, client).get(10, TimeUnit.SECONDS);
+        // Closed as soon as the messages are written, while some are likely still waiting to be processed.
+        for (ListenableFuture<?> written : sendPings(100))
+            written.get(10, TimeUnit.SECONDS);
+        for (MessageWriteTarget target : serverTargets)
+            target.closeConnection();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        List<String> expected = new ArrayList<>();
+        expected.add("opened message worker");
+        expected.addAll(Collections.nCopies(100, "message"));
+        expected.add("closed message worker");
+        assertEquals(expected, events);
+    }
+
+    // Sends the given number of pings, numbered from zero, down every connection.
+    private List<ListenableFuture<?>> sendPings(int count) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++)
+            UNITTEST.getDefaultSerializer().serialize(new Ping(i), stream);
+        SerializedMessage pings = SerializedMessage.wrap(stream.toByteArray());
+        while (serverTargets.size() < manager.getConnectedClientCount())
+            Thread.sleep(10);
+        List<ListenableFuture<?>> written = new ArrayList<>();
+        for (MessageWriteTarget target : serverTargets)
+            written.add(pings.writeTo(target));
+        return written;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.net;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SerializedMessageTest {
+    private ByteBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ByteBufferPool();
+    }
+
+    @Test
+    public void bufferReturnsToPoolWithLastReference() throws Exception {
+        ByteBuffer buffer = pool.acquire(300);
+        assertTrue(buffer.isDirect());
+        assertEquals(512, buffer.capacity());
+        assertEquals(300, buffer.limit());
+        buffer.put(new byte[] {1, 2, 3});
+        buffer.flip();
+        SerializedMessage message = new SerializedMessage(buffer, pool);
+        assertEquals(3, message.length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        assertArrayEquals(new byte[] {1, 2, 3}, out.toByteArray());
+
+        message.retain();
+        message.release();
+        assertEquals(0, pool.getIdleCount(300));
+        message.release();
+        assertEquals(1, pool.getIdleCount(300));
+        assertSame(buffer, pool.acquire(400));
+        assertEquals(0, pool.getIdleCount(300));
+
+        try {
+            message.buffer();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        try {
+            message.retain();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void viewsHaveTheirOwnPosition() {
+        SerializedMessage message = SerializedMessage.wrap(new byte[] {1, 2, 3});
+        ByteBuffer first = message.buffer();
+        ByteBuffer second = message.buffer();
+        assertTrue(first.isReadOnly());
+        assertEquals(1, first.get());
+        assertEquals(2, first.remaining());
+        assertEquals(3, second.remaining());
+    }
+
+    @Test
+    public void plainWriteTargetGetsACopy() throws Exception {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        MessageWriteTarget target = new MessageWriteTarget() {
+            @Override
+            public ListenableFuture writeBytes(byte[] message) {
+                written.write(message, 0, message.length);
+                return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public void closeConnection() {
+            }
+        };
+        ByteBuffer buffer = pool.acquire(3);
+        buffer.put(new byte[] {1, 2, 3});
+        buffer.flip();
+        SerializedMessage message = new SerializedMessage(buffer, pool);
+        message.writeTo(target).get();
+        assertArrayEquals(new byte[] {1, 2, 3}, written.toByteArray());
+        // The caller still holds its reference.
+        assertEquals(0, pool.getIdleCount(3));
+        message.release();
+        assertEquals(1, pool.getIdleCount(3));
+    }
+
+    @Test
+    public void onlyPoolSizedDirectBuffersArePooled() {
+        ByteBuffer large = pool.acquire(ByteBufferPool.MAX_POOLED_BUFFER_SIZE + 1);
+        assertFalse(large.isDirect());
+        pool.release(large);
+        pool.release(ByteBuffer.allocateDirect(1000));
+        assertEquals(0, pool.getIdleCount(1000));
+        assertEquals(0, pool.getIdleCount(ByteBufferPool.MAX_POOLED_BUFFER_SIZE + 1));
+
+        for (int i = 0; i < ByteBufferPool.MAX_IDLE_BUFFERS + 1; i++)
+            pool.release(ByteBuffer.allocateDirect(ByteBufferPool.MIN_BUFFER_SIZE));
+        assertEquals(ByteBufferPool.MAX_IDLE_BUFFERS, pool.getIdleCount(1));
+    }
+}
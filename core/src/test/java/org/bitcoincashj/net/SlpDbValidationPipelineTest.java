@@ -0,0 +1,121 @@
+package org.bitcoincashj.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.util.encoders.Base64;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link SlpDbValidationPipeline} against a local HTTP server standing in for SLPDB.
+ */
+public class SlpDbValidationPipelineTest {
+    private HttpServer server;
+    private SlpDbProcessor processor;
+    private final Set<String> validTxIds = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/q/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                    String encoded = exchange.getRequestURI().getRawPath().substring("/q/".length());
+                    JSONObject query = new JSONObject(new String(Base64.decode(encoded), StandardCharsets.UTF_8));
+                    JSONArray requested = query.getJSONObject("q").getJSONObject("find").getJSONObject("tx.h").getJSONArray("$in");
+                    JSONArray confirmed = new JSONArray();
+                    for (int i = 0; i < requested.length(); i++) {
+                        String txId = requested.getString(i);
+                        if (validTxIds.contains(txId))
+                            confirmed.put(new JSONObject().put("txid", txId).put("valid", true));
+                    }
+                    byte[] body = new JSONObject().put("c", confirmed).put("u", new JSONArray()).toString()
+                            .getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        processor = new SlpDbProcessor(1, 1, "http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void batchesAndReportsIncrementally() throws Exception {
+        List<String> txIds = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            String txId = String.format("%064x", i);
+            txIds.add(txId);
+            if (i % 3 == 0)
+                validTxIds.add(txId);
+        }
+
+        SlpDbValidationPipeline pipeline = new SlpDbValidationPipeline(processor, 10, 3);
+        final Set<String> reported = new HashSet<>();
+        final List<Integer> remaining = new ArrayList<>();
+        Set<String> result = pipeline.validate(txIds, new SlpDbValidationPipeline.Listener() {
+            @Override
+            public void onBatchValidated(Set<String> valid, int remainingBatches) {
+                reported.addAll(valid);
+                remaining.add(remainingBatches);
+            }
+        }).get();
+        pipeline.shutdown();
+
+        assertEquals(validTxIds, result);
+        assertEquals(validTxIds, reported);
+        assertEquals(10, requests.get());
+        assertEquals(10, remaining.size());
+        assertEquals(0, (int) remaining.get(remaining.size() - 1));
+        assertTrue("in-flight limit exceeded: " + maxInFlight.get(), maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void unreachableServerReportsNothing() throws Exception {
+        server.stop(0);
+        SlpDbValidationPipeline pipeline = new SlpDbValidationPipeline(processor, 10, 2);
+        Set<String> result = pipeline.validate(Collections.singletonList(String.format("%064x", 1)), null).get();
+        pipeline.shutdown();
+        assertTrue(result.isEmpty());
+    }
+}
@@ -311,6 +311,107 @@ public class ScriptTest {
         }
     }
 
+    @Test
+    public void dataDrivenScriptsStandardTemplateParity() throws Exception {
+        JsonNode json = new ObjectMapper()
+                .readTree(new InputStreamReader(getClass().getResourceAsStream("script_tests.json"), StandardCharsets.UTF_8));
+        for (JsonNode test : json) {
+            if (test.size() == 1)
+                continue; // skip comment
+            Set<VerifyFlag> verifyFlags = parseVerifyFlags(test.get(2).asText());
+            Script scriptSig, scriptPubKey;
+            try {
+                scriptSig = parseScriptString(test.get(0).asText());
+                scriptPubKey = parseScriptString(test.get(1).asText());
+            } catch (RuntimeException x) {
+                continue; // Not parseable here, see dataDrivenScripts.
+            }
+            Transaction txCredit = buildCreditingTransaction(scriptPubKey);
+            Transaction txSpend = buildSpendingTransaction(txCredit, scriptSig);
+            // The fast path must only accept what's expected to be valid, and must not change any outcome.
+            if (scriptSig.correctlySpendsStandard(txSpend, 0, scriptPubKey, Coin.ZERO, verifyFlags, null))
+                assertEquals(test.toString(), "OK", test.get(3).asText());
+            ScriptError expected = ScriptError.SCRIPT_ERR_OK, actual = ScriptError.SCRIPT_ERR_OK;
+            try {
+                scriptSig.correctlySpendsInterpreted(txSpend, 0, scriptPubKey, Coin.ZERO, verifyFlags, null);
+            } catch (ScriptException e) {
+                expected = e.getError();
+            }
+            try {
+                scriptSig.correctlySpends(txSpend, 0, scriptPubKey, Coin.ZERO, verifyFlags);
+            } catch (ScriptException e) {
+                actual = e.getError();
+            }
+            assertEquals(test.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void dataDrivenValidTransactionsStandardTemplateParity() throws Exception {
+        JsonNode json = new ObjectMapper().readTree(new InputStreamReader(getClass().getResourceAsStream(
+                "tx_valid.json"), StandardCharsets.UTF_8));
+        int accepted = 0;
+        for (JsonNode test : json) {
+            if (test.isArray() && test.size() == 1 && test.get(0).isTextual())
+                continue; // This is a comment.
+            Map<TransactionOutPoint, Script> scriptPubKeys = parseScriptPubKeys(test.get(0));
+            Transaction transaction = TESTNET.getDefaultSerializer().makeTransaction(HEX.decode(test.get(1).asText().toLowerCase()));
+            Set<VerifyFlag> verifyFlags = parseVerifyFlags(test.get(2).asText());
+            for (int i = 0; i < transaction.getInputs().size(); i++) {
+                TransactionInput input = transaction.getInputs().get(i);
+                Script scriptPubKey = scriptPubKeys.get(input.getOutpoint());
+                if (scriptPubKey != null
+                        && input.getScriptSig().correctlySpendsStandard(transaction, i, scriptPubKey, Coin.ZERO, verifyFlags, null)) {
+                    accepted++;
+                    input.getScriptSig().correctlySpendsInterpreted(transaction, i, scriptPubKey, Coin.ZERO, verifyFlags, null);
+                }
+            }
+        }
+        assertTrue(accepted > 0);
+    }
+
+    @Test
+    public void standardTemplatesTakeFastPath() {
+        ECKey key1 = new ECKey(), key2 = new ECKey(), key3 = new ECKey();
+        Coin value = Coin.COIN;
+        Script p2pkh = ScriptBuilder.createOutputScript(Address.fromKey(TESTNET, key1));
+        Script multiSig = ScriptBuilder.createMultiSigOutputScript(2, ImmutableList.of(key1, key2, key3));
+        Script p2sh = ScriptBuilder.createP2SHOutputScript(multiSig);
+
+        Transaction tx = new Transaction(TESTNET);
+        tx.addInput(new TransactionInput(TESTNET, tx, new byte[]{},
+                new TransactionOutPoint(TESTNET, 0, Sha256Hash.of(new byte[]{0})), value));
+        tx.addInput(new TransactionInput(TESTNET, tx, new byte[]{},
+                new TransactionOutPoint(TESTNET, 1, Sha256Hash.of(new byte[]{1})), value));
+        tx.addOutput(Coin.CENT, Address.fromKey(TESTNET, key3));
+
+        TransactionSignature sig = tx.calculateWitnessSignature(0, key1, p2pkh, value, SigHash.ALL, false);
+        tx.getInput(0).setScriptSig(ScriptBuilder.createInputScript(sig, key1));
+        TransactionSignature sig1 = tx.calculateWitnessSignature(1, key1, multiSig, value, SigHash.ALL, false);
+        TransactionSignature sig3 = tx.calculateWitnessSignature(1, key3, multiSig, value, SigHash.ALL, false);
+        tx.getInput(1).setScriptSig(ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(sig1, sig3), multiSig));
+
+        Script p2pkhScriptSig = tx.getInput(0).getScriptSig();
+        Script p2shScriptSig = tx.getInput(1).getScriptSig();
+        Set<VerifyFlag> flags = Script.ALL_VERIFY_FLAGS;
+        assertTrue(p2pkhScriptSig.correctlySpendsStandard(tx, 0, p2pkh, value, flags, null));
+        assertTrue(p2shScriptSig.correctlySpendsStandard(tx, 1, p2sh, value, flags, null));
+        p2pkhScriptSig.correctlySpends(tx, 0, p2pkh, value, flags);
+        p2shScriptSig.correctlySpends(tx, 1, p2sh, value, flags);
+
+        // Signatures out of order don't match, and the interpreter reports why.
+        Script swapped = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(sig3, sig1), multiSig);
+        assertFalse(swapped.correctlySpendsStandard(tx, 1, p2sh, value, flags, null));
+        try {
+            swapped.correctlySpends(tx, 1, p2sh, value, flags);
+            fail();
+        } catch (ScriptException e) {
+            assertEquals(ScriptError.SCRIPT_ERR_EVAL_FALSE, e.getError());
+        }
+        // Wrong input index, so the signature hash differs.
+        assertFalse(p2pkhScriptSig.correctlySpendsStandard(tx, 1, p2pkh, value, flags, null));
+    }
+
     private Map<TransactionOutPoint, Script> parseScriptPubKeys(JsonNode inputs) throws IOException {
         Map<TransactionOutPoint, Script> scriptPubKeys = new HashMap<>();
         for (JsonNode input : inputs) {
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.script;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.testing.FakeTxBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedList;
+
+import static org.bitcoincashj.crypto.SchnorrSignature.schnorr_sign;
+import static org.bitcoincashj.script.ScriptOpCodes.OP_CHECKDATASIG;
+import static org.bitcoincashj.script.SignatureCache.Scheme.ECDSA;
+import static org.bitcoincashj.script.SignatureCache.Scheme.SCHNORR;
+import static org.junit.Assert.*;
+
+public class SignatureCacheTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final EnumSet<Script.VerifyFlag> FLAGS = Script.ALL_VERIFY_FLAGS;
+
+    private SignatureCache previousCache;
+    private SignatureCache cache;
+
+    @Before
+    public void setUp() {
+        previousCache = Script.getSignatureCache();
+        cache = new SignatureCache();
+        Script.setSignatureCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        Script.setSignatureCache(previousCache);
+    }
+
+    @Test
+    public void addAndContains() {
+        byte[] sigHash = Sha256Hash.hash(new byte[] { 1 });
+        byte[] pubKey = new ECKey().getPubKey();
+        byte[] signature = new byte[64];
+        assertFalse(cache.contains(SCHNORR, FLAGS, sigHash, pubKey, signature));
+        cache.add(SCHNORR, FLAGS, sigHash, pubKey, signature);
+        assertTrue(cache.contains(SCHNORR, FLAGS, sigHash, pubKey, signature));
+        assertFalse(cache.contains(SCHNORR, FLAGS, Sha256Hash.hash(new byte[] { 2 }), pubKey, signature));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+        assertFalse(cache.contains(SCHNORR, FLAGS, sigHash, pubKey, signature));
+    }
+
+    @Test
+    public void schemeAndSignatureFlagsArePartOfTheKey() {
+        byte[] sigHash = Sha256Hash.hash(new byte[] { 1 });
+        byte[] pubKey = new ECKey().getPubKey();
+        byte[] signature = new byte[64];
+        cache.add(SCHNORR, FLAGS, sigHash, pubKey, signature);
+        assertFalse(cache.contains(ECDSA, FLAGS, sigHash, pubKey, signature));
+        EnumSet<Script.VerifyFlag> withoutStrictEnc = EnumSet.copyOf(FLAGS);
+        withoutStrictEnc.remove(Script.VerifyFlag.STRICTENC);
+        assertFalse(cache.contains(SCHNORR, withoutStrictEnc, sigHash, pubKey, signature));
+        // Flags that don't affect signature checks don't matter.
+        EnumSet<Script.VerifyFlag> withoutCleanStack = EnumSet.copyOf(FLAGS);
+        withoutCleanStack.remove(Script.VerifyFlag.CLEANSTACK);
+        assertTrue(cache.contains(SCHNORR, withoutCleanStack, sigHash, pubKey, signature));
+    }
+
+    @Test
+    public void partsAreNotConcatenated() {
+        // Moving a byte from one part to the next must not produce the same entry.
+        cache.add(ECDSA, FLAGS, new byte[] { 1, 2 }, new byte[] { 3 }, new byte[] { 4 });
+        assertFalse(cache.contains(ECDSA, FLAGS, new byte[] { 1 }, new byte[] { 2, 3 }, new byte[] { 4 }));
+    }
+
+    @Test
+    public void bounded() {
+        SignatureCache small = new SignatureCache(10);
+        for (int i = 0; i < 100; i++)
+            small.add(ECDSA, FLAGS, Sha256Hash.hash(new byte[] { (byte) i }), new byte[33], new byte[64]);
+        assertTrue(small.size() <= 10);
+    }
+
+    @Test
+    public void secondCheckIsServedFromCache() {
+        ECKey key = new ECKey();
+        Transaction prevTx = FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, Address.fromKey(UNITTEST, key));
+        TransactionOutput prevOut = prevTx.getOutput(0);
+        Transaction tx = new Transaction(UNITTEST);
+        tx.addOutput(Coin.CENT, new ECKey());
+        TransactionInput input = tx.addSignedInput(prevOut, Coin.COIN, key);
+
+        input.getScriptSig().correctlySpends(tx, 0, prevOut.getScriptPubKey(), Coin.COIN, Script.ALL_VERIFY_FLAGS);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+        input.getScriptSig().correctlySpends(tx, 0, prevOut.getScriptPubKey(), Coin.COIN, Script.ALL_VERIFY_FLAGS);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void otherSchemeIsNotAHit() {
+        ECKey key = new ECKey();
+        ECKey otherKey = new ECKey();
+        byte[] message = { 1, 2, 3 };
+        byte[] hash = Sha256Hash.hash(message);
+        byte[] schnorr = schnorr_sign(hash, key.getPrivKey());
+        // The last byte is taken as the hash type and dropped.
+        byte[] pushed = Arrays.copyOf(schnorr, schnorr.length + 1);
+        assertTrue(checkDataSig(pushed, message, key));
+        assertEquals(1, cache.size());
+        assertFalse(cache.contains(ECDSA, FLAGS, hash, key.getPubKey(), schnorr));
+
+        // Bytes that passed as an ECDSA signature must still be checked as a Schnorr signature.
+        assertFalse(checkDataSig(pushed, message, otherKey));
+        cache.add(ECDSA, FLAGS, hash, otherKey.getPubKey(), schnorr);
+        assertFalse(checkDataSig(pushed, message, otherKey));
+    }
+
+    @Test
+    public void invalidSignaturesAreNotCached() {
+        ECKey key = new ECKey();
+        Transaction prevTx = FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, Address.fromKey(UNITTEST, key));
+        TransactionOutput prevOut = prevTx.getOutput(0);
+        Transaction tx = new Transaction(UNITTEST);
+        tx.addOutput(Coin.CENT, new ECKey());
+        TransactionInput input = tx.addSignedInput(prevOut, Coin.COIN, key);
+        // Changing the output after signing invalidates the signature.
+        tx.getOutput(0).setValue(Coin.COIN);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                input.getScriptSig().correctlySpends(tx, 0, prevOut.getScriptPubKey(), Coin.COIN,
+                        Script.ALL_VERIFY_FLAGS);
+                fail();
+            } catch (ScriptException x) {
+                // Expected.
+            }
+        }
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+    }
+
+    private static boolean checkDataSig(byte[] signature, byte[] message, ECKey key) {
+        Script script = new ScriptBuilder().data(signature).data(message).data(key.getPubKey()).op(OP_CHECKDATASIG)
+                .build();
+        LinkedList<byte[]> stack = new LinkedList<>();
+        Script.executeScript(new Transaction(UNITTEST), 0, script, stack, Coin.ZERO, FLAGS);
+        return stack.getLast().length > 0;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.RegTestParams;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bitcoincashj.core.Coin.FIFTY_COINS;
+import static org.junit.Assert.*;
+
+public class CachingFullPrunedBlockStoreTest {
+    private static final NetworkParameters REGTEST = RegTestParams.get();
+
+    private CountingStore store;
+    private CachingFullPrunedBlockStore cache;
+
+    // Counts the outputs written to it.
+    private static class CountingStore extends MemoryFullPrunedBlockStore {
+        int added;
+        int removed;
+
+        CountingStore(NetworkParameters params, int fullStoreDepth) {
+            super(params, fullStoreDepth);
+        }
+
+        @Override
+        public synchronized void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+            added++;
+            super.addUnspentTransactionOutput(out);
+        }
+
+        @Override
+        public synchronized void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+            removed++;
+            super.removeUnspentTransactionOutput(out);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.resetMocking();
+        Context.propagate(new Context(REGTEST));
+        store = new CountingStore(REGTEST, 10);
+        cache = new CachingFullPrunedBlockStore(store);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void createdAndSpentOutputsNeverReachTheStore() throws Exception {
+        List<UTXO> outputs = newOutputs(10);
+        cache.beginDatabaseBatchWrite();
+        for (UTXO out : outputs)
+            cache.addUnspentTransactionOutput(out);
+        cache.commitDatabaseBatchWrite();
+        cache.beginDatabaseBatchWrite();
+        for (int i = 0; i < 5; i++)
+            cache.removeUnspentTransactionOutput(outputs.get(i));
+        cache.commitDatabaseBatchWrite();
+        assertEquals(5, cache.getDirtyCount());
+        assertNull(cache.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNotNull(cache.getTransactionOutput(outputs.get(5).getHash(), 0));
+        assertEquals(0, store.added);
+
+        cache.flush();
+        assertEquals(5, store.added);
+        assertEquals(0, store.removed);
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(0, cache.getDirtyBytes());
+        assertEquals(1, cache.getFlushCount());
+        assertNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNotNull(store.getTransactionOutput(outputs.get(5).getHash(), 0));
+    }
+
+    @Test
+    public void spendingStoredOutputs() throws Exception {
+        List<UTXO> outputs = newOutputs(3);
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        cache.removeUnspentTransactionOutput(outputs.get(0));
+        // Spent and created again, which the store sees as a removal and an addition.
+        cache.removeUnspentTransactionOutput(outputs.get(1));
+        cache.addUnspentTransactionOutput(outputs.get(1));
+        assertNull(cache.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertFalse(cache.hasUnspentOutputs(outputs.get(0).getHash(), 1));
+        assertTrue(cache.hasUnspentOutputs(outputs.get(1).getHash(), 1));
+        assertTrue(cache.hasUnspentOutputs(outputs.get(2).getHash(), 1));
+        assertNotNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+
+        cache.flush();
+        assertEquals(2, store.removed);
+        assertEquals(4, store.added);
+        assertNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNotNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+    }
+
+    @Test
+    public void verifiedChainHeadIsWrittenWithTheOutputs() throws Exception {
+        StoredBlock genesis = store.getVerifiedChainHead();
+        StoredBlock next = genesis.build(genesis.getHeader().createNextBlock(null));
+        cache.put(next);
+        cache.beginDatabaseBatchWrite();
+        cache.addUnspentTransactionOutput(newOutputs(1).get(0));
+        cache.setVerifiedChainHead(next);
+        assertEquals(genesis, cache.getStore().getVerifiedChainHead());
+        cache.commitDatabaseBatchWrite();
+        assertEquals(next, cache.getVerifiedChainHead());
+        assertEquals(genesis, store.getVerifiedChainHead());
+        assertEquals(next, store.getChainHead());
+
+        cache.flush();
+        assertEquals(next, store.getVerifiedChainHead());
+        assertEquals(1, store.added);
+    }
+
+    @Test
+    public void abortDiscardsBatchWrite() throws Exception {
+        List<UTXO> outputs = newOutputs(2);
+        cache.addUnspentTransactionOutput(outputs.get(0));
+        cache.beginDatabaseBatchWrite();
+        cache.removeUnspentTransactionOutput(outputs.get(0));
+        cache.addUnspentTransactionOutput(outputs.get(1));
+        cache.abortDatabaseBatchWrite();
+        assertNotNull(cache.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNull(cache.getTransactionOutput(outputs.get(1).getHash(), 0));
+        assertEquals(1, cache.getDirtyCount());
+    }
+
+    @Test
+    public void removingMissingOrSpentOutput() throws Exception {
+        UTXO out = newOutputs(1).get(0);
+        try {
+            cache.removeUnspentTransactionOutput(out);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        store.addUnspentTransactionOutput(out);
+        cache.removeUnspentTransactionOutput(out);
+        try {
+            cache.removeUnspentTransactionOutput(out);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void flushedWhenTooBig() throws Exception {
+        cache.setMaxDirtyBytes(1000);
+        List<UTXO> outputs = newOutputs(10);
+        for (int i = 0; i < 4; i++)
+            cache.addUnspentTransactionOutput(outputs.get(i));
+        assertEquals(0, cache.getFlushCount());
+        cache.beginDatabaseBatchWrite();
+        for (int i = 4; i < outputs.size(); i++)
+            cache.addUnspentTransactionOutput(outputs.get(i));
+        assertEquals(0, cache.getFlushCount());
+        cache.commitDatabaseBatchWrite();
+        assertEquals(1, cache.getFlushCount());
+        assertEquals(10, store.added);
+    }
+
+    @Test
+    public void flushedWhenDue() throws Exception {
+        Utils.setMockClock();
+        cache = new CachingFullPrunedBlockStore(store);
+        cache.setFlushIntervalMillis(60 * 1000);
+        cache.addUnspentTransactionOutput(newOutputs(1).get(0));
+        assertEquals(0, cache.getFlushCount());
+        Utils.rollMockClock(61);
+        cache.addUnspentTransactionOutput(newOutputs(1).get(0));
+        assertEquals(1, cache.getFlushCount());
+        assertEquals(2, store.added);
+    }
+
+    @Test
+    public void reorganize() throws Exception {
+        FullPrunedBlockChain chain = new FullPrunedBlockChain(REGTEST, cache);
+        byte[] pubKey = new ECKey().getPubKey();
+
+        List<Block> first = new ArrayList<>();
+        Block block = REGTEST.getGenesisBlock();
+        for (int height = 1; height <= 3; height++) {
+            block = block.createNextBlockWithCoinbase(Block.BLOCK_VERSION_BIP66, pubKey, FIFTY_COINS, height);
+            assertTrue(chain.add(block));
+            first.add(block);
+        }
+        // The first chain is written to the store, and the reorganization stays in the cache.
+        cache.flush();
+        List<Block> second = new ArrayList<>();
+        block = first.get(0);
+        for (int height = 2; height <= 5; height++) {
+            block = block.createNextBlockWithCoinbase(Block.BLOCK_VERSION_BIP66, new ECKey().getPubKey(),
+                    FIFTY_COINS, height);
+            chain.add(block);
+            second.add(block);
+        }
+        assertEquals(block, chain.getChainHead().getHeader());
+
+        assertUnspent(cache, first, second);
+        cache.flush();
+        assertUnspent(store, first, second);
+        assertEquals(block.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+    }
+
+    private static void assertUnspent(FullPrunedBlockStore from, List<Block> first, List<Block> second)
+            throws BlockStoreException {
+        assertNotNull(coinbase(from, first.get(0)));
+        assertNull(coinbase(from, first.get(1)));
+        assertNull(coinbase(from, first.get(2)));
+        for (Block block : second)
+            assertNotNull(coinbase(from, block));
+    }
+
+    private static UTXO coinbase(FullPrunedBlockStore from, Block block) throws BlockStoreException {
+        return from.getTransactionOutput(block.getTransactions().get(0).getTxId(), 0);
+    }
+
+    private static List<UTXO> newOutputs(int count) {
+        List<UTXO> outputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            outputs.add(new UTXO(Sha256Hash.of(key.getPubKey()), 0, Coin.valueOf(i + 1), 1, false,
+                    ScriptBuilder.createP2PKHOutputScript(key), ""));
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,151 @@
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentSPVBlockStoreTest {
+    private static NetworkParameters UNITTEST;
+    private File blockStoreFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Utils.resetMocking();
+        UNITTEST = UnitTestParams.get();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        blockStoreFile = File.createTempFile("spvblockstore", null);
+        blockStoreFile.delete();
+        blockStoreFile.deleteOnExit();
+    }
+
+    private static StoredBlock newBlock(int nonce) {
+        Block block = new Block(UNITTEST, 0, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 0, 0, nonce,
+                Collections.<Transaction>emptyList());
+        return new StoredBlock(block, BigInteger.ZERO, nonce);
+    }
+
+    @Test
+    public void basics() throws Exception {
+        SPVBlockStore store = new ConcurrentSPVBlockStore(UNITTEST, blockStoreFile);
+        Address to = Address.fromKey(UNITTEST, new ECKey());
+        StoredBlock genesis = store.getChainHead();
+        assertEquals(UNITTEST.getGenesisBlock(), genesis.getHeader());
+
+        StoredBlock b1 = genesis.build(genesis.getHeader().createNextBlock(to).cloneAsHeader());
+        assertNull(store.get(b1.getHeader().getHash()));
+        store.put(b1);
+        assertEquals(b1, store.get(b1.getHeader().getHash()));
+        store.setChainHead(b1);
+        store.close();
+
+        // The file format is shared with the plain store.
+        store = new SPVBlockStore(UNITTEST, blockStoreFile);
+        assertEquals(b1, store.get(b1.getHeader().getHash()));
+        assertEquals(b1, store.getChainHead());
+        store.close();
+    }
+
+    @Test
+    public void readsFromRingAfterCacheEviction() throws Exception {
+        SPVBlockStore store = new ConcurrentSPVBlockStore(UNITTEST, blockStoreFile);
+        StoredBlock first = newBlock(0);
+        store.put(first);
+        for (int i = 1; i < 5000; i++)
+            store.put(newBlock(i));
+        assertEquals(first, store.get(first.getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void concurrentReadersAndWriter() throws Exception {
+        final SPVBlockStore store = new ConcurrentSPVBlockStore(UNITTEST, blockStoreFile, 20000, false);
+        final int blocks = 5000;
+        final StoredBlock[] written = new StoredBlock[blocks];
+        for (int i = 0; i < blocks; i++)
+            written[i] = newBlock(i);
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (StoredBlock block : written) {
+                    store.put(block);
+                    store.setChainHead(block);
+                }
+                done.set(true);
+                return null;
+            }
+        });
+        Callable<Void> reader = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                while (!done.get()) {
+                    int i = ThreadLocalRandom.current().nextInt(blocks);
+                    StoredBlock read = store.get(written[i].getHeader().getHash());
+                    // Either not written yet, or exactly what was written.
+                    if (read != null)
+                        assertEquals(written[i], read);
+                    assertNotNull(store.getChainHead());
+                }
+                return null;
+            }
+        };
+        Future<?> r1 = executor.submit(reader), r2 = executor.submit(reader), r3 = executor.submit(reader);
+        writer.get();
+        r1.get();
+        r2.get();
+        r3.get();
+        executor.shutdown();
+
+        for (StoredBlock block : written)
+            assertEquals(block, store.get(block.getHeader().getHash()));
+        assertEquals(written[blocks - 1], store.getChainHead());
+        store.close();
+    }
+
+    @Test
+    public void loadingChainHeadDoesNotOverwriteNewerHead() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 200; i++) {
+            final SPVBlockStore store = new ConcurrentSPVBlockStore(UNITTEST, blockStoreFile);
+            final StoredBlock block = newBlock(i);
+            store.put(block);
+            final CountDownLatch start = new CountDownLatch(1);
+            Future<?> reader = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    store.getChainHead();
+                    return null;
+                }
+            });
+            Future<?> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    store.setChainHead(block);
+                    return null;
+                }
+            });
+            start.countDown();
+            reader.get();
+            writer.get();
+            assertEquals(block, store.getChainHead());
+            store.close();
+        }
+        executor.shutdown();
+    }
+}
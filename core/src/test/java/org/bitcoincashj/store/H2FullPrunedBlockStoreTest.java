@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class H2FullPrunedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private File dir;
+    private H2FullPrunedBlockStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        dir = File.createTempFile("h2store", null);
+        dir.delete();
+        dir.mkdir();
+        store = new H2FullPrunedBlockStore(UNITTEST, new File(dir, "test").getAbsolutePath(), 10);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void batchWriteIsReadBackBeforeAndAfterCommit() throws Exception {
+        List<UTXO> outputs = newOutputs(100);
+        store.beginDatabaseBatchWrite();
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        for (int i = 0; i < 10; i++)
+            store.removeUnspentTransactionOutput(outputs.get(i));
+        assertNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertEquals(outputs.get(10).getValue(), store.getTransactionOutput(outputs.get(10).getHash(), 0).getValue());
+        assertTrue(store.hasUnspentOutputs(outputs.get(10).getHash(), 1));
+        assertFalse(store.hasUnspentOutputs(outputs.get(0).getHash(), 1));
+        // Not committed yet, so the outputs aren't seen from other connections.
+        assertNull(onOtherThread(outputs.get(10)));
+        store.commitDatabaseBatchWrite();
+
+        for (int i = 0; i < outputs.size(); i++) {
+            UTXO stored = onOtherThread(outputs.get(i));
+            if (i < 10) {
+                assertNull(stored);
+            } else {
+                assertEquals(outputs.get(i).getValue(), stored.getValue());
+                assertEquals(outputs.get(i).getScript(), stored.getScript());
+            }
+        }
+    }
+
+    @Test
+    public void removedAndAddedAgainInOneBatch() throws Exception {
+        UTXO out = newOutputs(1).get(0);
+        store.addUnspentTransactionOutput(out);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(out);
+        assertFalse(store.hasUnspentOutputs(out.getHash(), 1));
+        store.addUnspentTransactionOutput(out);
+        assertTrue(store.hasUnspentOutputs(out.getHash(), 1));
+        store.commitDatabaseBatchWrite();
+        assertNotNull(store.getTransactionOutput(out.getHash(), 0));
+    }
+
+    @Test
+    public void abortDiscardsBatchWrite() throws Exception {
+        List<UTXO> outputs = newOutputs(2);
+        store.addUnspentTransactionOutput(outputs.get(0));
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(outputs.get(0));
+        store.addUnspentTransactionOutput(outputs.get(1));
+        store.abortDatabaseBatchWrite();
+        assertNotNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+    }
+
+    @Test
+    public void removingMissingOutput() throws Exception {
+        List<UTXO> outputs = newOutputs(2);
+        try {
+            store.removeUnspentTransactionOutput(outputs.get(0));
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+
+        // Found out when the batch is written, which then rolls back.
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(outputs.get(1));
+        store.removeUnspentTransactionOutput(outputs.get(0));
+        try {
+            store.commitDatabaseBatchWrite();
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        assertNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+        store.addUnspentTransactionOutput(outputs.get(1));
+        assertNotNull(onOtherThread(outputs.get(1)));
+    }
+
+    @Test
+    public void removingOutputTwiceInOneBatch() throws Exception {
+        UTXO out = newOutputs(1).get(0);
+        store.addUnspentTransactionOutput(out);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(out);
+        try {
+            store.removeUnspentTransactionOutput(out);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        store.abortDatabaseBatchWrite();
+    }
+
+    @Test
+    public void connectionsAreShared() throws Exception {
+        store.setMaxConnections(2);
+        final List<UTXO> outputs = newOutputs(50);
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final AtomicInteger found = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (UTXO out : outputs)
+                        if (store.getTransactionOutput(out.getHash(), out.getIndex()) != null)
+                            found.incrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(8 * outputs.size(), found.get());
+        assertTrue(store.getConnectionCount() <= 2);
+    }
+
+    private UTXO onOtherThread(final UTXO out) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<UTXO>() {
+                @Override
+                public UTXO call() throws Exception {
+                    return store.getTransactionOutput(out.getHash(), out.getIndex());
+                }
+            }).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<UTXO> newOutputs(int count) {
+        List<UTXO> outputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            outputs.add(new UTXO(Sha256Hash.of(key.getPubKey()), 0, Coin.valueOf(i + 1), 1, false,
+                    ScriptBuilder.createP2PKHOutputScript(key), Address.fromKey(UNITTEST, key).toString()));
+        }
+        return outputs;
+    }
+}
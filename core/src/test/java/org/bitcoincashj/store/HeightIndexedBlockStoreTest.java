@@ -0,0 +1,85 @@
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeightIndexedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private MemoryBlockStore memoryStore;
+    private HeightIndexedBlockStore store;
+    private Address to;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        memoryStore = new MemoryBlockStore(UNITTEST);
+        store = new HeightIndexedBlockStore(memoryStore, 30);
+        to = Address.fromKey(UNITTEST, new ECKey());
+    }
+
+    /** Extends the chain from the given block, returning the new blocks with the given one first. */
+    private List<StoredBlock> extend(StoredBlock from, int count, boolean setHead) throws Exception {
+        List<StoredBlock> blocks = new ArrayList<>();
+        blocks.add(from);
+        StoredBlock cursor = from;
+        for (int i = 0; i < count; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(cursor);
+            if (setHead)
+                store.setChainHead(cursor);
+            blocks.add(cursor);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void ancestorsMatchWalkingBack() throws Exception {
+        List<StoredBlock> chain = extend(store.getChainHead(), 100, true);
+        StoredBlock tip = chain.get(100);
+        for (int height = 0; height <= 100; height++) {
+            // Heights below the 30 block window fall back to walking.
+            assertEquals(chain.get(height), tip.getAncestor(store, height));
+            assertEquals(chain.get(height), tip.getAncestor(memoryStore, height));
+        }
+        assertEquals(chain.get(40), chain.get(60).getAncestor(store, 40));
+        assertNull(tip.getAncestor(store, -1));
+        assertNull(tip.getAncestor(store, 101));
+    }
+
+    @Test
+    public void followsReorganize() throws Exception {
+        List<StoredBlock> main = extend(store.getChainHead(), 50, true);
+        List<StoredBlock> side = extend(main.get(40), 15, false);
+        StoredBlock sideTip = side.get(15);
+
+        // Side chain blocks are walked back until they join the indexed chain.
+        assertEquals(side.get(5), sideTip.getAncestor(store, 45));
+        assertEquals(main.get(30), sideTip.getAncestor(store, 30));
+
+        store.setChainHead(sideTip);
+        assertEquals(side.get(5), sideTip.getAncestor(store, 45));
+        assertEquals(main.get(45), main.get(50).getAncestor(store, 45));
+        assertEquals(main.get(35), main.get(50).getAncestor(store, 35));
+
+        // And back again, to a shorter chain.
+        store.setChainHead(main.get(48));
+        assertEquals(main.get(45), main.get(48).getAncestor(store, 45));
+        assertEquals(side.get(10), sideTip.getAncestor(store, 50));
+    }
+
+    @Test
+    public void indexesExistingChainOnCreation() throws Exception {
+        List<StoredBlock> chain = extend(store.getChainHead(), 20, true);
+        HeightIndexedBlockStore reopened = new HeightIndexedBlockStore(memoryStore);
+        assertEquals(chain.get(3), chain.get(20).getAncestor(reopened, 3));
+        assertEquals(chain.get(20), chain.get(20).getAncestor(reopened, 20));
+    }
+}
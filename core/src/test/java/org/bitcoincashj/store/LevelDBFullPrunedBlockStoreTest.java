@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LevelDBFullPrunedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private File dir;
+    private LevelDBFullPrunedBlockStore store;
+    private final Random random = new Random(1);
+    private final Script script = ScriptBuilder.createP2PKHOutputScript(new ECKey());
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        dir = File.createTempFile("leveldbstore", null);
+        dir.delete();
+        dir.mkdir();
+        store = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private LevelDBFullPrunedBlockStore open() {
+        return new LevelDBFullPrunedBlockStore(UNITTEST, dir.getAbsolutePath(), 10);
+    }
+
+    @Test
+    public void filterAnswersForMissingTransactions() throws Exception {
+        List<UTXO> outputs = newOutputs(100);
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        for (UTXO out : outputs)
+            assertTrue(store.hasUnspentOutputs(out.getHash(), 1));
+        for (int i = 0; i < 1000; i++)
+            assertFalse(store.hasUnspentOutputs(randomHash(), 1));
+        assertTrue(store.getFilterNegativeCount() > 990);
+        assertEquals(1000 - store.getFilterNegativeCount(), store.getFilterFalsePositiveCount());
+        assertTrue(store.getFilterFalsePositiveRate() < 0.001);
+        assertEquals(1, store.getFilterRebuildCount());
+    }
+
+    @Test
+    public void filterIsSavedOnClose() throws Exception {
+        List<UTXO> outputs = newOutputs(100);
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        store.close();
+        File filterFile = new File(dir, LevelDBFullPrunedBlockStore.FILTER_FILE_NAME);
+        assertTrue(filterFile.exists());
+
+        store = open();
+        assertEquals(0, store.getFilterRebuildCount());
+        // Only valid for the state of the database it was saved with.
+        assertFalse(filterFile.exists());
+        for (UTXO out : outputs)
+            assertTrue(store.hasUnspentOutputs(out.getHash(), 1));
+    }
+
+    @Test
+    public void filterFromAnotherChainHeadIsIgnored() throws Exception {
+        store.close();
+        store = open();
+        // The saved filter is overwritten with one for another chain head.
+        store.close();
+        File filterFile = new File(dir, LevelDBFullPrunedBlockStore.FILTER_FILE_NAME);
+        byte[] contents = Files.readAllBytes(filterFile.toPath());
+        contents[4] ^= 1;
+        Files.write(filterFile.toPath(), contents);
+
+        store = open();
+        assertEquals(1, store.getFilterRebuildCount());
+        assertFalse(filterFile.exists());
+    }
+
+    @Test
+    public void filterGrowsWithOutputs() throws Exception {
+        long initialSize = store.getFilterSizeInBytes();
+        List<UTXO> outputs = newOutputs((int) LevelDBFullPrunedBlockStore.FILTER_MIN_CAPACITY + 1000);
+        store.beginDatabaseBatchWrite();
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        // Rebuilt only once the outputs are in the database.
+        assertEquals(1, store.getFilterRebuildCount());
+        store.commitDatabaseBatchWrite();
+        assertEquals(2, store.getFilterRebuildCount());
+        assertTrue(store.getFilterSizeInBytes() > initialSize);
+        for (UTXO out : outputs)
+            assertTrue(store.hasUnspentOutputs(out.getHash(), 1));
+    }
+
+    private List<UTXO> newOutputs(int count) {
+        List<UTXO> outputs = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            outputs.add(new UTXO(randomHash(), 0, Coin.valueOf(i + 1), 1, false, script, ""));
+        return outputs;
+    }
+
+    private Sha256Hash randomHash() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OffHeapFullPrunedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private OffHeapFullPrunedBlockStore store;
+    private final List<ECKey> keys = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(UNITTEST));
+        store = new OffHeapFullPrunedBlockStore(UNITTEST, 10);
+    }
+
+    @Test
+    public void batchWrite() throws Exception {
+        List<UTXO> outputs = newOutputs(10);
+        store.addUnspentTransactionOutput(outputs.get(0));
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(outputs.get(0));
+        for (int i = 1; i < outputs.size(); i++)
+            store.addUnspentTransactionOutput(outputs.get(i));
+        store.removeUnspentTransactionOutput(outputs.get(1));
+        assertNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+        assertFalse(store.hasUnspentOutputs(outputs.get(0).getHash(), 1));
+        assertTrue(store.hasUnspentOutputs(outputs.get(2).getHash(), 1));
+        assertEquals(1, store.getUnspentOutputCount());
+        store.commitDatabaseBatchWrite();
+
+        assertEquals(8, store.getUnspentOutputCount());
+        assertNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+        UTXO out = store.getTransactionOutput(outputs.get(2).getHash(), 0);
+        assertEquals(outputs.get(2).getValue(), out.getValue());
+        assertEquals(outputs.get(2).getScript(), out.getScript());
+        assertEquals(outputs.get(2).getAddress(), out.getAddress());
+        assertTrue(store.getUnspentOutputBytes() > 0);
+    }
+
+    @Test
+    public void abortDiscardsBatchWrite() throws Exception {
+        List<UTXO> outputs = newOutputs(2);
+        store.addUnspentTransactionOutput(outputs.get(0));
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(outputs.get(0));
+        store.addUnspentTransactionOutput(outputs.get(1));
+        store.abortDatabaseBatchWrite();
+        assertNotNull(store.getTransactionOutput(outputs.get(0).getHash(), 0));
+        assertNull(store.getTransactionOutput(outputs.get(1).getHash(), 0));
+    }
+
+    @Test
+    public void removingMissingOutput() throws Exception {
+        UTXO out = newOutputs(1).get(0);
+        try {
+            store.removeUnspentTransactionOutput(out);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        store.addUnspentTransactionOutput(out);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(out);
+        try {
+            store.removeUnspentTransactionOutput(out);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        store.abortDatabaseBatchWrite();
+    }
+
+    @Test
+    public void openTransactionOutputs() throws Exception {
+        List<UTXO> outputs = newOutputs(5);
+        for (UTXO out : outputs)
+            store.addUnspentTransactionOutput(out);
+        store.removeUnspentTransactionOutput(outputs.get(1));
+        List<UTXO> found = store.getOpenTransactionOutputs(ImmutableList.of(keys.get(0), keys.get(1), keys.get(2)));
+        assertEquals(2, found.size());
+        assertTrue(found.contains(outputs.get(0)));
+        assertTrue(found.contains(outputs.get(2)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void closed() throws Exception {
+        store.close();
+        store.getTransactionOutput(Sha256Hash.ZERO_HASH, 0);
+    }
+
+    private List<UTXO> newOutputs(int count) {
+        List<UTXO> outputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            keys.add(key);
+            outputs.add(new UTXO(Sha256Hash.of(key.getPubKey()), 0, Coin.valueOf(i + 1), 1, false,
+                    ScriptBuilder.createP2PKHOutputScript(key), Address.fromKey(UNITTEST, key).toString()));
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.store;
+
+import com.google.common.collect.ImmutableSet;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.bitcoincashj.script.ScriptOpCodes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OffHeapUTXOTableTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private OffHeapUTXOTable table;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(UNITTEST));
+        table = new OffHeapUTXOTable(64 * 1024);
+        random = new Random(1);
+    }
+
+    @Test
+    public void roundTrip() {
+        ECKey key = new ECKey();
+        Script p2pkh = ScriptBuilder.createP2PKHOutputScript(key);
+        String address = Address.fromKey(UNITTEST, key).toString();
+        UTXO withAddress = new UTXO(randomHash(), 3, Coin.COIN, 100, true, p2pkh, address);
+        UTXO big = new UTXO(randomHash(), 70000, Coin.valueOf(Long.MAX_VALUE / 4), Integer.MAX_VALUE, false,
+                p2pkh, "another address");
+        UTXO none = new UTXO(randomHash(), 0, Coin.ZERO, 0, false, new Script(new byte[0]), "");
+        for (UTXO out : Arrays.asList(withAddress, big, none)) {
+            table.put(out);
+            assertSameOutput(out, table.get(out.getHash(), out.getIndex()));
+        }
+        assertEquals(3, table.size());
+        assertNull(table.get(withAddress.getHash(), 4));
+        assertNull(table.get(randomHash(), 3));
+
+        List<UTXO> found = new ArrayList<>();
+        table.findByAddress(ImmutableSet.of(address, "another address"), found);
+        assertEquals(2, found.size());
+        assertTrue(found.contains(withAddress));
+        assertTrue(found.contains(big));
+    }
+
+    @Test
+    public void replace() {
+        UTXO out = randomOutput();
+        table.put(out);
+        UTXO replacement = new UTXO(out.getHash(), out.getIndex(), Coin.CENT, 7, false, out.getScript(), "");
+        table.put(replacement);
+        assertEquals(1, table.size());
+        assertSameOutput(replacement, table.get(out.getHash(), out.getIndex()));
+    }
+
+    @Test
+    public void sameAsHashMap() {
+        Map<StoredTransactionOutPoint, UTXO> expected = new HashMap<>();
+        List<UTXO> outputs = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 2000; i++) {
+                UTXO out = randomOutput();
+                table.put(out);
+                expected.put(new StoredTransactionOutPoint(out), out);
+                outputs.add(out);
+            }
+            // Spend most of them, in random order, so that the table is resized and compacted in between.
+            Collections.shuffle(outputs, random);
+            while (outputs.size() > 1000) {
+                UTXO out = outputs.remove(outputs.size() - 1);
+                assertTrue(table.remove(out.getHash(), out.getIndex()));
+                assertFalse(table.remove(out.getHash(), out.getIndex()));
+                expected.remove(new StoredTransactionOutPoint(out));
+            }
+            assertEquals(expected.size(), table.size());
+            for (UTXO out : expected.values())
+                assertSameOutput(out, table.get(out.getHash(), out.getIndex()));
+        }
+        // Removed records don't pile up.
+        assertTrue(table.getAllocatedBytes() < 4 * (table.getLiveBytes() + 64 * 1024) + 8 * 4096);
+    }
+
+    @Test
+    public void bigScript() {
+        // Bigger than a chunk.
+        byte[] program = new byte[100 * 1024];
+        Arrays.fill(program, (byte) ScriptOpCodes.OP_1);
+        program[0] = (byte) ScriptOpCodes.OP_RETURN;
+        UTXO big = new UTXO(randomHash(), 0, Coin.ZERO, 1, false, new Script(program), "");
+        UTXO small = randomOutput();
+        table.put(big);
+        table.put(small);
+        assertArrayEquals(program, table.get(big.getHash(), 0).getScript().getProgram());
+        assertSameOutput(small, table.get(small.getHash(), small.getIndex()));
+    }
+
+    private static void assertSameOutput(UTXO expected, UTXO actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getHash(), actual.getHash());
+        assertEquals(expected.getIndex(), actual.getIndex());
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.isCoinbase(), actual.isCoinbase());
+        assertArrayEquals(expected.getScript().getProgram(), actual.getScript().getProgram());
+        assertEquals(expected.getAddress(), actual.getAddress());
+    }
+
+    private UTXO randomOutput() {
+        byte[] hash160 = new byte[20];
+        random.nextBytes(hash160);
+        Script script = ScriptBuilder.createP2PKHOutputScript(hash160);
+        return new UTXO(randomHash(), random.nextInt(4), Coin.valueOf(random.nextInt(Integer.MAX_VALUE)),
+                random.nextInt(700000), random.nextBoolean(), script, "");
+    }
+
+    private Sha256Hash randomHash() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.wallet;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.testing.TestWithWallet;
+import org.bitcoincashj.wallet.selector.BranchAndBoundCoinSelector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.bitcoincashj.core.Coin.*;
+import static org.junit.Assert.*;
+
+public class BranchAndBoundCoinSelectorTest extends TestWithWallet {
+    private BranchAndBoundCoinSelector selector;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        selector = new BranchAndBoundCoinSelector();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private List<TransactionOutput> outputs(TransactionConfidence.ConfidenceType type, long... values) {
+        Transaction tx = new Transaction(UNITTEST);
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for (long value : values)
+            outputs.add(tx.addOutput(Coin.valueOf(value), myAddress));
+        tx.getConfidence().setConfidenceType(type);
+        return outputs;
+    }
+
+    private List<TransactionOutput> outputs(long... values) {
+        return outputs(TransactionConfidence.ConfidenceType.BUILDING, values);
+    }
+
+    @Test
+    public void exactMatch() {
+        List<TransactionOutput> candidates = outputs(500000, 300000, 200000, 100000, 70000);
+        CoinSelection selection = selector.select(Coin.valueOf(370000), candidates);
+        assertEquals(Coin.valueOf(370000), selection.valueGathered);
+        assertEquals(ImmutableList.of(candidates.get(1), candidates.get(4)), ImmutableList.copyOf(selection.gathered));
+
+        // Overshooting by less than a dust output still counts as exact.
+        selection = selector.select(Coin.valueOf(369900), candidates);
+        assertEquals(Coin.valueOf(370000), selection.valueGathered);
+    }
+
+    @Test
+    public void prefersFewestInputsForTheSameValue() {
+        List<TransactionOutput> candidates = outputs(100000, 100000, 60000, 40000);
+        CoinSelection selection = selector.select(Coin.valueOf(100000), candidates);
+        assertEquals(Coin.valueOf(100000), selection.valueGathered);
+        assertEquals(1, selection.gathered.size());
+    }
+
+    @Test
+    public void knapsackWhenNoExactMatch() {
+        // No subset is within the window, the cheapest overshoot is 7 + 5.
+        List<TransactionOutput> candidates = outputs(10 * 100000, 7 * 100000, 5 * 100000);
+        CoinSelection selection = selector.select(Coin.valueOf(11 * 100000), candidates);
+        assertEquals(Coin.valueOf(12 * 100000), selection.valueGathered);
+    }
+
+    @Test
+    public void knapsackAfterSearchUsedUpTimeBudget() {
+        // Even values never match an odd target exactly, so the search runs until the time is up.
+        selector = new BranchAndBoundCoinSelector(Coin.ZERO, Coin.ZERO, Integer.MAX_VALUE, 1);
+        long[] values = new long[300];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 2 * (100000 + i);
+        CoinSelection selection = selector.select(Coin.valueOf(1000001), outputs(values));
+        assertTrue(selection.valueGathered.value >= 1000001);
+        assertTrue(selection.gathered.size() < values.length);
+    }
+
+    @Test
+    public void singleLargerOutputWhenSmallerOnesDontSuffice() {
+        List<TransactionOutput> candidates = outputs(8 * 100000, 3 * 100000, 3 * 100000);
+        CoinSelection selection = selector.select(Coin.valueOf(7 * 100000), candidates);
+        assertEquals(ImmutableList.of(candidates.get(0)), ImmutableList.copyOf(selection.gathered));
+
+        // Even if the smaller ones overshoot less, as they need change too and cost an extra input.
+        candidates = outputs(100 * 100000, 3 * 100000, 3 * 100000);
+        selection = selector.select(Coin.valueOf(5 * 100000), candidates);
+        assertEquals(ImmutableList.of(candidates.get(0)), ImmutableList.copyOf(selection.gathered));
+    }
+
+    @Test
+    public void exactMatchMustBeatChange() {
+        // Five inputs without change cost more than one input and a change output.
+        List<TransactionOutput> candidates = outputs(900000, 100000, 100000, 100000, 100000, 100000);
+        CoinSelection selection = selector.select(Coin.valueOf(500000), candidates);
+        assertEquals(ImmutableList.of(candidates.get(0)), ImmutableList.copyOf(selection.gathered));
+
+        // Two inputs don't.
+        candidates = outputs(900000, 300000, 200000);
+        selection = selector.select(Coin.valueOf(500000), candidates);
+        assertEquals(ImmutableList.of(candidates.get(1), candidates.get(2)), ImmutableList.copyOf(selection.gathered));
+    }
+
+    @Test
+    public void insufficientFunds() {
+        List<TransactionOutput> candidates = outputs(300000, 200000);
+        CoinSelection selection = selector.select(COIN, candidates);
+        assertEquals(Coin.valueOf(500000), selection.valueGathered);
+        assertTrue(selection.valueGathered.isLessThan(COIN));
+    }
+
+    @Test
+    public void unconfirmedOutputsOfOthersAreNotSelected() {
+        List<TransactionOutput> candidates = new ArrayList<>(outputs(TransactionConfidence.ConfidenceType.PENDING,
+                370000));
+        candidates.addAll(outputs(300000, 70000));
+        CoinSelection selection = selector.select(Coin.valueOf(370000), candidates);
+        assertEquals(2, selection.gathered.size());
+        assertEquals(Coin.valueOf(370000), selector.select(NetworkParameters.MAX_MONEY, candidates).valueGathered);
+    }
+
+    @Test
+    public void batchSelectionsAreDisjoint() {
+        List<TransactionOutput> candidates = outputs(500000, 300000, 200000, 100000, 70000, 30000);
+        List<Coin> targets = ImmutableList.of(Coin.valueOf(100000), Coin.valueOf(500000), Coin.valueOf(300000));
+        List<CoinSelection> selections = selector.selectBatch(targets, candidates);
+        assertEquals(3, selections.size());
+        HashSet<TransactionOutput> used = new HashSet<>();
+        for (int i = 0; i < targets.size(); i++) {
+            CoinSelection selection = selections.get(i);
+            assertEquals(targets.get(i), selection.valueGathered);
+            for (TransactionOutput output : selection.gathered)
+                assertTrue(used.add(output));
+        }
+
+        // What's left isn't enough for another large payment.
+        selections = selector.selectBatch(ImmutableList.of(Coin.valueOf(900000), Coin.valueOf(400000)), candidates);
+        assertEquals(Coin.valueOf(900000), selections.get(0).valueGathered);
+        assertTrue(selections.get(1).valueGathered.isLessThan(Coin.valueOf(400000)));
+    }
+
+    @Test
+    public void completeTx() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, CENT.multiply(30));
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, CENT.multiply(20));
+        SendRequest req = SendRequest.to(UNITTEST, Address.fromKey(UNITTEST, new ECKey()), CENT.multiply(50).subtract(Coin.valueOf(1000)));
+        req.coinSelector = selector;
+        req.feePerKb = Coin.ZERO;
+        req.ensureMinRequiredFee = true;
+        wallet.completeTx(req);
+        // The two smaller receives pay exactly for the payment and the minimum fee, so there is no change.
+        assertEquals(2, req.tx.getInputs().size());
+        assertEquals(1, req.tx.getOutputs().size());
+        assertEquals(Coin.valueOf(1000), req.tx.getFee());
+    }
+}
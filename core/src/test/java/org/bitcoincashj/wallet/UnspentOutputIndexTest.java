@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.wallet;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.params.UnitTestParams;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.bitcoincashj.core.Coin.*;
+import static org.junit.Assert.*;
+
+public class UnspentOutputIndexTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private UnspentOutputIndex index;
+    private Transaction tx;
+    private TransactionOutput small, large, dust, p2sh;
+    private int changes;
+
+    @Before
+    public void setUp() {
+        index = new UnspentOutputIndex() {
+            @Override
+            protected void changed() {
+                changes++;
+            }
+        };
+        Address address = Address.fromKey(UNITTEST, new ECKey());
+        tx = new Transaction(UNITTEST);
+        small = tx.addOutput(CENT, address);
+        large = tx.addOutput(COIN, address);
+        dust = tx.addOutput(valueOf(UnspentOutputIndex.DUST_VALUE), address);
+        Script multiSig = ScriptBuilder.createMultiSigOutputScript(1, ImmutableList.of(new ECKey()));
+        p2sh = tx.addOutput(COIN.add(CENT), ScriptBuilder.createP2SHOutputScript(multiSig));
+    }
+
+    @Test
+    public void partitionsAreOrderedByValue() {
+        for (TransactionOutput output : tx.getOutputs())
+            assertTrue(index.add(output));
+        assertFalse(index.add(large));
+        assertEquals(4, index.size());
+        assertEquals(ImmutableList.of(p2sh, large, small), ImmutableList.copyOf(index.getNonDust()));
+        assertEquals(ImmutableList.of(dust), ImmutableList.copyOf(index.getDust()));
+        assertEquals(1, index.getDustCount());
+        assertEquals(ImmutableList.of(large, small, dust),
+                ImmutableList.copyOf(index.getByScriptType(Script.ScriptType.P2PKH)));
+        assertEquals(ImmutableList.of(p2sh), ImmutableList.copyOf(index.getByScriptType(Script.ScriptType.P2SH)));
+        assertFalse(index.getByScriptType(Script.ScriptType.P2PK).iterator().hasNext());
+        assertEquals(4, changes);
+    }
+
+    @Test
+    public void removeFromAllPartitions() {
+        for (TransactionOutput output : tx.getOutputs())
+            index.add(output);
+        assertTrue(index.remove(large));
+        assertFalse(index.remove(large));
+        assertFalse(index.contains(large));
+        assertEquals(ImmutableList.of(p2sh, small), ImmutableList.copyOf(index.getNonDust()));
+        assertEquals(ImmutableList.of(small, dust),
+                ImmutableList.copyOf(index.getByScriptType(Script.ScriptType.P2PKH)));
+
+        Iterator<TransactionOutput> it = index.iterator();
+        while (it.hasNext()) {
+            if (it.next() == dust)
+                it.remove();
+        }
+        assertFalse(index.getDust().iterator().hasNext());
+        assertEquals(2, index.size());
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertFalse(index.getNonDust().iterator().hasNext());
+        assertFalse(index.getByScriptType(Script.ScriptType.P2SH).iterator().hasNext());
+        assertEquals(4 + 1 + 1 + 1, changes);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoincashj.wallet;
+
+import org.bitcoincashj.core.*;
+import org.bitcoincashj.script.Script;
+import org.bitcoincashj.testing.TestWithWallet;
+import org.bitcoincashj.wallet.selector.DefaultCoinSelector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.bitcoincashj.core.Coin.*;
+import static org.junit.Assert.*;
+
+public class WalletConcurrencyTest extends TestWithWallet {
+    private static final int BLOCKS = 200;
+    private static final int READERS = 4;
+
+    private ExecutorService executor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @Test
+    public void readersRunAlongsideBlockProcessing() throws Exception {
+        final Context context = Context.get();
+        final byte[] pubKeyHash = myAddress.getHash160();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Context.propagate(context);
+                    try {
+                        Coin last = ZERO;
+                        while (!done.get()) {
+                            // The wallet only receives, so what readers see can only grow.
+                            Coin balance = wallet.getBalance(Wallet.BalanceType.ESTIMATED);
+                            assertTrue(balance.compareTo(last) >= 0);
+                            last = balance;
+                            int transactions = wallet.getTransactions(true).size();
+                            assertTrue(wallet.calculateAllSpendCandidates(false, true).size() >= transactions);
+                            assertTrue(wallet.getRecentTransactions(10, false).size() <= 10);
+                            assertTrue(wallet.isPubKeyHashMine(pubKeyHash, Script.ScriptType.P2PKH));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < BLOCKS; i++)
+            sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, CENT);
+        done.set(true);
+        for (Future<?> reader : readers)
+            reader.get(10, TimeUnit.SECONDS);
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertEquals(CENT.multiply(BLOCKS), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        assertEquals(BLOCKS, wallet.getTransactions(true).size());
+        assertTrue(wallet.isConsistent());
+    }
+
+    @Test
+    public void readersDontWaitForEachOther() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        final Context context = Context.get();
+        final byte[] pubKeyHash = myAddress.getHash160();
+        wallet.readLock.lock();
+        wallet.keyChainGroupReadLock.lock();
+        try {
+            Future<Integer> reads = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Context.propagate(context);
+                    assertTrue(wallet.isPubKeyHashMine(pubKeyHash, Script.ScriptType.P2PKH));
+                    assertEquals(COIN, wallet.getBalance(DefaultCoinSelector.get()));
+                    return wallet.getTransactions(true).size();
+                }
+            });
+            assertEquals(1, (int) reads.get(10, TimeUnit.SECONDS));
+
+            // Writers still have to wait.
+            Future<Boolean> write = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return wallet.lock.tryLock() || wallet.keyChainGroupLock.tryLock();
+                }
+            });
+            assertFalse(write.get(10, TimeUnit.SECONDS));
+        } finally {
+            wallet.keyChainGroupReadLock.unlock();
+            wallet.readLock.unlock();
+        }
+    }
+}
@@ -562,6 +562,43 @@ public class WalletTest extends TestWithWallet {
         assertEquals(v4, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
     }
 
+    @Test
+    public void cachedBalancesFollowWalletChanges() throws Exception {
+        // Read every balance type after each change, so that a stale cached value would show up.
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+
+        // A pending receive from somebody else is estimated but not available.
+        Transaction pending = sendMoneyToWallet(null, CENT, myAddress);
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+        assertEquals(COIN.add(CENT), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+
+        // Changing the coin selector changes what is available without changing the wallet.
+        wallet.allowSpendingUnconfirmedTransactions();
+        assertEquals(COIN.add(CENT), wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+        wallet.coinSelector = DefaultCoinSelector.get();
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+
+        // Confirming it only changes its confidence.
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, pending);
+        assertEquals(COIN.add(CENT), wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+
+        // Frozen outputs are not counted.
+        wallet.setFrozen(pending.getOutput(0), true);
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.ESTIMATED_SPENDABLE));
+        wallet.setFrozen(pending.getOutput(0), false);
+        assertEquals(COIN.add(CENT), wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+
+        // Spending.
+        Transaction spend = wallet.createSend(OTHER_ADDRESS, COIN);
+        wallet.commitTx(spend);
+        assertEquals(CENT.subtract(spend.getFee()), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, spend);
+        assertEquals(CENT.subtract(spend.getFee()), wallet.getBalance(Wallet.BalanceType.AVAILABLE));
+    }
+
     @Test
     public void balanceWithIdenticalOutputs() {
         assertEquals(Coin.ZERO, wallet.getBalance(BalanceType.ESTIMATED));
@@ -24,6 +24,7 @@ import org.bitcoincashj.store.*;
 import org.bitcoincashj.utils.BlockFileLoader;
 
 import java.io.File;
+import java.util.Iterator;
 
 /**
  * Very thin wrapper around {@link BlockFileLoader}
@@ -62,14 +63,28 @@ public class BlockImporter {
         }
 
         AbstractBlockChain chain = null;
-        if (store instanceof FullPrunedBlockStore)
-            chain = new FullPrunedBlockChain(params, (FullPrunedBlockStore) store);
-        else
+        FullPrunedBlockChain fullChain = null;
+        if (store instanceof FullPrunedBlockStore) {
+            fullChain = new FullPrunedBlockChain(params, (FullPrunedBlockStore) store);
+            // H2 locks the table of outputs during large batch writes, which would block the lookups on other threads.
+            if (store instanceof MemoryFullPrunedBlockStore)
+                fullChain.setPrefetchThreads(Runtime.getRuntime().availableProcessors());
+            chain = fullChain;
+        } else {
             chain = new BlockChain(params, store);
+        }
 
         BlockFileLoader loader = new BlockFileLoader(params, BlockFileLoader.getReferenceClientBlockFileList());
 
-        for (Block block : loader)
+        // Look up the outputs spent by the next block while the current one is verified.
+        Iterator<Block> blocks = loader.iterator();
+        Block next = blocks.hasNext() ? blocks.next() : null;
+        while (next != null) {
+            Block block = next;
+            next = blocks.hasNext() ? blocks.next() : null;
+            if (fullChain != null && next != null)
+                fullChain.prefetchOutputs(next);
             chain.add(block);
+        }
     }
 }